@@ -63,6 +63,7 @@ import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem
 import org.springframework.roo.classpath.scanner.MemberDetails;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.ThreadSafeMetadataProvider;
 import org.springframework.roo.metadata.internal.MetadataDependencyRegistryTracker;
 import org.springframework.roo.model.CustomDataAccessor;
 import org.springframework.roo.model.EnumDetails;
@@ -94,7 +95,7 @@ import java.util.logging.Logger;
 @Component
 @Service
 public class JpaEntityMetadataProviderImpl extends AbstractIdentifierServiceAwareMetadataProvider
-    implements JpaEntityMetadataProvider {
+    implements JpaEntityMetadataProvider, ThreadSafeMetadataProvider {
 
   protected final static Logger LOGGER = HandlerUtils
       .getLogger(JpaEntityMetadataProviderImpl.class);
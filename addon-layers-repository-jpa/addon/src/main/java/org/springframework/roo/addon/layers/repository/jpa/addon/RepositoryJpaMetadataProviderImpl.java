@@ -8,10 +8,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.StringUtils;
@@ -47,6 +47,7 @@ import org.springframework.roo.classpath.layers.LayerTypeMatcher;
 import org.springframework.roo.classpath.scanner.MemberDetails;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.ThreadSafeMetadataProvider;
 import org.springframework.roo.metadata.internal.MetadataDependencyRegistryTracker;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
@@ -65,21 +66,22 @@ import org.springframework.roo.support.logging.HandlerUtils;
 @Component
 @Service
 public class RepositoryJpaMetadataProviderImpl extends AbstractMemberDiscoveringItdMetadataProvider
-    implements RepositoryJpaMetadataProvider, FinderAutocomplete {
+    implements RepositoryJpaMetadataProvider, FinderAutocomplete, ThreadSafeMetadataProvider {
 
   protected final static Logger LOGGER = HandlerUtils
       .getLogger(RepositoryJpaMetadataProviderImpl.class);
 
   private final Map<JavaType, String> domainTypeToRepositoryMidMap =
-      new LinkedHashMap<JavaType, String>();
+      new ConcurrentHashMap<JavaType, String>();
   private final Map<String, JavaType> repositoryMidToDomainTypeMap =
-      new LinkedHashMap<String, JavaType>();
+      new ConcurrentHashMap<String, JavaType>();
 
   protected MetadataDependencyRegistryTracker registryTracker = null;
   protected CustomDataKeyDecoratorTracker keyDecoratorTracker = null;
 
   //Map where entity details will be cached
-  private Map<JavaType, MemberDetails> entitiesDetails = new HashMap<JavaType, MemberDetails>();
+  private Map<JavaType, MemberDetails> entitiesDetails =
+      new ConcurrentHashMap<JavaType, MemberDetails>();
 
 
   /**
@@ -519,8 +521,9 @@ public class RepositoryJpaMetadataProviderImpl extends AbstractMemberDiscovering
 
     Validate.notNull(entity, "ERROR: Entity should be provided");
 
-    if (entitiesDetails.containsKey(entity)) {
-      return entitiesDetails.get(entity);
+    final MemberDetails cached = entitiesDetails.get(entity);
+    if (cached != null) {
+      return cached;
     }
 
     // We know the file exists, as there's already entity metadata for it
@@ -534,8 +537,9 @@ public class RepositoryJpaMetadataProviderImpl extends AbstractMemberDiscovering
       return null;
     }
 
-    entitiesDetails.put(entity,
-        getMemberDetailsScanner().getMemberDetails(getClass().getName(), cid));
-    return entitiesDetails.get(entity);
+    final MemberDetails memberDetails =
+        getMemberDetailsScanner().getMemberDetails(getClass().getName(), cid);
+    entitiesDetails.put(entity, memberDetails);
+    return memberDetails;
   }
 }
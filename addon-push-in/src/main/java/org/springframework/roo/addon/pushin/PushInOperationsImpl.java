@@ -96,6 +96,21 @@ public class PushInOperationsImpl implements PushInOperations {
               getProjectOperations().getPomFromModuleName(moduleName));
 
       if (!force) {
+
+        // Get the member details of all types at once, so their ITD metadata
+        // is requested in a single batch
+        List<ClassOrInterfaceTypeDetails> allDeclaredTypeDetails =
+            new ArrayList<ClassOrInterfaceTypeDetails>();
+        for (JavaType declaredType : allDeclaredTypes) {
+          ClassOrInterfaceTypeDetails declaredTypeDetails =
+              getTypeLocationService().getTypeDetails(declaredType);
+          if (declaredTypeDetails != null) {
+            allDeclaredTypeDetails.add(declaredTypeDetails);
+          }
+        }
+        getMemberDetailsScanner().getAllMemberDetails(getClass().getName(),
+            allDeclaredTypeDetails);
+
         for (JavaType declaredType : allDeclaredTypes) {
 
           // Push-in all content from .aj files to .java files
@@ -16,10 +16,10 @@ import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.RooJavaType;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The {@link ControllerLocator} implementation.
@@ -42,7 +42,7 @@ public class ControllerLocatorImpl implements ControllerLocator {
    * Cache for {@link ControllerAnnotationValues} by controller javaType
    */
   private Map<JavaType, ControllerAnnotationValues> valuesCache =
-      new HashMap<JavaType, ControllerAnnotationValues>(30);
+      new ConcurrentHashMap<JavaType, ControllerAnnotationValues>(30);
 
   protected void activate(final ComponentContext cContext) {
     util = new MetadataLocatorUtils<ControllerType>(new Evaluator());
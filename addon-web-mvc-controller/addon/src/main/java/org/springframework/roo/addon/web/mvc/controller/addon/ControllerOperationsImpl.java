@@ -324,6 +324,16 @@ public class ControllerOperationsImpl implements ControllerOperations {
     Set<ClassOrInterfaceTypeDetails> entities =
         getTypeLocationService().findClassesOrInterfaceDetailsWithAnnotation(
             RooJavaType.ROO_JPA_ENTITY);
+
+    // Get the metadata of all entities at once, rather than one by one
+    List<String> entityMetadataIds = new ArrayList<String>();
+    for (ClassOrInterfaceTypeDetails entity : entities) {
+      if (!entity.isAbstract()) {
+        entityMetadataIds.add(JpaEntityMetadata.createIdentifier(entity));
+      }
+    }
+    getMetadataService().getAll(entityMetadataIds);
+
     for (ClassOrInterfaceTypeDetails entity : entities) {
       if (!entity.isAbstract()) {
         createOrUpdateControllerForEntity(entity.getType(), responseType, controllerPackage,
@@ -824,6 +834,16 @@ public class ControllerOperationsImpl implements ControllerOperations {
     Set<ClassOrInterfaceTypeDetails> entities =
         getTypeLocationService().findClassesOrInterfaceDetailsWithAnnotation(
             RooJavaType.ROO_JPA_ENTITY);
+
+    // Get the metadata of all entities at once, rather than one by one
+    List<String> entityMetadataIds = new ArrayList<String>();
+    for (ClassOrInterfaceTypeDetails entity : entities) {
+      if (!entity.isAbstract()) {
+        entityMetadataIds.add(JpaEntityMetadata.createIdentifier(entity));
+      }
+    }
+    getMetadataService().getAll(entityMetadataIds);
+
     for (ClassOrInterfaceTypeDetails entity : entities) {
       if (!entity.isAbstract()) {
         createOrUpdateDetailControllerForEntity(entity.getType(), "", responseType,
@@ -29,6 +29,7 @@ import org.springframework.roo.classpath.details.ItdTypeDetails;
 import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
 import org.springframework.roo.classpath.details.MethodMetadata;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.ThreadSafeMetadataProvider;
 import org.springframework.roo.metadata.internal.MetadataDependencyRegistryTracker;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.JpaJavaType;
@@ -41,10 +42,10 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -56,18 +57,20 @@ import java.util.logging.Logger;
 @Component
 @Service
 public class ThymeleafMetadataProviderImpl extends
-    AbstractViewGeneratorMetadataProvider<ThymeleafMetadata> implements ThymeleafMetadataProvider {
+    AbstractViewGeneratorMetadataProvider<ThymeleafMetadata> implements ThymeleafMetadataProvider,
+    ThreadSafeMetadataProvider {
 
   protected final static Logger LOGGER = HandlerUtils
       .getLogger(ThymeleafMetadataProviderImpl.class);
 
   private final Map<JavaType, String> domainTypeToServiceMidMap =
-      new LinkedHashMap<JavaType, String>();
+      new ConcurrentHashMap<JavaType, String>();
 
   protected MetadataDependencyRegistryTracker registryTracker = null;
   protected CustomDataKeyDecoratorTracker keyDecoratorTracker = null;
 
-  private Map<String, JavaType> jasperReportsExporterMap;
+  // Only published once complete, as providers may run on several threads
+  private volatile Map<String, JavaType> jasperReportsExporterMap;
 
   /**
    * This service is being activated so setup it:
@@ -297,8 +300,7 @@ public class ThymeleafMetadataProviderImpl extends
           }
         }
       }
-      this.jasperReportsExporterMap = new HashMap<String, JavaType>();
-      this.jasperReportsExporterMap.putAll(jasperReportsExporterMap);
+      this.jasperReportsExporterMap = jasperReportsExporterMap;
     }
 
     return this.jasperReportsExporterMap;
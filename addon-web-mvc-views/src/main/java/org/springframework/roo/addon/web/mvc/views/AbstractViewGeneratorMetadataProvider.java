@@ -40,6 +40,7 @@ import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem
 import org.springframework.roo.classpath.operations.Cardinality;
 import org.springframework.roo.classpath.scanner.MemberDetails;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataWorkerLock;
 import org.springframework.roo.model.JavaPackage;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.JdkJavaType;
@@ -414,157 +415,167 @@ public abstract class AbstractViewGeneratorMetadataProvider<T extends AbstractVi
             formBeansDateTimeFields, formBeansEnumFields, detailItemController,
             detailCollectionController);
 
-    // Fill view context
-    ViewContext ctx =
-        viewGenerationService.createViewContext(controllerMetadata, entity, entityMetadata,
-            viewMetadata);
+    // Views, menu and labels are shared files, so they are written by one
+    // thread at a time even when controllers are computed in parallel
+    MetadataWorkerLock.lock();
+    try {
+      // Fill view context
+      ViewContext ctx =
+          viewGenerationService.createViewContext(controllerMetadata, entity, entityMetadata,
+              viewMetadata);
+
+      // Checking if Spring Security has been installed
+      if (getProjectOperations().isFeatureInstalled(FeatureNames.SECURITY)) {
+        ctx.setSecurityEnabled(true);
+      }
 
-    // Checking if Spring Security has been installed
-    if (getProjectOperations().isFeatureInstalled(FeatureNames.SECURITY)) {
-      ctx.setSecurityEnabled(true);
-    }
+      final String module = controllerDetail.getType().getModule();
+
+      switch (controllerMetadata.getType()) {
+        case COLLECTION:
+
+          // Obtain the details controllers to use only them that includes "list" value in the
+          // views parameter of @RooDetail annotation. If @RooDetail doesn't include views 
+          // parameter, include it.
+          List<T> detailsControllersForListView =
+              getDetailsControllers(controllerMetadata, controllerPackage, entity, viewType,
+                  "list");
+
+          // Add list view
+          viewGenerationService.addListView(module, entityMetadata, entityMemberDetails,
+              detailsControllersForListView, ctx);
+          if (!entityMetadata.isReadOnly()) {
+            // If not readOnly, add create view
+            viewGenerationService.addCreateView(module, entityMetadata, entityMemberDetails, ctx);
+            // If not readOnly, add the modal dialogs for delete and delete batch
+            viewGenerationService.addListDeleteModalView(module, entityMetadata,
+                entityMemberDetails, ctx);
+            viewGenerationService.addListDeleteModalBatchView(module, entityMetadata,
+                entityMemberDetails, ctx);
+          }
 
-    final String module = controllerDetail.getType().getModule();
-
-    switch (controllerMetadata.getType()) {
-      case COLLECTION:
-
-        // Obtain the details controllers to use only them that includes "list" value in the
-        // views parameter of @RooDetail annotation. If @RooDetail doesn't include views 
-        // parameter, include it.
-        List<T> detailsControllersForListView =
-            getDetailsControllers(controllerMetadata, controllerPackage, entity, viewType, "list");
-
-        // Add list view
-        viewGenerationService.addListView(module, entityMetadata, entityMemberDetails,
-            detailsControllersForListView, ctx);
-        if (!entityMetadata.isReadOnly()) {
-          // If not readOnly, add create view
-          viewGenerationService.addCreateView(module, entityMetadata, entityMemberDetails, ctx);
-          // If not readOnly, add the modal dialogs for delete and delete batch
-          viewGenerationService.addListDeleteModalView(module, entityMetadata, entityMemberDetails,
-              ctx);
-          viewGenerationService.addListDeleteModalBatchView(module, entityMetadata,
-              entityMemberDetails, ctx);
-        }
+          break;
+        case ITEM:
 
-        break;
-      case ITEM:
+          // Obtain the details controllers to use only them that includes "show" value in the
+          // views parameter of @RooDetail annotation.
+          List<T> detailsControllersForShowView =
+              getDetailsControllers(controllerMetadata, controllerPackage, entity, viewType,
+                  "show");
 
-        // Obtain the details controllers to use only them that includes "show" value in the
-        // views parameter of @RooDetail annotation.
-        List<T> detailsControllersForShowView =
-            getDetailsControllers(controllerMetadata, controllerPackage, entity, viewType, "show");
+          // Add show view
+          viewGenerationService.addShowView(module, entityMetadata, entityMemberDetails,
+              detailsControllersForShowView, ctx);
 
-        // Add show view
-        viewGenerationService.addShowView(module, entityMetadata, entityMemberDetails,
-            detailsControllersForShowView, ctx);
+          // Add showInline view
+          viewGenerationService.addShowInlineView(module, entityMetadata, entityMemberDetails, ctx);
 
-        // Add showInline view
-        viewGenerationService.addShowInlineView(module, entityMetadata, entityMemberDetails, ctx);
+          if (!entityMetadata.isReadOnly()) {
+            // If not readOnly, add update view
+            viewGenerationService.addUpdateView(module, entityMetadata, entityMemberDetails, ctx);
+          }
+          break;
+        case DETAIL:
+          viewGenerationService.addDetailsViews(module, entityMetadata, entityMemberDetails,
+              controllerMetadata, viewMetadata, ctx);
+
+          // Add this metadata as upstream dependency for parent controllers
+          // for updating views of parent controllers
+          JavaType parentEntity = entityMetadata.getAnnotatedEntity();
+          List<ClassOrInterfaceTypeDetails> parentControllers =
+              new ArrayList<ClassOrInterfaceTypeDetails>();
+          parentControllers.addAll(getControllerLocator().getControllers(parentEntity,
+              ControllerType.COLLECTION, viewType));
+          parentControllers.addAll(getControllerLocator().getControllers(parentEntity,
+              ControllerType.ITEM, viewType));
+          parentControllers.addAll(getControllerLocator().getControllers(parentEntity,
+              ControllerType.SEARCH, viewType));
+          for (ClassOrInterfaceTypeDetails parentController : parentControllers) {
+            String viewMetadatIdentifier = createLocalIdentifier(parentController);
+            registerDependency(metadataIdentificationString, viewMetadatIdentifier);
+          }
 
-        if (!entityMetadata.isReadOnly()) {
-          // If not readOnly, add update view
-          viewGenerationService.addUpdateView(module, entityMetadata, entityMemberDetails, ctx);
-        }
-        break;
-      case DETAIL:
-        viewGenerationService.addDetailsViews(module, entityMetadata, entityMemberDetails,
-            controllerMetadata, viewMetadata, ctx);
-
-        // Add this metadata as upstream dependency for parent controllers
-        // for updating views of parent controllers
-        JavaType parentEntity = entityMetadata.getAnnotatedEntity();
-        List<ClassOrInterfaceTypeDetails> parentControllers =
-            new ArrayList<ClassOrInterfaceTypeDetails>();
-        parentControllers.addAll(getControllerLocator().getControllers(parentEntity,
-            ControllerType.COLLECTION, viewType));
-        parentControllers.addAll(getControllerLocator().getControllers(parentEntity,
-            ControllerType.ITEM, viewType));
-        parentControllers.addAll(getControllerLocator().getControllers(parentEntity,
-            ControllerType.SEARCH, viewType));
-        for (ClassOrInterfaceTypeDetails parentController : parentControllers) {
-          String viewMetadatIdentifier = createLocalIdentifier(parentController);
-          registerDependency(metadataIdentificationString, viewMetadatIdentifier);
-        }
+          break;
 
-        break;
-
-      case DETAIL_ITEM:
-        viewGenerationService.addDetailsItemViews(module, entityMetadata, entityMemberDetails,
-            controllerMetadata, viewMetadata, ctx);
-
-        RelationInfoExtended last = controllerMetadata.getLastDetailsInfo();
-        ClassOrInterfaceTypeDetails childCid =
-            getTypeLocationService().getTypeDetails(last.childType);
-
-        MemberDetails detailMemberDetails = getMemberDetails(childCid);
-
-        // Update i18n labels of detail entity
-        Map<String, String> labels =
-            viewGenerationService.getI18nLabels(detailMemberDetails, last.childType,
-                last.childEntityMetadata, controllerMetadata, module, ctx);
-        getI18nOperations().addOrUpdateLabels(module, labels);
-        break;
-
-      case SEARCH:
-        // Check if this search controller have finders included
-        // in @RooSearch annotation
-        if (searchAnnotationValues != null && searchAnnotationValues.getFinders() != null) {
-          List<String> finders =
-              new ArrayList<String>(Arrays.asList(searchAnnotationValues.getFinders()));
-          // Generating views for all finders
-          for (String finderName : finders) {
-
-            // Getting the formBean for this finder
-            JavaType formBean = finderFormBeans.get(finderName);
-            viewGenerationService.addFinderFormView(module, entityMetadata, viewMetadata, formBean,
-                finderName, ctx);
-
-            // Getting the returnType for this finder
-            JavaType returnType = finderReturnTypes.get(finderName);
-            if (!returnType.getParameters().isEmpty()) {
-              returnType = returnType.getParameters().get(0);
-            }
+        case DETAIL_ITEM:
+          viewGenerationService.addDetailsItemViews(module, entityMetadata, entityMemberDetails,
+              controllerMetadata, viewMetadata, ctx);
+
+          RelationInfoExtended last = controllerMetadata.getLastDetailsInfo();
+          ClassOrInterfaceTypeDetails childCid =
+              getTypeLocationService().getTypeDetails(last.childType);
 
-            // Obtain the details controllers to use only them that includes this finder value in the
-            // views parameter of @RooDetail annotation.
-            List<T> detailsControllersForFinderListView =
-                getDetailsControllers(controllerMetadata, controllerPackage, entity, viewType,
-                    finderName);
+          MemberDetails detailMemberDetails = getMemberDetails(childCid);
 
-            viewGenerationService.addFinderListView(module, entityMetadata, entityMemberDetails,
-                viewMetadata, formBean, returnType, finderName,
-                detailsControllersForFinderListView, ctx);
+          // Update i18n labels of detail entity
+          Map<String, String> labels =
+              viewGenerationService.getI18nLabels(detailMemberDetails, last.childType,
+                  last.childEntityMetadata, controllerMetadata, module, ctx);
+          getI18nOperations().addOrUpdateLabels(module, labels);
+          break;
+
+        case SEARCH:
+          // Check if this search controller have finders included
+          // in @RooSearch annotation
+          if (searchAnnotationValues != null && searchAnnotationValues.getFinders() != null) {
+            List<String> finders =
+                new ArrayList<String>(Arrays.asList(searchAnnotationValues.getFinders()));
+            // Generating views for all finders
+            for (String finderName : finders) {
+
+              // Getting the formBean for this finder
+              JavaType formBean = finderFormBeans.get(finderName);
+              viewGenerationService.addFinderFormView(module, entityMetadata, viewMetadata,
+                  formBean, finderName, ctx);
+
+              // Getting the returnType for this finder
+              JavaType returnType = finderReturnTypes.get(finderName);
+              if (!returnType.getParameters().isEmpty()) {
+                returnType = returnType.getParameters().get(0);
+              }
+
+              // Obtain the details controllers to use only them that includes this finder value
+              // in the views parameter of @RooDetail annotation.
+              List<T> detailsControllersForFinderListView =
+                  getDetailsControllers(controllerMetadata, controllerPackage, entity, viewType,
+                      finderName);
+
+              viewGenerationService.addFinderListView(module, entityMetadata, entityMemberDetails,
+                  viewMetadata, formBean, returnType, finderName,
+                  detailsControllersForFinderListView, ctx);
+            }
           }
-        }
-        break;
-      default:
-        throw new IllegalArgumentException();
-    }
+          break;
+        default:
+          throw new IllegalArgumentException();
+      }
 
-    // Update menu view every time that new controller has been modified
-    // TODO: Maybe, instead of modify all menu view, only new generated
-    // controller should
-    // be included on it. Must be fixed on future versions.
-    viewGenerationService.updateMenuView(module, ctx);
-
-    // Update i18n labels
-    Map<String, String> labels =
-        viewGenerationService.getI18nLabels(entityMemberDetails, entity, entityMetadata,
-            controllerMetadata, module, ctx);
-    getI18nOperations().addOrUpdateLabels(module, labels);
-
-    // Add labels for child composite entity as well
-    for (Pair<RelationInfo, JpaEntityMetadata> compositionRelation : compositionRelationOneToOne) {
-      MemberDetails childMemberDetails =
-          getMemberDetailsScanner().getMemberDetails(this.getClass().getName(),
-              getTypeLocationService().getTypeDetails(compositionRelation.getKey().childType));
-      Map<String, String> i18nLabels =
-          viewGenerationService.getI18nLabels(childMemberDetails,
-              compositionRelation.getKey().childType, compositionRelation.getValue(), null, module,
-              ctx);
-      getI18nOperations().addOrUpdateLabels(module, i18nLabels);
+      // Update menu view every time that new controller has been modified
+      // TODO: Maybe, instead of modify all menu view, only new generated
+      // controller should
+      // be included on it. Must be fixed on future versions.
+      viewGenerationService.updateMenuView(module, ctx);
+
+      // Update i18n labels
+      Map<String, String> labels =
+          viewGenerationService.getI18nLabels(entityMemberDetails, entity, entityMetadata,
+              controllerMetadata, module, ctx);
+      getI18nOperations().addOrUpdateLabels(module, labels);
+
+      // Add labels for child composite entity as well
+      for (Pair<RelationInfo, JpaEntityMetadata> compositionRelation :
+          compositionRelationOneToOne) {
+        MemberDetails childMemberDetails =
+            getMemberDetailsScanner().getMemberDetails(this.getClass().getName(),
+                getTypeLocationService().getTypeDetails(compositionRelation.getKey().childType));
+        Map<String, String> i18nLabels =
+            viewGenerationService.getI18nLabels(childMemberDetails,
+                compositionRelation.getKey().childType, compositionRelation.getValue(), null,
+                module, ctx);
+        getI18nOperations().addOrUpdateLabels(module, i18nLabels);
+      }
+    } finally {
+      MetadataWorkerLock.unlock();
     }
 
     // Register dependency between JavaBeanMetadata and this one
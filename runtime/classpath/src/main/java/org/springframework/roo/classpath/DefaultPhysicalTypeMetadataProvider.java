@@ -2,6 +2,11 @@ package org.springframework.roo.classpath;
 
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Logger;
@@ -20,8 +25,8 @@ import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
 import org.springframework.roo.classpath.scanner.MemberDetails;
 import org.springframework.roo.classpath.scanner.MemberDetailsBuilder;
 import org.springframework.roo.classpath.scanner.MemberDetailsDecorator;
+import org.springframework.roo.file.monitor.event.BatchFileEventListener;
 import org.springframework.roo.file.monitor.event.FileEvent;
-import org.springframework.roo.file.monitor.event.FileEventListener;
 import org.springframework.roo.file.monitor.event.FileOperation;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataItem;
@@ -53,7 +58,7 @@ import org.springframework.roo.support.logging.HandlerUtils;
     referenceInterface = MemberDetailsDecorator.class,
     cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE)})
 public class DefaultPhysicalTypeMetadataProvider implements PhysicalTypeMetadataProvider,
-    FileEventListener {
+    BatchFileEventListener {
 
   protected final static Logger LOGGER = HandlerUtils
       .getLogger(DefaultPhysicalTypeMetadataProvider.class);
@@ -75,6 +80,7 @@ public class DefaultPhysicalTypeMetadataProvider implements PhysicalTypeMetadata
   private FileManager fileManager;
   private MetadataDependencyRegistry metadataDependencyRegistry;
   private MetadataService metadataService;
+  private MetadataSnapshotService metadataSnapshotService;
   private ProjectOperations projectOperations;
   private TypeLocationService typeLocationService;
   private TypeParsingService typeParsingService;
@@ -196,6 +202,48 @@ public class DefaultPhysicalTypeMetadataProvider implements PhysicalTypeMetadata
     return PhysicalTypeIdentifier.getMetadataIdentiferType();
   }
 
+  /**
+   * Returns the ID of the physical type whose metadata the given event makes
+   * stale
+   *
+   * @param fileEvent the event (required)
+   * @return <code>null</code> if it's not about a project type, or the type
+   *         is unchanged since the last session
+   */
+  private String getChangedPhysicalTypeId(final FileEvent fileEvent) {
+
+    if (metadataSnapshotService == null) {
+      metadataSnapshotService = getMetadataSnapshotService();
+    }
+
+    if (typeLocationService == null) {
+      typeLocationService = getTypeLocationService();
+    }
+
+    Validate.notNull(typeLocationService, "TypeLocationService is required");
+
+    final String fileIdentifier = fileEvent.getFileDetails().getCanonicalPath();
+
+    // Check to see if file is of interest
+    if (!fileIdentifier.endsWith(".java")
+        || fileEvent.getOperation() == FileOperation.MONITORING_FINISH
+        || fileIdentifier.endsWith("package-info.java")) {
+      return null;
+    }
+    // Figure out the PhysicalTypeIdentifier
+    final String id = typeLocationService.getPhysicalTypeIdentifier(fileIdentifier);
+    if (id == null) {
+      return null;
+    }
+    // The snapshot service is optional; without it, every event counts
+    if (metadataSnapshotService != null && metadataSnapshotService.isUpToDate(fileEvent)) {
+      // Unchanged since the last session; its metadata is computed on
+      // demand and its dependencies were restored from the snapshot
+      return null;
+    }
+    return id;
+  }
+
   public void onFileEvent(final FileEvent fileEvent) {
 
     if (metadataDependencyRegistry == null) {
@@ -210,27 +258,76 @@ public class DefaultPhysicalTypeMetadataProvider implements PhysicalTypeMetadata
 
     Validate.notNull(metadataService, "MetadataService is required");
 
-    if (typeLocationService == null) {
-      typeLocationService = getTypeLocationService();
+    final String id = getChangedPhysicalTypeId(fileEvent);
+    if (id == null) {
+      return;
+    }
+    // Now we've worked out the id, we can publish the event in case
+    // others were interested
+    metadataService.evictAndGet(id);
+    metadataDependencyRegistry.notifyDownstream(id);
+    if (fileEvent.getOperation() == FileOperation.DELETED) {
+      // Forget the type's dependencies once the ITDs depending on it have
+      // been told, so that renames and deletions don't pile up in the
+      // registry
+      metadataDependencyRegistry.purgeDependencies(id);
     }
+  }
 
-    Validate.notNull(typeLocationService, "TypeLocationService is required");
+  public void onFileEvents(final Map<FileOperation, List<FileEvent>> fileEvents) {
 
-    final String fileIdentifier = fileEvent.getFileDetails().getCanonicalPath();
+    if (metadataDependencyRegistry == null) {
+      metadataDependencyRegistry = getMetadataDependencyRegistry();
+    }
 
-    // Check to see if file is of interest
-    if (fileIdentifier.endsWith(".java")
-        && fileEvent.getOperation() != FileOperation.MONITORING_FINISH
-        && !fileIdentifier.endsWith("package-info.java")) {
-      // Figure out the PhysicalTypeIdentifier
-      final String id = typeLocationService.getPhysicalTypeIdentifier(fileIdentifier);
-      if (id == null) {
-        return;
+    Validate.notNull(metadataDependencyRegistry, "MetadataDependencyRegistry is required");
+
+    if (metadataService == null) {
+      metadataService = getMetadataService();
+    }
+
+    Validate.notNull(metadataService, "MetadataService is required");
+
+    final Set<String> changedIds = new LinkedHashSet<String>();
+    final Set<String> deletedIds = new HashSet<String>();
+    for (final List<FileEvent> operationEvents : fileEvents.values()) {
+      for (final FileEvent fileEvent : operationEvents) {
+        final String id = getChangedPhysicalTypeId(fileEvent);
+        if (id != null) {
+          changedIds.add(id);
+          if (fileEvent.getOperation() == FileOperation.DELETED) {
+            deletedIds.add(id);
+          }
+        }
       }
-      // Now we've worked out the id, we can publish the event in case
-      // others were interested
-      metadataService.evictAndGet(id);
-      metadataDependencyRegistry.notifyDownstream(id);
+    }
+    if (changedIds.isEmpty()) {
+      return;
+    }
+
+    // Evict every changed type before parsing any of them, so that none is
+    // parsed against the stale metadata of another, then parse them in one
+    // request
+    for (final String id : changedIds) {
+      metadataService.evict(id);
+    }
+    final Map<String, MetadataItem> parsed = metadataService.getAll(changedIds);
+    // Batched, so the metadata service regenerates the notified items in one
+    // materialization (unless a batch is running already)
+    metadataDependencyRegistry.startNotificationBatch();
+    try {
+      for (final String id : changedIds) {
+        metadataDependencyRegistry.notifyDownstream(id);
+      }
+      for (final String id : deletedIds) {
+        if (parsed.get(id) == null) {
+          // Still deleted (not re-created in the same batch), so forget its
+          // dependencies once the ITDs depending on it have been told
+          metadataDependencyRegistry.purgeDependencies(id);
+        }
+      }
+    } finally {
+      metadataDependencyRegistry.stopNotificationBatch();
     }
   }
 
@@ -299,6 +396,26 @@ public class DefaultPhysicalTypeMetadataProvider implements PhysicalTypeMetadata
     }
   }
 
+  public MetadataSnapshotService getMetadataSnapshotService() {
+    // Get all Services implement MetadataSnapshotService interface
+    try {
+      ServiceReference<?>[] references =
+          this.context.getAllServiceReferences(MetadataSnapshotService.class.getName(), null);
+
+      // Optional service, so its absence isn't worth a warning
+      if (references != null) {
+        for (ServiceReference<?> ref : references) {
+          return (MetadataSnapshotService) this.context.getService(ref);
+        }
+      }
+      return null;
+
+    } catch (InvalidSyntaxException e) {
+      LOGGER.warning("Cannot load MetadataSnapshotService on DefaultPhysicalTypeMetadataProvider.");
+      return null;
+    }
+  }
+
   public ProjectOperations getProjectOperations() {
     // Get all Services implement ProjectOperations interface
     try {
@@ -1,9 +1,7 @@
 package org.springframework.roo.classpath;
 
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.felix.scr.annotations.Component;
@@ -11,9 +9,13 @@ import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.classpath.details.ItdTypeDetails;
 import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
 import org.springframework.roo.model.JavaType;
+import org.springframework.roo.support.util.ChangeLog;
 
 /**
  * Implementation of {@link ItdDiscoveryService}.
+ * <p>
+ * Methods are synchronized as ITD type details may be registered by parallel
+ * metadata materialization workers.
  * 
  * @author James Tyrrell
  * @since 1.2.0
@@ -22,12 +24,13 @@ import org.springframework.roo.model.JavaType;
 @Service
 public class ItdDiscoveryServiceImpl implements ItdDiscoveryService {
 
-  private final Map<String, Set<String>> changeMap = new HashMap<String, Set<String>>();
+  /** the fully qualified names of the types whose ITDs changed */
+  private final ChangeLog<String> changeLog = new ChangeLog<String>();
   private final Map<String, String> itdIdToTypeMap = new HashMap<String, String>();
   private final Map<String, Map<String, MemberHoldingTypeDetails>> typeMap =
       new HashMap<String, Map<String, MemberHoldingTypeDetails>>();
 
-  public void addItdTypeDetails(final ItdTypeDetails itdTypeDetails) {
+  public synchronized void addItdTypeDetails(final ItdTypeDetails itdTypeDetails) {
     if (itdTypeDetails == null || itdTypeDetails.getGovernor() == null) {
       return;
     }
@@ -42,22 +45,12 @@ public class ItdDiscoveryServiceImpl implements ItdDiscoveryService {
     updateChanges(itdTypeDetails.getGovernor().getName(), false);
   }
 
-  public boolean haveItdsChanged(final String requestingClass, final JavaType javaType) {
-    Set<String> changesSinceLastRequest = changeMap.get(requestingClass);
-    if (changesSinceLastRequest == null) {
-      changesSinceLastRequest = new LinkedHashSet<String>(typeMap.keySet());
-      changeMap.put(requestingClass, changesSinceLastRequest);
-    }
-    for (final String changedId : changesSinceLastRequest) {
-      if (changedId.equals(javaType.getFullyQualifiedTypeName())) {
-        changesSinceLastRequest.remove(changedId);
-        return true;
-      }
-    }
-    return false;
+  public synchronized boolean haveItdsChanged(final String requestingClass, final JavaType javaType) {
+    changeLog.register(requestingClass, typeMap.keySet());
+    return changeLog.takeChange(requestingClass, javaType.getFullyQualifiedTypeName());
   }
 
-  public void removeItdTypeDetails(final String itdTypeDetailsId) {
+  public synchronized void removeItdTypeDetails(final String itdTypeDetailsId) {
     if (StringUtils.isBlank(itdTypeDetailsId)) {
       return;
     }
@@ -72,12 +65,10 @@ public class ItdDiscoveryServiceImpl implements ItdDiscoveryService {
   }
 
   private void updateChanges(final JavaType javaType, final boolean remove) {
-    for (final String requestingClass : changeMap.keySet()) {
-      if (remove) {
-        changeMap.get(requestingClass).remove(javaType.getFullyQualifiedTypeName());
-      } else {
-        changeMap.get(requestingClass).add(javaType.getFullyQualifiedTypeName());
-      }
+    if (remove) {
+      changeLog.removed(javaType.getFullyQualifiedTypeName());
+    } else {
+      changeLog.changed(javaType.getFullyQualifiedTypeName());
     }
   }
 }
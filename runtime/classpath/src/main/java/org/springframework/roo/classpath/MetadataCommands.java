@@ -3,6 +3,8 @@ package org.springframework.roo.classpath;
 import static org.apache.commons.io.IOUtils.LINE_SEPARATOR;
 import static org.springframework.roo.shell.OptionContexts.INCLUDE_CURRENT_MODULE;
 
+import java.io.File;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.Validate;
@@ -12,6 +14,7 @@ import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
 import org.springframework.roo.classpath.scanner.MemberDetailsScanner;
+import org.springframework.roo.metadata.MetadataCacheStatistic;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.metadata.MetadataLogger;
@@ -33,9 +36,11 @@ public class MetadataCommands implements CommandMarker {
 
   private static final String METADATA_FOR_MODULE_COMMAND = "metadata for module";
   private static final String METADATA_CACHE_COMMAND = "metadata cache";
+  private static final String METADATA_EXPORT_TRACE_COMMAND = "metadata export trace";
   private static final String METADATA_FOR_ID_COMMAND = "metadata for id";
   private static final String METADATA_FOR_TYPE_COMMAND = "metadata for type";
   private static final String METADATA_STATUS_COMMAND = "metadata status";
+  private static final String METADATA_TIMINGS_COMMAND = "metadata timings";
   private static final String METADATA_TRACE_COMMAND = "metadata trace";
 
   @Reference
@@ -47,25 +52,64 @@ public class MetadataCommands implements CommandMarker {
   @Reference
   private MetadataService metadataService;
   @Reference
+  private MetadataWarmUpService metadataWarmUpService;
+  @Reference
   private ProjectOperations projectOperations;
   @Reference
   private TypeLocationService typeLocationService;
 
+  /**
+   * Formats the given duration in the unit that suits its magnitude
+   */
+  private static String formatDuration(final long nanoseconds) {
+    if (nanoseconds < 1000L) {
+      return nanoseconds + " ns";
+    }
+    if (nanoseconds < 1000000L) {
+      return nanoseconds / 1000L + " us";
+    }
+    return nanoseconds / 1000000L + " ms";
+  }
+
   @CliAvailabilityIndicator({METADATA_FOR_MODULE_COMMAND, METADATA_CACHE_COMMAND,
-      METADATA_FOR_ID_COMMAND, METADATA_FOR_TYPE_COMMAND, METADATA_STATUS_COMMAND,
-      METADATA_TRACE_COMMAND})
+      METADATA_EXPORT_TRACE_COMMAND, METADATA_FOR_ID_COMMAND, METADATA_FOR_TYPE_COMMAND,
+      METADATA_STATUS_COMMAND, METADATA_TIMINGS_COMMAND, METADATA_TRACE_COMMAND})
   public boolean isModuleMetadataAvailable() {
     return projectOperations.getFocusedModule() != null;
   }
 
   @CliCommand(value = METADATA_CACHE_COMMAND,
-      help = "Shows detailed metadata for the indicated type.")
-  public String metadataCacheMaximum(@CliOption(key = {"maximumCapacity"}, mandatory = true,
-      help = "The maximum number of metadata items to cache.") final int maxCapacity) {
-    Validate.isTrue(maxCapacity >= 100, "Maximum capacity must be 100 or greater");
-    metadataService.setMaxCapacity(maxCapacity);
-    // Show them that the change has taken place
-    return metadataTimings();
+      help = "Configures the metadata cache and shows its statistics per metadata provider.")
+  public String metadataCacheMaximum(
+      @CliOption(key = {"maximumCapacity"}, mandatory = false,
+          help = "The maximum number of metadata items to cache.") final Integer maxCapacity,
+      @CliOption(key = {"maximumMegabytes"}, mandatory = false,
+          help = "The maximum estimated memory, in megabytes, that cached metadata items may "
+              + "retain (0 for no memory bound).") final Integer maxMegabytes) {
+    if (maxCapacity != null) {
+      Validate.isTrue(maxCapacity >= 100, "Maximum capacity must be 100 or greater");
+      metadataService.setMaxCapacity(maxCapacity);
+    }
+    if (maxMegabytes != null) {
+      Validate.isTrue(maxMegabytes >= 0, "Maximum megabytes must be 0 or greater");
+      metadataService.setMaxRetainedBytes(maxMegabytes * 1024L * 1024L);
+    }
+    // Show them the effect of the change
+    final StringBuilder sb = new StringBuilder();
+    for (final MetadataCacheStatistic stat : metadataService.getCacheStatistics()) {
+      sb.append(stat.toString()).append(LINE_SEPARATOR);
+    }
+    sb.append(metadataService.toString());
+    return sb.toString();
+  }
+
+  @CliCommand(value = METADATA_EXPORT_TRACE_COMMAND,
+      help = "Writes the metadata event delivery notifications traced so far as text.")
+  public String metadataExportTrace(@CliOption(key = {"", "file"}, mandatory = false,
+      unspecifiedDefaultValue = "metadata.log",
+      help = "The file to write. Default if option not present: metadata.log") final File file) {
+    final long messages = metadataLogger.exportTrace(file);
+    return "Exported " + messages + " trace messages to " + file.getAbsolutePath();
   }
 
   @CliCommand(value = METADATA_FOR_ID_COMMAND,
@@ -163,17 +207,38 @@ public class MetadataCommands implements CommandMarker {
 
   @CliCommand(value = METADATA_STATUS_COMMAND,
       help = "Shows metadata statistics of the current project.")
-  public String metadataTimings() {
+  public String metadataStatus() {
+    final StringBuilder sb = new StringBuilder(metadataTimings(false));
+    sb.append(metadataService.toString()).append(LINE_SEPARATOR);
+    sb.append(memberDetailsScanner.toString()).append(LINE_SEPARATOR);
+    sb.append(metadataWarmUpService.toString()).append(LINE_SEPARATOR);
+    sb.append(metadataDependencyRegistry.toString());
+    return sb.toString();
+  }
+
+  @CliCommand(value = METADATA_TIMINGS_COMMAND,
+      help = "Shows the time taken by each metadata provider and notification path, "
+          + "including the 50th, 90th and 99th percentiles and the maximum of each invocation.")
+  public String metadataTimings(@CliOption(key = "reset", mandatory = false,
+      specifiedDefaultValue = "true", unspecifiedDefaultValue = "false",
+      help = "Whether to start collecting timings afresh after showing them, e.g. to measure "
+          + "a single command.") final boolean reset) {
     final StringBuilder sb = new StringBuilder();
     for (final MetadataTimingStatistic stat : metadataLogger.getTimings()) {
+      sb.append(String.format("p50 %8s; p90 %8s; p99 %8s; max %8s; ",
+          formatDuration(stat.getPercentile(50)), formatDuration(stat.getPercentile(90)),
+          formatDuration(stat.getPercentile(99)), formatDuration(stat.getMaximum())));
       sb.append(stat.toString()).append(LINE_SEPARATOR);
     }
-    sb.append(metadataService.toString());
+    if (reset) {
+      metadataLogger.resetTimings();
+    }
     return sb.toString();
   }
 
   @CliCommand(value = METADATA_TRACE_COMMAND,
-      help = "Traces metadata event delivery notifications.")
+      help = "Traces metadata event delivery notifications, which can be read using "
+          + "'metadata export trace'.")
   public void metadataTrace(@CliOption(key = {"", "level"}, mandatory = true,
       help = "The verbosity of notifications (0=none, 1=some, 2=all).") final int level) {
     metadataLogger.setTraceLevel(level);
@@ -2,6 +2,7 @@ package org.springframework.roo.classpath;
 
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.metadata.MetadataNotificationListener;
+import org.springframework.roo.metadata.MetadataWorkerLock;
 import org.springframework.roo.model.JavaType;
 
 import java.util.Collection;
@@ -89,12 +90,17 @@ public class MetadataLocatorUtils<CONTEXT> implements MetadataNotificationListen
    * @param type
    */
   public void checkEvictCache(final JavaType type) {
-    if (type == null) {
-      return;
-    }
-    final JavaType mainType = cacheMapInverse.remove(type);
-    if (mainType != null) {
-      cacheMap.remove(mainType);
+    MetadataWorkerLock.lock();
+    try {
+      if (type == null) {
+        return;
+      }
+      final JavaType mainType = cacheMapInverse.remove(type);
+      if (mainType != null) {
+        cacheMap.remove(mainType);
+      }
+    } finally {
+      MetadataWorkerLock.unlock();
     }
   }
 
@@ -108,36 +114,42 @@ public class MetadataLocatorUtils<CONTEXT> implements MetadataNotificationListen
    * @return
    */
   public Collection<ClassOrInterfaceTypeDetails> getValue(final JavaType type, final CONTEXT context) {
-    Map<CONTEXT, Set<ClassOrInterfaceTypeDetails>> currentMap;
-    if (type == null) {
-      return evaluator.getAllPosibilities(context);
-    }
-    if (!cacheMap.containsKey(type)) {
-      currentMap = new HashMap<CONTEXT, Set<ClassOrInterfaceTypeDetails>>();
-      cacheMap.put(type, currentMap);
-    } else {
-      currentMap = cacheMap.get(type);
-    }
-    if (!currentMap.containsKey(context)) {
-      currentMap.put(context, new HashSet<ClassOrInterfaceTypeDetails>());
-    }
-    final Set<ClassOrInterfaceTypeDetails> existing = currentMap.get(context);
-    final Set<ClassOrInterfaceTypeDetails> located = evaluator.getAllPosibilities(context);
-    if (existing.containsAll(located)) {
-      return existing;
-    }
+    MetadataWorkerLock.lock();
+    try {
+      Map<CONTEXT, Set<ClassOrInterfaceTypeDetails>> currentMap;
+      if (type == null) {
+        return evaluator.getAllPosibilities(context);
+      }
+      if (!cacheMap.containsKey(type)) {
+        currentMap = new HashMap<CONTEXT, Set<ClassOrInterfaceTypeDetails>>();
+        cacheMap.put(type, currentMap);
+      } else {
+        currentMap = cacheMap.get(type);
+      }
+      if (!currentMap.containsKey(context)) {
+        currentMap.put(context, new HashSet<ClassOrInterfaceTypeDetails>());
+      }
+      final Set<ClassOrInterfaceTypeDetails> existing = currentMap.get(context);
+      final Set<ClassOrInterfaceTypeDetails> located = evaluator.getAllPosibilities(context);
+      if (existing.containsAll(located)) {
+        // Copied, as other threads may refresh the cached set meanwhile
+        return new HashSet<ClassOrInterfaceTypeDetails>(existing);
+      }
 
-    final Map<String, ClassOrInterfaceTypeDetails> toReturn =
-        new HashMap<String, ClassOrInterfaceTypeDetails>();
-    for (final ClassOrInterfaceTypeDetails cid : located) {
-      if (evaluator.evaluateForKey(type, cid, context)) {
-        toReturn.put(cid.getDeclaredByMetadataId(), cid);
-        cacheMapInverse.put(cid.getName(), type);
+      final Map<String, ClassOrInterfaceTypeDetails> toReturn =
+          new HashMap<String, ClassOrInterfaceTypeDetails>();
+      for (final ClassOrInterfaceTypeDetails cid : located) {
+        if (evaluator.evaluateForKey(type, cid, context)) {
+          toReturn.put(cid.getDeclaredByMetadataId(), cid);
+          cacheMapInverse.put(cid.getName(), type);
+        }
       }
+      existing.clear();
+      existing.addAll(toReturn.values());
+      return toReturn.values();
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    existing.clear();
-    existing.addAll(toReturn.values());
-    return toReturn.values();
   }
 
 
@@ -0,0 +1,45 @@
+package org.springframework.roo.classpath;
+
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileOperation;
+import org.springframework.roo.metadata.MetadataSnapshot;
+
+/**
+ * Keeps a {@link MetadataSnapshot} of the project under its ".roo" directory,
+ * so a shell restart only recomputes the metadata of those source files that
+ * changed while the shell was not running.
+ * <p>
+ * The snapshot is disabled unless the "roo.metadata.snapshot" system property
+ * is set to "true".
+ *
+ * @since 2.0
+ */
+public interface MetadataSnapshotService {
+
+  /**
+   * @return whether snapshots are enabled
+   */
+  boolean isEnabled();
+
+  /**
+   * Records the current content of the source file the given event relates
+   * to and indicates whether the event can be ignored by metadata providers.
+   * <p>
+   * That is only the case for {@link FileOperation#MONITORING_START} events
+   * of files whose content, and that of the ITDs written from it, is
+   * identical to the one recorded by the snapshot loaded at startup: those
+   * ITDs are still valid, and the dependencies of the file's metadata have
+   * been restored from the snapshot.
+   *
+   * @param fileEvent the event about to be handled (required)
+   * @return <code>true</code> if the source file is unchanged since the
+   *         snapshot was written
+   */
+  boolean isUpToDate(FileEvent fileEvent);
+
+  /**
+   * Writes the current dependency graph and source hashes to disk. Does
+   * nothing if snapshots are disabled.
+   */
+  void save();
+}
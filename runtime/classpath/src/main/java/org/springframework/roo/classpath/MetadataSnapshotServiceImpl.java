@@ -0,0 +1,278 @@
+package org.springframework.roo.classpath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileOperation;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.MetadataSnapshot;
+import org.springframework.roo.support.logging.HandlerUtils;
+import org.springframework.roo.support.osgi.OSGiUtils;
+
+/**
+ * Default implementation of {@link MetadataSnapshotService}.
+ * <p>
+ * The snapshot is stored in ".roo/cache/metadata.snapshot" below the Roo
+ * working directory. It is read (and its dependencies restored) the first
+ * time a source file event is checked, i.e. during the initial scan of the
+ * project, and written when this component is deactivated, i.e. when the
+ * shell shuts down. Its environment is the symbolic name and version of
+ * every installed bundle, so installing, removing or upgrading an add-on
+ * discards it.
+ * <p>
+ * The hash recorded for a source file also covers the ITDs generated from it
+ * (its "_Roo_" siblings), and is computed when the snapshot is written, i.e.
+ * once those ITDs are up to date. Deleting or editing an ITD while the shell
+ * is not running therefore makes its source look changed on the next start,
+ * so that the ITD gets regenerated.
+ * <p>
+ * The snapshot file lives in a hidden directory, which the file monitor
+ * ignores, and is written directly rather than through the
+ * {@link org.springframework.roo.process.manager.FileManager}, as it is not
+ * part of the user's project.
+ *
+ * @since 2.0
+ */
+@Component
+@Service
+public class MetadataSnapshotServiceImpl implements MetadataSnapshotService {
+
+  private static final String SNAPSHOT_FILE = ".roo" + File.separator + "cache" + File.separator
+      + "metadata.snapshot";
+
+  protected final static Logger LOGGER = HandlerUtils.getLogger(MetadataSnapshotServiceImpl.class);
+
+  // ------------ OSGi component attributes ----------------
+  private BundleContext context;
+
+  private final boolean enabled = Boolean.getBoolean("roo.metadata.snapshot");
+  private boolean loaded;
+  private MetadataDependencyRegistry metadataDependencyRegistry;
+  private File snapshotFile;
+  /** The canonical paths of the source files seen in this session */
+  private final Set<String> sources = new HashSet<String>();
+  private MetadataSnapshot startupSnapshot;
+
+  protected void activate(final ComponentContext context) {
+    this.context = context.getBundleContext();
+    final String workingDirectory = OSGiUtils.getRooWorkingDirectory(context);
+    if (StringUtils.isNotBlank(workingDirectory)) {
+      snapshotFile = new File(workingDirectory, SNAPSHOT_FILE);
+    }
+  }
+
+  protected void deactivate(final ComponentContext context) {
+    save();
+  }
+
+  public boolean isEnabled() {
+    return enabled && snapshotFile != null;
+  }
+
+  public synchronized boolean isUpToDate(final FileEvent fileEvent) {
+    Validate.notNull(fileEvent, "File event required");
+    if (!isEnabled()) {
+      return false;
+    }
+    if (!loaded) {
+      loaded = true;
+      startupSnapshot = load();
+    }
+
+    final String canonicalPath = fileEvent.getFileDetails().getCanonicalPath();
+    if (fileEvent.getOperation() == FileOperation.DELETED) {
+      sources.remove(canonicalPath);
+      return false;
+    }
+    if (fileEvent.getOperation() == FileOperation.RENAMED
+        && fileEvent.getPreviousName() != null) {
+      sources.remove(FileDetails.getCanonicalPath(fileEvent.getPreviousName()));
+    }
+    sources.add(canonicalPath);
+
+    if (fileEvent.getOperation() != FileOperation.MONITORING_START || startupSnapshot == null) {
+      return false;
+    }
+    final String hash = hash(fileEvent.getFileDetails().getFile());
+    return hash != null && hash.equals(startupSnapshot.getSourceHash(canonicalPath));
+  }
+
+  public synchronized void save() {
+    if (!isEnabled() || !loaded) {
+      // Nothing was scanned in this session, so keep any existing snapshot
+      return;
+    }
+    if (metadataDependencyRegistry == null) {
+      metadataDependencyRegistry = getMetadataDependencyRegistry();
+    }
+    if (metadataDependencyRegistry == null) {
+      return;
+    }
+    final Map<String, String> sourceHashes = new HashMap<String, String>();
+    for (final String source : sources) {
+      final String hash = hash(new File(source));
+      if (hash != null) {
+        sourceHashes.put(source, hash);
+      }
+    }
+    final MetadataSnapshot snapshot =
+        new MetadataSnapshot(getEnvironment(), metadataDependencyRegistry.getDependencies(),
+            sourceHashes);
+    final File tempFile = new File(snapshotFile.getPath() + ".tmp");
+    OutputStream out = null;
+    try {
+      FileUtils.forceMkdir(snapshotFile.getParentFile());
+      out = new BufferedOutputStream(new FileOutputStream(tempFile));
+      snapshot.write(out);
+      out.close();
+      out = null;
+      // Replace the previous snapshot as a whole, never leave a partial one
+      FileUtils.deleteQuietly(snapshotFile);
+      FileUtils.moveFile(tempFile, snapshotFile);
+    } catch (final IOException e) {
+      LOGGER.log(Level.FINE, "Unable to write metadata snapshot " + snapshotFile, e);
+      FileUtils.deleteQuietly(tempFile);
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Reads the snapshot written by the previous session and restores its
+   * dependencies.
+   *
+   * @return the snapshot, or <code>null</code> if there is none or it is
+   *         obsolete
+   */
+  private MetadataSnapshot load() {
+    if (!snapshotFile.isFile()) {
+      return null;
+    }
+    if (metadataDependencyRegistry == null) {
+      metadataDependencyRegistry = getMetadataDependencyRegistry();
+    }
+    if (metadataDependencyRegistry == null) {
+      return null;
+    }
+    InputStream in = null;
+    try {
+      in = new BufferedInputStream(new FileInputStream(snapshotFile));
+      final MetadataSnapshot snapshot = MetadataSnapshot.read(in, getEnvironment());
+      if (snapshot == null) {
+        LOGGER.fine("Discarding obsolete metadata snapshot " + snapshotFile);
+        return null;
+      }
+      final int restored = snapshot.restoreDependencies(metadataDependencyRegistry);
+      LOGGER.fine("Restored " + restored + " metadata dependencies from " + snapshotFile);
+      return snapshot;
+    } catch (final IOException e) {
+      LOGGER.log(Level.FINE, "Unable to read metadata snapshot " + snapshotFile, e);
+      return null;
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Describes the installed bundles; any add-on change alters the result.
+   */
+  private String getEnvironment() {
+    final Bundle[] bundles = context.getBundles();
+    final String[] descriptions = new String[bundles.length];
+    for (int i = 0; i < bundles.length; i++) {
+      descriptions[i] = bundles[i].getSymbolicName() + ";" + bundles[i].getVersion();
+    }
+    Arrays.sort(descriptions);
+    return StringUtils.join(descriptions, ",");
+  }
+
+  /**
+   * Returns the ITDs generated from the given source file, sorted by name.
+   */
+  private File[] getItds(final File source) {
+    final String prefix = StringUtils.removeEnd(source.getName(), ".java") + "_Roo_";
+    final File[] itds = source.getParentFile().listFiles(new FilenameFilter() {
+      public boolean accept(final File dir, final String name) {
+        return name.startsWith(prefix) && name.endsWith(".aj");
+      }
+    });
+    if (itds == null) {
+      return new File[0];
+    }
+    Arrays.sort(itds);
+    return itds;
+  }
+
+  /**
+   * Hashes the given source file together with the name and content of each
+   * ITD generated from it.
+   *
+   * @return <code>null</code> if the source file can't be read
+   */
+  private String hash(final File source) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      digest.update(FileUtils.readFileToByteArray(source));
+      for (final File itd : getItds(source)) {
+        digest.update((byte) 0);
+        digest.update(itd.getName().getBytes("UTF-8"));
+        digest.update((byte) 0);
+        digest.update(FileUtils.readFileToByteArray(itd));
+      }
+      return new BigInteger(1, digest.digest()).toString(16);
+    } catch (final IOException e) {
+      return null;
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public MetadataDependencyRegistry getMetadataDependencyRegistry() {
+    // Get all Services implement MetadataDependencyRegistry interface
+    try {
+      ServiceReference<?>[] references =
+          this.context.getAllServiceReferences(MetadataDependencyRegistry.class.getName(), null);
+
+      for (ServiceReference<?> ref : references) {
+        return (MetadataDependencyRegistry) this.context.getService(ref);
+      }
+
+      LOGGER.warning("Cannot load MetadataDependencyRegistry on MetadataSnapshotServiceImpl.");
+      return null;
+
+    } catch (InvalidSyntaxException e) {
+      LOGGER.warning("Cannot load MetadataDependencyRegistry on MetadataSnapshotServiceImpl.");
+      return null;
+    }
+  }
+}
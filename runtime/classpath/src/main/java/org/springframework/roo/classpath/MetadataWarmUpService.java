@@ -0,0 +1,34 @@
+package org.springframework.roo.classpath;
+
+/**
+ * Computes the metadata of the project's types in the background once the
+ * shell has started, so that the first command doesn't have to.
+ * <p>
+ * The types of the focused module are warmed up first, most recently edited
+ * first, followed by the types of the other modules in the same order. Each
+ * type is warmed up in a process manager transaction of its own, and only
+ * while no command is executing or waiting to.
+ * <p>
+ * The warm-up is enabled unless the "roo.metadata.warmup" system property is
+ * "false".
+ *
+ * @since 2.0
+ */
+public interface MetadataWarmUpService {
+
+  /**
+   * @return the number of types whose metadata is still to be warmed up
+   *         (zero if the warm-up hasn't started or has completed)
+   */
+  int getRemainingTypes();
+
+  /**
+   * @return the number of types whose metadata has been warmed up so far
+   */
+  int getWarmedTypes();
+
+  /**
+   * @return whether every type has been warmed up
+   */
+  boolean isComplete();
+}
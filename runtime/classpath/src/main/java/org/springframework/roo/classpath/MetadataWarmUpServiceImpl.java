@@ -0,0 +1,270 @@
+package org.springframework.roo.classpath;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.scanner.MemberDetailsScanner;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.process.manager.CommandCallback;
+import org.springframework.roo.process.manager.ProcessManager;
+import org.springframework.roo.process.manager.event.ProcessManagerStatus;
+import org.springframework.roo.process.manager.event.ProcessManagerStatusListener;
+import org.springframework.roo.project.ProjectOperations;
+import org.springframework.roo.project.maven.Pom;
+import org.springframework.roo.support.logging.HandlerUtils;
+
+/**
+ * Default implementation of {@link MetadataWarmUpService}.
+ * <p>
+ * The warm-up starts once the process manager first becomes available, i.e.
+ * after the initial scan of the project, and runs on a low priority thread.
+ * Types are warmed up in chunks of {@value #CHUNK_SIZE}: the metadata already
+ * known to depend on the types of a chunk (e.g. from a metadata snapshot) is
+ * computed in one {@link MetadataService#materialize(java.util.Collection)}
+ * call, which may use several threads, then the metadata of any other ITD
+ * the types trigger (as identified by the {@link MemberDetailsScanner}) is
+ * acquired in one {@link MetadataService#getAll(java.util.Collection)} call. Each chunk is submitted to
+ * {@link ProcessManager#executeIfIdle(CommandCallback)}, so a user command
+ * waits for one chunk at most; whenever the process manager is busy, the
+ * warm-up backs off for a while.
+ *
+ * @since 2.0
+ */
+@Component
+@Service
+public class MetadataWarmUpServiceImpl implements MetadataWarmUpService,
+    ProcessManagerStatusListener {
+
+  private static final long BACK_OFF_MILLIS = 500;
+  private static final int CHUNK_SIZE = 16;
+  private static final Logger LOGGER = HandlerUtils.getLogger(MetadataWarmUpServiceImpl.class);
+
+  /**
+   * Returns the given types, most recently modified first
+   *
+   * @param lastModified key: type; value: when its source was last modified
+   *            (0 if unknown)
+   * @return a new list
+   */
+  static List<JavaType> sortByRecency(final Map<JavaType, Long> lastModified) {
+    final List<JavaType> types = new ArrayList<JavaType>(lastModified.keySet());
+    Collections.sort(types, new Comparator<JavaType>() {
+      public int compare(final JavaType type1, final JavaType type2) {
+        final int result = lastModified.get(type2).compareTo(lastModified.get(type1));
+        // Otherwise in a stable order
+        return result != 0 ? result : type1.getFullyQualifiedTypeName().compareTo(
+            type2.getFullyQualifiedTypeName());
+      }
+    });
+    return types;
+  }
+
+  @Reference
+  private MemberDetailsScanner memberDetailsScanner;
+  @Reference
+  private MetadataDependencyRegistry metadataDependencyRegistry;
+  @Reference
+  private MetadataService metadataService;
+  @Reference
+  private ProcessManager processManager;
+  @Reference
+  private ProjectOperations projectOperations;
+  @Reference
+  private TypeLocationService typeLocationService;
+
+  private volatile boolean complete;
+  private final AtomicInteger deferrals = new AtomicInteger();
+  private volatile long elapsedMillis;
+  private final boolean enabled = !"false".equals(System.getProperty("roo.metadata.warmup"));
+  private final AtomicInteger remainingTypes = new AtomicInteger();
+  private volatile boolean stopped;
+  private Thread thread;
+  private final AtomicInteger warmedTypes = new AtomicInteger();
+
+  protected void activate(final ComponentContext context) {
+    processManager.addProcessManagerStatusListener(this);
+    if (processManager.getProcessManagerStatus() == ProcessManagerStatus.AVAILABLE) {
+      // The project was scanned before this component was activated
+      start();
+    }
+  }
+
+  protected void deactivate(final ComponentContext context) {
+    processManager.removeProcessManagerStatusListener(this);
+    synchronized (this) {
+      stopped = true;
+      if (thread != null) {
+        thread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Executes the given callback once the process manager is idle
+   *
+   * @return <code>false</code> if the warm-up was stopped first
+   */
+  private boolean executeWhenIdle(final CommandCallback<?> callback) {
+    while (!stopped
+        && processManager.getProcessManagerStatus() != ProcessManagerStatus.TERMINATED) {
+      if (processManager.executeIfIdle(callback)) {
+        return true;
+      }
+      deferrals.incrementAndGet();
+      try {
+        Thread.sleep(BACK_OFF_MILLIS);
+      } catch (final InterruptedException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private long getLastModified(final JavaType type) {
+    final String physicalTypeId = typeLocationService.getPhysicalTypeIdentifier(type);
+    if (physicalTypeId == null) {
+      return 0;
+    }
+    final String canonicalPath = typeLocationService.getPhysicalTypeCanonicalPath(physicalTypeId);
+    return canonicalPath == null ? 0 : new File(canonicalPath).lastModified();
+  }
+
+  public int getRemainingTypes() {
+    return remainingTypes.get();
+  }
+
+  /**
+   * Returns the project's types in the order their metadata should be
+   * warmed up
+   */
+  private List<JavaType> getTypesInWarmUpOrder() {
+    final Pom focusedModule = projectOperations.getFocusedModule();
+    final Map<JavaType, Long> focusedTypes = new HashMap<JavaType, Long>();
+    final Map<JavaType, Long> otherTypes = new HashMap<JavaType, Long>();
+    for (final Pom module : projectOperations.getPoms()) {
+      final boolean focused =
+          focusedModule != null
+              && StringUtils.equals(module.getModuleName(), focusedModule.getModuleName());
+      for (final JavaType type : typeLocationService.getTypesForModule(module)) {
+        (focused ? focusedTypes : otherTypes).put(type, getLastModified(type));
+      }
+    }
+    final List<JavaType> types = sortByRecency(focusedTypes);
+    types.addAll(sortByRecency(otherTypes));
+    return types;
+  }
+
+  public int getWarmedTypes() {
+    return warmedTypes.get();
+  }
+
+  public boolean isComplete() {
+    return complete;
+  }
+
+  public void onProcessManagerStatusChange(final ProcessManagerStatus oldStatus,
+      final ProcessManagerStatus newStatus) {
+    if (newStatus == ProcessManagerStatus.AVAILABLE) {
+      start();
+    }
+  }
+
+  private synchronized void start() {
+    if (!enabled || stopped || thread != null) {
+      return;
+    }
+    thread = new Thread(new Runnable() {
+      public void run() {
+        warmUp();
+      }
+    }, "Spring Roo Metadata Warm-up Thread");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  @Override
+  public final String toString() {
+    final ToStringBuilder builder = new ToStringBuilder(this);
+    builder.append("warmedTypes", warmedTypes);
+    builder.append("remainingTypes", remainingTypes);
+    builder.append("deferrals", deferrals);
+    builder.append("elapsedMillis", elapsedMillis);
+    builder.append("complete", complete);
+    return builder.toString().replaceFirst("@[0-9a-f]+", ":");
+  }
+
+  private void warmUp() {
+    final long started = System.currentTimeMillis();
+    final List<JavaType> types = new ArrayList<JavaType>();
+    if (!executeWhenIdle(new CommandCallback<Void>() {
+      public Void callback() {
+        types.addAll(getTypesInWarmUpOrder());
+        return null;
+      }
+    })) {
+      return;
+    }
+    remainingTypes.set(types.size());
+
+    for (int i = 0; i < types.size(); i += CHUNK_SIZE) {
+      final List<JavaType> chunk = types.subList(i, Math.min(i + CHUNK_SIZE, types.size()));
+      if (!executeWhenIdle(new CommandCallback<Void>() {
+        public Void callback() {
+          warmUp(chunk);
+          return null;
+        }
+      })) {
+        return;
+      }
+      remainingTypes.addAndGet(-chunk.size());
+      warmedTypes.addAndGet(chunk.size());
+      elapsedMillis = System.currentTimeMillis() - started;
+    }
+    complete = true;
+    LOGGER.fine("Warmed up the metadata of " + types.size() + " types in " + elapsedMillis
+        + " ms");
+  }
+
+  private void warmUp(final List<JavaType> chunk) {
+    final List<ClassOrInterfaceTypeDetails> cids = new ArrayList<ClassOrInterfaceTypeDetails>();
+    final Set<String> knownDownstream = new LinkedHashSet<String>();
+    for (final JavaType type : chunk) {
+      // The type may have been deleted meanwhile
+      final ClassOrInterfaceTypeDetails cid = typeLocationService.getTypeDetails(type);
+      if (cid != null) {
+        cids.add(cid);
+        for (final String downstream : metadataDependencyRegistry.getTransitiveDownstream(cid
+            .getDeclaredByMetadataId())) {
+          if (MetadataIdentificationUtils.isIdentifyingInstance(downstream)) {
+            knownDownstream.add(downstream);
+          }
+        }
+      }
+    }
+    metadataService.materialize(knownDownstream);
+    // Only the metadata is wanted; building member details here would fill
+    // the scanner's memo cache with results nobody asks for
+    metadataService.getAll(memberDetailsScanner.getItdMetadataIds(
+        MetadataWarmUpServiceImpl.class.getName(), cids));
+  }
+}
@@ -102,19 +102,37 @@ public class TypeCacheImpl implements TypeCache {
     return simpleTypeNameTypesMap.get(simpleTypeName);
   }
 
+  /**
+   * Removes the given value from the set stored under the given key, along
+   * with the set itself once it's empty
+   */
+  private void removeFromSet(final Map<String, Set<String>> map, final String key,
+      final String value) {
+    final Set<String> values = map.get(key);
+    if (values != null && values.remove(value) && values.isEmpty()) {
+      map.remove(key);
+    }
+  }
+
   public void removeType(final String typeIdentifier) {
     Validate.notBlank(typeIdentifier, "Physical type identifier required");
-    final ClassOrInterfaceTypeDetails cid = midToTypeDetailsMap.get(typeIdentifier);
+    final ClassOrInterfaceTypeDetails cid = midToTypeDetailsMap.remove(typeIdentifier);
     if (cid != null) {
-      typeNameToMidMap.remove(cid.getName().getFullyQualifiedTypeName());
-      typeNameToModuleFilePathMap.remove(cid.getName().getFullyQualifiedTypeName());
-      typeNameToModuleNameMap.remove(cid.getName().getFullyQualifiedTypeName());
+      final String fullyQualifiedTypeName = cid.getName().getFullyQualifiedTypeName();
+      typeNameToMidMap.remove(fullyQualifiedTypeName);
+      typeNameToModuleNameMap.remove(fullyQualifiedTypeName);
+      types.remove(cid.getName());
+      removeFromSet(simpleTypeNameTypesMap, cid.getName().getSimpleTypeName(),
+          fullyQualifiedTypeName);
+      final String moduleFilePath = typeNameToModuleFilePathMap.remove(fullyQualifiedTypeName);
+      if (moduleFilePath != null) {
+        removeFromSet(moduleFilePathToTypeNamesMap, moduleFilePath, fullyQualifiedTypeName);
+      }
     }
     final String filePath = typeIdentifierToFilePathMap.get(typeIdentifier);
     if (filePath != null) {
       typeFilePathToMidMap.remove(filePath);
       typeIdentifierToFilePathMap.remove(typeIdentifier);
     }
-
   }
 }
@@ -14,7 +14,9 @@ import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.file.monitor.FileMonitorService;
 import org.springframework.roo.file.monitor.event.FileDetails;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataItem;
 import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.metadata.MetadataWorkerLock;
 import org.springframework.roo.model.JavaPackage;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
@@ -26,6 +28,7 @@ import org.springframework.roo.project.ProjectOperations;
 import org.springframework.roo.project.maven.Pom;
 import org.springframework.roo.shell.NaturalOrderComparator;
 import org.springframework.roo.support.logging.HandlerUtils;
+import org.springframework.roo.support.util.ChangeLog;
 import org.springframework.roo.support.util.FileUtils;
 
 import java.io.File;
@@ -42,6 +45,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
@@ -67,7 +71,7 @@ public class TypeLocationServiceImpl implements TypeLocationService {
   // ------------ OSGi component attributes ----------------
   private BundleContext context;
   private Map<ModuleFeatureName, ModuleFeature> moduleFeatures =
-      new HashMap<ModuleFeatureName, ModuleFeature>();
+      new ConcurrentHashMap<ModuleFeatureName, ModuleFeature>();
 
   protected void activate(final ComponentContext cContext) {
     context = cContext.getBundleContext();
@@ -158,32 +162,58 @@ public class TypeLocationServiceImpl implements TypeLocationService {
 
   private final Map<JavaType, Set<String>> annotationToMidMap =
       new HashMap<JavaType, Set<String>>();
-  private final Map<String, Set<String>> changeMap = new HashMap<String, Set<String>>();
+  /** the changed fully qualified type names, for {@link #hasTypeChanged} */
+  private final ChangeLog<String> changeLog = new ChangeLog<String>();
   private final Set<String> dirtyFiles = new HashSet<String>();
   private final Set<String> discoveredTypes = new HashSet<String>();
   private final Map<String, Set<Object>> typeCustomDataMap = new HashMap<String, Set<Object>>();
   private final Map<Object, Set<String>> tagToMidMap = new HashMap<Object, Set<String>>();
   private final Map<String, Set<JavaType>> typeAnnotationMap = new HashMap<String, Set<JavaType>>();
 
-  private void cacheType(final String fileCanonicalPath) {
-    Validate.notBlank(fileCanonicalPath, "File canonical path required");
-    if (doesPathIndicateJavaType(fileCanonicalPath)) {
-      final String id = getPhysicalTypeIdentifier(fileCanonicalPath);
-      if (id != null && PhysicalTypeIdentifier.isValid(id)) {
-        // Change to Java, so drop the cache
-        final ClassOrInterfaceTypeDetails cid = lookupClassOrInterfaceTypeDetails(id);
-        if (cid == null) {
-          if (!getFileManager().exists(fileCanonicalPath)) {
-            getTypeCache().removeType(id);
-            final JavaType type = getTypeCache().getTypeDetails(id).getName();
-            updateChanges(type.getFullyQualifiedTypeName(), true);
+  /**
+   * Updates the caches with the current state of the given files, parsing
+   * the Java types among them in one request
+   *
+   * @param fileCanonicalPaths the canonical paths of the changed files
+   *            (required)
+   */
+  private void cacheTypes(final Collection<String> fileCanonicalPaths) {
+    final Map<String, String> idsByPath = new LinkedHashMap<String, String>();
+    for (final String fileCanonicalPath : fileCanonicalPaths) {
+      Validate.notBlank(fileCanonicalPath, "File canonical path required");
+      if (doesPathIndicateJavaType(fileCanonicalPath)) {
+        final String id = getPhysicalTypeIdentifier(fileCanonicalPath);
+        if (id != null && PhysicalTypeIdentifier.isValid(id)) {
+          idsByPath.put(fileCanonicalPath, id);
+        }
+      }
+    }
+    if (idsByPath.isEmpty()) {
+      return;
+    }
+    // Change to Java, so drop the cache
+    final Map<String, ClassOrInterfaceTypeDetails> types =
+        lookupClassOrInterfaceTypeDetails(idsByPath.values());
+    final TypeCache typeCache = getTypeCache();
+    for (final Entry<String, String> entry : idsByPath.entrySet()) {
+      final String fileCanonicalPath = entry.getKey();
+      final String id = entry.getValue();
+      final ClassOrInterfaceTypeDetails cid = types.get(id);
+      if (cid == null) {
+        if (!getFileManager().exists(fileCanonicalPath)) {
+          final ClassOrInterfaceTypeDetails removed = typeCache.getTypeDetails(id);
+          typeCache.removeType(id);
+          removeFromAttributeCache(id);
+          discoveredTypes.remove(fileCanonicalPath);
+          if (removed != null) {
+            updateChanges(removed.getName().getFullyQualifiedTypeName(), true);
           }
-          return;
         }
-        getTypeCache().cacheType(fileCanonicalPath, cid);
-        updateAttributeCache(cid);
-        updateChanges(cid.getName().getFullyQualifiedTypeName(), false);
+        continue;
       }
+      typeCache.cacheType(fileCanonicalPath, cid);
+      updateAttributeCache(cid);
+      updateChanges(cid.getName().getFullyQualifiedTypeName(), false);
     }
   }
 
@@ -281,24 +311,29 @@ public class TypeLocationServiceImpl implements TypeLocationService {
   }
 
   private PhysicalPath getPhysicalPath(final JavaType javaType) {
-    Validate.notNull(javaType, "Java type required");
-    final String parentPath = getParentPath(javaType);
-    if (parentPath == null) {
-      return null;
-    }
-    for (final Pom pom : getProjectOperations().getPoms()) {
-      for (final PhysicalPath physicalPath : pom.getPhysicalPaths()) {
-        if (physicalPath.isSource()) {
-          final String pathLocation =
-              FileUtils.ensureTrailingSeparator(physicalPath.getLocationPath());
-          if (pathLocation.startsWith(parentPath)) {
-            getTypeCache().cacheTypeAgainstModule(pom, javaType);
-            return physicalPath;
+    MetadataWorkerLock.lock();
+    try {
+      Validate.notNull(javaType, "Java type required");
+      final String parentPath = getParentPath(javaType);
+      if (parentPath == null) {
+        return null;
+      }
+      for (final Pom pom : getProjectOperations().getPoms()) {
+        for (final PhysicalPath physicalPath : pom.getPhysicalPaths()) {
+          if (physicalPath.isSource()) {
+            final String pathLocation =
+                FileUtils.ensureTrailingSeparator(physicalPath.getLocationPath());
+            if (pathLocation.startsWith(parentPath)) {
+              getTypeCache().cacheTypeAgainstModule(pom, javaType);
+              return physicalPath;
+            }
           }
         }
       }
+      return null;
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    return null;
   }
 
   public String getPhysicalTypeCanonicalPath(final JavaType javaType, final LogicalPath path) {
@@ -306,16 +341,21 @@ public class TypeLocationServiceImpl implements TypeLocationService {
   }
 
   public String getPhysicalTypeCanonicalPath(final String physicalTypeId) {
-    final LogicalPath logicalPath = PhysicalTypeIdentifier.getPath(physicalTypeId);
-    final JavaType javaType = PhysicalTypeIdentifier.getJavaType(physicalTypeId);
-    final Pom pom = getProjectOperations().getPomFromModuleName(logicalPath.getModule());
-    final String canonicalFilePath =
-        pom.getPathLocation(logicalPath.getPath()) + javaType.getRelativeFileName();
-    if (getFileManager().exists(canonicalFilePath)) {
-      getTypeCache().cacheTypeAgainstModule(pom, javaType);
-      getTypeCache().cacheFilePathAgainstTypeIdentifier(canonicalFilePath, physicalTypeId);
+    MetadataWorkerLock.lock();
+    try {
+      final LogicalPath logicalPath = PhysicalTypeIdentifier.getPath(physicalTypeId);
+      final JavaType javaType = PhysicalTypeIdentifier.getJavaType(physicalTypeId);
+      final Pom pom = getProjectOperations().getPomFromModuleName(logicalPath.getModule());
+      final String canonicalFilePath =
+          pom.getPathLocation(logicalPath.getPath()) + javaType.getRelativeFileName();
+      if (getFileManager().exists(canonicalFilePath)) {
+        getTypeCache().cacheTypeAgainstModule(pom, javaType);
+        getTypeCache().cacheFilePathAgainstTypeIdentifier(canonicalFilePath, physicalTypeId);
+      }
+      return canonicalFilePath;
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    return canonicalFilePath;
   }
 
   public String getPhysicalTypeIdentifier(final JavaType type) {
@@ -328,45 +368,50 @@ public class TypeLocationServiceImpl implements TypeLocationService {
   }
 
   public String getPhysicalTypeIdentifier(final String fileCanonicalPath) {
-    Validate.notBlank(fileCanonicalPath, "File canonical path required");
-    if (!doesPathIndicateJavaType(fileCanonicalPath)) {
-      return null;
-    }
-    String physicalTypeIdentifier = getTypeCache().getTypeIdFromTypeFilePath(fileCanonicalPath);
-    if (physicalTypeIdentifier != null) {
-      return physicalTypeIdentifier;
-    }
-    final String typeDirectory = FileUtils.getFirstDirectory(fileCanonicalPath);
-    final String simpleTypeName =
-        StringUtils.replace(fileCanonicalPath, typeDirectory + File.separator, "", 1).replace(
-            ".java", "");
-    final JavaPackage javaPackage = getTypeResolutionService().getPackage(fileCanonicalPath);
-    if (javaPackage == null) {
-      return null;
-    }
-    final Pom module = getProjectOperations().getModuleForFileIdentifier(fileCanonicalPath);
-    Validate.notNull(module, "The module for the file '" + fileCanonicalPath
-        + "' could not be located");
-    final JavaType javaType =
-        new JavaType(javaPackage.getFullyQualifiedPackageName() + "." + simpleTypeName,
-            module.getModuleName());
-    getTypeCache().cacheTypeAgainstModule(module, javaType);
-
-    String reducedPath = fileCanonicalPath.replace(javaType.getRelativeFileName(), "");
-    reducedPath = StringUtils.stripEnd(reducedPath, File.separator);
-
-    for (final PhysicalPath physicalPath : module.getPhysicalPaths()) {
-      if (physicalPath.getLocationPath().startsWith(reducedPath)) {
-        final LogicalPath path = physicalPath.getLogicalPath();
-        physicalTypeIdentifier =
-            MetadataIdentificationUtils.create(PhysicalTypeIdentifier.class.getName(),
-                path.getName() + "?" + javaType.getFullyQualifiedTypeName());
-        break;
+    MetadataWorkerLock.lock();
+    try {
+      Validate.notBlank(fileCanonicalPath, "File canonical path required");
+      if (!doesPathIndicateJavaType(fileCanonicalPath)) {
+        return null;
       }
-    }
-    getTypeCache().cacheFilePathAgainstTypeIdentifier(fileCanonicalPath, physicalTypeIdentifier);
+      String physicalTypeIdentifier = getTypeCache().getTypeIdFromTypeFilePath(fileCanonicalPath);
+      if (physicalTypeIdentifier != null) {
+        return physicalTypeIdentifier;
+      }
+      final String typeDirectory = FileUtils.getFirstDirectory(fileCanonicalPath);
+      final String simpleTypeName =
+          StringUtils.replace(fileCanonicalPath, typeDirectory + File.separator, "", 1).replace(
+              ".java", "");
+      final JavaPackage javaPackage = getTypeResolutionService().getPackage(fileCanonicalPath);
+      if (javaPackage == null) {
+        return null;
+      }
+      final Pom module = getProjectOperations().getModuleForFileIdentifier(fileCanonicalPath);
+      Validate.notNull(module, "The module for the file '" + fileCanonicalPath
+          + "' could not be located");
+      final JavaType javaType =
+          new JavaType(javaPackage.getFullyQualifiedPackageName() + "." + simpleTypeName,
+              module.getModuleName());
+      getTypeCache().cacheTypeAgainstModule(module, javaType);
+
+      String reducedPath = fileCanonicalPath.replace(javaType.getRelativeFileName(), "");
+      reducedPath = StringUtils.stripEnd(reducedPath, File.separator);
+
+      for (final PhysicalPath physicalPath : module.getPhysicalPaths()) {
+        if (physicalPath.getLocationPath().startsWith(reducedPath)) {
+          final LogicalPath path = physicalPath.getLogicalPath();
+          physicalTypeIdentifier =
+              MetadataIdentificationUtils.create(PhysicalTypeIdentifier.class.getName(),
+                  path.getName() + "?" + javaType.getFullyQualifiedTypeName());
+          break;
+        }
+      }
+      getTypeCache().cacheFilePathAgainstTypeIdentifier(fileCanonicalPath, physicalTypeIdentifier);
 
-    return physicalTypeIdentifier;
+      return physicalTypeIdentifier;
+    } finally {
+      MetadataWorkerLock.unlock();
+    }
   }
 
   public List<String> getPotentialTopLevelPackagesForModule(final Pom module) {
@@ -491,22 +536,28 @@ public class TypeLocationServiceImpl implements TypeLocationService {
   }
 
   public ClassOrInterfaceTypeDetails getTypeDetails(final String physicalTypeId) {
-    if (StringUtils.isBlank(physicalTypeId)) {
-      return null;
-    }
-    Validate.isTrue(PhysicalTypeIdentifier.isValid(physicalTypeId),
-        "Metadata id '%s' is not a valid physical type id", physicalTypeId);
-    updateTypeCache();
-    final ClassOrInterfaceTypeDetails cachedDetails = getTypeCache().getTypeDetails(physicalTypeId);
-    if (cachedDetails != null) {
-      return cachedDetails;
-    }
-    final PhysicalTypeMetadata physicalTypeMetadata =
-        (PhysicalTypeMetadata) getMetadataService().get(physicalTypeId);
-    if (physicalTypeMetadata == null) {
-      return null;
+    MetadataWorkerLock.lock();
+    try {
+      if (StringUtils.isBlank(physicalTypeId)) {
+        return null;
+      }
+      Validate.isTrue(PhysicalTypeIdentifier.isValid(physicalTypeId),
+          "Metadata id '%s' is not a valid physical type id", physicalTypeId);
+      updateTypeCache();
+      final ClassOrInterfaceTypeDetails cachedDetails =
+          getTypeCache().getTypeDetails(physicalTypeId);
+      if (cachedDetails != null) {
+        return cachedDetails;
+      }
+      final PhysicalTypeMetadata physicalTypeMetadata =
+          (PhysicalTypeMetadata) getMetadataService().get(physicalTypeId);
+      if (physicalTypeMetadata == null) {
+        return null;
+      }
+      return physicalTypeMetadata.getMemberHoldingTypeDetails();
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    return physicalTypeMetadata.getMemberHoldingTypeDetails();
   }
 
   public LogicalPath getTypePath(final JavaType javaType) {
@@ -530,45 +581,50 @@ public class TypeLocationServiceImpl implements TypeLocationService {
   }
 
   public Set<String> getTypesForModule(final String modulePath) {
-    Validate.notNull(modulePath, "Module path required");
-    return getTypeCache().getTypeNamesForModuleFilePath(modulePath);
+    MetadataWorkerLock.lock();
+    try {
+      Validate.notNull(modulePath, "Module path required");
+      return getTypeCache().getTypeNamesForModuleFilePath(modulePath);
+    } finally {
+      MetadataWorkerLock.unlock();
+    }
   }
 
   public boolean hasTypeChanged(final String requestingClass, final JavaType javaType) {
-    Validate.notNull(requestingClass, "Requesting class required");
-    Validate.notNull(javaType, "Java type required");
-
-    updateTypeCache();
-    Set<String> changesSinceLastRequest = changeMap.get(requestingClass);
-    if (changesSinceLastRequest == null) {
-      changesSinceLastRequest = new LinkedHashSet<String>();
-      for (final String typeIdentifier : getTypeCache().getAllTypeIdentifiers()) {
-        changesSinceLastRequest.add(getTypeCache().getTypeDetails(typeIdentifier).getName()
-            .getFullyQualifiedTypeName());
-      }
-      changeMap.put(requestingClass, changesSinceLastRequest);
-    }
-    for (final String changedId : changesSinceLastRequest) {
-      if (changedId.equals(javaType.getFullyQualifiedTypeName())) {
-        changesSinceLastRequest.remove(changedId);
-        return true;
+    MetadataWorkerLock.lock();
+    try {
+      Validate.notNull(requestingClass, "Requesting class required");
+      Validate.notNull(javaType, "Java type required");
+
+      updateTypeCache();
+      if (!changeLog.isRegistered(requestingClass)) {
+        final Set<String> allTypes = new LinkedHashSet<String>();
+        for (final String typeIdentifier : getTypeCache().getAllTypeIdentifiers()) {
+          allTypes.add(getTypeCache().getTypeDetails(typeIdentifier).getName()
+              .getFullyQualifiedTypeName());
+        }
+        changeLog.register(requestingClass, allTypes);
       }
+      return changeLog.takeChange(requestingClass, javaType.getFullyQualifiedTypeName());
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    return false;
   }
 
   private void initTypeMap() {
+    final List<String> javaFiles = new ArrayList<String>();
     for (final Pom pom : getProjectOperations().getPoms()) {
       for (final PhysicalPath path : pom.getPhysicalPaths()) {
         if (path.isSource()) {
           final String allJavaFiles =
               FileUtils.ensureTrailingSeparator(path.getLocationPath()) + JAVA_FILES_ANT_PATH;
           for (final FileDetails file : getFileManager().findMatchingAntPath(allJavaFiles)) {
-            cacheType(file.getCanonicalPath());
+            javaFiles.add(file.getCanonicalPath());
           }
         }
       }
     }
+    cacheTypes(javaFiles);
   }
 
   public boolean isInProject(final JavaType javaType) {
@@ -576,61 +632,101 @@ public class TypeLocationServiceImpl implements TypeLocationService {
   }
 
   /**
-   * Obtains the a fresh copy of the {@link ClassOrInterfaceTypeDetails} for
-   * the given physical type.
+   * Obtains fresh copies of the {@link ClassOrInterfaceTypeDetails} of the
+   * given physical types, in one metadata request.
    * 
-   * @param physicalTypeIdentifier to lookup (required)
-   * @return the requested details (or <code>null</code> if unavailable)
+   * @param physicalTypeIdentifiers to lookup (required)
+   * @return key: physical type ID; value: the requested details (or
+   *         <code>null</code> if unavailable)
    */
-  private ClassOrInterfaceTypeDetails lookupClassOrInterfaceTypeDetails(
-      final String physicalTypeIdentifier) {
-    final PhysicalTypeMetadata physicalTypeMetadata =
-        (PhysicalTypeMetadata) getMetadataService().evictAndGet(physicalTypeIdentifier);
-    if (physicalTypeMetadata == null) {
-      return null;
+  private Map<String, ClassOrInterfaceTypeDetails> lookupClassOrInterfaceTypeDetails(
+      final Collection<String> physicalTypeIdentifiers) {
+    final MetadataService metadataService = getMetadataService();
+    for (final String physicalTypeIdentifier : physicalTypeIdentifiers) {
+      metadataService.evict(physicalTypeIdentifier);
+    }
+    final Map<String, ClassOrInterfaceTypeDetails> types =
+        new HashMap<String, ClassOrInterfaceTypeDetails>();
+    for (final Entry<String, MetadataItem> entry : metadataService.getAll(
+        physicalTypeIdentifiers).entrySet()) {
+      final PhysicalTypeMetadata physicalTypeMetadata = (PhysicalTypeMetadata) entry.getValue();
+      if (physicalTypeMetadata != null) {
+        types.put(entry.getKey(), physicalTypeMetadata.getMemberHoldingTypeDetails());
+      }
     }
-    return physicalTypeMetadata.getMemberHoldingTypeDetails();
+    return types;
   }
 
   public void processTypesWithAnnotation(final List<JavaType> annotationsToDetect,
       final LocatedTypeCallback callback) {
-    Validate.notNull(annotationsToDetect, "Annotations to detect required");
-    Validate.notNull(callback, "Callback required");
-    // If the cache doesn't yet contain the annotation to be found it should
-    // be added
-    for (final JavaType annotationType : annotationsToDetect) {
-      if (!annotationToMidMap.containsKey(annotationType)) {
-        annotationToMidMap.put(annotationType, new HashSet<String>());
+    MetadataWorkerLock.lock();
+    try {
+      Validate.notNull(annotationsToDetect, "Annotations to detect required");
+      Validate.notNull(callback, "Callback required");
+      // If the cache doesn't yet contain the annotation to be found it should
+      // be added
+      for (final JavaType annotationType : annotationsToDetect) {
+        if (!annotationToMidMap.containsKey(annotationType)) {
+          annotationToMidMap.put(annotationType, new HashSet<String>());
+        }
       }
+
+      // Before processing the call any changes to the project should be
+      // processed and the cache updated accordingly
+      updateTypeCache();
+
+      for (final JavaType annotationType : annotationsToDetect) {
+        for (final String locatedMid : annotationToMidMap.get(annotationType)) {
+          final ClassOrInterfaceTypeDetails located = getTypeCache().getTypeDetails(locatedMid);
+          callback.process(located);
+        }
+      }
+    } finally {
+      MetadataWorkerLock.unlock();
     }
+  }
+
+  private void processTypesWithTag(final Object tag, final LocatedTypeCallback callback) {
+    MetadataWorkerLock.lock();
+    try {
+      Validate.notNull(tag, "Tag required");
+      Validate.notNull(callback, "Callback required");
+      // If the cache doesn't yet contain the tag it should be added
+      if (!tagToMidMap.containsKey(tag)) {
+        tagToMidMap.put(tag, new HashSet<String>());
+      }
 
-    // Before processing the call any changes to the project should be
-    // processed and the cache updated accordingly
-    updateTypeCache();
+      // Before processing the call any changes to the project should be
+      // processed and the cache updated accordingly
+      updateTypeCache();
 
-    for (final JavaType annotationType : annotationsToDetect) {
-      for (final String locatedMid : annotationToMidMap.get(annotationType)) {
+      for (final String locatedMid : tagToMidMap.get(tag)) {
         final ClassOrInterfaceTypeDetails located = getTypeCache().getTypeDetails(locatedMid);
         callback.process(located);
       }
+    } finally {
+      MetadataWorkerLock.unlock();
     }
   }
 
-  private void processTypesWithTag(final Object tag, final LocatedTypeCallback callback) {
-    Validate.notNull(tag, "Tag required");
-    Validate.notNull(callback, "Callback required");
-    // If the cache doesn't yet contain the tag it should be added
-    if (!tagToMidMap.containsKey(tag)) {
-      tagToMidMap.put(tag, new HashSet<String>());
+  private void removeFromAttributeCache(final String physicalTypeId) {
+    final Set<JavaType> annotations = typeAnnotationMap.remove(physicalTypeId);
+    if (annotations != null) {
+      for (final JavaType annotation : annotations) {
+        final Set<String> midSet = annotationToMidMap.get(annotation);
+        if (midSet != null) {
+          midSet.remove(physicalTypeId);
+        }
+      }
     }
-
-    // Before processing the call any changes to the project should be
-    // processed and the cache updated accordingly
-    updateTypeCache();
-
-    for (final String locatedMid : tagToMidMap.get(tag)) {
-      final ClassOrInterfaceTypeDetails located = getTypeCache().getTypeDetails(locatedMid);
-      callback.process(located);
+    final Set<Object> customDataSet = typeCustomDataMap.remove(physicalTypeId);
+    if (customDataSet != null) {
+      for (final Object customData : customDataSet) {
+        final Set<String> midSet = tagToMidMap.get(customData);
+        if (midSet != null) {
+          midSet.remove(physicalTypeId);
+        }
+      }
     }
   }
 
@@ -677,12 +773,10 @@ public class TypeLocationServiceImpl implements TypeLocationService {
 
   private void updateChanges(final String typeName, final boolean remove) {
     Validate.notNull(typeName, "Type name required");
-    for (final String requestingClass : changeMap.keySet()) {
-      if (remove) {
-        changeMap.get(requestingClass).remove(typeName);
-      } else {
-        changeMap.get(requestingClass).add(typeName);
-      }
+    if (remove) {
+      changeLog.removed(typeName);
+    } else {
+      changeLog.changed(typeName);
     }
   }
 
@@ -692,35 +786,48 @@ public class TypeLocationServiceImpl implements TypeLocationService {
     }
     discoverTypes();
     // Update the type cache
-    for (final String change : dirtyFiles) {
-      cacheType(change);
-    }
+    cacheTypes(dirtyFiles);
     dirtyFiles.clear();
   }
 
   public void addDependencies(ModuleFeatureName moduleFeatureName,
       final Collection<? extends Dependency> newDependencies) {
-    for (String moduleName : getModuleNames(moduleFeatureName)) {
-      getProjectOperations().addDependencies(moduleName, newDependencies);
+    MetadataWorkerLock.lock();
+    try {
+      for (String moduleName : getModuleNames(moduleFeatureName)) {
+        getProjectOperations().addDependencies(moduleName, newDependencies);
+      }
+    } finally {
+      MetadataWorkerLock.unlock();
     }
   }
 
   public void addModuleDependency(final String moduleName, final JavaType moduleJavaTypeToDependUpon) {
-    if (moduleJavaTypeToDependUpon.getModule() != null) {
-      getProjectOperations()
-          .addModuleDependency(moduleName, moduleJavaTypeToDependUpon.getModule());
-    } else {
-      ClassOrInterfaceTypeDetails details = getTypeDetails(moduleJavaTypeToDependUpon);
-      if (details != null && details.getName().getModule() != null) {
-        getProjectOperations().addModuleDependency(moduleName, details.getName().getModule());
+    MetadataWorkerLock.lock();
+    try {
+      if (moduleJavaTypeToDependUpon.getModule() != null) {
+        getProjectOperations()
+            .addModuleDependency(moduleName, moduleJavaTypeToDependUpon.getModule());
+      } else {
+        ClassOrInterfaceTypeDetails details = getTypeDetails(moduleJavaTypeToDependUpon);
+        if (details != null && details.getName().getModule() != null) {
+          getProjectOperations().addModuleDependency(moduleName, details.getName().getModule());
+        }
       }
+    } finally {
+      MetadataWorkerLock.unlock();
     }
   }
 
   public void removeDependencies(ModuleFeatureName moduleFeatureName,
       final Collection<? extends Dependency> newDependencies) {
-    for (String moduleName : getModuleNames(moduleFeatureName)) {
-      getProjectOperations().removeDependencies(moduleName, newDependencies);
+    MetadataWorkerLock.lock();
+    try {
+      for (String moduleName : getModuleNames(moduleFeatureName)) {
+        getProjectOperations().removeDependencies(moduleName, newDependencies);
+      }
+    } finally {
+      MetadataWorkerLock.unlock();
     }
   }
 
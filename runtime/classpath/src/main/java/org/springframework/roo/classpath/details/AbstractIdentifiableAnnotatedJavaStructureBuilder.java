@@ -11,6 +11,7 @@ import org.apache.commons.lang3.Validate;
 import org.springframework.roo.classpath.details.annotations.AnnotationAttributeValue;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.Builder;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
@@ -57,6 +58,15 @@ public abstract class AbstractIdentifiableAnnotatedJavaStructureBuilder<T extend
     return annotations.add(annotationBuilder);
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    fingerprint.append(annotations.size());
+    for (final AnnotationMetadataBuilder annotationBuilder : annotations) {
+      fingerprint.append(AnnotationMetadataUtils.toSourceForm(annotationBuilder.build()));
+    }
+  }
+
   public final List<AnnotationMetadata> buildAnnotations() {
     final List<AnnotationMetadata> result = new ArrayList<AnnotationMetadata>();
     for (final AnnotationMetadataBuilder annotationBuilder : annotations) {
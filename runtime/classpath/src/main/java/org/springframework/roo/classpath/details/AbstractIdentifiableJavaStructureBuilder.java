@@ -1,6 +1,12 @@
 package org.springframework.roo.classpath.details;
 
+import java.util.List;
+
+import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.Validate;
+import org.springframework.roo.classpath.details.comments.AbstractComment;
+import org.springframework.roo.classpath.details.comments.CommentStructure;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.model.AbstractCustomDataAccessorBuilder;
 import org.springframework.roo.model.Builder;
@@ -54,6 +60,50 @@ public abstract class AbstractIdentifiableJavaStructureBuilder<T extends Identif
     this.modifier = existing.getModifier();
   }
 
+  /**
+   * Appends the content of the Java structure being built to the given
+   * fingerprint. Subclasses append their own content after calling this
+   * method.
+   * 
+   * @param fingerprint the fingerprint being computed (required)
+   * @since 2.0
+   */
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    fingerprint.append(declaredByMetadataId).append(modifier);
+    fingerprint.append(getCustomData().size());
+    for (final Object key : getCustomData().keySet()) {
+      fingerprint.append(String.valueOf(key)).append(
+          ObjectUtils.hashCode(getCustomData().get(key)));
+    }
+  }
+
+  /**
+   * Appends the given comments to the given fingerprint.
+   * 
+   * @param fingerprint the fingerprint being computed (required)
+   * @param commentStructure the comments (can be <code>null</code>)
+   * @since 2.0
+   */
+  protected final void appendFingerprint(final MetadataFingerprintBuilder fingerprint,
+      final CommentStructure commentStructure) {
+    fingerprint.append(commentStructure != null);
+    if (commentStructure != null) {
+      appendFingerprint(fingerprint, commentStructure.getBeginComments());
+      appendFingerprint(fingerprint, commentStructure.getInternalComments());
+      appendFingerprint(fingerprint, commentStructure.getEndComments());
+    }
+  }
+
+  private void appendFingerprint(final MetadataFingerprintBuilder fingerprint,
+      final List<AbstractComment> comments) {
+    fingerprint.append(comments == null ? -1 : comments.size());
+    if (comments != null) {
+      for (final AbstractComment comment : comments) {
+        fingerprint.append(comment.getClass().getName()).append(comment.getComment());
+      }
+    }
+  }
+
   public String getDeclaredByMetadataId() {
     return declaredByMetadataId;
   }
@@ -6,6 +6,7 @@ import java.util.List;
 import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
 import org.springframework.roo.classpath.details.comments.CommentStructure;
 import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 
@@ -69,6 +70,25 @@ public abstract class AbstractInvocableMemberMetadataBuilder<T extends Invocable
     return throwsTypes.add(throwsType);
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    fingerprint.append(getBody()).append(genericDefinition);
+    fingerprint.append(parameterTypes.size());
+    for (final AnnotatedJavaType parameterType : parameterTypes) {
+      fingerprint.append(parameterType.toString());
+    }
+    fingerprint.append(parameterNames.size());
+    for (final JavaSymbolName parameterName : parameterNames) {
+      fingerprint.append(parameterName.getSymbolName());
+    }
+    fingerprint.append(throwsTypes.size());
+    for (final JavaType throwsType : throwsTypes) {
+      fingerprint.append(throwsType.toString());
+    }
+    appendFingerprint(fingerprint, commentStructure);
+  }
+
   public String getBody() {
     if (bodyBuilder != null) {
       return bodyBuilder.getOutput();
@@ -6,6 +6,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
+import org.springframework.roo.metadata.MetadataFingerprint;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.Builder;
 import org.springframework.roo.model.JavaType;
 
@@ -189,6 +191,41 @@ public abstract class AbstractMemberHoldingTypeDetailsBuilder<T extends MemberHo
     return declaredMethods.add(methodBuilder);
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    appendFingerprint(fingerprint, declaredConstructors);
+    appendFingerprint(fingerprint, declaredFields);
+    appendFingerprint(fingerprint, declaredInitializers);
+    appendFingerprint(fingerprint, declaredInnerTypes);
+    appendFingerprint(fingerprint, declaredMethods);
+    appendTypes(fingerprint, extendsTypes);
+    appendTypes(fingerprint, implementsTypes);
+  }
+
+  private void appendFingerprint(final MetadataFingerprintBuilder fingerprint,
+      final List<? extends AbstractIdentifiableJavaStructureBuilder<?>> builders) {
+    fingerprint.append(builders.size());
+    for (final AbstractIdentifiableJavaStructureBuilder<?> builder : builders) {
+      builder.appendFingerprint(fingerprint);
+    }
+  }
+
+  /**
+   * Appends the given types to the given fingerprint, in order.
+   * 
+   * @param fingerprint the fingerprint being computed (required)
+   * @param types the types to append (required)
+   * @since 2.0
+   */
+  protected final void appendTypes(final MetadataFingerprintBuilder fingerprint,
+      final Collection<JavaType> types) {
+    fingerprint.append(types.size());
+    for (final JavaType type : types) {
+      fingerprint.append(String.valueOf(type));
+    }
+  }
+
   public final List<ConstructorMetadata> buildConstructors() {
     final List<ConstructorMetadata> result = new ArrayList<ConstructorMetadata>();
     for (final ConstructorMetadataBuilder builder : declaredConstructors) {
@@ -273,6 +310,20 @@ public abstract class AbstractMemberHoldingTypeDetailsBuilder<T extends MemberHo
     return extendsTypes;
   }
 
+  /**
+   * Returns a fingerprint of the type details this builder would currently
+   * build, which is cheaper to compute than building and rendering them.
+   * Builders holding equal content return equal fingerprints.
+   * 
+   * @return a non-<code>null</code> fingerprint
+   * @since 2.0
+   */
+  public final MetadataFingerprint getFingerprint() {
+    final MetadataFingerprintBuilder fingerprint = new MetadataFingerprintBuilder();
+    appendFingerprint(fingerprint);
+    return fingerprint.build();
+  }
+
   public final List<JavaType> getImplementsTypes() {
     return implementsTypes;
   }
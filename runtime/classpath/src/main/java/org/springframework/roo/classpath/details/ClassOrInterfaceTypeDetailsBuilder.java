@@ -5,10 +5,13 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.apache.commons.lang3.Validate;
 import org.springframework.roo.classpath.PhysicalTypeCategory;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 
@@ -112,6 +115,30 @@ public class ClassOrInterfaceTypeDetailsBuilder extends
     }
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    fingerprint.append(String.valueOf(name)).append(String.valueOf(physicalTypeCategory));
+    fingerprint.append(enumConstants.size());
+    for (final JavaSymbolName enumConstant : enumConstants) {
+      fingerprint.append(enumConstant.getSymbolName());
+    }
+    // The imports are held in no particular order
+    final SortedSet<String> imports = new TreeSet<String>();
+    for (final ImportMetadata importMetadata : registeredImports) {
+      imports.add((importMetadata.isStatic() ? "static " : "") + importMetadata.getImportType()
+          + (importMetadata.isAsterisk() ? ".*" : ""));
+    }
+    fingerprint.append(imports.size());
+    for (final String anImport : imports) {
+      fingerprint.append(anImport);
+    }
+    fingerprint.append(superclass != null);
+    if (superclass != null) {
+      superclass.appendFingerprint(fingerprint);
+    }
+  }
+
   public ClassOrInterfaceTypeDetails build() {
     ClassOrInterfaceTypeDetails superclass = null;
     if (this.superclass != null) {
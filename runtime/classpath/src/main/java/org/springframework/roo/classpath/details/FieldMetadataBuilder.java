@@ -6,6 +6,7 @@ import org.springframework.roo.classpath.details.annotations.AnnotationMetadataB
 import org.springframework.roo.classpath.details.comments.CommentStructure;
 import org.springframework.roo.classpath.details.comments.JavadocComment;
 import org.springframework.roo.classpath.details.FieldDetails;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 
@@ -94,6 +95,14 @@ public class FieldMetadataBuilder extends
     }
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    fingerprint.append(String.valueOf(fieldName)).append(String.valueOf(fieldType))
+        .append(fieldInitializer);
+    appendFingerprint(fingerprint, commentStructure);
+  }
+
   public FieldMetadata build() {
     DefaultFieldMetadata md =
         new DefaultFieldMetadata(getCustomData().build(), getDeclaredByMetadataId(), getModifier(),
@@ -3,6 +3,7 @@ package org.springframework.roo.classpath.details;
 import java.lang.reflect.Modifier;
 
 import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 
 /**
  * Builder for {@link InitializerMetadata}.
@@ -37,6 +38,12 @@ public class InitializerMetadataBuilder extends
     this.bodyBuilder = bodyBuilder;
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    fingerprint.append(isStatic).append(getBody());
+  }
+
   public InitializerMetadata build() {
     return new DefaultInitializerMetadata(getCustomData().build(), getDeclaredByMetadataId(),
         getModifier(), isStatic, getBodyBuilder().getOutput());
@@ -6,13 +6,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
 
 import org.apache.commons.lang3.Validate;
 import org.springframework.roo.classpath.PhysicalTypeIdentifier;
 import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.ImportRegistrationResolver;
 import org.springframework.roo.model.ImportRegistrationResolverImpl;
 import org.springframework.roo.model.JavaType;
@@ -162,6 +165,34 @@ public class ItdTypeDetailsBuilder extends AbstractMemberHoldingTypeDetailsBuild
     CollectionUtils.populate(declarePrecedence, Arrays.asList(aspects));
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    fingerprint.append(aspect.toString()).append(governor.getName().toString())
+        .append(governor.getModifier()).append(privilegedAspect);
+    final SortedMap<JavaType, Boolean> imports = importRegistrationResolver.getRegisteredImports();
+    fingerprint.append(imports.size());
+    for (final Entry<JavaType, Boolean> anImport : imports.entrySet()) {
+      fingerprint.append(anImport.getKey().toString()).append(anImport.getValue());
+    }
+    fingerprint.append(fieldAnnotations.size());
+    for (final DeclaredFieldAnnotationDetails fieldAnnotation : fieldAnnotations) {
+      fingerprint.append(fieldAnnotation.getField().getDeclaredByMetadataId())
+          .append(fieldAnnotation.getField().getFieldName().getSymbolName())
+          .append(AnnotationMetadataUtils.toSourceForm(fieldAnnotation.getFieldAnnotation()))
+          .append(fieldAnnotation.isRemoveAnnotation());
+    }
+    fingerprint.append(methodAnnotations.size());
+    for (final DeclaredMethodAnnotationDetails methodAnnotation : methodAnnotations) {
+      final MethodMetadata method = methodAnnotation.getMethodMetadata();
+      fingerprint.append(method.getDeclaredByMetadataId())
+          .append(method.getMethodName().getSymbolName())
+          .append(String.valueOf(method.getParameterTypes()))
+          .append(AnnotationMetadataUtils.toSourceForm(methodAnnotation.getMethodAnnotation()));
+    }
+    appendTypes(fingerprint, declarePrecedence);
+  }
+
   public ItdTypeDetails build() {
     return new DefaultItdTypeDetails(getCustomData().build(), getDeclaredByMetadataId(),
         getModifier(), governor, aspect, privilegedAspect,
@@ -7,6 +7,7 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
 import org.springframework.roo.classpath.details.comments.CommentStructure;
 import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 
@@ -76,6 +77,12 @@ public final class MethodMetadataBuilder extends
     init(existing.getMethodName(), existing.getReturnType());
   }
 
+  @Override
+  protected void appendFingerprint(final MetadataFingerprintBuilder fingerprint) {
+    super.appendFingerprint(fingerprint);
+    fingerprint.append(String.valueOf(methodName)).append(String.valueOf(returnType));
+  }
+
   public MethodMetadata build() {
     DefaultMethodMetadata methodMetadata =
         new DefaultMethodMetadata(getCustomData().build(), getDeclaredByMetadataId(),
@@ -1,5 +1,6 @@
 package org.springframework.roo.classpath.itd;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.osgi.service.component.ComponentContext;
@@ -16,9 +17,13 @@ import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
 import org.springframework.roo.classpath.persistence.PersistenceMemberLocator;
 import org.springframework.roo.classpath.scanner.MemberDetails;
 import org.springframework.roo.classpath.scanner.MemberDetailsScanner;
+import org.springframework.roo.file.monitor.event.FileDetails;
 import org.springframework.roo.metadata.AbstractHashCodeTrackingMetadataNotifier;
+import org.springframework.roo.metadata.FingerprintedMetadataItem;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataFingerprint;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.metadata.MetadataItem;
 import org.springframework.roo.metadata.MetadataNotificationListener;
 import org.springframework.roo.metadata.MetadataProvider;
@@ -28,8 +33,13 @@ import org.springframework.roo.project.LogicalPath;
 import org.springframework.roo.project.Path;
 import org.springframework.roo.support.logging.HandlerUtils;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 
 /**
@@ -66,6 +76,24 @@ import java.util.logging.Logger;
 public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTrackingMetadataNotifier
     implements ItdTriggerBasedMetadataProvider, MetadataNotificationListener {
 
+  /**
+   * What this provider last wrote to an ITD file.
+   */
+  private static class WrittenItd {
+
+    /** the fingerprint of the contents written */
+    final MetadataFingerprint contents;
+    /** the fingerprint of the metadata the contents were composed from */
+    final MetadataFingerprint metadata;
+    /** when the file was last found to hold those contents (0 = never) */
+    long verifiedLastModified;
+
+    WrittenItd(final MetadataFingerprint metadata, final String contents) {
+      this.contents = new MetadataFingerprintBuilder().append(contents).build();
+      this.metadata = metadata;
+    }
+  }
+
   protected final static Logger LOGGER = HandlerUtils.getLogger(AbstractItdMetadataProvider.class);
 
   protected void activate(final ComponentContext cContext) {
@@ -90,9 +118,15 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
 
   /**
    * The annotations which, if present on a class or interface, will cause
-   * metadata to be created
+   * metadata to be created; copied on write, as {@link MemberDetailsScanner}
+   * reads them concurrently
    */
-  private final List<JavaType> metadataTriggers = new ArrayList<JavaType>();
+  private final List<JavaType> metadataTriggers = new CopyOnWriteArrayList<JavaType>();
+
+  /**
+   * The ITDs last written to disk; key: metadata ID
+   */
+  private final Map<String, WrittenItd> writtenItds = new HashMap<String, WrittenItd>();
 
   /**
    * Registers an additional {@link JavaType} that will trigger metadata
@@ -162,14 +196,16 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
   private void deleteItd(final String metadataIdentificationString, final String itdFilename,
       final String reason, final boolean now) {
 
+    writtenItds.remove(metadataIdentificationString);
     if (now) {
       getFileManager().delete(itdFilename, reason);
     } else {
       getFileManager().createOrUpdateTextFileIfRequired(itdFilename, "", false);
     }
     getItdDiscoveryService().removeItdTypeDetails(metadataIdentificationString);
-    // TODO do we need to notify downstream dependencies that this ITD has
-    // gone away?
+    // Downstream dependencies (e.g. memoized member details) must not keep
+    // using this ITD's members
+    notifyRemoved(metadataIdentificationString);
   }
 
   public final MetadataItem get(final String metadataIdentificationString) {
@@ -277,7 +313,15 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
         deleteItdFile = true;
       }
 
-      if (!deleteItdFile) {
+      // Skip composing the ITD if its content is unchanged since we last
+      // wrote it, and nobody has edited the file since
+      final MetadataFingerprint fingerprint =
+          metadata instanceof FingerprintedMetadataItem ? ((FingerprintedMetadataItem) metadata)
+              .getFingerprint() : null;
+      if (!deleteItdFile && fingerprint != null
+          && isWrittenItdUpToDate(metadataIdentificationString, fingerprint, itdFilename)) {
+        getItdDiscoveryService().addItdTypeDetails(itdTypeDetails);
+      } else if (!deleteItdFile) {
         // We have some members in the ITD, so decide if we're to write
         // something to disk
         final ItdSourceFileComposer itdSourceFileComposer =
@@ -290,6 +334,9 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
           getItdDiscoveryService().addItdTypeDetails(itdTypeDetails);
           final String itd = itdSourceFileComposer.getOutput();
           getFileManager().createOrUpdateTextFileIfRequired(itdFilename, itd, false);
+          if (fingerprint != null) {
+            writtenItds.put(metadataIdentificationString, new WrittenItd(fingerprint, itd));
+          }
         } else {
           // We don't have content to write
           deleteItdFile = true;
@@ -301,9 +348,8 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
       }
 
       // Eagerly notify that the metadata has been updated; this also
-      // registers the metadata hash code in the superclass' cache to
-      // avoid
-      // unnecessary subsequent notifications if it hasn't changed
+      // registers the metadata fingerprint in the superclass' cache to
+      // avoid unnecessary subsequent notifications if it hasn't changed
       notifyIfRequired(metadata);
 
       return metadata;
@@ -448,6 +494,10 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
       String metadataIdentificationString, JavaType aspectName,
       PhysicalTypeMetadata governorPhysicalTypeMetadata, String itdFilename);
 
+  public List<JavaType> getMetadataTriggers() {
+    return Collections.unmodifiableList(metadataTriggers);
+  }
+
   /**
    * Looks up the given type's inheritance hierarchy for metadata of the given
    * type, starting with the given type's parent and going upwards until the
@@ -492,7 +542,7 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
     return type.getPhysicalTypeCategory() == PhysicalTypeCategory.INTERFACE;
   }
 
-  protected boolean isIgnoreTriggerAnnotations() {
+  public boolean isIgnoreTriggerAnnotations() {
     return ignoreTriggerAnnotations;
   }
 
@@ -502,6 +552,44 @@ public abstract class AbstractItdMetadataProvider extends AbstractHashCodeTracki
             .getMetadataIdentiferType()));
   }
 
+  /**
+   * Indicates whether the ITD file of the given metadata holds what this
+   * provider last wrote to it, and was composed from metadata with the given
+   * fingerprint. The file's contents are only read if it was modified since
+   * they were last found to match.
+   */
+  private boolean isWrittenItdUpToDate(final String metadataIdentificationString,
+      final MetadataFingerprint fingerprint, final String itdFilename) {
+    final WrittenItd writtenItd = writtenItds.get(metadataIdentificationString);
+    if (writtenItd == null || !fingerprint.equals(writtenItd.metadata)) {
+      return false;
+    }
+    final FileDetails itdFile = getFileManager().readFile(itdFilename);
+    if (itdFile == null) {
+      // Deleted by hand
+      return false;
+    }
+    final long lastModified = itdFile.getLastModified();
+    if (lastModified == writtenItd.verifiedLastModified) {
+      return true;
+    }
+    InputStream contents = null;
+    try {
+      contents = getFileManager().getInputStream(itdFilename);
+      if (!writtenItd.contents.equals(new MetadataFingerprintBuilder().append(
+          IOUtils.toString(contents)).build())) {
+        // Edited by hand
+        return false;
+      }
+    } catch (final IOException e) {
+      return false;
+    } finally {
+      IOUtils.closeQuietly(contents);
+    }
+    writtenItd.verifiedLastModified = lastModified;
+    return true;
+  }
+
   public final void notify(final String upstreamDependency, String downstreamDependency) {
     if (downstreamDependency == null) {
       notifyForGenericListener(upstreamDependency);
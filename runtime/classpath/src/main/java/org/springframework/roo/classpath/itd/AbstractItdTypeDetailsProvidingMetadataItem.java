@@ -9,6 +9,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -27,6 +29,9 @@ import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
 import org.springframework.roo.metadata.AbstractMetadataItem;
+import org.springframework.roo.metadata.FingerprintedMetadataItem;
+import org.springframework.roo.metadata.MetadataFingerprint;
+import org.springframework.roo.metadata.MetadataFingerprintBuilder;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.model.JdkJavaType;
@@ -37,13 +42,35 @@ import org.springframework.roo.model.SpringJavaType;
  * assumes the subclass will require a non-null
  * {@link ClassOrInterfaceTypeDetails} representing the governor and wishes to
  * build an ITD via the {@link ItdTypeDetailsBuilder} mechanism.
+ * <p>
+ * The {@link #getFingerprint() fingerprint} of such an item is that of its
+ * builder, combined with the governor's custom data. Subclasses whose {@link #hashCode()} covers more than their ITD
+ * have that hash code mixed into the fingerprint.
  *
  * @author Ben Alex
  * @author Juan Carlos García
  * @since 1.0
  */
 public abstract class AbstractItdTypeDetailsProvidingMetadataItem extends AbstractMetadataItem
-    implements ItdTypeDetailsProvidingMetadataItem {
+    implements ItdTypeDetailsProvidingMetadataItem, FingerprintedMetadataItem {
+
+  /** key: subclass; value: whether it overrides {@link #hashCode()} */
+  private static final ConcurrentMap<Class<?>, Boolean> OVERRIDES_HASH_CODE =
+      new ConcurrentHashMap<Class<?>, Boolean>();
+
+  private static boolean overridesHashCode(final Class<?> metadataClass) {
+    Boolean result = OVERRIDES_HASH_CODE.get(metadataClass);
+    if (result == null) {
+      try {
+        final Class<?> declaringClass = metadataClass.getMethod("hashCode").getDeclaringClass();
+        result = declaringClass != AbstractItdTypeDetailsProvidingMetadataItem.class;
+      } catch (final NoSuchMethodException e) {
+        throw new IllegalStateException(e);
+      }
+      OVERRIDES_HASH_CODE.put(metadataClass, result);
+    }
+    return result;
+  }
 
   protected JavaType aspectName;
   protected ItdTypeDetailsBuilder builder;
@@ -51,6 +78,7 @@ public abstract class AbstractItdTypeDetailsProvidingMetadataItem extends Abstra
   protected PhysicalTypeMetadata governorPhysicalTypeMetadata;
   protected ClassOrInterfaceTypeDetails governorTypeDetails;
   protected ItdTypeDetails itdTypeDetails;
+  private MetadataFingerprint fingerprint;
 
   protected Map<FieldMetadata, MethodMetadataBuilder> accessorMethods;
   protected Map<FieldMetadata, MethodMetadataBuilder> mutatorMethods;
@@ -305,6 +333,28 @@ public abstract class AbstractItdTypeDetailsProvidingMetadataItem extends Abstra
     return getField(PRIVATE, fieldName, fieldType, null);
   }
 
+  /**
+   * Returns the fingerprint of this item, which is computed once, from the
+   * contents of its {@link ItdTypeDetailsBuilder} and the custom data of its
+   * governor. Subclasses should
+   * therefore only call it once their ITD is complete.
+   *
+   * @since 2.0
+   */
+  public MetadataFingerprint getFingerprint() {
+    if (fingerprint == null) {
+      final MetadataFingerprintBuilder fingerprintBuilder = new MetadataFingerprintBuilder();
+      fingerprintBuilder.append(getId()).append(valid).append(itdTypeDetails != null)
+          .append(builder.getFingerprint())
+          .append(governorTypeDetails.getCustomData().hashCode());
+      if (overridesHashCode(getClass())) {
+        fingerprintBuilder.append(hashCode());
+      }
+      fingerprint = fingerprintBuilder.build();
+    }
+    return fingerprint;
+  }
+
   /**
    * Returns the given method of the governor.
    *
@@ -1,5 +1,7 @@
 package org.springframework.roo.classpath.itd;
 
+import java.util.List;
+
 import org.springframework.roo.classpath.TriggerBasedMetadataProvider;
 import org.springframework.roo.model.JavaType;
 
@@ -13,4 +15,25 @@ import org.springframework.roo.model.JavaType;
  */
 public interface ItdTriggerBasedMetadataProvider extends ItdMetadataProvider,
     TriggerBasedMetadataProvider {
+
+  /**
+   * Returns the annotations that cause this provider to produce metadata for
+   * a type annotated with any of them, unless
+   * {@link #isIgnoreTriggerAnnotations()}. Callers can skip the metadata
+   * lookup for a type that has none of them.
+   * 
+   * @return an unmodifiable list (never <code>null</code>)
+   * @since 2.0
+   */
+  List<JavaType> getMetadataTriggers();
+
+  /**
+   * Indicates whether this provider produces metadata regardless of the
+   * annotations of a type, i.e. its {@link #getMetadataTriggers()} are not
+   * significant.
+   * 
+   * @return see above
+   * @since 2.0
+   */
+  boolean isIgnoreTriggerAnnotations();
 }
@@ -5,8 +5,10 @@ import static org.springframework.roo.classpath.customdata.CustomDataKeys.EMBEDD
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
@@ -17,6 +19,7 @@ import org.springframework.roo.classpath.details.FieldMetadata;
 import org.springframework.roo.classpath.details.MemberFindingUtils;
 import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
 import org.springframework.roo.classpath.details.MethodMetadata;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.persistence.PersistenceMemberLocator;
 import org.springframework.roo.model.JavaSymbolName;
@@ -25,14 +28,36 @@ import org.springframework.roo.support.util.CollectionUtils;
 
 /**
  * Default implementation of {@link MemberDetails}.
+ * <p>
+ * Lookups by method name, annotation type and custom data tag use indexes
+ * that are built on first use; as the member holders are immutable, so are
+ * the indexes.
  * 
  * @author Ben Alex
  * @since 1.1
  */
 public class MemberDetailsImpl implements MemberDetails {
 
+  private static <K, V> void addToIndex(final Map<K, List<V>> index, final K key, final V value) {
+    List<V> values = index.get(key);
+    if (values == null) {
+      values = new ArrayList<V>(1);
+      index.put(key, values);
+    }
+    values.add(value);
+  }
+
   private final List<MemberHoldingTypeDetails> details = new ArrayList<MemberHoldingTypeDetails>();
 
+  // Indexes, built on first use (by several threads at worst); the methods
+  // of each list are in the order of getMethods()
+  /** key: type-level annotation; value: member holders annotated with it */
+  private volatile Map<JavaType, List<MemberHoldingTypeDetails>> holdersByAnnotation;
+  private volatile Map<JavaSymbolName, List<MethodMetadata>> methodsByName;
+  /** The methods of the first member holder declaring any of a given name */
+  private volatile Map<JavaSymbolName, List<MethodMetadata>> methodsByNameInFirstHolder;
+  private volatile Map<Object, List<MethodMetadata>> methodsByTag;
+
   /**
    * Constructs a new instance.
    * 
@@ -46,7 +71,7 @@ public class MemberDetailsImpl implements MemberDetails {
 
   public AnnotationMetadata getAnnotation(final JavaType type) {
     Validate.notNull(type, "Annotation type to locate required");
-    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
+    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : getHoldersAnnotatedWith(type)) {
       final AnnotationMetadata md = memberHoldingTypeDetails.getAnnotation(type);
       if (md != null) {
         return md;
@@ -83,51 +108,60 @@ public class MemberDetailsImpl implements MemberDetails {
     return result;
   }
 
-  public MethodMetadata getMethod(final JavaSymbolName methodName) {
-    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
-      final MethodMetadata md =
-          MemberFindingUtils.getDeclaredMethod(memberHoldingTypeDetails, methodName);
-      if (md != null) {
-        return md;
+  private List<MemberHoldingTypeDetails> getHoldersAnnotatedWith(final JavaType annotationType) {
+    Map<JavaType, List<MemberHoldingTypeDetails>> index = holdersByAnnotation;
+    if (index == null) {
+      index = new HashMap<JavaType, List<MemberHoldingTypeDetails>>();
+      for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
+        for (final AnnotationMetadata annotation : memberHoldingTypeDetails.getAnnotations()) {
+          final List<MemberHoldingTypeDetails> holders =
+              index.get(annotation.getAnnotationType());
+          // Once per holder, however often it's annotated with the type
+          if (holders == null || holders.get(holders.size() - 1) != memberHoldingTypeDetails) {
+            addToIndex(index, annotation.getAnnotationType(), memberHoldingTypeDetails);
+          }
+        }
       }
+      holdersByAnnotation = index;
     }
-    return null;
+    final List<MemberHoldingTypeDetails> holders = index.get(annotationType);
+    return holders == null ? Collections.<MemberHoldingTypeDetails>emptyList() : holders;
   }
 
-  public List<MethodMetadata> getMethods(final JavaSymbolName methodName) {
-    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
-      final List<MethodMetadata> md =
-          MemberFindingUtils.getDeclaredMethods(memberHoldingTypeDetails, methodName);
-      if (md != null && !md.isEmpty()) {
-        return md;
-      }
-    }
-    return null;
+  public MethodMetadata getMethod(final JavaSymbolName methodName) {
+    final List<MethodMetadata> methods = getMethodsNamed(methodName);
+    return methods.isEmpty() ? null : methods.get(0);
   }
 
   public MethodMetadata getMethod(final JavaSymbolName methodName, final List<JavaType> parameters) {
-    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
-      final MethodMetadata md =
-          MemberFindingUtils.getDeclaredMethod(memberHoldingTypeDetails, methodName, parameters);
-      if (md != null) {
-        return md;
-      }
-    }
-    return null;
+    return getMethod(methodName, parameters, null);
   }
 
   public MethodMetadata getMethod(final JavaSymbolName methodName, final List<JavaType> parameters,
       final String excludingMid) {
-    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
-      final MethodMetadata method =
-          MemberFindingUtils.getDeclaredMethod(memberHoldingTypeDetails, methodName, parameters);
-      if (method != null && !method.getDeclaredByMetadataId().equals(excludingMid)) {
+    final List<JavaType> parameterTypes =
+        parameters == null ? Collections.<JavaType>emptyList() : parameters;
+    for (final MethodMetadata method : getMethodsNamed(methodName)) {
+      // Compared as by MemberFindingUtils, as JavaType#equals isn't
+      // symmetric for parameterized types
+      if (AnnotatedJavaType.convertFromAnnotatedJavaTypes(method.getParameterTypes()).equals(
+          parameterTypes)
+          && (excludingMid == null || !method.getDeclaredByMetadataId().equals(excludingMid))) {
         return method;
       }
     }
     return null;
   }
 
+  public List<MethodMetadata> getMethods(final JavaSymbolName methodName) {
+    if (methodsByNameInFirstHolder == null) {
+      getMethodsNamed(methodName);
+    }
+    final List<MethodMetadata> methods = methodsByNameInFirstHolder.get(methodName);
+    // A copy, as callers have always been free to modify the result
+    return methods == null ? null : new ArrayList<MethodMetadata>(methods);
+  }
+
   public List<MethodMetadata> getMethods() {
     final List<MethodMetadata> result = new ArrayList<MethodMetadata>();
     for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
@@ -136,15 +170,47 @@ public class MemberDetailsImpl implements MemberDetails {
     return result;
   }
 
+  private List<MethodMetadata> getMethodsNamed(final JavaSymbolName methodName) {
+    Map<JavaSymbolName, List<MethodMetadata>> index = methodsByName;
+    if (index == null) {
+      index = new HashMap<JavaSymbolName, List<MethodMetadata>>();
+      final Map<JavaSymbolName, List<MethodMetadata>> firstHolderIndex =
+          new HashMap<JavaSymbolName, List<MethodMetadata>>();
+      for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
+        final Set<JavaSymbolName> firstDeclaredHere = new LinkedHashSet<JavaSymbolName>();
+        for (final MethodMetadata method : memberHoldingTypeDetails.getDeclaredMethods()) {
+          final JavaSymbolName name = method.getMethodName();
+          if (!index.containsKey(name) || firstDeclaredHere.contains(name)) {
+            firstDeclaredHere.add(name);
+            addToIndex(firstHolderIndex, name, method);
+          }
+          addToIndex(index, name, method);
+        }
+      }
+      // The second index is published first, as the first one guards both
+      methodsByNameInFirstHolder = firstHolderIndex;
+      methodsByName = index;
+    }
+    final List<MethodMetadata> methods = index.get(methodName);
+    return methods == null ? Collections.<MethodMetadata>emptyList() : methods;
+  }
+
   public List<MethodMetadata> getMethodsWithTag(final Object tagKey) {
     Validate.notNull(tagKey, "Custom data key required");
-    final List<MethodMetadata> result = new ArrayList<MethodMetadata>();
-    for (final MethodMetadata method : getMethods()) {
-      if (method.getCustomData().keySet().contains(tagKey)) {
-        result.add(method);
+    Map<Object, List<MethodMetadata>> index = methodsByTag;
+    if (index == null) {
+      index = new HashMap<Object, List<MethodMetadata>>();
+      for (final MethodMetadata method : getMethods()) {
+        for (final Object key : method.getCustomData().keySet()) {
+          addToIndex(index, key, method);
+        }
       }
+      methodsByTag = index;
     }
-    return result;
+    final List<MethodMetadata> methods = index.get(tagKey);
+    // A copy, as callers have always been free to modify the result
+    return methods == null ? new ArrayList<MethodMetadata>() : new ArrayList<MethodMetadata>(
+        methods);
   }
 
   public MethodMetadata getMostConcreteMethodWithTag(final Object tagKey) {
@@ -195,7 +261,8 @@ public class MemberDetailsImpl implements MemberDetails {
 
   public boolean isRequestingAnnotatedWith(final AnnotationMetadata annotationMetadata,
       final String requestingMid) {
-    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : details) {
+    for (final MemberHoldingTypeDetails memberHoldingTypeDetails : getHoldersAnnotatedWith(annotationMetadata
+        .getAnnotationType())) {
       if (MemberFindingUtils.getAnnotationOfType(memberHoldingTypeDetails.getAnnotations(),
           annotationMetadata.getAnnotationType()) != null) {
         if (memberHoldingTypeDetails.getDeclaredByMetadataId().equals(requestingMid)) {
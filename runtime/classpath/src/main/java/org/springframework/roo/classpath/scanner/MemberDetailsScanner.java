@@ -1,7 +1,12 @@
 package org.springframework.roo.classpath.scanner;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.metadata.MetadataService;
 import org.springframework.roo.model.CustomDataAccessor;
 import org.springframework.roo.model.JavaType;
 
@@ -35,6 +40,43 @@ import org.springframework.roo.model.JavaType;
  */
 public interface MemberDetailsScanner {
 
+  /**
+   * Builds the {@link MemberDetails} of each of the given types, as
+   * {@link #getMemberDetails(String, ClassOrInterfaceTypeDetails)} would, but
+   * first acquires the ITD metadata of all of them (and of their
+   * superclasses) in a single {@link MetadataService#getAll(Collection)}
+   * request. Suits commands that process every type of a project.
+   * 
+   * @param requestingClass the fully-qualified class name requesting the
+   *            member details (required; may be used for result
+   *            customization)
+   * @param cids the classes or interfaces for which to build member
+   *            information (required, may be empty)
+   * @return the discovered member details, in the order of the given types
+   * @since 2.0
+   */
+  List<MemberDetails> getAllMemberDetails(String requestingClass,
+      Collection<ClassOrInterfaceTypeDetails> cids);
+
+  /**
+   * Returns the IDs of the ITD metadata that may contribute members to the
+   * given types or their superclasses, i.e. the metadata that
+   * {@link #getMemberDetails(String, ClassOrInterfaceTypeDetails)} would
+   * acquire for them. Unlike that method, this one builds and retains no
+   * {@link MemberDetails}, so it suits callers that only want the metadata
+   * computed, such as a warm-up of the metadata cache.
+   * 
+   * @param requestingClass the fully-qualified class name of the requesting
+   *            ITD metadata provider, whose own metadata is left out
+   *            (required)
+   * @param cids the classes or interfaces whose ITD metadata to identify
+   *            (required, may be empty)
+   * @return a new set of IDs, in the order of the given types
+   * @since 2.0
+   */
+  Set<String> getItdMetadataIds(String requestingClass,
+      Collection<ClassOrInterfaceTypeDetails> cids);
+
   /**
    * Builds {@link MemberDetails} instance for the given
    * {@link ClassOrInterfaceTypeDetails}. In particular, this includes all ITD
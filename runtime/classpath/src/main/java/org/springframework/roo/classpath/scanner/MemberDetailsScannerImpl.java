@@ -1,13 +1,21 @@
 package org.springframework.roo.classpath.scanner;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferenceCardinality;
@@ -19,11 +27,16 @@ import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
 import org.springframework.roo.classpath.itd.ItdMetadataProvider;
+import org.springframework.roo.classpath.itd.ItdTriggerBasedMetadataProvider;
 import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
 import org.springframework.roo.metadata.MetadataItem;
+import org.springframework.roo.metadata.MetadataNotificationListener;
 import org.springframework.roo.metadata.MetadataProvider;
 import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.metadata.MetadataWorkerLock;
+import org.springframework.roo.model.JavaType;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
@@ -42,20 +55,88 @@ import org.springframework.roo.support.logging.HandlerUtils;
  * the metadata infrastructure does not require special type naming approaches
  * to be employed. The ordering behaviour exists solely to simplify debugging
  * for add-on developers and log comparison between invocations.
+ * <p>
+ * An {@link ItdTriggerBasedMetadataProvider} is only asked for the metadata of
+ * a type annotated with one of its trigger annotations (unless it ignores
+ * them), as it produces no metadata for other types.
+ * <p>
+ * Results are memoized per requesting class and governor. A memoized result is
+ * discarded as soon as the {@link MetadataDependencyRegistry} reports a change
+ * to the physical type of the governor or of any of its superclasses, or to any
+ * ITD metadata that was looked up to build it.
  * 
  * @author Ben Alex
  * @since 1.1
  */
 @Component
 @Service
-public class MemberDetailsScannerImpl implements MemberDetailsScanner {
+public class MemberDetailsScannerImpl implements MemberDetailsScanner,
+    MetadataNotificationListener {
+
+  /**
+   * A memoized result, together with the IDs of the metadata it was built
+   * from
+   */
+  private static class CachedMemberDetails {
+    final ClassOrInterfaceTypeDetails governor;
+    final MemberDetails memberDetails;
+    final List<String> sources;
+
+    CachedMemberDetails(final ClassOrInterfaceTypeDetails governor,
+        final MemberDetails memberDetails, final List<String> sources) {
+      this.governor = governor;
+      this.memberDetails = memberDetails;
+      this.sources = sources;
+    }
+  }
 
   protected final static Logger LOGGER = HandlerUtils.getLogger(MemberDetailsScannerImpl.class);
 
+  /**
+   * Indicates whether the given ITD provider might produce metadata for the
+   * given type, judging by the provider's trigger annotations.
+   * 
+   * @param provider the provider to check (required)
+   * @param type the type to check (required)
+   * @return <code>false</code> if the provider certainly produces no metadata
+   *         for the type
+   */
+  static boolean isTriggeredBy(final ItdMetadataProvider provider,
+      final ClassOrInterfaceTypeDetails type) {
+    if (!(provider instanceof ItdTriggerBasedMetadataProvider)) {
+      return true;
+    }
+    final ItdTriggerBasedMetadataProvider triggerBasedProvider =
+        (ItdTriggerBasedMetadataProvider) provider;
+    if (triggerBasedProvider.isIgnoreTriggerAnnotations()) {
+      return true;
+    }
+    for (final JavaType trigger : triggerBasedProvider.getMetadataTriggers()) {
+      if (type.getAnnotation(trigger) != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   // ------------ OSGi component attributes ----------------
   private BundleContext context;
 
   protected MetadataService metadataService;
+  private MetadataDependencyRegistry metadataDependencyRegistry;
+
+  // Memoized results; never call out while holding the cache lock, as
+  // notifications arrive from whichever thread changed some metadata
+  /** key: requesting class and governor MID */
+  private final Map<String, CachedMemberDetails> cache =
+      new HashMap<String, CachedMemberDetails>();
+  private final AtomicLong cacheHits = new AtomicLong();
+  /** key: source MID; value: keys of the cached results built from it */
+  private final Map<String, Set<String>> cacheKeysBySource = new HashMap<String, Set<String>>();
+  private final Object cacheLock = new Object();
+  private final AtomicLong cacheMisses = new AtomicLong();
+  /** Incremented by every notification, to detect those during a scan */
+  private final AtomicLong notifications = new AtomicLong();
 
   protected void activate(final ComponentContext context) {
     this.context = context.getBundleContext();
@@ -88,6 +169,7 @@ public class MemberDetailsScannerImpl implements MemberDetailsScanner {
           MemberDetailsDecorator decorator = (MemberDetailsDecorator) this.context.getService(ref);
           decorators.add(decorator);
         }
+        evictAll();
       } catch (InvalidSyntaxException e) {
         LOGGER.warning("Cannot load MemberDetailsDecorator on MemberDetailsScannerImpl.");
       }
@@ -110,19 +192,14 @@ public class MemberDetailsScannerImpl implements MemberDetailsScanner {
                   mid);
           providers.add(provider);
         }
+        evictAll();
       } catch (InvalidSyntaxException e) {
         LOGGER.warning("Cannot load MetadataProvider on MemberDetailsScannerImpl.");
       }
     }
   }
 
-  protected void deactivate(final ComponentContext componentContext) {
-    // Empty
-  }
-
-  public final MemberDetails getMemberDetails(final String requestingClass,
-      ClassOrInterfaceTypeDetails cid) {
-
+  private void bindServices() {
     if (metadataService == null) {
       metadataService = getMetadataService();
     }
@@ -135,87 +212,257 @@ public class MemberDetailsScannerImpl implements MemberDetailsScanner {
       bindDecorators();
     }
 
+    if (metadataDependencyRegistry == null) {
+      metadataDependencyRegistry = getMetadataDependencyRegistry();
+      if (metadataDependencyRegistry != null) {
+        metadataDependencyRegistry.addNotificationListener(this);
+      }
+    }
+  }
+
+  private void cache(final String cacheKey, final CachedMemberDetails cached,
+      final long notificationsBeforeScan) {
+    synchronized (cacheLock) {
+      if (notifications.get() != notificationsBeforeScan) {
+        // Some of the metadata just used may have changed meanwhile
+        return;
+      }
+      evict(cacheKey);
+      cache.put(cacheKey, cached);
+      for (final String source : cached.sources) {
+        Set<String> cacheKeys = cacheKeysBySource.get(source);
+        if (cacheKeys == null) {
+          cacheKeys = new HashSet<String>();
+          cacheKeysBySource.put(source, cacheKeys);
+        }
+        cacheKeys.add(cacheKey);
+      }
+    }
+  }
+
+  protected void deactivate(final ComponentContext componentContext) {
+    if (metadataDependencyRegistry != null) {
+      metadataDependencyRegistry.removeNotificationListener(this);
+      metadataDependencyRegistry = null;
+    }
+    evictAll();
+  }
+
+  private void evict(final String cacheKey) {
+    final CachedMemberDetails cached = cache.remove(cacheKey);
+    if (cached == null) {
+      return;
+    }
+    for (final String source : cached.sources) {
+      final Set<String> cacheKeys = cacheKeysBySource.get(source);
+      if (cacheKeys != null) {
+        cacheKeys.remove(cacheKey);
+        if (cacheKeys.isEmpty()) {
+          cacheKeysBySource.remove(source);
+        }
+      }
+    }
+  }
+
+  private void evictAll() {
+    synchronized (cacheLock) {
+      notifications.incrementAndGet();
+      cache.clear();
+      cacheKeysBySource.clear();
+    }
+  }
+
+  public final List<MemberDetails> getAllMemberDetails(final String requestingClass,
+      final Collection<ClassOrInterfaceTypeDetails> cids) {
+    // Acquire the ITD metadata of every type at once, so that building each
+    // result below finds it cached
+    final Set<String> keys = getItdMetadataIds(requestingClass, cids);
+    metadataService.getAll(keys);
+
+    final List<MemberDetails> result = new ArrayList<MemberDetails>();
+    for (final ClassOrInterfaceTypeDetails cid : cids) {
+      result.add(getMemberDetails(requestingClass, cid));
+    }
+    return result;
+  }
+
+  public final Set<String> getItdMetadataIds(final String requestingClass,
+      final Collection<ClassOrInterfaceTypeDetails> cids) {
+    Validate.notNull(cids, "Types required");
+    bindServices();
+
+    final Set<String> keys = new LinkedHashSet<String>();
+    MetadataWorkerLock.lock();
+    try {
+      synchronized (lock) {
+        for (final ClassOrInterfaceTypeDetails cid : cids) {
+          ClassOrInterfaceTypeDetails currentClass = cid;
+          while (currentClass != null) {
+            keys.addAll(getItdMetadataIds(requestingClass, currentClass));
+            currentClass = currentClass.getSuperclass();
+          }
+        }
+      }
+    } finally {
+      MetadataWorkerLock.unlock();
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the IDs of the ITD metadata that may contribute members to the
+   * given type; the caller must hold the mutex
+   */
+  private List<String> getItdMetadataIds(final String requestingClass,
+      final ClassOrInterfaceTypeDetails currentClass) {
+    final List<String> keys = new ArrayList<String>();
+    // Locate all MetadataProvider instances that provide ITDs and
+    // thus MemberHoldingTypeDetails information
+    for (final MetadataProvider mp : providers) {
+      // Skip non-ITD providers
+      if (!(mp instanceof ItdMetadataProvider)) {
+        continue;
+      }
+
+      // Skip myself
+      if (mp.getClass().getName().equals(requestingClass)) {
+        continue;
+      }
+
+      // Skip providers this type doesn't trigger, without looking up
+      // their (non-existent) metadata
+      if (!isTriggeredBy((ItdMetadataProvider) mp, currentClass)) {
+        continue;
+      }
+
+      // Determine the key the ITD provider uses for this particular type
+      final String key =
+          ((ItdMetadataProvider) mp).getIdForPhysicalJavaType(currentClass
+              .getDeclaredByMetadataId());
+      Validate.isTrue(MetadataIdentificationUtils.isIdentifyingInstance(key),
+          "ITD metadata provider '%s' returned an illegal key ('%s')", mp, key);
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  public final MemberDetails getMemberDetails(final String requestingClass,
+      ClassOrInterfaceTypeDetails cid) {
+
+    bindServices();
+
     if (cid == null) {
       return null;
     }
-    synchronized (lock) {
-      // Create a list of discovered members
-      final List<MemberHoldingTypeDetails> memberHoldingTypeDetails =
-          new ArrayList<MemberHoldingTypeDetails>();
-
-      // Build a List representing the class hierarchy, where the first
-      // element is the absolute superclass
-      final List<ClassOrInterfaceTypeDetails> cidHierarchy =
-          new ArrayList<ClassOrInterfaceTypeDetails>();
-      while (cid != null) {
-        cidHierarchy.add(0, cid); // Note to the top of the list
-        cid = cid.getSuperclass();
-      }
-
-      // Now we add this governor, plus all of its superclasses
-      for (final ClassOrInterfaceTypeDetails currentClass : cidHierarchy) {
-        memberHoldingTypeDetails.add(currentClass);
-
-        // Locate all MetadataProvider instances that provide ITDs and
-        // thus MemberHoldingTypeDetails information
-        for (final MetadataProvider mp : providers) {
-          // Skip non-ITD providers
-          if (!(mp instanceof ItdMetadataProvider)) {
-            continue;
-          }
 
-          // Skip myself
-          if (mp.getClass().getName().equals(requestingClass)) {
-            continue;
-          }
+    final String cacheKey = requestingClass + " " + cid.getDeclaredByMetadataId();
+    synchronized (cacheLock) {
+      final CachedMemberDetails cached = cache.get(cacheKey);
+      // A different instance means its physical type changed too recently
+      // for us to have been notified
+      if (cached != null && cached.governor == cid) {
+        cacheHits.incrementAndGet();
+        return cached.memberDetails;
+      }
+    }
+    cacheMisses.incrementAndGet();
+    final long notificationsBeforeScan = notifications.get();
+    final ClassOrInterfaceTypeDetails governor = cid;
+
+    MetadataWorkerLock.lock();
+    try {
+      synchronized (lock) {
+        // The IDs of the metadata the result is built from
+        final List<String> sources = new ArrayList<String>();
+
+        // Create a list of discovered members
+        final List<MemberHoldingTypeDetails> memberHoldingTypeDetails =
+            new ArrayList<MemberHoldingTypeDetails>();
+
+        // Build a List representing the class hierarchy, where the first
+        // element is the absolute superclass
+        final List<ClassOrInterfaceTypeDetails> cidHierarchy =
+            new ArrayList<ClassOrInterfaceTypeDetails>();
+        while (cid != null) {
+          cidHierarchy.add(0, cid); // Note to the top of the list
+          cid = cid.getSuperclass();
+        }
 
-          // Determine the key the ITD provider uses for this
-          // particular type
-          final String key =
-              ((ItdMetadataProvider) mp).getIdForPhysicalJavaType(currentClass
-                  .getDeclaredByMetadataId());
-          Validate.isTrue(MetadataIdentificationUtils.isIdentifyingInstance(key),
-              "ITD metadata provider '%s' returned an illegal key ('%s')", mp, key);
-
-          // Get the metadata and ensure we have ITD type details
-          // available
-          final MetadataItem metadataItem = metadataService.get(key);
-          if (metadataItem == null || !metadataItem.isValid()) {
-            continue;
+        // Now we add this governor, plus all of its superclasses
+        for (final ClassOrInterfaceTypeDetails currentClass : cidHierarchy) {
+          memberHoldingTypeDetails.add(currentClass);
+          sources.add(currentClass.getDeclaredByMetadataId());
+
+          for (final String key : getItdMetadataIds(requestingClass, currentClass)) {
+            // Get the metadata and ensure we have ITD type details
+            // available
+            sources.add(key);
+            final MetadataItem metadataItem = metadataService.get(key);
+            if (metadataItem == null || !metadataItem.isValid()) {
+              continue;
+            }
+            Validate.isInstanceOf(ItdTypeDetailsProvidingMetadataItem.class, metadataItem,
+                "ITD metadata provider for '%s' failed to return the correct metadata type", key);
+            final ItdTypeDetailsProvidingMetadataItem itdTypeDetailsMd =
+                (ItdTypeDetailsProvidingMetadataItem) metadataItem;
+            if (itdTypeDetailsMd.getMemberHoldingTypeDetails() == null) {
+              continue;
+            }
+
+            // Capture the member details
+            memberHoldingTypeDetails.add(itdTypeDetailsMd.getMemberHoldingTypeDetails());
           }
-          Validate.isInstanceOf(ItdTypeDetailsProvidingMetadataItem.class, metadataItem,
-              "ITD metadata provider '%s' failed to return the correct metadata type", mp);
-          final ItdTypeDetailsProvidingMetadataItem itdTypeDetailsMd =
-              (ItdTypeDetailsProvidingMetadataItem) metadataItem;
-          if (itdTypeDetailsMd.getMemberHoldingTypeDetails() == null) {
-            continue;
+        }
+
+        // Turn out list of discovered members into a result
+        MemberDetails result = new MemberDetailsImpl(memberHoldingTypeDetails);
+
+        // Loop until such time as we complete a full loop where no changes
+        // are made to the result
+        boolean additionalLoopRequired = true;
+        while (additionalLoopRequired) {
+          additionalLoopRequired = false;
+          for (final MemberDetailsDecorator decorator : decorators) {
+            final MemberDetails newResult = decorator.decorate(requestingClass, result);
+            Validate.isTrue(newResult != null, "Decorator '%s' returned an illegal result",
+                decorator.getClass().getName());
+            if (newResult != null && !newResult.equals(result)) {
+              additionalLoopRequired = true;
+            }
+            result = newResult;
           }
+        }
 
-          // Capture the member details
-          memberHoldingTypeDetails.add(itdTypeDetailsMd.getMemberHoldingTypeDetails());
+        // Without notifications, we wouldn't know when to discard the result
+        if (metadataDependencyRegistry != null) {
+          cache(cacheKey, new CachedMemberDetails(governor, result, sources),
+              notificationsBeforeScan);
         }
+        return result;
       }
+    } finally {
+      MetadataWorkerLock.unlock();
+    }
+  }
 
-      // Turn out list of discovered members into a result
-      MemberDetails result = new MemberDetailsImpl(memberHoldingTypeDetails);
-
-      // Loop until such time as we complete a full loop where no changes
-      // are made to the result
-      boolean additionalLoopRequired = true;
-      while (additionalLoopRequired) {
-        additionalLoopRequired = false;
-        for (final MemberDetailsDecorator decorator : decorators) {
-          final MemberDetails newResult = decorator.decorate(requestingClass, result);
-          Validate.isTrue(newResult != null, "Decorator '%s' returned an illegal result", decorator
-              .getClass().getName());
-          if (newResult != null && !newResult.equals(result)) {
-            additionalLoopRequired = true;
-          }
-          result = newResult;
-        }
+  public MetadataDependencyRegistry getMetadataDependencyRegistry() {
+    // Get all Services implement MetadataDependencyRegistry interface
+    try {
+      ServiceReference<?>[] references =
+          this.context.getAllServiceReferences(MetadataDependencyRegistry.class.getName(), null);
+      if (references == null) {
+        return null;
+      }
+
+      for (ServiceReference<?> ref : references) {
+        return (MetadataDependencyRegistry) this.context.getService(ref);
       }
 
-      return result;
+      return null;
+
+    } catch (InvalidSyntaxException e) {
+      LOGGER.warning("Cannot load MetadataDependencyRegistry on MemberDetailsScannerImpl.");
+      return null;
     }
   }
 
@@ -236,4 +483,27 @@ public class MemberDetailsScannerImpl implements MemberDetailsScanner {
       return null;
     }
   }
+
+  public void notify(final String upstreamDependency, final String downstreamDependency) {
+    synchronized (cacheLock) {
+      notifications.incrementAndGet();
+      final Set<String> cacheKeys = cacheKeysBySource.get(upstreamDependency);
+      if (cacheKeys != null) {
+        for (final String cacheKey : new ArrayList<String>(cacheKeys)) {
+          evict(cacheKey);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    final ToStringBuilder builder = new ToStringBuilder(this);
+    builder.append("cacheHits", cacheHits);
+    builder.append("cacheMisses", cacheMisses);
+    synchronized (cacheLock) {
+      builder.append("cacheSize", cache.size());
+    }
+    return builder.toString().replaceFirst("@[0-9a-f]+", ":");
+  }
 }
@@ -0,0 +1,108 @@
+package org.springframework.roo.classpath;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.event.FileDetails;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileOperation;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.support.osgi.OSGiUtils;
+
+/**
+ * Unit test of {@link MetadataSnapshotServiceImpl}
+ *
+ * @since 2.0
+ */
+public class MetadataSnapshotServiceImplTest {
+
+  private static final String SNAPSHOT_PROPERTY = "roo.metadata.snapshot";
+
+  // Fixture
+  private File itd;
+  private File root;
+  private File source;
+
+  @Before
+  public void setUp() throws IOException, InvalidSyntaxException {
+    System.setProperty(SNAPSHOT_PROPERTY, "true");
+    root = File.createTempFile("snapshot", "");
+    root.delete();
+    root.mkdir();
+    source = new File(root, "src/main/java/com/foo/Person.java");
+    itd = new File(root, "src/main/java/com/foo/Person_Roo_JavaBean.aj");
+    FileUtils.writeStringToFile(source, "public class Person {}", "UTF-8");
+    FileUtils.writeStringToFile(itd, "privileged aspect Person_Roo_JavaBean {}", "UTF-8");
+
+    // First session, which writes the snapshot on shutdown
+    final MetadataSnapshotServiceImpl service = startSession();
+    assertFalse(service.isUpToDate(getMonitoringStart()));
+    service.deactivate(null);
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty(SNAPSHOT_PROPERTY);
+    FileUtils.deleteQuietly(root);
+  }
+
+  private FileEvent getMonitoringStart() {
+    return new FileEvent(new FileDetails(source, source.lastModified()),
+        FileOperation.MONITORING_START, null);
+  }
+
+  private MetadataSnapshotServiceImpl startSession() throws InvalidSyntaxException {
+    final MetadataDependencyRegistry registry = mock(MetadataDependencyRegistry.class);
+    when(registry.getDependencies()).thenReturn(Collections.<String, Set<String>>emptyMap());
+    final ServiceReference<?> registryReference = mock(ServiceReference.class);
+    final BundleContext bundleContext = mock(BundleContext.class);
+    when(bundleContext.getProperty(OSGiUtils.ROO_WORKING_DIRECTORY_PROPERTY)).thenReturn(
+        root.getPath());
+    when(bundleContext.getBundles()).thenReturn(new Bundle[0]);
+    when(bundleContext.getAllServiceReferences(MetadataDependencyRegistry.class.getName(), null))
+        .thenReturn(new ServiceReference<?>[] {registryReference});
+    when(bundleContext.getService(registryReference)).thenReturn(registry);
+    final ComponentContext componentContext = mock(ComponentContext.class);
+    when(componentContext.getBundleContext()).thenReturn(bundleContext);
+
+    final MetadataSnapshotServiceImpl service = new MetadataSnapshotServiceImpl();
+    service.activate(componentContext);
+    return service;
+  }
+
+  @Test
+  public void testRestartWithDeletedItdRecomputesItsSource() throws InvalidSyntaxException {
+    FileUtils.deleteQuietly(itd);
+
+    assertFalse(startSession().isUpToDate(getMonitoringStart()));
+  }
+
+  @Test
+  public void testRestartWithEditedItdRecomputesItsSource() throws IOException,
+      InvalidSyntaxException {
+    FileUtils.writeStringToFile(itd, "privileged aspect Person_Roo_JavaBean { int x; }", "UTF-8");
+
+    assertFalse(startSession().isUpToDate(getMonitoringStart()));
+  }
+
+  @Test
+  public void testRestartWithUnchangedFilesSkipsSource() throws InvalidSyntaxException {
+    assertTrue(startSession().isUpToDate(getMonitoringStart()));
+  }
+}
@@ -0,0 +1,44 @@
+package org.springframework.roo.classpath;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * Unit test of {@link MetadataWarmUpServiceImpl}
+ *
+ * @since 2.0
+ */
+public class MetadataWarmUpServiceImplTest {
+
+  private static final JavaType ADDRESS = new JavaType("com.foo.Address");
+  private static final JavaType ORDER = new JavaType("com.foo.Order");
+  private static final JavaType PERSON = new JavaType("com.foo.Person");
+
+  @Test
+  public void testMostRecentlyModifiedTypesComeFirst() {
+    final Map<JavaType, Long> lastModified = new HashMap<JavaType, Long>();
+    lastModified.put(ADDRESS, 100L);
+    lastModified.put(ORDER, 300L);
+    lastModified.put(PERSON, 200L);
+
+    assertEquals(Arrays.asList(ORDER, PERSON, ADDRESS),
+        MetadataWarmUpServiceImpl.sortByRecency(lastModified));
+  }
+
+  @Test
+  public void testTypesModifiedAtOnceAreSortedByName() {
+    final Map<JavaType, Long> lastModified = new HashMap<JavaType, Long>();
+    lastModified.put(PERSON, 0L);
+    lastModified.put(ORDER, 0L);
+    lastModified.put(ADDRESS, 0L);
+
+    assertEquals(Arrays.asList(ADDRESS, ORDER, PERSON),
+        MetadataWarmUpServiceImpl.sortByRecency(lastModified));
+  }
+}
@@ -0,0 +1,61 @@
+package org.springframework.roo.classpath;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.LogicalPath;
+import org.springframework.roo.project.Path;
+
+/**
+ * Unit test of {@link TypeCacheImpl}
+ *
+ * @since 2.0
+ */
+public class TypeCacheImplTest {
+
+  private static final LogicalPath SRC_MAIN_JAVA = LogicalPath.getInstance(Path.SRC_MAIN_JAVA, "");
+
+  private static ClassOrInterfaceTypeDetails newType(final String fullyQualifiedTypeName) {
+    final JavaType type = new JavaType(fullyQualifiedTypeName);
+    return new ClassOrInterfaceTypeDetailsBuilder(PhysicalTypeIdentifier.createIdentifier(type,
+        SRC_MAIN_JAVA), Modifier.PUBLIC, type, PhysicalTypeCategory.CLASS).build();
+  }
+
+  @Test
+  public void testRemovedTypesLeaveNothingBehind() {
+    final TypeCacheImpl typeCache = new TypeCacheImpl();
+    final ClassOrInterfaceTypeDetails person = newType("com.foo.Person");
+    typeCache.cacheType("/src/main/java/com/foo/Person.java", person);
+
+    // Every cycle creates a type under a new name, as a rename does
+    for (int i = 0; i < 10000; i++) {
+      final ClassOrInterfaceTypeDetails renamed = newType("com.foo" + i + ".Person");
+      final String filePath = "/src/main/java/com/foo" + i + "/Person.java";
+      typeCache.cacheType(filePath, renamed);
+      assertEquals(2, typeCache.getTypesForSimpleTypeName("Person").size());
+
+      typeCache.removeType(renamed.getDeclaredByMetadataId());
+      assertNull(typeCache.getTypeDetails(renamed.getDeclaredByMetadataId()));
+      assertNull(typeCache.getTypeIdFromTypeFilePath(filePath));
+      assertNull(typeCache.getPhysicalTypeIdentifier(renamed.getName()));
+    }
+
+    assertEquals(Collections.singleton(person.getDeclaredByMetadataId()),
+        typeCache.getAllTypeIdentifiers());
+    assertEquals(Collections.singleton(person.getName()), typeCache.getAllTypes());
+    assertEquals(Collections.singleton("com.foo.Person"),
+        typeCache.getTypesForSimpleTypeName("Person"));
+
+    typeCache.removeType(person.getDeclaredByMetadataId());
+    assertTrue(typeCache.getAllTypes().isEmpty());
+    assertTrue(typeCache.getTypesForSimpleTypeName("Person").isEmpty());
+  }
+}
@@ -0,0 +1,84 @@
+package org.springframework.roo.classpath.details;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+import org.springframework.roo.classpath.PhysicalTypeCategory;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * Unit test of the fingerprints of {@link ClassOrInterfaceTypeDetailsBuilder}
+ *
+ * @since 2.0
+ */
+public class ClassOrInterfaceTypeDetailsBuilderTest {
+
+  private static final String DECLARED_BY_MID = "MID:foo#bar";
+
+  private static ClassOrInterfaceTypeDetailsBuilder newBuilder(final String body) {
+    final ClassOrInterfaceTypeDetailsBuilder builder =
+        new ClassOrInterfaceTypeDetailsBuilder(DECLARED_BY_MID, Modifier.PUBLIC, new JavaType(
+            "com.foo.Person"), PhysicalTypeCategory.CLASS);
+    builder.addAnnotation(new AnnotationMetadataBuilder(new JavaType("com.foo.Marker")));
+    builder.addField(new FieldMetadataBuilder(DECLARED_BY_MID, Modifier.PRIVATE,
+        new JavaSymbolName("name"), JavaType.STRING, null));
+    builder.addMethod(new MethodMetadataBuilder(DECLARED_BY_MID, Modifier.PUBLIC,
+        new JavaSymbolName("getName"), JavaType.STRING, InvocableMemberBodyBuilder.getInstance()
+            .appendFormalLine(body)));
+    return builder;
+  }
+
+  @Test
+  public void testEqualContentHasEqualFingerprints() {
+    assertEquals(newBuilder("return name;").getFingerprint(), newBuilder("return name;")
+        .getFingerprint());
+  }
+
+  @Test
+  public void testFingerprintCoversCustomDataValues() {
+    final ClassOrInterfaceTypeDetailsBuilder builder = newBuilder("return name;");
+    builder.getDeclaredFields().get(0).putCustomData("column", "name");
+    final ClassOrInterfaceTypeDetailsBuilder modified = newBuilder("return name;");
+    modified.getDeclaredFields().get(0).putCustomData("column", "full_name");
+
+    assertFalse(builder.getFingerprint().equals(modified.getFingerprint()));
+  }
+
+  @Test
+  public void testFingerprintCoversMethodBodies() {
+    assertFalse(newBuilder("return name;").getFingerprint()
+        .equals(newBuilder("return null;").getFingerprint()));
+  }
+
+  @Test
+  public void testFingerprintCoversNestedBuilders() {
+    final ClassOrInterfaceTypeDetailsBuilder builder = newBuilder("return name;");
+    final ClassOrInterfaceTypeDetailsBuilder modified = newBuilder("return name;");
+    modified.getDeclaredFields().get(0).setFieldInitializer("\"\"");
+
+    assertFalse(builder.getFingerprint().equals(modified.getFingerprint()));
+  }
+
+  @Test
+  public void testFingerprintDistinguishesMemberBoundaries() {
+    // The same characters, split differently between both parameter names
+    final MethodMetadataBuilder first = new MethodMetadataBuilder(DECLARED_BY_MID);
+    first.addParameter("ab", JavaType.STRING);
+    first.addParameter("c", JavaType.STRING);
+    final MethodMetadataBuilder second = new MethodMetadataBuilder(DECLARED_BY_MID);
+    second.addParameter("a", JavaType.STRING);
+    second.addParameter("bc", JavaType.STRING);
+    final ClassOrInterfaceTypeDetailsBuilder builder = newBuilder("return name;");
+    builder.addMethod(first);
+    final ClassOrInterfaceTypeDetailsBuilder other = newBuilder("return name;");
+    other.addMethod(second);
+
+    assertFalse(builder.getFingerprint().equals(other.getFingerprint()));
+  }
+}
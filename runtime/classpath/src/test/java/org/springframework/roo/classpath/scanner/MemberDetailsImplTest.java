@@ -0,0 +1,172 @@
+package org.springframework.roo.classpath.scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.classpath.PhysicalTypeCategory;
+import org.springframework.roo.classpath.customdata.tagkeys.MethodMetadataCustomDataKey;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.MemberFindingUtils;
+import org.springframework.roo.classpath.details.MemberHoldingTypeDetails;
+import org.springframework.roo.classpath.details.MethodMetadata;
+import org.springframework.roo.classpath.details.MethodMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * Unit test of {@link MemberDetailsImpl}; checks its indexed lookups against
+ * a plain scan of the member holders of a wide entity.
+ *
+ * @since 2.0
+ */
+public class MemberDetailsImplTest {
+
+  private static final String GOVERNOR_MID = "MID:foo#governor";
+  private static final String ITD_MID = "MID:foo#itd";
+  private static final int METHODS_PER_HOLDER = 150;
+  private static final JavaType ENTITY = new JavaType("com.foo.RooEntity");
+  private static final MethodMetadataCustomDataKey FINDER = new MethodMetadataCustomDataKey(
+      "FINDER");
+  private static final JavaType PERSON = new JavaType("com.foo.Person");
+
+  private static ClassOrInterfaceTypeDetails newHolder(final String mid, final JavaType annotation) {
+    final ClassOrInterfaceTypeDetailsBuilder builder =
+        new ClassOrInterfaceTypeDetailsBuilder(mid, Modifier.PUBLIC, PERSON,
+            PhysicalTypeCategory.CLASS);
+    if (annotation != null) {
+      builder.addAnnotation(new AnnotationMetadataBuilder(annotation));
+    }
+    for (int i = 0; i < METHODS_PER_HOLDER; i++) {
+      // Both holders declare "get0" to "get49"; each one overloads "find"
+      final String name = i < 50 ? "get" + i : mid.substring(8) + i;
+      builder.addMethod(newMethod(mid, name, i % 3 == 0 ? FINDER : null));
+      builder.addMethod(newMethod(mid, "find", null, JavaType.LONG_OBJECT, new JavaType(
+          "com.foo.Type" + i)));
+    }
+    return builder.build();
+  }
+
+  private static MethodMetadataBuilder newMethod(final String mid, final String name,
+      final Object tag, final JavaType... parameterTypes) {
+    final List<JavaSymbolName> parameterNames = new ArrayList<JavaSymbolName>();
+    for (int i = 0; i < parameterTypes.length; i++) {
+      parameterNames.add(new JavaSymbolName("p" + i));
+    }
+    final MethodMetadataBuilder method =
+        new MethodMetadataBuilder(mid, Modifier.PUBLIC, new JavaSymbolName(name),
+            JavaType.VOID_PRIMITIVE, AnnotatedJavaType.convertFromJavaTypes(parameterTypes),
+            parameterNames, new InvocableMemberBodyBuilder());
+    if (tag != null) {
+      method.putCustomData(tag, null);
+    }
+    return method;
+  }
+
+  // Fixture
+  private List<MemberHoldingTypeDetails> holders;
+  private MemberDetailsImpl memberDetails;
+
+  @Before
+  public void setUp() {
+    holders =
+        Arrays.<MemberHoldingTypeDetails>asList(newHolder(GOVERNOR_MID, null),
+            newHolder(ITD_MID, ENTITY));
+    memberDetails = new MemberDetailsImpl(holders);
+  }
+
+  @Test
+  public void testAnnotationLookups() {
+    assertSame(holders.get(1).getAnnotation(ENTITY), memberDetails.getAnnotation(ENTITY));
+    assertNull(memberDetails.getAnnotation(PERSON));
+    assertTrue(memberDetails.isRequestingAnnotatedWith(holders.get(1).getAnnotation(ENTITY),
+        ITD_MID));
+    assertFalse(memberDetails.isRequestingAnnotatedWith(holders.get(1).getAnnotation(ENTITY),
+        GOVERNOR_MID));
+  }
+
+  @Test
+  public void testMethodLookupsMatchScanOfHolders() {
+    for (final MethodMetadata method : memberDetails.getMethods()) {
+      final JavaSymbolName name = method.getMethodName();
+      final List<JavaType> parameterTypes =
+          AnnotatedJavaType.convertFromAnnotatedJavaTypes(method.getParameterTypes());
+      MethodMetadata first = null;
+      List<MethodMetadata> firstHolderMethods = null;
+      MethodMetadata firstWithParameters = null;
+      for (final MemberHoldingTypeDetails holder : holders) {
+        if (first == null) {
+          first = MemberFindingUtils.getDeclaredMethod(holder, name);
+        }
+        final List<MethodMetadata> holderMethods =
+            MemberFindingUtils.getDeclaredMethods(holder, name);
+        if (firstHolderMethods == null) {
+          firstHolderMethods = holderMethods;
+        }
+        if (firstWithParameters == null) {
+          firstWithParameters = MemberFindingUtils.getDeclaredMethod(holder, name, parameterTypes);
+        }
+      }
+
+      assertSame(first, memberDetails.getMethod(name));
+      assertEquals(firstHolderMethods, memberDetails.getMethods(name));
+      assertSame(firstWithParameters, memberDetails.getMethod(name, parameterTypes));
+    }
+  }
+
+  @Test
+  public void testMethodLookupsWithNoMatch() {
+    final JavaSymbolName missing = new JavaSymbolName("missing");
+    assertNull(memberDetails.getMethod(missing));
+    assertNull(memberDetails.getMethods(missing));
+    assertNull(memberDetails.getMethod(new JavaSymbolName("find"),
+        Collections.<JavaType>emptyList()));
+  }
+
+  @Test
+  public void testMethodWithParametersCanExcludeDeclaringMid() {
+    final JavaSymbolName name = new JavaSymbolName("find");
+    final List<JavaType> parameterTypes =
+        Arrays.asList(JavaType.LONG_OBJECT, new JavaType("com.foo.Type7"));
+
+    final MethodMetadata governorMethod = memberDetails.getMethod(name, parameterTypes);
+    assertEquals(GOVERNOR_MID, governorMethod.getDeclaredByMetadataId());
+    assertEquals(ITD_MID, memberDetails.getMethod(name, parameterTypes, GOVERNOR_MID)
+        .getDeclaredByMetadataId());
+    assertTrue(memberDetails.isMethodDeclaredByAnother(name, parameterTypes, ITD_MID));
+  }
+
+  @Test
+  public void testMethodsWithTagAreInMemberOrder() {
+    final List<MethodMetadata> expected = new ArrayList<MethodMetadata>();
+    for (final MethodMetadata method : memberDetails.getMethods()) {
+      if (method.getCustomData().keySet().contains(FINDER)) {
+        expected.add(method);
+      }
+    }
+
+    final List<MethodMetadata> tagged = memberDetails.getMethodsWithTag(FINDER);
+    assertEquals(2 * METHODS_PER_HOLDER / 3, tagged.size());
+    assertEquals(expected, tagged);
+    assertSame(expected.get(0), memberDetails.getMostConcreteMethodWithTag(FINDER));
+
+    // The caller's copy is its own
+    tagged.clear();
+    assertEquals(expected, memberDetails.getMethodsWithTag(FINDER));
+    assertTrue(memberDetails.getMethodsWithTag(new MethodMetadataCustomDataKey("NONE")).isEmpty());
+  }
+}
@@ -0,0 +1,95 @@
+package org.springframework.roo.classpath.scanner;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Modifier;
+
+import org.junit.Test;
+import org.springframework.roo.classpath.PhysicalTypeCategory;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.itd.AbstractItdMetadataProvider;
+import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.project.LogicalPath;
+
+/**
+ * Unit test of {@link MemberDetailsScannerImpl}
+ *
+ * @since 2.0
+ */
+public class MemberDetailsScannerImplTest {
+
+  private static class TestProvider extends AbstractItdMetadataProvider {
+
+    @Override
+    protected String createLocalIdentifier(final JavaType javaType, final LogicalPath path) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    protected String getGovernorPhysicalTypeIdentifier(final String metadataIdentificationString) {
+      throw new UnsupportedOperationException();
+    }
+
+    public String getItdUniquenessFilenameSuffix() {
+      return "Test";
+    }
+
+    @Override
+    protected ItdTypeDetailsProvidingMetadataItem getMetadata(
+        final String metadataIdentificationString, final JavaType aspectName,
+        final PhysicalTypeMetadata governorPhysicalTypeMetadata, final String itdFilename) {
+      throw new UnsupportedOperationException();
+    }
+
+    public String getProvidesType() {
+      return "MID:com.foo.TestMetadata";
+    }
+
+    void ignoreTriggerAnnotations() {
+      setIgnoreTriggerAnnotations(true);
+    }
+  }
+
+  private static final JavaType TRIGGER = new JavaType("com.foo.RooTrigger");
+
+  private static ClassOrInterfaceTypeDetails newType(final JavaType... annotations) {
+    final ClassOrInterfaceTypeDetailsBuilder builder =
+        new ClassOrInterfaceTypeDetailsBuilder("MID:foo#bar", Modifier.PUBLIC, new JavaType(
+            "com.foo.Person"), PhysicalTypeCategory.CLASS);
+    for (final JavaType annotation : annotations) {
+      builder.addAnnotation(new AnnotationMetadataBuilder(annotation));
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testProviderIgnoringTriggersAppliesToAnyType() {
+    final TestProvider provider = new TestProvider();
+    provider.addMetadataTrigger(TRIGGER);
+    provider.ignoreTriggerAnnotations();
+
+    assertTrue(MemberDetailsScannerImpl.isTriggeredBy(provider, newType()));
+  }
+
+  @Test
+  public void testProviderIsSkippedForTypeWithoutTrigger() {
+    final TestProvider provider = new TestProvider();
+    provider.addMetadataTrigger(TRIGGER);
+
+    assertFalse(MemberDetailsScannerImpl.isTriggeredBy(provider,
+        newType(new JavaType("com.foo.Other"))));
+  }
+
+  @Test
+  public void testProviderIsTriggeredByAnyOfItsTriggers() {
+    final TestProvider provider = new TestProvider();
+    provider.addMetadataTriggers(new JavaType("com.foo.Other"), TRIGGER);
+
+    assertTrue(MemberDetailsScannerImpl.isTriggeredBy(provider, newType(TRIGGER)));
+  }
+}
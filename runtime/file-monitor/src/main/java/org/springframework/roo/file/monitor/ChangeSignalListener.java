@@ -0,0 +1,16 @@
+package org.springframework.roo.file.monitor;
+
+/**
+ * Receives the signals of a {@link SignallingFileMonitorService}.
+ *
+ * @since 2.0
+ */
+public interface ChangeSignalListener {
+
+  /**
+   * Called, from any thread, when the file system changed in a way the next
+   * scan will pick up. Implementations should return quickly, e.g. by waking
+   * whoever scans.
+   */
+  void onChangeSignal();
+}
@@ -0,0 +1,28 @@
+package org.springframework.roo.file.monitor;
+
+/**
+ * A {@link FileMonitorService} that learns of file system changes as they
+ * happen, and signals them so that whoever schedules its scans can scan
+ * promptly after a change instead of polling it at a fixed rate.
+ * <p>
+ * A signal only says that the next scan will find changes; the events
+ * themselves are still published by {@link #scanAll()}.
+ *
+ * @since 2.0
+ */
+public interface SignallingFileMonitorService extends FileMonitorService {
+
+  /**
+   * Adds the given listener, to be called whenever the file system changes
+   *
+   * @param listener the listener to add (required)
+   */
+  void addChangeSignalListener(ChangeSignalListener listener);
+
+  /**
+   * Removes the given listener
+   *
+   * @param listener the listener to remove (can be <code>null</code>)
+   */
+  void removeChangeSignalListener(ChangeSignalListener listener);
+}
@@ -0,0 +1,28 @@
+package org.springframework.roo.file.monitor.event;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link FileEventListener} that would rather handle the events of a scan
+ * together, for example to parse or evict many files in one go after a
+ * checkout.
+ * <p>
+ * A {@link org.springframework.roo.file.monitor.FileMonitorService} calls
+ * {@link #onFileEvents(Map)} once per scan (or per monitoring request added
+ * or removed) instead of calling {@link #onFileEvent(FileEvent)} for each
+ * event.
+ *
+ * @since 2.0
+ */
+public interface BatchFileEventListener extends FileEventListener {
+
+  /**
+   * Invoked with the events published together.
+   *
+   * @param fileEvents key: operation; value: the events of that operation,
+   *            in the order they were published (never empty); operations
+   *            without events have no key; never null or empty
+   */
+  void onFileEvents(Map<FileOperation, List<FileEvent>> fileEvents);
+}
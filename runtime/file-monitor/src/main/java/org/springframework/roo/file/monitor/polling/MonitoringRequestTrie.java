@@ -0,0 +1,123 @@
+package org.springframework.roo.file.monitor.polling;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.MonitoringRequest;
+import org.springframework.roo.support.util.CanonicalPathCache;
+
+/**
+ * An index of {@link MonitoringRequest}s by the components of their canonical
+ * paths, which finds the requests monitoring a given file in one descent
+ * instead of resolving and matching the path of every request.
+ * <p>
+ * Immutable once built; build a new one when the requests change.
+ *
+ * @since 2.0
+ */
+final class MonitoringRequestTrie {
+
+  private static class Node {
+
+    final Map<String, Node> children = new HashMap<String, Node>();
+    /** the first request for the children of this directory */
+    MonitoringRequest childRequest;
+    /** the first request for this file */
+    MonitoringRequest fileRequest;
+    /** the first request for this directory and everything under it */
+    MonitoringRequest subtreeRequest;
+  }
+
+  /**
+   * Splits the given path into its non-empty components
+   */
+  private static List<String> split(final String path) {
+    final List<String> components = new ArrayList<String>();
+    int start = 0;
+    for (int i = 0; i <= path.length(); i++) {
+      if (i == path.length() || path.charAt(i) == File.separatorChar) {
+        if (i > start) {
+          components.add(path.substring(start, i));
+        }
+        start = i + 1;
+      }
+    }
+    return components;
+  }
+
+  private final Map<MonitoringRequest, Integer> order = new HashMap<MonitoringRequest, Integer>();
+  private final Node root = new Node();
+
+  /**
+   * Constructor
+   *
+   * @param requests the requests to index, in order of precedence (required);
+   *            those whose canonical path can't be resolved are left out
+   */
+  MonitoringRequestTrie(final Iterable<MonitoringRequest> requests) {
+    for (final MonitoringRequest request : requests) {
+      final String canonicalPath;
+      try {
+        canonicalPath = CanonicalPathCache.getCanonicalPath(request.getFile());
+      } catch (final IOException e) {
+        continue;
+      }
+      order.put(request, order.size());
+      Node node = root;
+      for (final String component : split(canonicalPath)) {
+        Node child = node.children.get(component);
+        if (child == null) {
+          child = new Node();
+          node.children.put(component, child);
+        }
+        node = child;
+      }
+      if (!(request instanceof DirectoryMonitoringRequest)) {
+        node.fileRequest = earlier(node.fileRequest, request);
+      } else if (((DirectoryMonitoringRequest) request).isWatchSubtree()) {
+        node.subtreeRequest = earlier(node.subtreeRequest, request);
+      } else {
+        node.childRequest = earlier(node.childRequest, request);
+      }
+    }
+  }
+
+  private MonitoringRequest earlier(final MonitoringRequest first, final MonitoringRequest second) {
+    if (first == null) {
+      return second;
+    }
+    if (second == null) {
+      return first;
+    }
+    return order.get(first) <= order.get(second) ? first : second;
+  }
+
+  /**
+   * Returns the first of the indexed requests that monitors the given file
+   *
+   * @param canonicalPath the canonical path of the file (required)
+   * @return <code>null</code> if none monitors it
+   */
+  MonitoringRequest getFirstRequest(final String canonicalPath) {
+    final List<String> components = split(canonicalPath);
+    MonitoringRequest first = null;
+    Node node = root;
+    for (int i = 0; i < components.size(); i++) {
+      first = earlier(first, node.subtreeRequest);
+      if (i == components.size() - 1) {
+        first = earlier(first, node.childRequest);
+      }
+      node = node.children.get(components.get(i));
+      if (node == null) {
+        return first;
+      }
+    }
+    first = earlier(first, node.subtreeRequest);
+    return earlier(first, node.fileRequest);
+  }
+}
@@ -8,16 +8,21 @@ import org.apache.felix.scr.annotations.ReferenceStrategy;
 import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.file.monitor.event.FileEventListener;
 import org.springframework.roo.file.monitor.polling.PollingFileMonitorService;
+import org.springframework.roo.file.monitor.watch.FileMonitorSelector;
+import org.springframework.roo.file.monitor.watch.WatchServiceFileMonitorComponent;
 
 /**
  * Extends {@link PollingFileMonitorService} by making it available as an OSGi
  * component that automatically monitors the environment's
  * {@link FileEventListener} components.
+ * <p>
+ * Disabled by default; {@link FileMonitorSelector} enables it unless the
+ * {@link WatchServiceFileMonitorComponent} was selected.
  * 
  * @author Ben Alex
  * @since 1.1
  */
-@Component
+@Component(enabled = false)
 @Service
 @Reference(name = "fileEventListener", strategy = ReferenceStrategy.EVENT,
     policy = ReferencePolicy.DYNAMIC, referenceInterface = FileEventListener.class,
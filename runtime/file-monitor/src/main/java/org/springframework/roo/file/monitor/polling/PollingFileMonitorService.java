@@ -7,11 +7,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -20,8 +29,15 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 
@@ -30,12 +46,16 @@ import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
 import org.springframework.roo.file.monitor.FileMonitorService;
 import org.springframework.roo.file.monitor.MonitoringRequest;
 import org.springframework.roo.file.monitor.NotifiableFileMonitorService;
+import org.springframework.roo.file.monitor.event.BatchFileEventListener;
 import org.springframework.roo.file.monitor.event.FileDetails;
 import org.springframework.roo.file.monitor.event.FileEvent;
 import org.springframework.roo.file.monitor.event.FileEventListener;
 import org.springframework.roo.file.monitor.event.FileOperation;
 import org.springframework.roo.shell.AbstractShell;
+import org.springframework.roo.support.logging.FlightRecorderEventType;
 import org.springframework.roo.support.logging.HandlerUtils;
+import org.springframework.roo.support.util.CanonicalPathCache;
+import org.springframework.roo.support.util.ChangeLog;
 import org.springframework.roo.support.util.FileUtils;
 import org.springframework.roo.support.util.XmlUtils;
 import org.w3c.dom.Document;
@@ -47,9 +67,9 @@ import org.w3c.dom.Element;
  * This implementation iterates over each of the {@link MonitoringRequest}
  * instances, building an active file index at the time of execution. It then
  * compares this active file index with the last time it was executed for that
- * particular {@link MonitoringRequest}. Events are then fired, and only when
- * the event firing process has completed is the next {@link MonitoringRequest}
- * examined.
+ * particular {@link MonitoringRequest}. Once every {@link MonitoringRequest}
+ * has been examined, the events of the scan are fired together, so that
+ * {@link BatchFileEventListener}s receive them in one batch.
  * <p>
  * This implementation does not recognize {@link FileOperation#RENAMED} events.
  * This implementation will ignore any monitored files with a filename starting
@@ -66,19 +86,255 @@ import org.w3c.dom.Element;
  */
 public class PollingFileMonitorService implements NotifiableFileMonitorService {
 
+  /**
+   * The content of a file as of a given modification time
+   */
+  private static class ContentHash {
+
+    private final byte[] digest;
+    private final long lastModified;
+
+    ContentHash(final long lastModified, final byte[] digest) {
+      this.digest = digest;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Indicates whether this hash was taken at the given modification time
+     * and matches the given later hash of the same file
+     */
+    boolean isSameContent(final long previousLastModified, final ContentHash current) {
+      return lastModified == previousLastModified && current != null
+          && Arrays.equals(digest, current.digest);
+    }
+  }
+
+  /**
+   * The names in a directory as of a scan, which later scans reuse for as
+   * long as the directory's modification time is unchanged
+   */
+  private static class DirectoryListing {
+
+    private final FileTime lastModified;
+    private final long listedAt;
+    private final String[] names;
+
+    DirectoryListing(final FileTime lastModified, final String[] names) {
+      this.lastModified = lastModified;
+      this.listedAt = System.currentTimeMillis();
+      this.names = names == null ? new String[0] : names;
+    }
+
+    /**
+     * Indicates whether this listing is still accurate, given the
+     * directory's current modification time. A listing taken within
+     * {@link #RACY_MILLIS} of that time is never trusted, as the directory
+     * may have changed again within the same timestamp tick.
+     */
+    boolean isCurrent(final FileTime currentLastModified) {
+      return lastModified.equals(currentLastModified)
+          && listedAt - lastModified.toMillis() > RACY_MILLIS;
+    }
+  }
+
+  /**
+   * Walks one directory of a monitored location, forking a walk for each of
+   * its sub-directories
+   */
+  private class DirectoryWalk extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BasicFileAttributes attributes;
+    private final File directory;
+    private final LocationWalk location;
+
+    DirectoryWalk(final File directory, final BasicFileAttributes attributes,
+        final LocationWalk location) {
+      this.attributes = attributes;
+      this.directory = directory;
+      this.location = location;
+    }
+
+    @Override
+    protected void compute() {
+      location.found(directory, attributes);
+      final List<DirectoryWalk> subWalks = new ArrayList<DirectoryWalk>();
+      for (final String name : location.list(directory, attributes.lastModifiedTime())) {
+        if (isIgnoredName(name)) {
+          continue;
+        }
+        final File file = new File(directory, name);
+        final BasicFileAttributes fileAttributes;
+        try {
+          fileAttributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (final IOException e) {
+          // Deleted since listed, or a broken link
+          continue;
+        }
+        if (!fileAttributes.isDirectory()) {
+          if (fileAttributes.isRegularFile() || location.includeSubtree) {
+            location.found(file, fileAttributes);
+          }
+        } else if (location.includeSubtree && !isExcludedDirectory(file.getPath())) {
+          subWalks.add(new DirectoryWalk(file, fileAttributes, location));
+        }
+      }
+      invokeAll(subWalks);
+    }
+  }
+
+  /**
+   * The state of a walk of one monitored location, shared by the walks of its
+   * directories
+   */
+  private class LocationWalk {
+
+    final Map<File, Long> entries = new ConcurrentHashMap<File, Long>();
+    final boolean includeSubtree;
+    final Map<File, DirectoryListing> listings = new ConcurrentHashMap<File, DirectoryListing>();
+    final Collection<String> newCanonicalPaths = new ConcurrentLinkedQueue<String>();
+    final Map<File, DirectoryListing> priorListings;
+    final Map<File, Long> priorFiles;
+
+    LocationWalk(final boolean includeSubtree, final Map<File, Long> priorFiles,
+        final Map<File, DirectoryListing> priorListings) {
+      this.includeSubtree = includeSubtree;
+      this.priorFiles = priorFiles;
+      this.priorListings = priorListings;
+    }
+
+    void found(final File file, final BasicFileAttributes attributes) {
+      entries.put(file, attributes.lastModifiedTime().toMillis());
+      if (priorFiles == null || !priorFiles.containsKey(file)) {
+        try {
+          newCanonicalPaths.add(CanonicalPathCache.getCanonicalPath(file));
+        } catch (final IOException ignored) {
+        }
+      }
+    }
+
+    String[] list(final File directory, final FileTime lastModified) {
+      DirectoryListing listing = priorListings == null ? null : priorListings.get(directory);
+      if (listing != null && listing.isCurrent(lastModified)) {
+        prunedDirectories.incrementAndGet();
+      } else {
+        listedDirectories.incrementAndGet();
+        listing = new DirectoryListing(lastModified, directory.list());
+      }
+      listings.put(directory, listing);
+      return listing.names;
+    }
+  }
+
+  /**
+   * The system property that, when set to <code>true</code>, makes
+   * {@link #scanAll()} drop the updates of files whose content is unchanged
+   */
+  public static final String CONTENT_HASH_PROPERTY = "roo.file.monitor.hash";
+
   protected final static Logger LOGGER = HandlerUtils.getLogger(PollingFileMonitorService.class);
 
+  /**
+   * How recently a directory may have been modified for its listing to be
+   * taken again regardless of its modification time; covers the coarsest
+   * timestamp granularity of common file systems (FAT's two seconds)
+   */
+  private static final long RACY_MILLIS = 2000;
+
+  private static final FlightRecorderEventType SCAN_EVENT = new FlightRecorderEventType(
+      "org.springframework.roo.file.monitor.Scan", "File Monitor Scan", new String[] {
+          "Spring Roo", "File Monitor"}, "requests", int.class, "files", int.class, "changes",
+      int.class, "prunedDirectories", int.class);
+
+  /**
+   * Returns the digest of the given file's content
+   *
+   * @return <code>null</code> if it can't be read, e.g. as it's a directory
+   */
+  private static byte[] digest(final File file) {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    InputStream inputStream = null;
+    try {
+      inputStream = new FileInputStream(file);
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = inputStream.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+      return digest.digest();
+    } catch (final IOException e) {
+      return null;
+    } finally {
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (final IOException ignored) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Groups the given events by their operation, keeping their order
+   *
+   * @param events the events to group (required)
+   * @return an unmodifiable map with unmodifiable lists
+   */
+  private static Map<FileOperation, List<FileEvent>> groupByOperation(
+      final List<FileEvent> events) {
+    final Map<FileOperation, List<FileEvent>> batch =
+        new EnumMap<FileOperation, List<FileEvent>>(FileOperation.class);
+    for (final FileEvent event : events) {
+      List<FileEvent> operationEvents = batch.get(event.getOperation());
+      if (operationEvents == null) {
+        operationEvents = new ArrayList<FileEvent>();
+        batch.put(event.getOperation(), operationEvents);
+      }
+      operationEvents.add(event);
+    }
+    for (final Entry<FileOperation, List<FileEvent>> entry : batch.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+    return Collections.unmodifiableMap(batch);
+  }
+
+  private static boolean isIgnoredName(final String name) {
+    return name.length() > 1 && name.startsWith(".") || name.equals("log.roo");
+  }
+
   private final Set<String> allFiles = new HashSet<String>();
-  private final Map<String, Set<String>> changeMap = new HashMap<String, Set<String>>();
+  /** the changed canonical paths, for {@link #getDirtyFiles(String)} */
+  private final ChangeLog<String> changeLog = new ChangeLog<String>();
+  /** key: file whose modification was published by a scan; value: its content */
+  private final Map<File, ContentHash> contentHashes = new HashMap<File, ContentHash>();
+  private boolean contentHashing = Boolean.getBoolean(CONTENT_HASH_PROPERTY);
+  /** key: monitored location; value: the listings of its directories */
+  private final Map<MonitoringRequest, Map<File, DirectoryListing>> directoryListings =
+      new WeakHashMap<MonitoringRequest, Map<File, DirectoryListing>>();
   private final Set<FileEventListener> fileEventListeners = new HashSet<FileEventListener>();
-  private final Object lock = new Object();
+  private int lastScanListedDirectories;
+  private long lastScanMillis;
+  private int lastScanPrunedDirectories;
+  private final AtomicInteger listedDirectories = new AtomicInteger();
+  protected final Object lock = new Object();
   private final Set<String> notifyChanged = new HashSet<String>();
   private final Set<String> notifyCreated = new HashSet<String>();
   private final Set<String> notifyDeleted = new HashSet<String>();
   private final Map<MonitoringRequest, Map<File, Long>> priorExecution =
       new WeakHashMap<MonitoringRequest, Map<File, Long>>();
+  private final AtomicInteger prunedDirectories = new AtomicInteger();
   private final Set<MonitoringRequest> requests = new LinkedHashSet<MonitoringRequest>();
+  /** the index of {@link #requests}; <code>null</code> until next needed */
+  private MonitoringRequestTrie requestTrie;
   private final List<FileEvent> eventsPendingToPublish = new ArrayList<FileEvent>();
+  private final AtomicLong suppressedEvents = new AtomicLong();
+  private ForkJoinPool walkPool;
 
   public final void add(final FileEventListener e) {
     synchronized (lock) {
@@ -106,8 +362,8 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
                 String existingDmrPath;
                 String newDmrPath;
                 try {
-                  existingDmrPath = existingDmr.getFile().getCanonicalPath();
-                  newDmrPath = dmr.getFile().getCanonicalPath();
+                  existingDmrPath = CanonicalPathCache.getCanonicalPath(existingDmr.getFile());
+                  newDmrPath = CanonicalPathCache.getCanonicalPath(dmr.getFile());
                 } catch (final IOException ioe) {
                   throw new IllegalStateException("Unable to resolve canonical name", ioe);
                 }
@@ -130,10 +386,91 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         }
       }
 
+      requestTrie = null;
       return requests.add(request);
     }
   }
 
+  /**
+   * Adds the events of the pending creation notifications to those of the
+   * requests monitoring the notified files
+   */
+  private void addFileCreationEvents(
+      final Map<MonitoringRequest, List<FileEvent>> eventsByRequest) {
+    for (final Iterator<String> iter = notifyCreated.iterator(); iter.hasNext();) {
+      final String filePath = iter.next();
+      final MonitoringRequest request = getRequestTrie().getFirstRequest(filePath);
+      if (request != null) {
+        iter.remove(); // We've processed it
+        // Skip this file if it doesn't exist
+        final File thisFile = new File(filePath);
+        if (thisFile.exists()) {
+          // Record the notification
+          eventsByRequest.get(request).add(
+              new FileEvent(new FileDetails(thisFile, thisFile.lastModified()),
+                  FileOperation.CREATED, null));
+          // Update the prior execution map so it isn't notified again
+          // next round
+          priorExecution.get(request).put(thisFile, thisFile.lastModified());
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the events of the pending deletion notifications to those of the
+   * requests monitoring the notified files
+   */
+  private void addFileDeletionEvents(
+      final Map<MonitoringRequest, List<FileEvent>> eventsByRequest) {
+    for (final Iterator<String> iter = notifyDeleted.iterator(); iter.hasNext();) {
+      final String filePath = iter.next();
+      final MonitoringRequest request = getRequestTrie().getFirstRequest(filePath);
+      if (request != null) {
+        iter.remove(); // We've processed it
+        // Skip this file if it suddenly exists again (it shouldn't be
+        // in the notify deleted in this case!)
+        final File thisFile = new File(filePath);
+        if (!thisFile.exists()) {
+          // Record the notification
+          eventsByRequest.get(request).add(
+              new FileEvent(new FileDetails(thisFile, null), FileOperation.DELETED, null));
+          // Update the prior execution map so it isn't notified again
+          // next round
+          priorExecution.get(request).remove(thisFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the events of the pending update notifications to those of the
+   * requests monitoring the notified files
+   */
+  private void addFileUpdateEvents(
+      final Map<MonitoringRequest, List<FileEvent>> eventsByRequest) {
+    for (final Iterator<String> iter = notifyChanged.iterator(); iter.hasNext();) {
+      final String filePath = iter.next();
+      final MonitoringRequest request = getRequestTrie().getFirstRequest(filePath);
+      if (request != null) {
+        iter.remove(); // We've processed it
+        // Skip this file if it doesn't exist
+        final File thisFile = new File(filePath);
+        if (thisFile.exists()) {
+          // Record the notification
+          eventsByRequest.get(request).add(
+              new FileEvent(new FileDetails(thisFile, thisFile.lastModified()),
+                  FileOperation.UPDATED, null));
+          // Update the prior execution map so it isn't notified again
+          // next round
+          priorExecution.get(request).put(thisFile, thisFile.lastModified());
+          // Also remove it from the created list, if it's in there
+          notifyCreated.remove(filePath);
+        }
+      }
+    }
+  }
+
   /**
    * Adds one or more entries into the Map. The key of the Map is the File
    * object, and the value is the {@link File#lastModified()} time.
@@ -148,21 +485,19 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
    * will be added only if "includeSubtree" is true.</li>
    * </ul>
    */
-  private void computeEntries(final Map<File, Long> map, final File currentFile,
+  protected void computeEntries(final Map<File, Long> map, final File currentFile,
       final boolean includeSubtree) {
     Validate.notNull(map, "Map required");
     Validate.notNull(currentFile, "Current file is required");
 
-    if (!currentFile.exists() || currentFile.getName().length() > 1
-        && currentFile.getName().startsWith(".") || currentFile.getName().equals("log.roo")
-        || currentFile.isDirectory() && isExcludedDirectory(currentFile.getPath())) {
+    if (!currentFile.exists() || isIgnored(currentFile)) {
       return;
     }
 
     map.put(currentFile, currentFile.lastModified());
 
     try {
-      allFiles.add(currentFile.getCanonicalPath());
+      allFiles.add(CanonicalPathCache.getCanonicalPath(currentFile));
     } catch (final IOException ignored) {
     }
 
@@ -211,87 +546,57 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
 
   public Collection<String> getDirtyFiles(final String requestingClass) {
     synchronized (lock) {
-      final Collection<String> changesSinceLastRequest = changeMap.get(requestingClass);
-      if (changesSinceLastRequest == null) {
-        changeMap.put(requestingClass, new LinkedHashSet<String>());
+      if (!changeLog.isRegistered(requestingClass)) {
+        changeLog.register(requestingClass, Collections.<String>emptySet());
         return new LinkedHashSet<String>(allFiles);
       }
-      final Collection<String> copyOfChangesSinceLastRequest =
-          new LinkedHashSet<String>(changesSinceLastRequest);
-      changesSinceLastRequest.clear();
-      return copyOfChangesSinceLastRequest;
+      return changeLog.takeChanges(requestingClass);
     }
   }
 
-  private List<FileEvent> getFileCreationEvents(final MonitoringRequest request,
-      final Map<File, Long> priorFiles) {
-    final List<FileEvent> createEvents = new ArrayList<FileEvent>();
-    for (final Iterator<String> iter = notifyCreated.iterator(); iter.hasNext();) {
-      final String filePath = iter.next();
-      if (isWithin(request, filePath)) {
-        iter.remove(); // We've processed it
-        // Skip this file if it doesn't exist
-        final File thisFile = new File(filePath);
-        if (thisFile.exists()) {
-          // Record the notification
-          createEvents.add(new FileEvent(new FileDetails(thisFile, thisFile.lastModified()),
-              FileOperation.CREATED, null));
-          // Update the prior execution map so it isn't notified again
-          // next round
-          priorFiles.put(thisFile, thisFile.lastModified());
-        }
-      }
+  /**
+   * Returns the number of directories the last {@link #scanAll()} listed
+   *
+   * @return see above
+   */
+  public int getLastScanListedDirectories() {
+    synchronized (lock) {
+      return lastScanListedDirectories;
     }
-    return createEvents;
   }
 
-  private List<FileEvent> getFileDeletionEvents(final MonitoringRequest request,
-      final Map<File, Long> priorFiles) {
-    final List<FileEvent> deleteEvents = new ArrayList<FileEvent>();
-    for (final Iterator<String> iter = notifyDeleted.iterator(); iter.hasNext();) {
-      final String filePath = iter.next();
-      if (isWithin(request, filePath)) {
-        iter.remove(); // We've processed it
-        // Skip this file if it suddenly exists again (it shouldn't be
-        // in the notify deleted in this case!)
-        final File thisFile = new File(filePath);
-        if (!thisFile.exists()) {
-          // Record the notification
-          deleteEvents.add(new FileEvent(new FileDetails(thisFile, null), FileOperation.DELETED,
-              null));
-          // Update the prior execution map so it isn't notified again
-          // next round
-          priorFiles.remove(thisFile);
-        }
-      }
+  /**
+   * Returns how long the last {@link #scanAll()} took
+   *
+   * @return a number of milliseconds
+   */
+  public long getLastScanMillis() {
+    synchronized (lock) {
+      return lastScanMillis;
     }
-    return deleteEvents;
   }
 
-  private List<FileEvent> getFileUpdateEvents(final MonitoringRequest request,
-      final Map<File, Long> priorFiles) {
-    final List<FileEvent> updateEvents = new ArrayList<FileEvent>();
-    for (final Iterator<String> iter = notifyChanged.iterator(); iter.hasNext();) {
-      final String filePath = iter.next();
-      if (isWithin(request, filePath)) {
-        iter.remove(); // We've processed it
-        // Skip this file if it doesn't exist
-        final File thisFile = new File(filePath);
-        if (thisFile.exists()) {
-          // Record the notification
-          updateEvents.add(new FileEvent(new FileDetails(thisFile, thisFile.lastModified()),
-              FileOperation.UPDATED, null));
-          // Update the prior execution map so it isn't notified again
-          // next round
-          priorFiles.put(thisFile, thisFile.lastModified());
-          // Also remove it from the created list, if it's in there
-          if (notifyCreated.contains(filePath)) {
-            notifyCreated.remove(filePath);
-          }
-        }
-      }
+  /**
+   * Returns the number of directories the last {@link #scanAll()} didn't
+   * list again, as their modification time was unchanged
+   *
+   * @return see above
+   */
+  public int getLastScanPrunedDirectories() {
+    synchronized (lock) {
+      return lastScanPrunedDirectories;
     }
-    return updateEvents;
+  }
+
+  /**
+   * Returns the number of updates dropped so far because the content of the
+   * updated file was unchanged
+   *
+   * @return see above
+   * @see #setContentHashing(boolean)
+   */
+  public long getSuppressedEventCount() {
+    return suppressedEvents.get();
   }
 
   public List<FileDetails> getMonitored() {
@@ -314,6 +619,39 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     }
   }
 
+  /**
+   * Returns the index of the monitoring requests, building it if they changed
+   * since it was last built
+   * <p>
+   * This method assumes the caller has already acquired a synchronisation
+   * lock.
+   */
+  private MonitoringRequestTrie getRequestTrie() {
+    if (requestTrie == null) {
+      requestTrie = new MonitoringRequestTrie(requests);
+    }
+    return requestTrie;
+  }
+
+  /**
+   * Makes the {@link CanonicalPathCache} forget the files created, deleted or
+   * renamed by the given events, along with everything under them
+   */
+  private void invalidateCanonicalPaths(final List<FileEvent> events) {
+    final List<String> paths = new ArrayList<String>();
+    for (final FileEvent event : events) {
+      final FileOperation operation = event.getOperation();
+      if (operation == FileOperation.CREATED || operation == FileOperation.DELETED
+          || operation == FileOperation.RENAMED) {
+        paths.add(event.getFileDetails().getFile().getAbsolutePath());
+        if (event.getPreviousName() != null) {
+          paths.add(event.getPreviousName().getAbsolutePath());
+        }
+      }
+    }
+    CanonicalPathCache.invalidate(paths);
+  }
+
   public boolean isDirty() {
     synchronized (lock) {
       return !notifyChanged.isEmpty() || !notifyCreated.isEmpty() || !notifyDeleted.isEmpty();
@@ -327,6 +665,18 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         || hasSrc && path.contains(File.separator + "maven");
   }
 
+  /**
+   * Indicates whether the given existing file or directory is left out of
+   * the monitored locations, along with everything under it
+   * 
+   * @param file the file to check (required)
+   * @return see above
+   */
+  protected boolean isIgnored(final File file) {
+    return isIgnoredName(file.getName()) || file.isDirectory()
+        && isExcludedDirectory(file.getPath());
+  }
+
   /**
    * Decides whether we want to store this notification. This only happens if
    * a monitoring request has indicated it is interested in this request. See
@@ -337,40 +687,23 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
    */
   private boolean isNotificationUnderKnownMonitoringRequest(final String fileCanonicalPath) {
     synchronized (lock) {
-      for (final MonitoringRequest request : requests) {
-        if (isWithin(request, fileCanonicalPath)) {
-          return true;
-        }
-      }
+      return getRequestTrie().getFirstRequest(fileCanonicalPath) != null;
     }
-    return false;
   }
 
-  private boolean isWithin(final MonitoringRequest request, final String filePath) {
-    String requestCanonicalPath;
-    try {
-      requestCanonicalPath = request.getFile().getCanonicalPath();
-    } catch (final IOException e) {
-      return false;
-    }
-    if (request instanceof DirectoryMonitoringRequest) {
-      final DirectoryMonitoringRequest dmr = (DirectoryMonitoringRequest) request;
-      if (dmr.isWatchSubtree()) {
-        if (!filePath.startsWith(requestCanonicalPath)) {
-          // Not within this directory or as ub-directory
-          return false;
-        }
-      } else {
-        if (!FileUtils.matchesAntPath(requestCanonicalPath + File.separator + "*", filePath)) {
-          return false; // Not within this directory
-        }
-      }
-    } else {
-      if (!requestCanonicalPath.equals(filePath)) {
-        return false; // Not a file
-      }
-    }
-    return true;
+  /**
+   * Indicates whether the given monitored location is known to be unchanged
+   * since the previous scan, in which case {@link #scanAll()} skips it. Only
+   * consulted for locations scanned before, while no notifications are
+   * pending.
+   * <p>
+   * This implementation returns <code>false</code>, as only a scan can tell.
+   * 
+   * @param request the monitored location (never null)
+   * @return see above
+   */
+  protected boolean isUnchanged(final MonitoringRequest request) {
+    return false;
   }
 
   private boolean noRequestsOrChanges() {
@@ -416,40 +749,58 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     if (eventsToPublish.isEmpty()) {
       return;
     }
+    invalidateCanonicalPaths(eventsToPublish);
     if (fileEventListeners.isEmpty() || eventsToPublish.isEmpty()) {
       return;
     }
+    final List<BatchFileEventListener> batchListeners = new ArrayList<BatchFileEventListener>();
+    final List<FileEventListener> listeners = new ArrayList<FileEventListener>();
+    for (final FileEventListener l : fileEventListeners) {
+      if (l instanceof BatchFileEventListener) {
+        batchListeners.add((BatchFileEventListener) l);
+      } else {
+        listeners.add(l);
+      }
+    }
     for (final FileEvent event : eventsToPublish) {
       updateChanges(event.getFileDetails().getCanonicalPath(),
           event.getOperation() == FileOperation.DELETED);
-      for (final FileEventListener l : fileEventListeners) {
+      for (final FileEventListener l : listeners) {
         l.onFileEvent(event);
       }
     }
+    if (!batchListeners.isEmpty()) {
+      final Map<FileOperation, List<FileEvent>> batch = groupByOperation(eventsToPublish);
+      for (final BatchFileEventListener l : batchListeners) {
+        l.onFileEvents(batch);
+      }
+    }
   }
 
   private int publishRequestedFileEvents() {
-    int eventsPublished = 0;
+    final Map<MonitoringRequest, List<FileEvent>> eventsByRequest =
+        new LinkedHashMap<MonitoringRequest, List<FileEvent>>();
     for (final MonitoringRequest request : requests) {
-      final List<FileEvent> eventsToPublish = new ArrayList<FileEvent>();
+      eventsByRequest.put(request, new ArrayList<FileEvent>());
 
       // See when each file was last checked
-      Map<File, Long> priorFiles = priorExecution.get(request);
-      if (priorFiles == null) {
-        priorFiles = new HashMap<File, Long>();
-        priorExecution.put(request, priorFiles);
+      if (!priorExecution.containsKey(request)) {
+        priorExecution.put(request, new HashMap<File, Long>());
       }
+    }
 
-      // Handle files apparently updated, created, or deleted since the
-      // last execution
-      eventsToPublish.addAll(getFileUpdateEvents(request, priorFiles));
-      eventsToPublish.addAll(getFileCreationEvents(request, priorFiles));
-      eventsToPublish.addAll(getFileDeletionEvents(request, priorFiles));
+    // Handle files apparently updated, created, or deleted since the
+    // last execution
+    addFileUpdateEvents(eventsByRequest);
+    addFileCreationEvents(eventsByRequest);
+    addFileDeletionEvents(eventsByRequest);
 
-      publish(eventsToPublish);
-      eventsPublished += eventsToPublish.size();
+    final List<FileEvent> eventsToPublish = new ArrayList<FileEvent>();
+    for (final List<FileEvent> requestEvents : eventsByRequest.values()) {
+      eventsToPublish.addAll(requestEvents);
     }
-    return eventsPublished;
+    publish(eventsToPublish);
+    return eventsToPublish.size();
   }
 
   /**
@@ -506,11 +857,14 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
           final Long lastModified = entry.getValue();
           eventsToPublish.add(new FileEvent(new FileDetails(thisFile, lastModified),
               FileOperation.MONITORING_FINISH, null));
+          contentHashes.remove(thisFile);
         }
         publish(eventsToPublish);
       }
 
       priorExecution.remove(request);
+      directoryListings.remove(request);
+      requestTrie = null;
 
       return requests.remove(request);
     }
@@ -522,7 +876,14 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         return 0;
       }
 
+      final Object scanEvent = SCAN_EVENT.begin();
+      final long startedAt = System.nanoTime();
+      listedDirectories.set(0);
+      prunedDirectories.set(0);
       int changes = 0;
+      int scannedFiles = 0;
+      // Published together once every request has been scanned
+      final List<FileEvent> scanEvents = new ArrayList<FileEvent>();
 
       for (final MonitoringRequest request : requests) {
         boolean includeSubtree = false;
@@ -530,13 +891,18 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
           includeSubtree = ((DirectoryMonitoringRequest) request).isWatchSubtree();
         }
 
+        if (priorExecution.containsKey(request) && !isDirty() && isUnchanged(request)) {
+          continue;
+        }
+
         if (!request.getFile().exists()) {
           continue;
         }
 
         // Build contents of the monitored location
-        final Map<File, Long> currentExecution = new HashMap<File, Long>();
-        computeEntries(currentExecution, request.getFile(), includeSubtree);
+        final Map<File, Long> currentExecution =
+            scanLocation(request, includeSubtree, priorExecution.get(request));
+        scannedFiles += currentExecution.size();
 
         final List<FileEvent> eventsToPublish = new ArrayList<FileEvent>();
 
@@ -554,10 +920,11 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
               // must be new
               eventsToPublish.add(new FileEvent(new FileDetails(thisFile, currentTimestamp),
                   FileOperation.CREATED, null));
+              updateContentHash(thisFile, currentTimestamp);
               try {
                 // If this file was already going to be
                 // notified, there is no need to do it twice
-                notifyCreated.remove(thisFile.getCanonicalPath());
+                notifyCreated.remove(CanonicalPathCache.getCanonicalPath(thisFile));
               } catch (final IOException ignored) {
               }
               continue;
@@ -565,15 +932,23 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
 
             final Long previousTimestamp = priorFiles.get(thisFile);
             if (!currentTimestamp.equals(previousTimestamp)) {
-              // Modified
-              eventsToPublish.add(new FileEvent(new FileDetails(thisFile, currentTimestamp),
-                  FileOperation.UPDATED, null));
+              boolean notified = false;
               try {
                 // If this file was already going to be
                 // notified, there is no need to do it twice
-                notifyChanged.remove(thisFile.getCanonicalPath());
+                notified = notifyChanged.remove(CanonicalPathCache.getCanonicalPath(thisFile));
               } catch (final IOException ignored) {
               }
+              final ContentHash previousHash = updateContentHash(thisFile, currentTimestamp);
+              if (!notified && previousHash != null
+                  && previousHash.isSameContent(previousTimestamp, contentHashes.get(thisFile))) {
+                // Touched but not modified
+                suppressedEvents.incrementAndGet();
+                continue;
+              }
+              // Modified
+              eventsToPublish.add(new FileEvent(new FileDetails(thisFile, currentTimestamp),
+                  FileOperation.UPDATED, null));
             }
           }
 
@@ -583,10 +958,11 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
             final File deletedFile = entry.getKey();
             eventsToPublish.add(new FileEvent(new FileDetails(deletedFile, entry.getValue()),
                 FileOperation.DELETED, null));
+            contentHashes.remove(deletedFile);
             try {
               // If this file was already going to be notified,
               // there is no need to do it twice
-              notifyDeleted.remove(deletedFile.getCanonicalPath());
+              notifyDeleted.remove(CanonicalPathCache.getCanonicalPath(deletedFile));
             } catch (final IOException ignored) {
             }
           }
@@ -621,11 +997,11 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         if (!isDifferentVersion()) {
           // Publishing pending events if needed
           if (!eventsPendingToPublish.isEmpty()) {
-            publish(eventsPendingToPublish);
+            scanEvents.addAll(eventsPendingToPublish);
             // Clear events pending to publish
             eventsPendingToPublish.clear();
           }
-          publish(eventsToPublish);
+          scanEvents.addAll(eventsToPublish);
 
         } else {
           for (FileEvent event : eventsToPublish) {
@@ -639,7 +1015,20 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
 
         changes += eventsToPublish.size();
       }
-
+      publish(scanEvents);
+
+      lastScanMillis = (System.nanoTime() - startedAt) / 1000000;
+      lastScanListedDirectories = listedDirectories.get();
+      lastScanPrunedDirectories = prunedDirectories.get();
+      if (LOGGER.isLoggable(Level.FINE)) {
+        LOGGER.fine("Scanned " + scannedFiles + " files in " + lastScanMillis + " ms (listed "
+            + lastScanListedDirectories + " directories, pruned " + lastScanPrunedDirectories
+            + ")");
+      }
+      if (scanEvent != null) {
+        SCAN_EVENT.commit(scanEvent, requests.size(), scannedFiles, changes,
+            lastScanPrunedDirectories);
+      }
       return changes;
     }
   }
@@ -654,6 +1043,9 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
         Document docXml = XmlUtils.readXml(is);
         Element document = docXml.getDocumentElement();
         Element rooVersionElement = XmlUtils.findFirstElement("properties/roo.version", document);
+        if (rooVersionElement == null) {
+          return "UNKNOWN";
+        }
         String rooVersion = rooVersionElement.getTextContent();
 
         return rooVersion;
@@ -718,6 +1110,49 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     return sb.toString();
   }
 
+  /**
+   * Builds the current contents of the given monitored location, as a map of
+   * each file and directory to its {@link File#lastModified()} time.
+   * <p>
+   * This implementation walks the whole location, sub-directories in
+   * parallel. A directory whose modification time is unchanged since the
+   * previous scan isn't listed again; its files are still checked, as
+   * modifying a file doesn't touch its directory.
+   * 
+   * @param request the monitored location, which exists (never null)
+   * @param includeSubtree whether to include the sub-directories of a
+   *            monitored directory
+   * @param priorFiles the contents found by the previous scan (read only;
+   *            <code>null</code> if this is the first scan of the location)
+   * @return a new map
+   */
+  protected Map<File, Long> scanLocation(final MonitoringRequest request,
+      final boolean includeSubtree, final Map<File, Long> priorFiles) {
+    final File root = request.getFile();
+    final BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(root.toPath(), BasicFileAttributes.class);
+    } catch (final IOException e) {
+      return new HashMap<File, Long>();
+    }
+    if (!attributes.isDirectory() || isIgnored(root)) {
+      final Map<File, Long> currentExecution = new HashMap<File, Long>();
+      computeEntries(currentExecution, root, includeSubtree);
+      return currentExecution;
+    }
+
+    final LocationWalk walk =
+        new LocationWalk(includeSubtree, priorFiles, priorFiles == null ? null
+            : directoryListings.get(request));
+    if (walkPool == null) {
+      walkPool = new ForkJoinPool();
+    }
+    walkPool.invoke(new DirectoryWalk(root, attributes, walk));
+    directoryListings.put(request, walk.listings);
+    allFiles.addAll(walk.newCanonicalPaths);
+    return walk.entries;
+  }
+
   public int scanNotified() {
     synchronized (lock) {
       if (noRequestsOrChanges()) {
@@ -727,18 +1162,51 @@ public class PollingFileMonitorService implements NotifiableFileMonitorService {
     }
   }
 
-  private void updateChanges(final String fileCanonicalPath, final boolean remove) {
-    for (final String requestingClass : changeMap.keySet()) {
-      if (remove) {
-        changeMap.get(requestingClass).remove(fileCanonicalPath);
-      } else {
-        changeMap.get(requestingClass).add(fileCanonicalPath);
+  /**
+   * Sets whether {@link #scanAll()} drops the updates of files whose content
+   * is unchanged, as happens when a checkout or an IDE's "save all" touches
+   * them. The content of a file is hashed when a scan finds it created or
+   * modified, so only the updates after its first change are ever dropped.
+   * <p>
+   * Defaults to the value of the {@value #CONTENT_HASH_PROPERTY} system
+   * property.
+   *
+   * @param contentHashing whether to compare file contents
+   */
+  public void setContentHashing(final boolean contentHashing) {
+    synchronized (lock) {
+      this.contentHashing = contentHashing;
+      if (!contentHashing) {
+        contentHashes.clear();
       }
     }
+  }
+
+  private void updateChanges(final String fileCanonicalPath, final boolean remove) {
     if (remove) {
+      changeLog.removed(fileCanonicalPath);
       allFiles.remove(fileCanonicalPath);
     } else {
+      changeLog.changed(fileCanonicalPath);
       allFiles.add(fileCanonicalPath);
     }
   }
+
+  /**
+   * Hashes the content of the given file, if content hashing is enabled
+   *
+   * @param file the file a scan found created or modified
+   * @param lastModified its modification time
+   * @return the previous hash of its content, if any
+   */
+  private ContentHash updateContentHash(final File file, final long lastModified) {
+    if (!contentHashing) {
+      return null;
+    }
+    final byte[] digest = digest(file);
+    if (digest == null) {
+      return contentHashes.remove(file);
+    }
+    return contentHashes.put(file, new ContentHash(lastModified, digest));
+  }
 }
@@ -0,0 +1,33 @@
+package org.springframework.roo.file.monitor.watch;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.felix.scr.annotations.Component;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.NotifiableFileMonitorService;
+import org.springframework.roo.file.monitor.polling.PollingFileMonitorComponent;
+
+/**
+ * Enables the {@link NotifiableFileMonitorService} component selected by the
+ * "roo.file.monitor" framework property (or, failing that, system property):
+ * the {@link WatchServiceFileMonitorComponent} if it's "watch", otherwise the
+ * {@link PollingFileMonitorComponent}. Both are disabled by default, so that
+ * only one of them ever provides the service.
+ * 
+ * @since 2.0
+ */
+@Component(immediate = true)
+public class FileMonitorSelector {
+
+  protected void activate(final ComponentContext context) {
+    final String property = WatchServiceFileMonitorService.MONITOR_PROPERTY;
+    String monitor = context.getBundleContext().getProperty(property);
+    if (monitor == null) {
+      monitor = System.getProperty(property);
+    }
+    if (WatchServiceFileMonitorService.WATCH.equals(StringUtils.trim(monitor))) {
+      context.enableComponent(WatchServiceFileMonitorComponent.class.getName());
+    } else {
+      context.enableComponent(PollingFileMonitorComponent.class.getName());
+    }
+  }
+}
@@ -0,0 +1,420 @@
+package org.springframework.roo.file.monitor.watch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.springframework.roo.file.monitor.ChangeSignalListener;
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.MonitoringRequest;
+import org.springframework.roo.file.monitor.SignallingFileMonitorService;
+import org.springframework.roo.file.monitor.polling.PollingFileMonitorService;
+
+/**
+ * A {@link PollingFileMonitorService} that learns which directories changed
+ * from the platform's {@link WatchService} (inotify on Linux), so that a scan
+ * only lists those directories instead of walking every monitored location.
+ * While nothing changes, {@link #scanAll()} does no file system access at
+ * all.
+ * <p>
+ * Every directory of a monitored location is registered with the
+ * {@link WatchService}, including the ones created later on. If the
+ * {@link WatchService} reports an overflow, i.e. that it dropped events, the
+ * locations registered on the overflowing directory are walked in full on the
+ * next scan. Locations that can't be watched (e.g. because the platform's
+ * limit of watched directories was reached), and all locations if the
+ * platform provides no {@link WatchService}, are polled as by the superclass.
+ * <p>
+ * The events published are the same as the superclass would publish; only
+ * the way changes are detected differs.
+ * <p>
+ * Once a {@link ChangeSignalListener} is added, a background thread waits for
+ * the {@link WatchService} to report changes and signals them as they happen.
+ *
+ * @since 2.0
+ */
+public class WatchServiceFileMonitorService extends PollingFileMonitorService implements
+    SignallingFileMonitorService {
+
+  /**
+   * The framework or system property that selects this implementation when
+   * set to {@value #WATCH}
+   */
+  public static final String MONITOR_PROPERTY = "roo.file.monitor";
+  public static final String WATCH = "watch";
+
+  private final Set<ChangeSignalListener> changeSignalListeners =
+      new CopyOnWriteArraySet<ChangeSignalListener>();
+  private final AtomicLong fullScans = new AtomicLong();
+  private final AtomicLong overflows = new AtomicLong();
+  /** key: monitored location; value: its directories with changes */
+  private final Map<MonitoringRequest, Set<File>> pendingDirectories =
+      new HashMap<MonitoringRequest, Set<File>>();
+  /** key: watched directory; value: the directory per monitored location */
+  private final Map<WatchKey, Map<MonitoringRequest, File>> registrations =
+      new HashMap<WatchKey, Map<MonitoringRequest, File>>();
+  private final Set<MonitoringRequest> rescanRequests = new HashSet<MonitoringRequest>();
+  /** the keys taken by the signalling thread, in the order they were */
+  private final Queue<WatchKey> signalledKeys = new ConcurrentLinkedQueue<WatchKey>();
+  private Thread signallingThread;
+  private final AtomicLong targetedScans = new AtomicLong();
+  private final WatchService watchService;
+  private boolean watching;
+  private final Set<MonitoringRequest> watchedRequests = new HashSet<MonitoringRequest>();
+
+  public WatchServiceFileMonitorService() {
+    WatchService newWatchService = null;
+    try {
+      newWatchService = FileSystems.getDefault().newWatchService();
+    } catch (final IOException e) {
+      LOGGER.warning("Unable to watch the file system, polling instead (" + e.getMessage() + ")");
+    } catch (final UnsupportedOperationException e) {
+      LOGGER.warning("Unable to watch the file system, polling instead");
+    }
+    watchService = newWatchService;
+    watching = watchService != null;
+  }
+
+  public void addChangeSignalListener(final ChangeSignalListener listener) {
+    synchronized (lock) {
+      changeSignalListeners.add(listener);
+      if (watching && signallingThread == null) {
+        signallingThread = new Thread(new Runnable() {
+          public void run() {
+            signalChanges();
+          }
+        }, "Spring Roo File Monitor Signalling Thread");
+        signallingThread.setDaemon(true);
+        signallingThread.start();
+      }
+    }
+  }
+
+  /**
+   * Collects the directories that changed since the last call, registering
+   * new directories of monitored sub-trees as they appear
+   */
+  private void drainEvents() {
+    WatchKey key;
+    while ((key = nextKey()) != null) {
+      final Map<MonitoringRequest, File> directories = registrations.get(key);
+      for (final WatchEvent<?> event : key.pollEvents()) {
+        if (directories == null) {
+          continue;
+        }
+        if (event.kind() == OVERFLOW) {
+          overflows.incrementAndGet();
+          rescanRequests.addAll(directories.keySet());
+          continue;
+        }
+        for (final Entry<MonitoringRequest, File> entry : directories.entrySet()) {
+          final MonitoringRequest request = entry.getKey();
+          if (!(request instanceof DirectoryMonitoringRequest)) {
+            // Watching the parent directory of a single file
+            rescanRequests.add(request);
+            continue;
+          }
+          Set<File> pending = pendingDirectories.get(request);
+          if (pending == null) {
+            pending = new LinkedHashSet<File>();
+            pendingDirectories.put(request, pending);
+          }
+          pending.add(entry.getValue());
+          if (event.kind() == ENTRY_CREATE && isWatchSubtree(request)) {
+            final File created = new File(entry.getValue(), ((Path) event.context()).toString());
+            if (created.isDirectory()) {
+              registerTree(request, created, true);
+            }
+          }
+        }
+      }
+      if (!key.reset()) {
+        // The directory is gone; its parent reports the deletion
+        registrations.remove(key);
+      }
+    }
+  }
+
+  private boolean isWatchSubtree(final MonitoringRequest request) {
+    return request instanceof DirectoryMonitoringRequest
+        && ((DirectoryMonitoringRequest) request).isWatchSubtree();
+  }
+
+  @Override
+  protected boolean isUnchanged(final MonitoringRequest request) {
+    return watchedRequests.contains(request) && !pendingDirectories.containsKey(request)
+        && !rescanRequests.contains(request);
+  }
+
+  /**
+   * Lists the given changed directory of a monitored location again,
+   * updating the given contents accordingly
+   */
+  private void rescanDirectory(final Map<File, Long> currentFiles, final File directory,
+      final boolean includeSubtree, final Map<File, Long> priorFiles) {
+    if (!directory.isDirectory()) {
+      // Deleted; its parent reports the deletion
+      return;
+    }
+    currentFiles.put(directory, directory.lastModified());
+    final Set<File> children = new HashSet<File>();
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        if (!file.isDirectory()) {
+          children.add(file);
+          computeEntries(currentFiles, file, includeSubtree);
+        } else if (includeSubtree && !isIgnored(file)) {
+          children.add(file);
+          if (priorFiles.containsKey(file)) {
+            // Its own changes, if any, are reported by its own watch key
+            currentFiles.put(file, file.lastModified());
+          } else {
+            computeEntries(currentFiles, file, true);
+          }
+        }
+      }
+    }
+
+    // Forget the children that are gone, along with everything under them
+    final String directoryPrefix = directory.getPath() + File.separator;
+    final Set<String> removedPrefixes = new HashSet<String>();
+    for (final Iterator<File> iter = currentFiles.keySet().iterator(); iter.hasNext();) {
+      final File file = iter.next();
+      final String path = file.getPath();
+      if (path.startsWith(directoryPrefix)
+          && path.indexOf(File.separatorChar, directoryPrefix.length()) < 0
+          && !children.contains(file)) {
+        iter.remove();
+        removedPrefixes.add(path + File.separator);
+      }
+    }
+    if (removedPrefixes.isEmpty() || !includeSubtree) {
+      return;
+    }
+    for (final Iterator<File> iter = currentFiles.keySet().iterator(); iter.hasNext();) {
+      final String path = iter.next().getPath();
+      for (final String removedPrefix : removedPrefixes) {
+        if (path.startsWith(removedPrefix)) {
+          iter.remove();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Registers the given directory of the given monitored location with the
+   * {@link WatchService}
+   *
+   * @return <code>false</code> if it can't be watched
+   */
+  private boolean register(final MonitoringRequest request, final File directory) {
+    final WatchKey key;
+    try {
+      key = directory.toPath().register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+    } catch (final IOException e) {
+      LOGGER.warning("Unable to watch '" + directory + "', polling it instead (" + e.getMessage()
+          + ")");
+      return false;
+    }
+    Map<MonitoringRequest, File> directories = registrations.get(key);
+    if (directories == null) {
+      directories = new LinkedHashMap<MonitoringRequest, File>();
+      registrations.put(key, directories);
+    }
+    directories.put(request, directory);
+    return true;
+  }
+
+  /**
+   * Registers the given directory and, if requested, the directories under
+   * it
+   *
+   * @return <code>false</code> if any of them can't be watched
+   */
+  private boolean registerTree(final MonitoringRequest request, final File directory,
+      final boolean includeSubtree) {
+    if (isIgnored(directory)) {
+      return true;
+    }
+    if (!register(request, directory)) {
+      return false;
+    }
+    boolean registered = true;
+    if (includeSubtree) {
+      final File[] files = directory.listFiles();
+      if (files != null) {
+        for (final File file : files) {
+          if (file.isDirectory()) {
+            registered &= registerTree(request, file, true);
+          }
+        }
+      }
+    }
+    return registered;
+  }
+
+  /**
+   * Returns the next key with changes, if any, without waiting
+   */
+  private WatchKey nextKey() {
+    final WatchKey key = signalledKeys.poll();
+    return key == null ? watchService.poll() : key;
+  }
+
+  @Override
+  public boolean remove(final MonitoringRequest request) {
+    synchronized (lock) {
+      final boolean removed = super.remove(request);
+      unwatch(request);
+      return removed;
+    }
+  }
+
+  public void removeChangeSignalListener(final ChangeSignalListener listener) {
+    changeSignalListeners.remove(listener);
+  }
+
+  @Override
+  public int scanAll() {
+    synchronized (lock) {
+      if (watching) {
+        drainEvents();
+      }
+      return super.scanAll();
+    }
+  }
+
+  @Override
+  protected Map<File, Long> scanLocation(final MonitoringRequest request,
+      final boolean includeSubtree, final Map<File, Long> priorFiles) {
+    if (!watching) {
+      return super.scanLocation(request, includeSubtree, priorFiles);
+    }
+    final Set<File> directories = pendingDirectories.remove(request);
+    if (priorFiles == null || rescanRequests.remove(request) || !watchedRequests.contains(request)) {
+      // Watch before walking, so that no change goes unnoticed
+      unwatch(request);
+      if (watch(request, includeSubtree)) {
+        watchedRequests.add(request);
+      }
+      fullScans.incrementAndGet();
+      return super.scanLocation(request, includeSubtree, priorFiles);
+    }
+    targetedScans.incrementAndGet();
+    final Map<File, Long> currentFiles = new HashMap<File, Long>(priorFiles);
+    if (directories != null) {
+      for (final File directory : directories) {
+        rescanDirectory(currentFiles, directory, includeSubtree, priorFiles);
+      }
+    }
+    return currentFiles;
+  }
+
+  /**
+   * Waits for the {@link WatchService} to report changes, signalling each,
+   * until it's closed
+   */
+  private void signalChanges() {
+    while (true) {
+      try {
+        signalledKeys.add(watchService.take());
+      } catch (final ClosedWatchServiceException e) {
+        return;
+      } catch (final InterruptedException e) {
+        return;
+      }
+      for (final ChangeSignalListener listener : changeSignalListeners) {
+        listener.onChangeSignal();
+      }
+    }
+  }
+
+  /**
+   * Stops watching the file system; subsequent scans poll it instead
+   */
+  public void shutdown() {
+    synchronized (lock) {
+      if (!watching) {
+        return;
+      }
+      watching = false;
+      try {
+        watchService.close();
+      } catch (final IOException ignored) {
+      }
+      registrations.clear();
+      signalledKeys.clear();
+      watchedRequests.clear();
+    }
+  }
+
+  @Override
+  public final String toString() {
+    synchronized (lock) {
+      final ToStringBuilder builder = new ToStringBuilder(this);
+      builder.append("watching", watching);
+      builder.append("watchedDirectories", registrations.size());
+      builder.append("targetedScans", targetedScans);
+      builder.append("fullScans", fullScans);
+      builder.append("overflows", overflows);
+      return builder.toString().replaceFirst("@[0-9a-f]+", ":");
+    }
+  }
+
+  /**
+   * Forgets the given monitored location's directories
+   */
+  private void unwatch(final MonitoringRequest request) {
+    watchedRequests.remove(request);
+    pendingDirectories.remove(request);
+    rescanRequests.remove(request);
+    for (final Iterator<Entry<WatchKey, Map<MonitoringRequest, File>>> iter =
+        registrations.entrySet().iterator(); iter.hasNext();) {
+      final Entry<WatchKey, Map<MonitoringRequest, File>> entry = iter.next();
+      entry.getValue().remove(request);
+      if (entry.getValue().isEmpty()) {
+        entry.getKey().cancel();
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Registers the directories of the given monitored location
+   *
+   * @return whether the whole location is watched
+   */
+  private boolean watch(final MonitoringRequest request, final boolean includeSubtree) {
+    final File file = request.getFile();
+    if (request instanceof DirectoryMonitoringRequest) {
+      return registerTree(request, file, includeSubtree);
+    }
+    final File parent = file.getAbsoluteFile().getParentFile();
+    return parent != null && register(request, parent);
+  }
+}
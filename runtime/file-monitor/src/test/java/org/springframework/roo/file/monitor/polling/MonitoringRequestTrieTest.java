@@ -0,0 +1,90 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.FileMonitoringRequest;
+import org.springframework.roo.file.monitor.MonitoringRequest;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * Unit test of {@link MonitoringRequestTrie}
+ *
+ * @since 2.0
+ */
+public class MonitoringRequestTrieTest {
+
+  // Fixture
+  private MonitoringRequest children;
+  private MonitoringRequest file;
+  private String root;
+  private MonitoringRequest subtree;
+  private MonitoringRequestTrie trie;
+
+  @Before
+  public void setUp() throws IOException {
+    final File directory = File.createTempFile("trie", "");
+    directory.delete();
+    root = directory.getCanonicalPath();
+    final File src = new File(root, "project/src");
+    src.mkdirs();
+    final File pom = new File(src, "pom.xml");
+    pom.createNewFile();
+
+    subtree = new DirectoryMonitoringRequest(src, true, FileOperation.values());
+    children =
+        new DirectoryMonitoringRequest(src.getParentFile(), false, FileOperation.values());
+    file = new FileMonitoringRequest(pom, Arrays.asList(FileOperation.values()));
+    trie = new MonitoringRequestTrie(Arrays.asList(subtree, children, file));
+  }
+
+  @After
+  public void tearDown() {
+    new File(root, "project/src/pom.xml").delete();
+    new File(root, "project/src").delete();
+    new File(root, "project").delete();
+    new File(root).delete();
+  }
+
+  private MonitoringRequest getFirstRequest(final String relativePath) {
+    return trie.getFirstRequest(root + File.separator
+        + relativePath.replace('/', File.separatorChar));
+  }
+
+  @Test
+  public void testChildrenRequestCoversOnlyDirectChildren() {
+    assertEquals(children, getFirstRequest("project/pom.xml"));
+    assertEquals(children, getFirstRequest("project/srcx"));
+    assertNull(getFirstRequest("project"));
+    assertNull(getFirstRequest("project/srcx/Foo.java"));
+  }
+
+  @Test
+  public void testEarlierRequestsTakePrecedence() {
+    // Also a direct child of "project" and a file request
+    assertEquals(subtree, getFirstRequest("project/src"));
+    assertEquals(subtree, getFirstRequest("project/src/pom.xml"));
+
+    final MonitoringRequestTrie reversed =
+        new MonitoringRequestTrie(Arrays.asList(file, children, subtree));
+    assertEquals(file, reversed.getFirstRequest(root + File.separator + "project"
+        + File.separator + "src" + File.separator + "pom.xml"));
+    assertEquals(children, reversed.getFirstRequest(root + File.separator + "project"
+        + File.separator + "src"));
+  }
+
+  @Test
+  public void testSubtreeRequestCoversEverythingUnderIt() {
+    assertEquals(subtree, getFirstRequest("project/src/main/java/Foo.java"));
+    assertNull(getFirstRequest("other/src/Foo.java"));
+    assertNull(getFirstRequest("Foo.java"));
+  }
+}
@@ -0,0 +1,237 @@
+package org.springframework.roo.file.monitor.polling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.MonitoringRequest;
+import org.springframework.roo.file.monitor.event.BatchFileEventListener;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * Integration test of {@link PollingFileMonitorService} against the real file
+ * system
+ *
+ * @since 2.0
+ */
+public class PollingFileMonitorServiceTest {
+
+  private static final int DIRECTORIES = 21;
+
+  /**
+   * Records the events it receives as "operation path"
+   */
+  private static class RecordingListener implements FileEventListener {
+
+    final List<String> events = new ArrayList<String>();
+
+    public void onFileEvent(final FileEvent fileEvent) {
+      events.add(fileEvent.getOperation() + " " + fileEvent.getFileDetails().getFile().getPath());
+    }
+
+    /**
+     * Returns the events received since the last call, sorted
+     */
+    List<String> take() {
+      final List<String> taken = new ArrayList<String>(events);
+      events.clear();
+      Collections.sort(taken);
+      return taken;
+    }
+  }
+
+  private static void age(final File file) {
+    file.setLastModified(file.lastModified() - 60000);
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        age(child);
+      }
+    }
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static File write(final File file, final String content) throws IOException {
+    file.getParentFile().mkdirs();
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  // Fixture
+  private RecordingListener listener;
+  private PollingFileMonitorService monitor;
+  private MonitoringRequest request;
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = File.createTempFile("polling", "");
+    root.delete();
+    root.mkdir();
+    for (int i = 0; i < DIRECTORIES - 1; i++) {
+      for (int j = 0; j < 20; j++) {
+        write(new File(root, "src/package" + i + "/Type" + j + ".java"), "class Type" + j + " {}");
+      }
+    }
+    write(new File(root, "src/.hidden/Hidden.java"), "class Hidden {}");
+    write(new File(root, "target/classes/Type.class"), "");
+    write(new File(root, "log.roo"), "");
+    // Directories modified just now are listed regardless of their time
+    age(root);
+
+    monitor = new PollingFileMonitorService();
+    listener = new RecordingListener();
+    monitor.add(listener);
+    request = new DirectoryMonitoringRequest(root, true, FileOperation.values());
+    monitor.add(request);
+    monitor.scanAll();
+    listener.take();
+  }
+
+  @After
+  public void tearDown() {
+    delete(root);
+  }
+
+  @Test
+  public void testDeliversTheEventsOfAScanInOneBatch() throws Exception {
+    final List<Map<FileOperation, List<FileEvent>>> batches =
+        new ArrayList<Map<FileOperation, List<FileEvent>>>();
+    monitor.add(new BatchFileEventListener() {
+      public void onFileEvent(final FileEvent fileEvent) {
+        throw new IllegalStateException("Unexpected single event " + fileEvent);
+      }
+
+      public void onFileEvents(final Map<FileOperation, List<FileEvent>> fileEvents) {
+        batches.add(fileEvents);
+      }
+    });
+    final File created = write(new File(root, "src/package1/Created.java"), "class Created {}");
+    final File deleted = new File(root, "src/package8/Type4.java");
+    deleted.delete();
+
+    monitor.scanAll();
+    assertEquals(1, batches.size());
+    final Map<FileOperation, List<FileEvent>> batch = batches.get(0);
+    assertEquals(EnumSet.of(FileOperation.CREATED, FileOperation.DELETED, FileOperation.UPDATED),
+        batch.keySet());
+    assertEquals(created, batch.get(FileOperation.CREATED).get(0).getFileDetails().getFile());
+    assertEquals(deleted, batch.get(FileOperation.DELETED).get(0).getFileDetails().getFile());
+    // Both files' directories
+    assertEquals(2, batch.get(FileOperation.UPDATED).size());
+    // Single event listeners still receive each event
+    assertEquals(4, listener.take().size());
+
+    assertEquals(0, monitor.scanAll());
+    assertEquals(1, batches.size());
+  }
+
+  @Test
+  public void testFindsWhatASerialWalkFinds() {
+    final Map<File, Long> expected = new HashMap<File, Long>();
+    monitor.computeEntries(expected, root, true);
+
+    assertEquals(expected, monitor.scanLocation(request, true, null));
+    assertEquals(expected, monitor.scanLocation(request, true, expected));
+  }
+
+  @Test
+  public void testPrunesUnchangedDirectories() throws Exception {
+    assertEquals(0, monitor.scanAll());
+    assertEquals(0, monitor.getLastScanListedDirectories());
+    // The root, "src" and its packages
+    assertEquals(DIRECTORIES + 1, monitor.getLastScanPrunedDirectories());
+
+    // A modified file is found although its directory isn't listed again
+    final File updated = new File(root, "src/package3/Type7.java");
+    updated.setLastModified(updated.lastModified() + 1000);
+    final File created = write(new File(root, "src/package5/Created.java"), "class Created {}");
+    final File deleted = new File(root, "src/package9/Type1.java");
+    deleted.delete();
+
+    monitor.scanAll();
+    assertEquals(Arrays.asList(FileOperation.CREATED + " " + created.getPath(),
+        FileOperation.DELETED + " " + deleted.getPath(),
+        FileOperation.UPDATED + " " + updated.getPath(),
+        FileOperation.UPDATED + " " + created.getParent(),
+        FileOperation.UPDATED + " " + deleted.getParent()), listener.take());
+    assertEquals(2, monitor.getLastScanListedDirectories());
+    assertEquals(DIRECTORIES - 1, monitor.getLastScanPrunedDirectories());
+    assertTrue(monitor.getDirtyFiles(getClass().getName()).contains(created.getCanonicalPath()));
+  }
+
+  @Test
+  public void testPublishesNotificationsUnderMonitoredLocations() throws Exception {
+    final File created = write(new File(root, "src/package2/Created.java"), "class Created {}");
+    final File updated = new File(root, "src/package4/Type3.java");
+    monitor.notifyCreated(created.getCanonicalPath());
+    monitor.notifyChanged(updated.getCanonicalPath());
+    monitor.notifyChanged(root.getCanonicalPath() + "x" + File.separator + "Other.java");
+
+    assertEquals(2, monitor.scanNotified());
+    assertEquals(Arrays.asList(FileOperation.CREATED + " " + created.getCanonicalPath(),
+        FileOperation.UPDATED + " " + updated.getCanonicalPath()), listener.take());
+    assertFalse(monitor.isDirty());
+  }
+
+  @Test
+  public void testSuppressesUpdatesOfUnchangedContent() throws Exception {
+    monitor.setContentHashing(true);
+    final File file = new File(root, "src/package6/Type2.java");
+    final List<String> updated =
+        Collections.singletonList(FileOperation.UPDATED + " " + file.getPath());
+
+    // The first change is always published
+    file.setLastModified(file.lastModified() + 1000);
+    monitor.scanAll();
+    assertEquals(updated, listener.take());
+
+    // Touched only
+    file.setLastModified(file.lastModified() + 1000);
+    assertEquals(0, monitor.scanAll());
+    assertEquals(1, monitor.getSuppressedEventCount());
+
+    write(file, "class Type2 { int i; }");
+    file.setLastModified(file.lastModified() + 3000);
+    monitor.scanAll();
+    assertEquals(updated, listener.take());
+
+    // Back to content that isn't the last one published
+    write(file, "class Type2 {}");
+    file.setLastModified(file.lastModified() + 4000);
+    monitor.scanAll();
+    assertEquals(updated, listener.take());
+    assertEquals(1, monitor.getSuppressedEventCount());
+  }
+}
@@ -0,0 +1,201 @@
+package org.springframework.roo.file.monitor.watch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.file.monitor.DirectoryMonitoringRequest;
+import org.springframework.roo.file.monitor.MonitoringRequest;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.file.monitor.event.FileOperation;
+import org.springframework.roo.file.monitor.polling.PollingFileMonitorService;
+
+/**
+ * Integration test of {@link WatchServiceFileMonitorService} against the
+ * real file system; checks that it publishes the same events as
+ * {@link PollingFileMonitorService}, that idle scans are close to free, and
+ * that changes are picked up quickly.
+ *
+ * @since 2.0
+ */
+public class WatchServiceFileMonitorServiceTest {
+
+  private static final long TIMEOUT_MILLIS = 5000;
+
+  /**
+   * Records the events it receives as "operation path"
+   */
+  private static class RecordingListener implements FileEventListener {
+
+    final List<String> events = new ArrayList<String>();
+
+    public void onFileEvent(final FileEvent fileEvent) {
+      events.add(fileEvent.getOperation() + " " + fileEvent.getFileDetails().getFile().getPath());
+    }
+
+    /**
+     * Returns the events received since the last call, sorted
+     */
+    List<String> take() {
+      final List<String> taken = new ArrayList<String>(events);
+      events.clear();
+      Collections.sort(taken);
+      return taken;
+    }
+  }
+
+  private static void delete(final File file) {
+    final File[] children = file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static long getCpuTime() {
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System
+        .nanoTime();
+  }
+
+  private static File write(final File file, final String content) throws IOException {
+    file.getParentFile().mkdirs();
+    final FileWriter writer = new FileWriter(file);
+    try {
+      writer.write(content);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  // Fixture
+  private RecordingListener pollingListener;
+  private PollingFileMonitorService pollingMonitor;
+  private File root;
+  private RecordingListener watchListener;
+  private WatchServiceFileMonitorService watchMonitor;
+
+  @Before
+  public void setUp() throws IOException {
+    root = File.createTempFile("watch", "");
+    root.delete();
+    root.mkdir();
+    for (int i = 0; i < 20; i++) {
+      for (int j = 0; j < 50; j++) {
+        write(new File(root, "src/package" + i + "/Type" + j + ".java"), "class Type" + j + " {}");
+      }
+    }
+
+    pollingMonitor = new PollingFileMonitorService();
+    pollingListener = new RecordingListener();
+    pollingMonitor.add(pollingListener);
+    watchMonitor = new WatchServiceFileMonitorService();
+    watchListener = new RecordingListener();
+    watchMonitor.add(watchListener);
+    for (final PollingFileMonitorService monitor : new PollingFileMonitorService[] {
+        pollingMonitor, watchMonitor}) {
+      final MonitoringRequest request =
+          new DirectoryMonitoringRequest(root, true, FileOperation.values());
+      monitor.add(request);
+      monitor.scanAll();
+    }
+    pollingListener.take();
+    watchListener.take();
+  }
+
+  @After
+  public void tearDown() {
+    watchMonitor.shutdown();
+    delete(root);
+  }
+
+  /**
+   * Scans with the watching monitor until it has published the given number
+   * of events
+   */
+  private List<String> awaitWatchEvents(final int count) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (watchListener.events.size() < count && System.currentTimeMillis() < deadline) {
+      watchMonitor.scanAll();
+      Thread.sleep(10);
+    }
+    return watchListener.take();
+  }
+
+  @Test
+  public void testIdleScansCostLittleCpu() {
+    final int scans = 50;
+    long started = getCpuTime();
+    for (int i = 0; i < scans; i++) {
+      pollingMonitor.scanAll();
+    }
+    final long pollingCost = getCpuTime() - started;
+
+    started = getCpuTime();
+    for (int i = 0; i < scans; i++) {
+      watchMonitor.scanAll();
+    }
+    final long watchCost = getCpuTime() - started;
+
+    assertTrue("Watching cost " + watchCost + " ns vs polling " + pollingCost + " ns",
+        watchCost * 10 < pollingCost);
+    assertTrue(watchListener.take().isEmpty());
+  }
+
+  @Test
+  public void testPicksUpChangesWithin100Millis() throws Exception {
+    // Only Linux is known to provide a native WatchService to the JDK
+    Assume.assumeTrue(System.getProperty("os.name").startsWith("Linux"));
+    final File created = new File(root, "src/package1/Created.java");
+    final long started = System.nanoTime();
+    write(created, "class Created {}");
+    long elapsedMillis;
+    do {
+      watchMonitor.scanAll();
+      elapsedMillis = (System.nanoTime() - started) / 1000000;
+    } while (watchListener.events.isEmpty() && elapsedMillis < TIMEOUT_MILLIS);
+
+    assertTrue(watchListener.take().contains(FileOperation.CREATED + " " + created.getPath()));
+    assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < 100);
+  }
+
+  @Test
+  public void testPublishesSameEventsAsPolling() throws Exception {
+    final File updated = new File(root, "src/package3/Type7.java");
+    updated.setLastModified(updated.lastModified() - 60000);
+    final File created =
+        write(new File(root, "src/newpackage/sub/Created.java"), "class Created {}");
+    delete(new File(root, "src/package5"));
+
+    final List<String> expected = new ArrayList<String>();
+    pollingMonitor.scanAll();
+    expected.addAll(pollingListener.take());
+
+    final List<String> actual = awaitWatchEvents(expected.size());
+    assertEquals(expected, actual);
+    assertTrue(actual.contains(FileOperation.CREATED + " " + created.getPath()));
+    assertTrue(actual.contains(FileOperation.UPDATED + " " + updated.getPath()));
+
+    // Files under the new directory are watched too
+    write(created, "class Created { int i; }");
+    created.setLastModified(created.lastModified() - 60000);
+    assertEquals(Collections.singletonList(FileOperation.UPDATED + " " + created.getPath()),
+        awaitWatchEvents(1));
+  }
+}
@@ -18,6 +18,10 @@ import org.springframework.roo.support.osgi.ServiceInstaceManager;
  * {@link MetadataDependencyRegistry#notifyDownstream(String)} if there has been
  * an actual change since the last notification.
  * <p>
+ * Items implementing {@link FingerprintedMetadataItem} are tracked by their
+ * {@link MetadataFingerprint} instead, which is cheaper to compare and not
+ * prone to the collisions of 32-bit hash codes.
+ * <p>
  * IMPORTANT: Before subclassing this class, ensure the {@link MetadataItem}s
  * that you will be presenting are all of the same type AND they provide a
  * reliable {@link Object#hashCode()} method. Failure to observe this
@@ -47,11 +51,14 @@ public abstract class AbstractHashCodeTrackingMetadataNotifier {
     this.serviceManager.activate(this.context);
   }
 
+  private final Map<String, MetadataFingerprint> fingerprints =
+      new HashMap<String, MetadataFingerprint>();
   private final Map<String, Integer> hashes = new HashMap<String, Integer>();
 
   /**
    * Notifies downstream dependencies of a change if and only if the passed
-   * metadata item has a different hash code than the existing metadata item.
+   * metadata item has a different fingerprint or, failing that, hash code
+   * than the existing metadata item.
    * This is aimed at reducing needless notifications if nothing has actually
    * changed since the last notification.
    *
@@ -62,15 +69,30 @@ public abstract class AbstractHashCodeTrackingMetadataNotifier {
   protected void notifyIfRequired(final MetadataItem metadataItem) {
 
     final String instanceId = MetadataIdentificationUtils.getMetadataInstance(metadataItem.getId());
-    final Integer existing = hashes.get(instanceId);
-    final int newHash = metadataItem.hashCode();
-    if (existing != null && newHash == existing) {
-      // No need to notify
-      return;
+    final MetadataFingerprint newFingerprint =
+        metadataItem instanceof FingerprintedMetadataItem ? ((FingerprintedMetadataItem) metadataItem)
+            .getFingerprint() : null;
+    if (newFingerprint != null) {
+      if (newFingerprint.equals(fingerprints.get(instanceId))) {
+        // No need to notify
+        return;
+      }
+      // To get this far, we need to notify and replace/add the metadata
+      // item's fingerprint for future reference
+      fingerprints.put(instanceId, newFingerprint);
+      hashes.remove(instanceId);
+    } else {
+      final Integer existing = hashes.get(instanceId);
+      final int newHash = metadataItem.hashCode();
+      if (existing != null && newHash == existing) {
+        // No need to notify
+        return;
+      }
+      // To get this far, we need to notify and replace/add the metadata
+      // item's hash for future reference
+      hashes.put(instanceId, newHash);
+      fingerprints.remove(instanceId);
     }
-    // To get this far, we need to notify and replace/add the metadata
-    // item's hash for future reference
-    hashes.put(instanceId, newHash);
 
     // Eagerly insert into the cache to so any recursive gets for this
     // metadata item will be returned successfully
@@ -81,6 +103,24 @@ public abstract class AbstractHashCodeTrackingMetadataNotifier {
     }
   }
 
+  /**
+   * Notifies downstream dependencies that the given metadata item no longer
+   * exists, provided they were notified of an earlier version of it. Its next
+   * version will then be notified whatever its content.
+   *
+   * @param metadataIdentificationString the ID of the removed item (required)
+   * @since 2.0
+   */
+  protected void notifyRemoved(final String metadataIdentificationString) {
+    final String instanceId =
+        MetadataIdentificationUtils.getMetadataInstance(metadataIdentificationString);
+    final boolean hadFingerprint = fingerprints.remove(instanceId) != null;
+    final boolean hadHash = hashes.remove(instanceId) != null;
+    if ((hadFingerprint || hadHash) && getMetadataDependencyRegistry() != null) {
+      getMetadataDependencyRegistry().notifyDownstream(metadataIdentificationString);
+    }
+  }
+
   /**
    *
    * @deprecated this method should be removed as {@link #serviceManager}
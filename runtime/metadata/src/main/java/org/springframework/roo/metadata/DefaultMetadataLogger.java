@@ -1,20 +1,36 @@
 package org.springframework.roo.metadata;
 
-import java.io.FileWriter;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
 import java.util.SortedSet;
-import java.util.Stack;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.metadata.internal.LatencyHistogram;
+import org.springframework.roo.metadata.internal.MetadataTraceRenderer;
+import org.springframework.roo.metadata.internal.MetadataTraceWriter;
 import org.springframework.roo.metadata.internal.StandardMetadataTimingStatistic;
 
 /**
  * Default implementation of {@link MetadataLogger}.
+ * <p>
+ * Trace messages are handed to a {@link MetadataTraceWriter}, which writes
+ * them to the binary <code>metadata.trace</code> file on a background thread,
+ * so tracing barely slows down the threads being traced.
  * 
  * @author Ben Alex
  * @since 1.1.2
@@ -29,77 +45,99 @@ public class DefaultMetadataLogger implements MetadataLogger {
     String responsibleClass;
   }
 
-  private long eventNumber = 0;
-  private final Stack<Long> eventStack = new Stack<Long>();
-  private FileWriter fileLog;
   /**
-   * key: responsible class, value: number of times a timing record was
-   * created for the responsible class
+   * The time occupied by a responsible class, the number of times a timing
+   * record was created for it, and how long each of them took
    */
-  private final Map<String, Long> invocations = new HashMap<String, Long>();
-  private final Class<DefaultMetadataLogger> mutex = DefaultMetadataLogger.class;
-  private final Stack<TimerEntry> timerStack = new Stack<TimerEntry>();
-  /** key: responsible class, value: nanos occupied */
-  private final Map<String, Long> timings = new HashMap<String, Long>();
+  private static class Timing {
+    final AtomicLong duration = new AtomicLong(); // nanos
+    final AtomicLong invocations = new AtomicLong();
+    final LatencyHistogram latencies = new LatencyHistogram();
+  }
+
+  private static final int TRACE_CAPACITY = 16 * 1024;
+  private static final String TRACE_FILE = "metadata.trace";
 
-  private int traceLevel = 0;
+  private final AtomicLong eventNumber = new AtomicLong();
+  // Events and timers nest per thread, as metadata may be materialized by
+  // several threads at once
+  private final ThreadLocal<Deque<Long>> eventStacks = new ThreadLocal<Deque<Long>>() {
+    @Override
+    protected Deque<Long> initialValue() {
+      return new ArrayDeque<Long>();
+    }
+  };
+  private final ThreadLocal<Deque<TimerEntry>> timerStacks =
+      new ThreadLocal<Deque<TimerEntry>>() {
+        @Override
+        protected Deque<TimerEntry> initialValue() {
+          return new ArrayDeque<TimerEntry>();
+        }
+      };
+  /** key: responsible class */
+  private final ConcurrentMap<String, Timing> timings = new ConcurrentHashMap<String, Timing>();
+  private final MetadataTraceWriter traceWriter = new MetadataTraceWriter(new File(TRACE_FILE),
+      TRACE_CAPACITY);
+
+  // Set from the shell thread, read by every thread computing metadata
+  private volatile int traceLevel = 0;
 
   public DefaultMetadataLogger() {
-    if (System.getProperty("roo.metadata.trace") != null) {
+    if (Boolean.getBoolean("roo.metadata.trace")) {
       traceLevel = 2;
     }
   }
 
+  protected void deactivate(final ComponentContext context) {
+    traceWriter.close();
+  }
+
+  public long exportTrace(final File file) {
+    Validate.notNull(file, "File required");
+    traceWriter.flush();
+    Writer writer = null;
+    try {
+      writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+      if (!traceWriter.getFile().isFile()) {
+        // Nothing was traced yet
+        return 0;
+      }
+      return new MetadataTraceRenderer().render(traceWriter.getFile(), writer);
+    } catch (final IOException e) {
+      throw new IllegalStateException("Could not export the metadata trace to '" + file + "'", e);
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+  }
+
   public SortedSet<MetadataTimingStatistic> getTimings() {
     final SortedSet<MetadataTimingStatistic> result = new TreeSet<MetadataTimingStatistic>();
-    synchronized (mutex) {
-      for (final String key : timings.keySet()) {
-        result
-            .add(new StandardMetadataTimingStatistic(key, timings.get(key), invocations.get(key)));
-      }
+    for (final Map.Entry<String, Timing> entry : timings.entrySet()) {
+      final Timing timing = entry.getValue();
+      result.add(new StandardMetadataTimingStatistic(entry.getKey(), timing.duration.get(),
+          timing.invocations.get(), timing.latencies.copy()));
     }
     return result;
   }
 
   public int getTraceLevel() {
-    return traceLevel;
+    // Nothing is traced once the trace file couldn't be written
+    return traceWriter.isEnabled() ? traceLevel : 0;
   }
 
   public void log(final String message) {
     Validate.notBlank(message, "Message to log required");
+    final Deque<Long> eventStack = eventStacks.get();
     Validate.isTrue(eventStack.size() > 0,
         "Event stack is empty, so no logging should have been requested at this time");
-    final StringBuilder sb = new StringBuilder("00000000");
-    // Get the current event ID off the stack
-    final Long eventIdentifier = eventStack.get(eventStack.size() - 1);
-    // Figure out the indentation level
-    final int indentationLevel = eventStack.size();
-    final String hex = Long.toHexString(eventIdentifier);
-    sb.replace(8 - hex.length(), 8, hex);
-    for (int i = 0; i < indentationLevel; i++) {
-      sb.append(" ");
-    }
-    sb.append(message);
-    logToFile(sb.toString());
+    // The current event ID is on top of the stack, and the stack depth is
+    // the indentation level
+    traceWriter.append(eventStack.peek(), eventStack.size(), message);
   }
 
-  private void logToFile(final String line) {
-    if (fileLog == null) {
-      try {
-        // Overwrite existing (don't append)
-        fileLog = new FileWriter("metadata.log", false);
-      } catch (final IOException ignore) {
-      }
-      if (fileLog == null) {
-        // Still failing, so give up
-        return;
-      }
-    }
-    try {
-      fileLog.write(line + "\n"); // Unix line endings only from Roo
-      fileLog.flush(); // So tail -f will show it's working
-    } catch (final IOException ignoreIt) {
-    }
+  public void resetTimings() {
+    // Timers still running are counted in fresh timings when they stop
+    timings.clear();
   }
 
   public void setTraceLevel(final int trace) {
@@ -107,17 +145,17 @@ public class DefaultMetadataLogger implements MetadataLogger {
   }
 
   public void startEvent() {
-    eventNumber++;
-    eventStack.push(eventNumber);
+    eventStacks.get().push(eventNumber.incrementAndGet());
   }
 
   public void startTimer(final String responsibleClass) {
     Validate.notBlank(responsibleClass, "Responsible class required");
     final long now = System.nanoTime();
+    final Deque<TimerEntry> timerStack = timerStacks.get();
     if (timerStack.size() > 0) {
       // There is an existing timer on the stack, so we need to stop the
       // clock for it
-      final TimerEntry timerEntry = timerStack.get(timerStack.size() - 1);
+      final TimerEntry timerEntry = timerStack.peek();
       // Add the duration it ran to any existing duration
       timerEntry.duration = timerEntry.duration + now - timerEntry.clockStartedOrResumed;
       timerEntry.clockStartedOrResumed = now;
@@ -130,12 +168,14 @@ public class DefaultMetadataLogger implements MetadataLogger {
   }
 
   public void stopEvent() {
+    final Deque<Long> eventStack = eventStacks.get();
     Validate.isTrue(eventStack.size() > 0,
         "Event stack is empty, indicating a mismatched number of timer start/stop calls");
     eventStack.pop();
   }
 
   public void stopTimer() {
+    final Deque<TimerEntry> timerStack = timerStacks.get();
     Validate.isTrue(timerStack.size() > 0,
         "Timer stack is empty, indicating a mismatched number of timer start/stop calls");
     final long now = System.nanoTime();
@@ -144,22 +184,16 @@ public class DefaultMetadataLogger implements MetadataLogger {
     final String responsibleClass = timerEntry.responsibleClass;
 
     // Update the timings summary
-    synchronized (mutex) {
-      Long existingSummary = timings.get(responsibleClass);
-      if (existingSummary == null) {
-        existingSummary = timerEntry.duration;
-      } else {
-        existingSummary = existingSummary + timerEntry.duration;
-      }
-      timings.put(responsibleClass, existingSummary);
-
-      // Update the invocation count
-      Long existingInvocations = invocations.get(responsibleClass);
-      if (existingInvocations == null) {
-        existingInvocations = 0L;
+    Timing timing = timings.get(responsibleClass);
+    if (timing == null) {
+      final Timing newTiming = new Timing();
+      timing = timings.putIfAbsent(responsibleClass, newTiming);
+      if (timing == null) {
+        timing = newTiming;
       }
-      existingInvocations++;
-      invocations.put(responsibleClass, existingInvocations);
     }
+    timing.duration.addAndGet(timerEntry.duration);
+    timing.invocations.incrementAndGet();
+    timing.latencies.record(timerEntry.duration);
   }
 }
@@ -1,13 +1,25 @@
 package org.springframework.roo.metadata;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-
-import org.apache.commons.lang3.ObjectUtils;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.felix.scr.annotations.Component;
@@ -19,13 +31,32 @@ import org.apache.felix.scr.annotations.Service;
 import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.metadata.internal.AbstractMetadataCache;
 import org.springframework.roo.metadata.internal.MetadataDependencyRegistryTracker;
+import org.springframework.roo.metadata.internal.MetadataMaterializationContext;
+import org.springframework.roo.metadata.internal.MetadataMaterializationPlan;
+import org.springframework.roo.support.logging.FlightRecorderEventType;
 
 /**
  * Default implementation of {@link MetadataService}.
  * <p>
- * This implementation is not thread safe. It should only be accessed by a
- * single thread at a time. This is enforced by the process manager semantics,
- * so we avoid the cost of re-synchronization here.
+ * Metadata is computed and evicted by a single thread at a time, which holds
+ * the write lock meanwhile. A {@link #get(String)} that the cache can answer
+ * only takes the read lock, so any number of threads (such as shell
+ * completion or the web UI) can read cached metadata at once, while still
+ * never seeing the intermediate state of a writer; {@link #getIfCached(String)}
+ * takes the same read lock. On a cache hit, readers don't contend for the
+ * cache itself either, as it records hits in batches.
+ * <p>
+ * The only exception to a single writer is {@link #materialize(Collection)}
+ * when parallel materialization is enabled (see
+ * {@link #setParallelMaterialization(boolean)} or the
+ * <code>roo.metadata.parallel</code> system property). In that mode the
+ * calling thread keeps the write lock while the independent items of each wave of
+ * the {@link MetadataMaterializationPlan} are computed on a
+ * {@link ForkJoinPool}. Worker threads never enter the same
+ * {@link MetadataProvider} concurrently, and only providers implementing
+ * {@link ThreadSafeMetadataProvider} run alongside other providers; all the
+ * others take turns. The downstream notifications the workers raise are
+ * dispatched by the calling thread between waves.
  *
  * @author Ben Alex
  * @author Enrique Ruiz at DISID Corporation S.L.
@@ -38,25 +69,50 @@ import org.springframework.roo.metadata.internal.MetadataDependencyRegistryTrack
     cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE)
 public class DefaultMetadataService extends AbstractMetadataCache implements MetadataService {
 
+  private static final FlightRecorderEventType GET_EVENT = new FlightRecorderEventType(
+      "org.springframework.roo.metadata.Get", "Metadata Get", new String[] {"Spring Roo",
+          "Metadata"}, "metadataId", String.class, "provider", String.class, "cacheHit",
+      boolean.class);
+  private static final long REBUILD_COSTS_REFRESH_MILLIS = 1000;
+
   @Reference
   private MetadataLogger metadataLogger;
 
   // Request control
   // List to assist output "stacks"which show the order of requests
   private final List<String> activeRequests = new ArrayList<String>();
-  private int cacheEvictions = 0;
-  private int cacheHits = 0;
-  private int cacheMisses = 0;
-  private int cachePuts = 0;
+  private final AtomicInteger cacheEvictions = new AtomicInteger();
+  private final AtomicInteger cacheHits = new AtomicInteger();
+  private final AtomicInteger cacheMisses = new AtomicInteger();
+  private final AtomicInteger cachePuts = new AtomicInteger();
   // List to help us verify correct operation through logs (predictable
   // ordering)
   private final List<String> keysToRetry = new ArrayList<String>();
-  // Mutex
-  private final Object lock = new Object();
-  private final Map<String, MetadataProvider> providerMap = new HashMap<String, MetadataProvider>();
+  // Single writer, any number of readers of cached items
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, MetadataProvider> providerMap =
+      new ConcurrentHashMap<String, MetadataProvider>();
   private final Set<MetadataProvider> providers = new HashSet<MetadataProvider>();
-  private int recursiveGets = 0;
-  private int validGets = 0;
+  private final AtomicInteger recursiveGets = new AtomicInteger();
+  private final AtomicInteger validGets = new AtomicInteger();
+
+  // Rebuild cost estimates, derived from the metadata logger timings
+  /** key: provider class name; value: average nanoseconds per invocation */
+  private volatile Map<String, Long> rebuildCosts = new HashMap<String, Long>();
+  private volatile long rebuildCostsRefreshed;
+
+  // Parallel materialization
+  private boolean parallelMaterialization = Boolean.getBoolean("roo.metadata.parallel");
+  private ForkJoinPool materializationPool;
+  // Items of the running materialization that haven't been computed yet
+  private Set<String> pendingMaterialization;
+  // Items evicted by the notifications being dispatched, to be materialized
+  private Set<String> regeneration;
+  /** key: metadata class ID, value: lock serializing its provider */
+  private final ConcurrentMap<String, ReentrantLock> providerLocks =
+      new ConcurrentHashMap<String, ReentrantLock>();
+  // Serializes the providers that aren't thread-safe
+  private final ReentrantLock sharedProviderLock = new ReentrantLock();
 
   protected MetadataDependencyRegistryTracker registryTracker = null;
 
@@ -78,13 +134,27 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
    * @param context
    */
   protected void deactivate(final ComponentContext context) {
-    MetadataDependencyRegistry registry = this.registryTracker.getService();
+    MetadataDependencyRegistry registry = getMetadataDependencyRegistry();
     registry.removeNotificationListener(this);
     this.registryTracker.close();
+    lock.writeLock().lock();
+    try {
+      if (materializationPool != null) {
+        materializationPool.shutdown();
+        materializationPool = null;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  protected void bindMetadataLogger(final MetadataLogger metadataLogger) {
+    this.metadataLogger = metadataLogger;
   }
 
   protected void bindMetadataProvider(final MetadataProvider mp) {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       Validate.notNull(mp, "Metadata provider required");
       final String mid = mp.getProvidesType();
       Validate.isTrue(MetadataIdentificationUtils.isIdentifyingClass(mid),
@@ -94,32 +164,47 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
           mid);
       providers.add(mp);
       providerMap.put(mid, mp);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
   @Override
-  public void evict(final String metadataIdentificationString) {
-    synchronized (lock) {
-      // Clear my own cache (which also verifies the argument is valid at
-      // the same time)
-      super.evict(metadataIdentificationString);
-
-      // Finally, evict downstream dependencies (ie metadata that
-      // previously depended on this now-evicted metadata)
-      MetadataDependencyRegistry registry = this.registryTracker.getService();
-      for (final String downstream : registry.getDownstream(metadataIdentificationString)) {
-        // We only need to evict if it is an instance, as only an
-        // instance will ever go into the cache
-        if (MetadataIdentificationUtils.isIdentifyingInstance(downstream)) {
-          evict(downstream);
-        }
+  protected void evict(final MetadataId metadataId) {
+    if (MetadataMaterializationContext.getCurrent() != null) {
+      // The coordinating thread holds the write lock; the cache and the
+      // registry guard themselves
+      evictWithDownstreams(metadataId);
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      evictWithDownstreams(metadataId);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void evictWithDownstreams(final MetadataId metadataId) {
+    // Clear my own cache
+    super.evict(metadataId);
+
+    // Finally, evict downstream dependencies (ie metadata that
+    // previously depended on this now-evicted metadata)
+    MetadataDependencyRegistry registry = getMetadataDependencyRegistry();
+    for (final MetadataId downstream : registry.getDownstream(metadataId)) {
+      // We only need to evict if it is an instance, as only an
+      // instance will ever go into the cache
+      if (downstream.isIdentifyingInstance()) {
+        evictWithDownstreams(downstream);
       }
     }
   }
 
   @Override
   public void evictAll() {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       // Clear my own cache
       super.evictAll();
 
@@ -130,6 +215,8 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
           ((MetadataCache) p).evictAll();
         }
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -147,35 +234,173 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
     return getInternal(metadataIdentificationString, evictCache, true);
   }
 
+  public Map<String, MetadataItem> getAll(final Collection<String> metadataIdentificationStrings) {
+    Validate.notNull(metadataIdentificationStrings, "Metadata identification strings required");
+    final Map<String, MetadataItem> result = new LinkedHashMap<String, MetadataItem>();
+    for (final String mid : metadataIdentificationStrings) {
+      Validate.isTrue(MetadataId.valueOf(mid).isIdentifyingInstance(),
+          "Metadata identification string '%s' does not identify a metadata instance", mid);
+      result.put(mid, null);
+    }
+
+    final MetadataMaterializationContext worker = MetadataMaterializationContext.getCurrent();
+    if (worker != null) {
+      for (final String mid : result.keySet()) {
+        result.put(mid, getConcurrently(worker, MetadataId.valueOf(mid), false, true));
+      }
+      return result;
+    }
+
+    // Look up the cached items in one go under the read lock, unless this
+    // thread is a writer already
+    final List<String> misses = new ArrayList<String>();
+    if (lock.isWriteLockedByCurrentThread()) {
+      misses.addAll(result.keySet());
+    } else {
+      lock.readLock().lock();
+      try {
+        for (final String mid : result.keySet()) {
+          final MetadataItem cached = getFromCache(mid, false);
+          if (cached == null) {
+            misses.add(mid);
+          } else {
+            result.put(mid, cached);
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+      final int hits = result.size() - misses.size();
+      validGets.addAndGet(hits);
+      cacheHits.addAndGet(hits);
+      if (misses.isEmpty()) {
+        return result;
+      }
+    }
+
+    // Compute the missing items under a single acquisition of the write lock
+    lock.writeLock().lock();
+    try {
+      for (final String mid : misses) {
+        result.put(mid, getInternal(mid, false, true));
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return result;
+  }
+
+  /**
+   * Looks up the given item in the cache under the read lock, accounting for
+   * it as a {@link #get(String)} if found.
+   *
+   * @return the cached item, or <code>null</code> if it has to be computed
+   */
+  private MetadataItem getFromCacheAsReader(final MetadataId metadataId) {
+    final MetadataItem result;
+    lock.readLock().lock();
+    try {
+      // A miss is accounted for by the writer that computes the item
+      result = getFromCache(metadataId, false);
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (result != null) {
+      validGets.incrementAndGet();
+      cacheHits.incrementAndGet();
+      final Object event = GET_EVENT.begin();
+      metadataLogger.startEvent();
+      try {
+        if (metadataLogger.getTraceLevel() > 0) {
+          metadataLogger.log("Cache hit " + metadataId);
+        }
+      } finally {
+        metadataLogger.stopEvent();
+        if (event != null) {
+          GET_EVENT.commit(event, metadataId.toString(), getStatisticName(metadataId), true);
+        }
+      }
+    }
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T extends MetadataItem> T getIfCached(final String metadataIdentificationString) {
+    final MetadataId metadataId = MetadataId.valueOf(metadataIdentificationString);
+    Validate.isTrue(metadataId.isIdentifyingInstance(),
+        "Metadata identification string '%s' does not identify a metadata instance",
+        metadataIdentificationString);
+    // The cache is safe to read without the lock, so this never waits for
+    // a writer
+    return (T) getFromCache(metadataId, false);
+  }
+
   private MetadataItem getInternal(final String metadataIdentificationString,
       final boolean evictCache, final boolean cacheRetrievalAllowed) {
-    Validate.isTrue(
-        MetadataIdentificationUtils.isIdentifyingInstance(metadataIdentificationString),
+    final MetadataId metadataId = MetadataId.valueOf(metadataIdentificationString);
+    Validate.isTrue(metadataId.isIdentifyingInstance(),
         "Metadata identification string '%s' does not identify a metadata instance",
         metadataIdentificationString);
 
-    synchronized (lock) {
-      validGets++;
+    final MetadataMaterializationContext worker = MetadataMaterializationContext.getCurrent();
+    if (worker != null) {
+      return getConcurrently(worker, metadataId, evictCache, cacheRetrievalAllowed);
+    }
+
+    // A cache hit doesn't need to exclude other readers; a writer already
+    // holds the write lock, so it takes the usual path
+    if (cacheRetrievalAllowed && !evictCache && !lock.isWriteLockedByCurrentThread()) {
+      final MetadataItem cached = getFromCacheAsReader(metadataId);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      validGets.incrementAndGet();
 
+      final Object event = GET_EVENT.begin();
+      boolean cacheHit = false;
       try {
         metadataLogger.startEvent();
 
         // Do some cache eviction if the caller requested it
         if (evictCache) {
-          evict(metadataIdentificationString);
+          evict(metadataId);
           if (metadataLogger.getTraceLevel() > 0) {
             metadataLogger.log("Evicting " + metadataIdentificationString);
           }
-          cacheEvictions++;
+          cacheEvictions.incrementAndGet();
+
+          // A running materialization will compute this item in its own
+          // wave, so there is no need to do it now as well
+          if (pendingMaterialization != null
+              && pendingMaterialization.contains(metadataIdentificationString)) {
+            if (metadataLogger.getTraceLevel() > 0) {
+              metadataLogger.log("Deferring to materialization " + metadataIdentificationString);
+            }
+            return null;
+          }
+          // Likewise for an item evicted by a notification, which is
+          // regenerated along with the others once they were all dispatched
+          if (regeneration != null && activeRequests.isEmpty()) {
+            if (metadataLogger.getTraceLevel() > 0) {
+              metadataLogger.log("Deferring to regeneration " + metadataIdentificationString);
+            }
+            regeneration.add(metadataIdentificationString);
+            return null;
+          }
         }
 
         // We can use the cache even for a recursive get (unless of
         // course the caller has prevented it)
         if (cacheRetrievalAllowed) {
           // Try the cache first
-          final MetadataItem result = getFromCache(metadataIdentificationString);
+          final MetadataItem result = getFromCache(metadataId);
           if (result != null) {
-            cacheHits++;
+            cacheHits.incrementAndGet();
+            cacheHit = true;
             if (metadataLogger.getTraceLevel() > 0) {
               metadataLogger.log("Cache hit " + metadataIdentificationString);
             }
@@ -186,12 +411,12 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
         if (metadataLogger.getTraceLevel() > 0) {
           metadataLogger.log("Cache miss " + metadataIdentificationString);
         }
-        cacheMisses++;
+        cacheMisses.incrementAndGet();
 
         // Determine if this MID was already requested earlier. We need
         // to stop these infinite requests from occurring.
         if (activeRequests.contains(metadataIdentificationString)) {
-          recursiveGets++;
+          recursiveGets.incrementAndGet();
           if (!keysToRetry.contains(metadataIdentificationString)) {
             if (metadataLogger.getTraceLevel() > 0) {
               metadataLogger.log("Blocked recursive request for " + metadataIdentificationString);
@@ -202,8 +427,7 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
         }
 
         // Get the destination
-        final String mdClassId =
-            MetadataIdentificationUtils.getMetadataClassId(metadataIdentificationString);
+        final String mdClassId = metadataId.getClassId().toString();
         final MetadataProvider p = providerMap.get(mdClassId);
         Validate
             .notNull(
@@ -233,8 +457,8 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
           if (metadataLogger.getTraceLevel() > 0) {
             metadataLogger.log("Evicting unavailable item " + metadataIdentificationString);
           }
-          evict(metadataIdentificationString);
-          cacheEvictions++;
+          evict(metadataId);
+          cacheEvictions.incrementAndGet();
         }
 
         // Put into the cache, provided it isn't null
@@ -243,7 +467,7 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
             metadataLogger.log("Caching " + metadataIdentificationString);
           }
           super.put(result);
-          cachePuts++;
+          cachePuts.incrementAndGet();
         }
 
         activeRequests.remove(metadataIdentificationString);
@@ -263,36 +487,314 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
           // Have we processed all requests? If so, handle any retries
           // we recorded
           if (activeRequests.isEmpty()) {
-            final List<String> thisRetry = new ArrayList<String>();
-            thisRetry.addAll(keysToRetry);
-            keysToRetry.clear();
-            if (metadataLogger.getTraceLevel() > 0 && thisRetry.size() > 0) {
-              metadataLogger.log(thisRetry.size() + " keys to retry: " + thisRetry);
-            }
-            for (final String retryMid : thisRetry) {
-              // Important: we should not evict any prior version
-              // from the cache (an interim version is
-              // acceptable).
-              // We discard the result of the get; this is purely
-              // to facilitate updating metadata stored in memory
-              // and on-disk
-              if (metadataLogger.getTraceLevel() > 0) {
-                metadataLogger.log("Retrying " + retryMid);
-              }
-              if (ObjectUtils.equals(retryMid, metadataIdentificationString)) {
-                // Avoid infinite recursion loop
-                continue;
-              }
-              getInternal(retryMid, false, false);
-            }
-            if (metadataLogger.getTraceLevel() > 0 && thisRetry.size() > 0) {
-              metadataLogger.log("Retry group completed " + metadataIdentificationString);
-            }
+            retryBlockedRequests(Collections.singleton(metadataIdentificationString));
           }
         } finally {
           metadataLogger.stopEvent();
+          if (event != null) {
+            GET_EVENT.commit(event, metadataIdentificationString,
+                getStatisticName(metadataId), cacheHit);
+          }
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Computes the given metadata on a worker thread of a parallel
+   * materialization. The coordinating thread holds the write {@link #lock}
+   * meanwhile, so this method never acquires it; the cache guards itself and the provider
+   * is entered under its own lock instead.
+   */
+  private MetadataItem getConcurrently(final MetadataMaterializationContext worker,
+      final MetadataId metadataId, final boolean evictCache, final boolean cacheRetrievalAllowed) {
+    final String metadataIdentificationString = metadataId.toString();
+    validGets.incrementAndGet();
+
+    final Object event = GET_EVENT.begin();
+    boolean cacheHit = false;
+    try {
+      metadataLogger.startEvent();
+
+      if (evictCache) {
+        evict(metadataId);
+        if (metadataLogger.getTraceLevel() > 0) {
+          metadataLogger.log("Evicting " + metadataIdentificationString);
+        }
+        cacheEvictions.incrementAndGet();
+      }
+
+      if (cacheRetrievalAllowed) {
+        final MetadataItem result = getFromCache(metadataId);
+        if (result != null) {
+          cacheHits.incrementAndGet();
+          cacheHit = true;
+          if (metadataLogger.getTraceLevel() > 0) {
+            metadataLogger.log("Cache hit " + metadataIdentificationString);
+          }
+          return result;
+        }
+      }
+
+      if (metadataLogger.getTraceLevel() > 0) {
+        metadataLogger.log("Cache miss " + metadataIdentificationString);
+      }
+      cacheMisses.incrementAndGet();
+
+      if (worker.getActiveRequests().contains(metadataIdentificationString)) {
+        recursiveGets.incrementAndGet();
+        deferToRetry(metadataIdentificationString, "Blocked recursive request for ");
+        return null;
+      }
+
+      final String mdClassId = metadataId.getClassId().toString();
+      final MetadataProvider p = providerMap.get(mdClassId);
+      Validate
+          .notNull(
+              p,
+              "No metadata provider is currently registered to provide metadata for identifier '%s' (class '%s')",
+              metadataIdentificationString, mdClassId);
+
+      // A worker only waits for a provider while it holds no other provider
+      // lock; otherwise two workers could wait for each other forever, so
+      // the item is left for the coordinating thread to retry
+      final ReentrantLock providerLock = getProviderLock(mdClassId);
+      if (providerLock.isHeldByCurrentThread() || !worker.isHoldingProviderLock()) {
+        providerLock.lock();
+      } else if (!providerLock.tryLock()) {
+        deferToRetry(metadataIdentificationString, "Provider busy, deferring ");
+        return null;
+      }
+      worker.providerLockAcquired();
+
+      MetadataItem result = null;
+      worker.getActiveRequests().add(metadataIdentificationString);
+      try {
+        if (metadataLogger.getTraceLevel() > 0) {
+          metadataLogger.log("Get " + metadataIdentificationString + " from "
+              + p.getClass().getName());
+        }
+        metadataLogger.startTimer(p.getClass().getName());
+        try {
+          result = p.get(metadataIdentificationString);
+        } finally {
+          metadataLogger.stopTimer();
+        }
+      } finally {
+        worker.getActiveRequests().remove(metadataIdentificationString);
+        worker.providerLockReleased();
+        providerLock.unlock();
+      }
+
+      if (result == null && !evictCache) {
+        if (metadataLogger.getTraceLevel() > 0) {
+          metadataLogger.log("Evicting unavailable item " + metadataIdentificationString);
+        }
+        evict(metadataId);
+        cacheEvictions.incrementAndGet();
+      }
+
+      if (result != null) {
+        if (metadataLogger.getTraceLevel() > 0) {
+          metadataLogger.log("Caching " + metadataIdentificationString);
+        }
+        super.put(result);
+        cachePuts.incrementAndGet();
+      }
+
+      if (metadataLogger.getTraceLevel() > 0) {
+        metadataLogger.log("Returning " + metadataIdentificationString);
+      }
+      return result;
+    } catch (final Exception e) {
+      throw new IllegalStateException(e);
+    } finally {
+      metadataLogger.stopEvent();
+      if (event != null) {
+        GET_EVENT.commit(event, metadataIdentificationString,
+            getStatisticName(metadataId), cacheHit);
+      }
+    }
+  }
+
+  private void deferToRetry(final String metadataIdentificationString, final String reason) {
+    synchronized (keysToRetry) {
+      if (!keysToRetry.contains(metadataIdentificationString)) {
+        if (metadataLogger.getTraceLevel() > 0) {
+          metadataLogger.log(reason + metadataIdentificationString);
+        }
+        keysToRetry.add(metadataIdentificationString);
+      }
+    }
+  }
+
+  /**
+   * Returns the lock a worker must hold while the given provider computes
+   * an item; the providers that don't declare themselves thread-safe share
+   * one lock
+   */
+  private ReentrantLock getProviderLock(final String metadataClassId) {
+    if (!(providerMap.get(metadataClassId) instanceof ThreadSafeMetadataProvider)) {
+      return sharedProviderLock;
+    }
+    ReentrantLock providerLock = providerLocks.get(metadataClassId);
+    if (providerLock == null) {
+      final ReentrantLock newLock = new ReentrantLock();
+      providerLock = providerLocks.putIfAbsent(metadataClassId, newLock);
+      if (providerLock == null) {
+        providerLock = newLock;
+      }
+    }
+    return providerLock;
+  }
+
+  protected MetadataDependencyRegistry getMetadataDependencyRegistry() {
+    return this.registryTracker.getService();
+  }
+
+  public boolean isParallelMaterialization() {
+    return parallelMaterialization;
+  }
+
+  public void materialize(final Collection<String> metadataIdentificationStrings) {
+    Validate.notNull(metadataIdentificationStrings, "Metadata identification strings required");
+    Validate.validState(MetadataMaterializationContext.getCurrent() == null,
+        "Metadata cannot be materialized from a materialization worker");
+
+    lock.writeLock().lock();
+    try {
+      final MetadataMaterializationPlan plan =
+          new MetadataMaterializationPlan(getMetadataDependencyRegistry(),
+              metadataIdentificationStrings);
+      // A nested materialization (ie from within a provider) can't release
+      // the items the current thread is already computing
+      if (!parallelMaterialization || !activeRequests.isEmpty() || pendingMaterialization != null) {
+        for (final List<String> wave : plan.getWaves()) {
+          for (final String mid : wave) {
+            getInternal(mid, false, true);
+          }
+        }
+        return;
+      }
+      materializeConcurrently(plan);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void materializeConcurrently(final MetadataMaterializationPlan plan) {
+    final MetadataDependencyRegistry registry = getMetadataDependencyRegistry();
+    final Set<String> deferredNotifications =
+        Collections.synchronizedSet(new LinkedHashSet<String>());
+    if (materializationPool == null) {
+      materializationPool = new ForkJoinPool();
+    }
+    pendingMaterialization = new HashSet<String>(plan.size());
+    for (final List<String> wave : plan.getWaves()) {
+      pendingMaterialization.addAll(wave);
+    }
+
+    try {
+      for (final List<String> wave : plan.getWaves()) {
+        // One task per provider lock, so the items computed in this wave
+        // don't compete for it
+        final Map<ReentrantLock, List<String>> waveByLock =
+            new LinkedHashMap<ReentrantLock, List<String>>();
+        for (final String mid : wave) {
+          final ReentrantLock providerLock =
+              getProviderLock(MetadataId.valueOf(mid).getClassId().toString());
+          List<String> mids = waveByLock.get(providerLock);
+          if (mids == null) {
+            mids = new ArrayList<String>();
+            waveByLock.put(providerLock, mids);
+          }
+          mids.add(mid);
+        }
+
+        final List<ForkJoinTask<Void>> tasks = new ArrayList<ForkJoinTask<Void>>();
+        for (final List<String> mids : waveByLock.values()) {
+          tasks.add(materializationPool.submit(new Callable<Void>() {
+            public Void call() {
+              MetadataMaterializationContext.bind(new MetadataMaterializationContext(
+                  deferredNotifications));
+              try {
+                for (final String mid : mids) {
+                  getInternal(mid, false, true);
+                }
+              } finally {
+                MetadataMaterializationContext.unbind();
+              }
+              return null;
+            }
+          }));
+        }
+        for (final ForkJoinTask<Void> task : tasks) {
+          task.join();
+        }
+        pendingMaterialization.removeAll(wave);
+
+        // Dispatch the notifications raised by this wave before the
+        // downstream items are computed
+        final List<String> toNotify;
+        synchronized (deferredNotifications) {
+          toNotify = new ArrayList<String>(deferredNotifications);
+          deferredNotifications.clear();
+        }
+        for (final String upstream : toNotify) {
+          registry.notifyDownstream(upstream);
         }
+        // Within a notification batch, the next wave must not be computed
+        // before the queued notifications were dispatched
+        registry.flushNotifications();
       }
+    } finally {
+      pendingMaterialization = null;
+    }
+
+    // Finally compute whatever the workers had to leave behind
+    final List<String> thisRetry;
+    synchronized (keysToRetry) {
+      thisRetry = new ArrayList<String>(keysToRetry);
+      keysToRetry.clear();
+    }
+    for (final String retryMid : thisRetry) {
+      getInternal(retryMid, false, false);
+    }
+  }
+
+  public void materializeNotified(final Runnable dispatch) {
+    Validate.notNull(dispatch, "Dispatch required");
+    // Nested dispatches (ie between the waves of a materialization) and
+    // dispatches from within a provider regenerate items as they go
+    if (!parallelMaterialization || MetadataMaterializationContext.getCurrent() != null) {
+      dispatch.run();
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      if (regeneration != null || pendingMaterialization != null || !activeRequests.isEmpty()) {
+        dispatch.run();
+        return;
+      }
+      regeneration = new LinkedHashSet<String>();
+      try {
+        while (true) {
+          dispatch.run();
+          if (regeneration.isEmpty()) {
+            break;
+          }
+          final List<String> toMaterialize = new ArrayList<String>(regeneration);
+          regeneration.clear();
+          materializeConcurrently(new MetadataMaterializationPlan(
+              getMetadataDependencyRegistry(), toMaterialize));
+        }
+      } finally {
+        regeneration = null;
+      }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -300,15 +802,14 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
     Validate.isTrue(MetadataIdentificationUtils.isValid(upstreamDependency),
         "Upstream dependency is an invalid metadata identification string ('%s')",
         upstreamDependency);
-    Validate.isTrue(MetadataIdentificationUtils.isValid(downstreamDependency),
-        "Downstream dependency is an invalid metadata identification string ('%s')",
-        downstreamDependency);
+    final MetadataId downstreamId = MetadataId.valueOf(downstreamDependency);
 
-    MetadataDependencyRegistry registry = this.registryTracker.getService();
+    MetadataDependencyRegistry registry = getMetadataDependencyRegistry();
 
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       // Get the destination
-      final String mdClassId = MetadataIdentificationUtils.getMetadataClassId(downstreamDependency);
+      final String mdClassId = downstreamId.getClassId().toString();
       final MetadataProvider p = providerMap.get(mdClassId);
 
       if (p == null) {
@@ -328,20 +829,103 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
         // and recreate it
         // However, we only do this if the destination is an instance -
         // if it's a class, "get" is not a meaningful operation.
-        if (MetadataIdentificationUtils.isIdentifyingInstance(downstreamDependency)) {
+        if (downstreamId.isIdentifyingInstance()) {
           get(downstreamDependency, true);
         }
         // As per interface contract, we now notify any listeners this
         // downstream instance has probably now changed
         registry.notifyDownstream(downstreamDependency);
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
+  /**
+   * Weighs cached items by the average time their provider took to compute
+   * an item so far, as recorded by the {@link MetadataLogger}.
+   */
+  @Override
+  protected long getRebuildCost(final String statisticName) {
+    final long now = System.currentTimeMillis();
+    if (metadataLogger != null && now - rebuildCostsRefreshed > REBUILD_COSTS_REFRESH_MILLIS) {
+      final Map<String, Long> costs = new HashMap<String, Long>();
+      for (final MetadataTimingStatistic timing : metadataLogger.getTimings()) {
+        costs.put(timing.getName(), timing.getTime() / Math.max(timing.getInvocations(), 1));
+      }
+      rebuildCosts = costs;
+      rebuildCostsRefreshed = now;
+    }
+    final Long cost = rebuildCosts.get(statisticName);
+    return cost == null ? 1 : Math.max(cost, 1);
+  }
+
+  /**
+   * Accounts cached items under the class name of their provider, which is
+   * also the name the {@link MetadataLogger} records their timings under.
+   */
+  @Override
+  protected String getStatisticName(final MetadataId metadataId) {
+    final MetadataProvider provider = providerMap.get(metadataId.getClassId().toString());
+    if (provider == null) {
+      return super.getStatisticName(metadataId);
+    }
+    return provider.getClass().getName();
+  }
+
   @Override
   public void put(final MetadataItem metadataItem) {
     super.put(metadataItem);
-    cachePuts++;
+    cachePuts.incrementAndGet();
+  }
+
+  /**
+   * Recomputes the items whose requests were blocked as recursive while the
+   * given items were computed, now that no request is active.
+   */
+  private void retryBlockedRequests(final Collection<String> computedMids) {
+    final List<String> thisRetry = new ArrayList<String>();
+    thisRetry.addAll(keysToRetry);
+    keysToRetry.clear();
+    if (metadataLogger.getTraceLevel() > 0 && thisRetry.size() > 0) {
+      metadataLogger.log(thisRetry.size() + " keys to retry: " + thisRetry);
+    }
+    for (final String retryMid : thisRetry) {
+      // Important: we should not evict any prior version
+      // from the cache (an interim version is
+      // acceptable).
+      // We discard the result of the get; this is purely
+      // to facilitate updating metadata stored in memory
+      // and on-disk
+      if (metadataLogger.getTraceLevel() > 0) {
+        metadataLogger.log("Retrying " + retryMid);
+      }
+      if (computedMids.contains(retryMid)) {
+        // Avoid infinite recursion loop
+        continue;
+      }
+      getInternal(retryMid, false, false);
+    }
+    if (metadataLogger.getTraceLevel() > 0 && thisRetry.size() > 0) {
+      metadataLogger.log("Retry group completed " + StringUtils.join(computedMids, ", "));
+    }
+  }
+
+  /**
+   * Enables or disables the parallel execution of
+   * {@link #materialize(Collection)}. When disabled, every item is computed
+   * on the calling thread in plan order, exactly as individual calls to
+   * {@link #get(String)} would.
+   *
+   * @param parallelMaterialization whether to use the materialization pool
+   */
+  public void setParallelMaterialization(final boolean parallelMaterialization) {
+    lock.writeLock().lock();
+    try {
+      this.parallelMaterialization = parallelMaterialization;
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
 
   @Override
@@ -358,11 +942,20 @@ public class DefaultMetadataService extends AbstractMetadataCache implements Met
     return builder.toString().replaceFirst("@[0-9a-f]+", ":");
   }
 
+  protected void unbindMetadataLogger(final MetadataLogger metadataLogger) {
+    if (this.metadataLogger == metadataLogger) {
+      this.metadataLogger = null;
+    }
+  }
+
   protected void unbindMetadataProvider(final MetadataProvider mp) {
-    synchronized (lock) {
+    lock.writeLock().lock();
+    try {
       final String mid = mp.getProvidesType();
       providers.remove(mp);
       providerMap.remove(mid);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 }
@@ -0,0 +1,23 @@
+package org.springframework.roo.metadata;
+
+/**
+ * A {@link MetadataItem} that can summarize its content as a
+ * {@link MetadataFingerprint}.
+ * <p>
+ * {@link AbstractHashCodeTrackingMetadataNotifier} compares the fingerprints
+ * of such items, rather than their hash codes, to decide whether they have
+ * changed.
+ *
+ * @since 2.0
+ */
+public interface FingerprintedMetadataItem extends MetadataItem {
+
+  /**
+   * Returns the fingerprint of this item's content. Items with equal content
+   * must return equal fingerprints.
+   *
+   * @return <code>null</code> if this item cannot compute one, in which case
+   *         its {@link Object#hashCode()} is used instead
+   */
+  MetadataFingerprint getFingerprint();
+}
@@ -1,5 +1,7 @@
 package org.springframework.roo.metadata;
 
+import java.util.SortedSet;
+
 /**
  * Indicates a cache is maintained by the implementation.
  * <p>
@@ -36,6 +38,15 @@ public interface MetadataCache {
    */
   void evictAll();
 
+  /**
+   * Obtains the hit ratio, retained memory and evictions of the cache,
+   * accounted per metadata provider.
+   * 
+   * @return the statistics (never null, but may be empty)
+   * @since 2.0
+   */
+  SortedSet<MetadataCacheStatistic> getCacheStatistics();
+
   /**
    * Eagerly inserts an item into the cache. ONLY SPRING ROO INFRASTRUCTURE
    * SHOULD INVOKE THIS METHOD. Do not invoke this method from add-ons, as the
@@ -53,4 +64,14 @@ public interface MetadataCache {
    * @param maxCapacity the new maximum capacity
    */
   void setMaxCapacity(int maxCapacity);
+
+  /**
+   * Modifies the maximum memory, as estimated by the implementation, that
+   * cached items may retain.
+   * 
+   * @param maxRetainedBytes the new maximum in bytes, or zero for no memory
+   *            bound
+   * @since 2.0
+   */
+  void setMaxRetainedBytes(long maxRetainedBytes);
 }
@@ -0,0 +1,48 @@
+package org.springframework.roo.metadata;
+
+/**
+ * Represents an immutable representation of the {@link MetadataCache}
+ * statistics of a single metadata provider.
+ *
+ * @since 2.0
+ */
+public interface MetadataCacheStatistic extends Comparable<MetadataCacheStatistic> {
+
+  /**
+   * @return the number of items currently cached
+   */
+  int getEntries();
+
+  /**
+   * @return the number of items removed from the cache to honour its
+   *         capacity or memory bounds (explicit evictions are not counted)
+   */
+  long getEvictions();
+
+  /**
+   * @return the number of cache lookups that found an item
+   */
+  long getHits();
+
+  /**
+   * @return the ratio of {@link #getHits()} to all lookups, between 0 and 1
+   *         (0 if there was no lookup)
+   */
+  double getHitRatio();
+
+  /**
+   * @return the number of cache lookups that did not find an item
+   */
+  long getMisses();
+
+  /**
+   * @return an identifier to differentiate this statistic from another,
+   *         typically the provider class name (never null or empty)
+   */
+  String getName();
+
+  /**
+   * @return the estimated number of bytes retained by the cached items
+   */
+  long getRetainedBytes();
+}
@@ -1,5 +1,6 @@
 package org.springframework.roo.metadata;
 
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -83,6 +84,38 @@ public interface MetadataDependencyRegistry {
    */
   void deregisterDependency(String upstreamDependency, String downstreamDependency);
 
+  /**
+   * Ends the notification batch started by the matching call to
+   * {@link #startNotificationBatch()}. If it is the outermost one, the
+   * notifications it queued are dropped without being dispatched, for
+   * example because the operation that raised them failed and was undone.
+   *
+   * @since 2.0
+   */
+  void discardNotificationBatch();
+
+  /**
+   * Dispatches the downstream notifications queued by the notification batch
+   * of the current thread, including those they raise in turn, in dependency
+   * order. Does nothing if the current thread runs no batch, or is
+   * dispatching them already.
+   *
+   * @see #startNotificationBatch()
+   * @since 2.0
+   */
+  void flushNotifications();
+
+  /**
+   * Obtains every dependency currently registered, for example to persist
+   * the dependency graph between shell sessions.
+   * 
+   * @return a copy of the registered dependencies, keyed by upstream
+   *         dependency with the value being its immediate downstream
+   *         dependencies (never null, but may be empty)
+   * @since 2.0
+   */
+  Map<String, Set<String>> getDependencies();
+
   /**
    * Obtains the list of the immediate downstream dependencies of the
    * indicated metadata item.
@@ -100,6 +133,50 @@ public interface MetadataDependencyRegistry {
    */
   Set<String> getDownstream(String upstreamDependency);
 
+  /**
+   * Obtains the immediate downstream dependencies of the indicated metadata
+   * item, as {@link #getDownstream(String)} does, without converting them
+   * to and from identification strings.
+   * 
+   * @param upstreamDependency to find the immediate downstream items for
+   *            (required)
+   * @return an immutable set of dependencies (never null, but the set may be
+   *         empty)
+   * @since 2.0
+   */
+  Set<MetadataId> getDownstream(MetadataId upstreamDependency);
+
+  /**
+   * Obtains every metadata item that would eventually be notified if the
+   * indicated item changed, i.e. its downstream dependencies, their
+   * downstream dependencies and so on. As with
+   * {@link #notifyDownstream(String)}, an instance's downstream dependencies
+   * include those registered against its metadata class.
+   * <p>
+   * The upstream dependency must return true if presented to
+   * {@link MetadataIdentificationUtils#isValid(String)}.
+   *
+   * @param upstreamDependency to find the transitive downstream items for
+   *            (required)
+   * @return an immutable set of dependencies, nearest first (never null, but
+   *         the set may be empty)
+   * @since 2.0
+   */
+  Set<String> getTransitiveDownstream(String upstreamDependency);
+
+  /**
+   * Obtains every metadata item that would eventually be notified if the
+   * indicated item changed, as {@link #getTransitiveDownstream(String)}
+   * does, without converting them to and from identification strings.
+   *
+   * @param upstreamDependency to find the transitive downstream items for
+   *            (required)
+   * @return an immutable set of dependencies, nearest first (never null, but
+   *         the set may be empty)
+   * @since 2.0
+   */
+  Set<MetadataId> getTransitiveDownstream(MetadataId upstreamDependency);
+
   /**
    * Obtains a list of the immediate upstream dependencies of the indicated
    * metadata item.
@@ -114,6 +191,19 @@ public interface MetadataDependencyRegistry {
    */
   Set<String> getUpstream(String downstreamDependency);
 
+  /**
+   * Obtains the immediate upstream dependencies of the indicated metadata
+   * item, as {@link #getUpstream(String)} does, without converting them to
+   * and from identification strings.
+   * 
+   * @param downstreamDependency to find the immediate upstream items for
+   *            (required)
+   * @return an immutable set of dependencies (never null, but the set may be
+   *         empty)
+   * @since 2.0
+   */
+  Set<MetadataId> getUpstream(MetadataId downstreamDependency);
+
   /**
    * Indicates whether the indicated downstream dependency is legally
    * permitted to depend on the indicated upstream dependency. Specifically,
@@ -155,6 +245,38 @@ public interface MetadataDependencyRegistry {
    */
   void notifyDownstream(String upstreamDependency);
 
+  /**
+   * Notifies the downstream dependencies of the indicated metadata item, as
+   * {@link #notifyDownstream(String)} does.
+   * 
+   * @param upstreamDependency that is generating the notification (required)
+   * @since 2.0
+   */
+  void notifyDownstream(MetadataId upstreamDependency);
+
+  /**
+   * Removes the dependencies of an item of metadata that no longer exists
+   * (for example the physical type of a deleted Java source file) on its
+   * upstream items. The same goes for the metadata instances directly
+   * downstream of it that identify the same instance (e.g. the ITDs of the
+   * deleted type). The dependencies of other items on them are kept, so that
+   * those items are notified should the deleted item be created again; they
+   * are removed once those items deregister them.
+   * <p>
+   * If a notification batch is running on the current thread, the removal is
+   * deferred until the outermost batch is stopped, after its notifications
+   * have been dispatched along the dependencies being removed. Items that the
+   * {@link MetadataService} has cached again by then, e.g. because the type
+   * was recreated in the meantime, keep their dependencies.
+   * <p>
+   * The dependency must return true if presented to
+   * {@link MetadataIdentificationUtils#isValid(String)}.
+   *
+   * @param metadataIdentificationString the deleted item (required)
+   * @since 2.0
+   */
+  void purgeDependencies(String metadataIdentificationString);
+
   /**
    * Registers a dependency between two items of metadata.
    * <p>
@@ -169,6 +291,16 @@ public interface MetadataDependencyRegistry {
    */
   void registerDependency(String upstreamDependency, String downstreamDependency);
 
+  /**
+   * Registers a dependency between two items of metadata, as
+   * {@link #registerDependency(String, String)} does.
+   * 
+   * @param upstreamDependency the upstream dependency (required)
+   * @param downstreamDependency the downstream dependency (required)
+   * @since 2.0
+   */
+  void registerDependency(MetadataId upstreamDependency, MetadataId downstreamDependency);
+
   /**
    * De-register an additional instance to receive
    * {@link MetadataNotificationListener} events. If the listener was never
@@ -177,4 +309,29 @@ public interface MetadataDependencyRegistry {
    * @param listener to no longer receive notifications (required)
    */
   void removeNotificationListener(MetadataNotificationListener listener);
+
+  /**
+   * Starts a notification batch on the current thread. Until the batch is
+   * {@link #flushNotifications() flushed}, the downstream notifications that
+   * {@link #notifyDownstream(String)} would dispatch on this thread are
+   * queued instead. Each downstream instance is queued at most once, on
+   * behalf of the first upstream dependency that notified it, so that an
+   * item depending on several changed items is only rebuilt once. The
+   * general-purpose {@link MetadataNotificationListener}s are still notified
+   * right away.
+   * <p>
+   * Batches can be nested; only one thread can run batches at a time.
+   *
+   * @since 2.0
+   */
+  void startNotificationBatch();
+
+  /**
+   * Ends the notification batch started by the matching call to
+   * {@link #startNotificationBatch()}, flushing it if it is the outermost
+   * one.
+   *
+   * @since 2.0
+   */
+  void stopNotificationBatch();
 }
@@ -0,0 +1,67 @@
+package org.springframework.roo.metadata;
+
+/**
+ * A 128-bit fingerprint of the content of a {@link MetadataItem}, as computed
+ * by a {@link MetadataFingerprintBuilder}.
+ * <p>
+ * Two items with equal fingerprints are treated as having equal content. At
+ * 128 bits, the odds of two different items sharing a fingerprint are
+ * negligible, unlike those of two items sharing an {@link Object#hashCode()}.
+ *
+ * @since 2.0
+ */
+public final class MetadataFingerprint {
+
+  private final long high;
+  private final long low;
+
+  /**
+   * Constructor
+   *
+   * @param high the most significant 64 bits
+   * @param low the least significant 64 bits
+   */
+  public MetadataFingerprint(final long high, final long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof MetadataFingerprint)) {
+      return false;
+    }
+    final MetadataFingerprint other = (MetadataFingerprint) obj;
+    return high == other.high && low == other.low;
+  }
+
+  /**
+   * @return the most significant 64 bits
+   */
+  public long getHigh() {
+    return high;
+  }
+
+  /**
+   * @return the least significant 64 bits
+   */
+  public long getLow() {
+    return low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (low ^ low >>> 32);
+  }
+
+  /**
+   * @return the fingerprint as 32 hexadecimal digits
+   */
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
@@ -0,0 +1,123 @@
+package org.springframework.roo.metadata;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes a {@link MetadataFingerprint} from the values appended to it.
+ * <p>
+ * Values are digested in the order they are appended, together with their
+ * type and (for strings) their length, so that different sequences of
+ * values cannot produce the same input to the digest. The digest is MD5,
+ * which is ample for change detection and is available on every JVM.
+ *
+ * @since 2.0
+ */
+public class MetadataFingerprintBuilder {
+
+  private static final byte BOOLEAN = 1;
+  private static final byte FINGERPRINT = 2;
+  private static final byte INT = 3;
+  private static final byte LONG = 4;
+  private static final byte STRING = 5;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final ByteBuffer buffer = ByteBuffer.allocate(17);
+  private final MessageDigest digest;
+
+  /**
+   * Constructor
+   */
+  public MetadataFingerprintBuilder() {
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Appends the given value
+   *
+   * @param value the value to append
+   * @return this builder
+   */
+  public MetadataFingerprintBuilder append(final boolean value) {
+    buffer.put(BOOLEAN).put((byte) (value ? 1 : 0));
+    return flush();
+  }
+
+  /**
+   * Appends the given value
+   *
+   * @param value the value to append
+   * @return this builder
+   */
+  public MetadataFingerprintBuilder append(final int value) {
+    buffer.put(INT).putInt(value);
+    return flush();
+  }
+
+  /**
+   * Appends the given value
+   *
+   * @param value the value to append
+   * @return this builder
+   */
+  public MetadataFingerprintBuilder append(final long value) {
+    buffer.put(LONG).putLong(value);
+    return flush();
+  }
+
+  /**
+   * Appends the given fingerprint, for example that of a nested structure
+   *
+   * @param value the fingerprint to append (can be <code>null</code>)
+   * @return this builder
+   */
+  public MetadataFingerprintBuilder append(final MetadataFingerprint value) {
+    if (value == null) {
+      return append((String) null);
+    }
+    buffer.put(FINGERPRINT).putLong(value.getHigh()).putLong(value.getLow());
+    return flush();
+  }
+
+  /**
+   * Appends the given value
+   *
+   * @param value the value to append (can be <code>null</code>, which is
+   *            distinct from the empty string)
+   * @return this builder
+   */
+  public MetadataFingerprintBuilder append(final String value) {
+    if (value == null) {
+      buffer.put(STRING).putInt(-1);
+      return flush();
+    }
+    final byte[] bytes = value.getBytes(UTF_8);
+    buffer.put(STRING).putInt(bytes.length);
+    flush();
+    digest.update(bytes);
+    return this;
+  }
+
+  /**
+   * Returns the fingerprint of the values appended so far, and resets this
+   * builder.
+   *
+   * @return a non-<code>null</code> fingerprint
+   */
+  public MetadataFingerprint build() {
+    final ByteBuffer result = ByteBuffer.wrap(digest.digest());
+    return new MetadataFingerprint(result.getLong(), result.getLong());
+  }
+
+  private MetadataFingerprintBuilder flush() {
+    digest.update(buffer.array(), 0, buffer.position());
+    buffer.clear();
+    return this;
+  }
+}
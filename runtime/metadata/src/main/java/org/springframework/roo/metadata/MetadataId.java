@@ -0,0 +1,235 @@
+package org.springframework.roo.metadata;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * An interned metadata identification string.
+ * <p>
+ * There is at most one instance per identification string at any time, so
+ * instances can be compared by identity, and each instance carries a dense
+ * integer {@link #getHandle() handle} (zero or more) that serves as its hash
+ * code and can index arrays. The identification string is validated once, when
+ * it is first interned, and the parts of it that the metadata infrastructure
+ * keeps asking for, such as its metadata class ID and instance key, are
+ * computed once.
+ * <p>
+ * Identification strings remain the public currency of the metadata API;
+ * use {@link #valueOf(String)} and {@link #toString()} to convert between
+ * both forms. Instances are only weakly interned: once nothing refers to an
+ * instance any more (e.g. because the type it identifies was deleted), it is
+ * garbage collected and its handle is reused, lowest first, so that the
+ * handles stay bounded by the number of instances in use rather than the
+ * number ever created. Arrays indexed by handles must therefore only keep
+ * entries for instances they hold on to.
+ *
+ * @since 2.0
+ */
+public final class MetadataId {
+
+  /**
+   * A weak reference to an interned instance, remembering what to release
+   * once the instance was collected.
+   */
+  private static class InternedReference extends WeakReference<MetadataId> {
+
+    final int handle;
+    final String id;
+
+    InternedReference(final MetadataId referent) {
+      super(referent, RELEASED);
+      handle = referent.handle;
+      id = referent.id;
+    }
+  }
+
+  /** index: handle; value: the reference to the instance with that handle */
+  private static final List<InternedReference> BY_HANDLE = new ArrayList<InternedReference>();
+  /** the handles of released instances (guarded by {@link #BY_HANDLE}) */
+  private static final BitSet FREE_HANDLES = new BitSet();
+  private static final ConcurrentMap<String, InternedReference> INTERNED =
+      new ConcurrentHashMap<String, InternedReference>();
+  private static final ReferenceQueue<MetadataId> RELEASED = new ReferenceQueue<MetadataId>();
+
+  /**
+   * Returns the instance with the given handle.
+   *
+   * @param handle as returned by {@link #getHandle()}
+   * @return the instance (never null)
+   * @throws IllegalArgumentException if no instance has that handle
+   */
+  public static MetadataId forHandle(final int handle) {
+    synchronized (BY_HANDLE) {
+      final MetadataId result =
+          handle >= 0 && handle < BY_HANDLE.size() && BY_HANDLE.get(handle) != null ? BY_HANDLE
+              .get(handle).get() : null;
+      Validate.isTrue(result != null, "Unknown metadata ID handle %d", handle);
+      return result;
+    }
+  }
+
+  /**
+   * Returns the number of instances currently interned
+   *
+   * @return see above
+   */
+  public static int getInternedCount() {
+    synchronized (BY_HANDLE) {
+      releaseCollected();
+      return INTERNED.size();
+    }
+  }
+
+  /**
+   * Releases the handles of the instances that were garbage collected; the
+   * caller must hold the lock on {@link #BY_HANDLE}
+   */
+  private static void releaseCollected() {
+    InternedReference released;
+    while ((released = (InternedReference) RELEASED.poll()) != null) {
+      INTERNED.remove(released.id, released);
+      BY_HANDLE.set(released.handle, null);
+      FREE_HANDLES.set(released.handle);
+    }
+  }
+
+  /**
+   * Returns the interned instance for the given metadata identification
+   * string.
+   *
+   * @param metadataIdentificationString the ID (must return true if presented
+   *            to {@link MetadataIdentificationUtils#isValid(String)})
+   * @return the instance (never null)
+   * @throws IllegalArgumentException if the string is not a valid metadata
+   *             identification string
+   */
+  public static MetadataId valueOf(final String metadataIdentificationString) {
+    // Only valid strings are ever interned
+    final InternedReference existing =
+        metadataIdentificationString == null ? null : INTERNED.get(metadataIdentificationString);
+    final MetadataId existingId = existing == null ? null : existing.get();
+    if (existingId != null) {
+      return existingId;
+    }
+    Validate.isTrue(MetadataIdentificationUtils.isValid(metadataIdentificationString),
+        "Invalid metadata identification string ('%s')", metadataIdentificationString);
+    synchronized (BY_HANDLE) {
+      releaseCollected();
+      final InternedReference interned = INTERNED.get(metadataIdentificationString);
+      MetadataId result = interned == null ? null : interned.get();
+      if (result == null) {
+        // The class ID is interned first, so a new class ID gets the lower
+        // handle
+        MetadataId classId = null;
+        if (!MetadataIdentificationUtils.isIdentifyingClass(metadataIdentificationString)) {
+          final String classIdString =
+              MetadataIdentificationUtils.getMetadataClassId(metadataIdentificationString);
+          if (classIdString != null) {
+            classId = valueOf(classIdString);
+          }
+        }
+        final int handle = FREE_HANDLES.isEmpty() ? BY_HANDLE.size() : FREE_HANDLES.nextSetBit(0);
+        result = new MetadataId(metadataIdentificationString, handle, classId);
+        final InternedReference reference = new InternedReference(result);
+        if (handle == BY_HANDLE.size()) {
+          BY_HANDLE.add(reference);
+        } else {
+          FREE_HANDLES.clear(handle);
+          BY_HANDLE.set(handle, reference);
+        }
+        INTERNED.put(metadataIdentificationString, reference);
+      }
+      return result;
+    }
+  }
+
+  private final MetadataId classId;
+  private final int handle;
+  private final String id;
+  private final boolean identifyingClass;
+  private final boolean identifyingInstance;
+  private final String metadataClass;
+  private final String metadataInstance;
+
+  private MetadataId(final String id, final int handle, final MetadataId classId) {
+    this.handle = handle;
+    this.id = id;
+    identifyingClass = MetadataIdentificationUtils.isIdentifyingClass(id);
+    identifyingInstance = MetadataIdentificationUtils.isIdentifyingInstance(id);
+    metadataClass = MetadataIdentificationUtils.getMetadataClass(id);
+    metadataInstance = MetadataIdentificationUtils.getMetadataInstance(id);
+    this.classId = identifyingClass ? this : classId;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    // Interned
+    return this == obj;
+  }
+
+  /**
+   * @return the class-level ID of this ID (this instance if it identifies a
+   *         class, <code>null</code> if its metadata class is blank)
+   */
+  public MetadataId getClassId() {
+    return classId;
+  }
+
+  /**
+   * @return the dense integer handle of this ID (zero or more)
+   */
+  public int getHandle() {
+    return handle;
+  }
+
+  /**
+   * @return the fully qualified name of the metadata class (see
+   *         {@link MetadataIdentificationUtils#getMetadataClass(String)})
+   */
+  public String getMetadataClass() {
+    return metadataClass;
+  }
+
+  /**
+   * @return the instance key of this ID (see
+   *         {@link MetadataIdentificationUtils#getMetadataInstance(String)}),
+   *         or <code>null</code> if it identifies a class
+   */
+  public String getMetadataInstance() {
+    return metadataInstance;
+  }
+
+  @Override
+  public int hashCode() {
+    return handle;
+  }
+
+  /**
+   * @return whether this ID identifies a class of metadata
+   */
+  public boolean isIdentifyingClass() {
+    return identifyingClass;
+  }
+
+  /**
+   * @return whether this ID identifies a metadata instance
+   */
+  public boolean isIdentifyingInstance() {
+    return identifyingInstance;
+  }
+
+  /**
+   * @return the metadata identification string (never blank)
+   */
+  @Override
+  public String toString() {
+    return id;
+  }
+}
@@ -1,5 +1,6 @@
 package org.springframework.roo.metadata;
 
+import java.io.File;
 import java.util.SortedSet;
 
 /**
@@ -15,8 +16,8 @@ import java.util.SortedSet;
  * for more metadata. If more metadata is requested, new
  * {@link #startTimer(String)} invocations will take place. As each metadata
  * provider completes its work, the {@link #stopTimer()} method is called. This
- * aggregates timing information and makes it available via
- * {@link #getTimings()}.
+ * aggregates timing information, including the distribution of the time each
+ * invocation took, and makes it available via {@link #getTimings()}.
  * <p>
  * Metadata logging is similar. Before logging can take place,
  * {@link #startEvent()} should be invoked. The definition of an "event" varies,
@@ -41,6 +42,17 @@ import java.util.SortedSet;
  */
 public interface MetadataLogger {
 
+  /**
+   * Writes the messages logged so far as text, one line per message: the
+   * event number as eight hexadecimal digits, one space per nesting level of
+   * the event, and the message.
+   * 
+   * @param file the file to write (required; overwritten if it exists)
+   * @return the number of messages written
+   * @since 2.0
+   */
+  long exportTrace(File file);
+
   /**
    * @return a snapshot of timing statistics that have been collated so far
    *         (never null, but may be empty)
@@ -60,6 +72,14 @@ public interface MetadataLogger {
    */
   void log(String message);
 
+  /**
+   * Discards the timing statistics collated so far, so that
+   * {@link #getTimings()} only covers what happens afterwards.
+   * 
+   * @since 2.0
+   */
+  void resetTimings();
+
   /**
    * Enable low-level tracing of event delivery information. Defaults to level
    * 0 (none).
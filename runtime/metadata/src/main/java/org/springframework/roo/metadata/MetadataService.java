@@ -1,5 +1,8 @@
 package org.springframework.roo.metadata;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * Indicates a service which is aware of all {@link MetadataProvider}s in the
  * system and can provide access to their respective capabilities.
@@ -67,6 +70,24 @@ public interface MetadataService extends MetadataNotificationListener, MetadataC
    */
   <T extends MetadataItem> T get(String metadataIdentificationString);
 
+  /**
+   * Returns the {@link MetadataItem}s with the given IDs, from the cache if
+   * possible, as if by calling {@link #get(String)} for each ID in turn.
+   * <p>
+   * Implementations share the bookkeeping of a request, such as validation
+   * and locking, across the whole batch.
+   *
+   * @param metadataIdentificationStrings the IDs of the items to acquire
+   *            (required, may be empty); each must identify a metadata
+   *            instance
+   * @return key: ID; value: the metadata, or <code>null</code> if it is not
+   *         currently available; in the iteration order of the given IDs
+   * @throws an exception if any of the given types of metadata is not
+   *             supported
+   * @since 2.0
+   */
+  Map<String, MetadataItem> getAll(Collection<String> metadataIdentificationStrings);
+
   /**
    * Creates the requested {@link MetadataItem} if possible, returning null if
    * the item cannot be created or found. Implementations will delegate
@@ -95,4 +116,52 @@ public interface MetadataService extends MetadataNotificationListener, MetadataC
    */
   @Deprecated
   MetadataItem get(String metadataIdentificationString, boolean evictCache);
+
+  /**
+   * Returns the {@link MetadataItem} with the given ID if it's cached,
+   * without ever computing it. Unlike {@link #get(String)}, it never blocks:
+   * while metadata is being computed it returns whatever is cached at that
+   * moment, which may be an item that is about to be replaced. Suits
+   * observers that must not trigger or wait for the computation of metadata,
+   * such as shell completion.
+   *
+   * @param metadataIdentificationString the ID of the {@link MetadataItem} to
+   *            acquire; must identify a metadata instance
+   * @return the cached metadata, or <code>null</code> if none is cached
+   * @since 2.0
+   */
+  <T extends MetadataItem> T getIfCached(String metadataIdentificationString);
+
+  /**
+   * Ensures every given {@link MetadataItem} is available, computing the
+   * items that aren't cached in an order that respects the dependencies
+   * known to the {@link MetadataDependencyRegistry} (upstream metadata is
+   * always computed before its downstream metadata).
+   * <p>
+   * Implementations may compute independent items concurrently, but must
+   * leave the same metadata (and generated files) behind as calling
+   * {@link #get(String)} for each item in turn.
+   *
+   * @param metadataIdentificationStrings the IDs of the items to compute
+   *            (required, may be empty); each must identify a metadata
+   *            instance
+   * @since 2.0
+   */
+  void materialize(Collection<String> metadataIdentificationStrings);
+
+  /**
+   * Runs the given dispatch of downstream notifications, regenerating the
+   * {@link MetadataItem}s those notifications evict as if by
+   * {@link #materialize(Collection)}. The evicted items are collected while
+   * the dispatch runs and computed once it has returned; the dispatch is
+   * then run again for the notifications raised meanwhile, until no more
+   * items are evicted.
+   * <p>
+   * Implementations that don't materialize in parallel may simply run the
+   * dispatch, regenerating each item as it is notified.
+   *
+   * @param dispatch dispatches the queued notifications (required)
+   * @since 2.0
+   */
+  void materializeNotified(Runnable dispatch);
 }
@@ -0,0 +1,219 @@
+package org.springframework.roo.metadata;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Persistent view of the metadata state of a project, allowing a later shell
+ * session to avoid recomputing metadata whose sources have not changed.
+ * <p>
+ * A snapshot holds the edges of the {@link MetadataDependencyRegistry} and a
+ * content hash of every source file the metadata was computed from. It is
+ * tagged with {@link #FORMAT_VERSION} and with an "environment" string
+ * describing the add-ons that produced it (typically their bundle versions);
+ * {@link #read(InputStream, String)} rejects any snapshot whose format or
+ * environment differs from the current one.
+ * <p>
+ * {@link MetadataItem}s themselves are not part of a snapshot, as they are
+ * arbitrary add-on objects. They are recomputed on demand.
+ *
+ * @since 2.0
+ */
+public class MetadataSnapshot {
+
+  /**
+   * The version of the binary format; bump whenever the layout written by
+   * {@link #write(OutputStream)} changes.
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  private static final int MAGIC = 0x526f6f4d; // "RooM"
+
+  /**
+   * Reads a snapshot previously written by {@link #write(OutputStream)}.
+   *
+   * @param in the stream to read from (required; not closed by this method)
+   * @param expectedEnvironment the environment the snapshot must have been
+   *            written for (required)
+   * @return the snapshot, or <code>null</code> if the stream does not hold a
+   *         snapshot of the current format and environment
+   * @throws IOException if the stream cannot be read or is truncated
+   */
+  public static MetadataSnapshot read(final InputStream in, final String expectedEnvironment)
+      throws IOException {
+    Validate.notNull(in, "Input stream required");
+    Validate.notNull(expectedEnvironment, "Expected environment required");
+    final DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+      return null;
+    }
+    if (!expectedEnvironment.equals(readString(data))) {
+      return null;
+    }
+
+    final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+    final int upstreamCount = data.readInt();
+    for (int i = 0; i < upstreamCount; i++) {
+      final String upstream = readString(data);
+      final int downstreamCount = data.readInt();
+      final Set<String> downstreams = new HashSet<String>();
+      for (int j = 0; j < downstreamCount; j++) {
+        downstreams.add(readString(data));
+      }
+      dependencies.put(upstream, downstreams);
+    }
+
+    final Map<String, String> sourceHashes = new HashMap<String, String>();
+    final int sourceCount = data.readInt();
+    for (int i = 0; i < sourceCount; i++) {
+      final String source = readString(data);
+      sourceHashes.put(source, readString(data));
+    }
+    return new MetadataSnapshot(expectedEnvironment, dependencies, sourceHashes);
+  }
+
+  /**
+   * Strings are written as UTF-8 byte arrays rather than with
+   * {@link DataOutputStream#writeUTF(String)}, which is limited to 64 KB.
+   */
+  private static String readString(final DataInputStream data) throws IOException {
+    final int length = data.readInt();
+    if (length < 0) {
+      throw new IOException("Corrupt metadata snapshot");
+    }
+    final byte[] bytes = new byte[length];
+    data.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+
+  private static void writeString(final DataOutputStream data, final String value)
+      throws IOException {
+    final byte[] bytes = value.getBytes("UTF-8");
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  private final Map<String, Set<String>> dependencies;
+  private final String environment;
+  private final Map<String, String> sourceHashes;
+
+  /**
+   * Constructor
+   *
+   * @param environment describes the add-ons that produced the metadata
+   *            (required)
+   * @param dependencies the metadata dependencies, keyed by upstream
+   *            dependency (required, see
+   *            {@link MetadataDependencyRegistry#getDependencies()})
+   * @param sourceHashes the content hash of each source file, keyed by its
+   *            canonical path (required)
+   */
+  public MetadataSnapshot(final String environment, final Map<String, Set<String>> dependencies,
+      final Map<String, String> sourceHashes) {
+    Validate.notNull(environment, "Environment required");
+    Validate.notNull(dependencies, "Dependencies required");
+    Validate.notNull(sourceHashes, "Source hashes required");
+    this.environment = environment;
+    this.dependencies = new HashMap<String, Set<String>>();
+    for (final Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+      this.dependencies.put(entry.getKey(),
+          Collections.unmodifiableSet(new HashSet<String>(entry.getValue())));
+    }
+    this.sourceHashes = new HashMap<String, String>(sourceHashes);
+  }
+
+  /**
+   * @return the metadata dependencies, keyed by upstream dependency (never
+   *         null)
+   */
+  public Map<String, Set<String>> getDependencies() {
+    return Collections.unmodifiableMap(dependencies);
+  }
+
+  /**
+   * @return the environment the snapshot was written for (never null)
+   */
+  public String getEnvironment() {
+    return environment;
+  }
+
+  /**
+   * Returns the content hash recorded for the given source file.
+   *
+   * @param canonicalPath the canonical path of the source file
+   * @return the hash, or <code>null</code> if the snapshot does not know the
+   *         file
+   */
+  public String getSourceHash(final String canonicalPath) {
+    return sourceHashes.get(canonicalPath);
+  }
+
+  /**
+   * @return the content hash of each source file, keyed by its canonical path
+   *         (never null)
+   */
+  public Map<String, String> getSourceHashes() {
+    return Collections.unmodifiableMap(sourceHashes);
+  }
+
+  /**
+   * Registers the dependencies of this snapshot with the given registry.
+   * Dependencies the registry refuses (i.e. those that would now introduce a
+   * circular dependency) are skipped.
+   *
+   * @param registry the registry to populate (required)
+   * @return the number of dependencies registered
+   */
+  public int restoreDependencies(final MetadataDependencyRegistry registry) {
+    Validate.notNull(registry, "Metadata dependency registry required");
+    int restored = 0;
+    for (final Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+      for (final String downstream : entry.getValue()) {
+        if (registry.isValidDependency(entry.getKey(), downstream)) {
+          registry.registerDependency(entry.getKey(), downstream);
+          restored++;
+        }
+      }
+    }
+    return restored;
+  }
+
+  /**
+   * Writes this snapshot in the current {@link #FORMAT_VERSION}.
+   *
+   * @param out the stream to write to (required; flushed but not closed by
+   *            this method)
+   * @throws IOException if the stream cannot be written
+   */
+  public void write(final OutputStream out) throws IOException {
+    Validate.notNull(out, "Output stream required");
+    final DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(FORMAT_VERSION);
+    writeString(data, environment);
+    data.writeInt(dependencies.size());
+    for (final Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+      writeString(data, entry.getKey());
+      data.writeInt(entry.getValue().size());
+      for (final String downstream : entry.getValue()) {
+        writeString(data, downstream);
+      }
+    }
+    data.writeInt(sourceHashes.size());
+    for (final Map.Entry<String, String> entry : sourceHashes.entrySet()) {
+      writeString(data, entry.getKey());
+      writeString(data, entry.getValue());
+    }
+    data.flush();
+  }
+}
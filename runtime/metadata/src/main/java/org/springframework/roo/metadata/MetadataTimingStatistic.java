@@ -14,12 +14,29 @@ public interface MetadataTimingStatistic extends Comparable<MetadataTimingStatis
    */
   long getInvocations();
 
+  /**
+   * @return the number of nanoseconds taken by the slowest invocation, or 0
+   *         if the distribution of invocation times is unknown
+   * @since 2.0
+   */
+  long getMaximum();
+
   /**
    * @return an identifier to differentiate this timing statistic from another
    *         (never null or empty)
    */
   String getName();
 
+  /**
+   * Returns the number of nanoseconds that the given percentage of
+   * invocations took at most, e.g. 99 for the 99th percentile.
+   * 
+   * @param percentile the percentage (greater than 0 and at most 100)
+   * @return 0 if the distribution of invocation times is unknown
+   * @since 2.0
+   */
+  long getPercentile(double percentile);
+
   /**
    * @return the number of nanoseconds associated with this {@link #getName()}
    *         .
@@ -0,0 +1,52 @@
+package org.springframework.roo.metadata;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.roo.metadata.internal.MetadataMaterializationContext;
+
+/**
+ * Serializes the calls that {@link ThreadSafeMetadataProvider}s make into
+ * shared services which aren't thread-safe themselves (for example the type
+ * location service or the member details scanner).
+ * <p>
+ * The lock is only taken on the worker threads of a parallel
+ * {@link MetadataService#materialize(java.util.Collection)}; on any other
+ * thread {@link #lock()} and {@link #unlock()} do nothing, since the process
+ * manager already serializes access to the project model. This keeps a
+ * thread that isn't computing metadata from holding the lock while it waits
+ * for the metadata service, which is busy with the materialization.
+ * <p>
+ * A service guarded by this lock must take it before any monitor of its own
+ * that it holds while calling back into the {@link MetadataService}.
+ *
+ * @since 2.0
+ */
+public final class MetadataWorkerLock {
+
+  private static final ReentrantLock LOCK = new ReentrantLock();
+
+  /**
+   * Acquires the lock if the current thread is a materialization worker.
+   * Every call must be paired with a call to {@link #unlock()} in a
+   * <code>finally</code> block.
+   */
+  public static void lock() {
+    if (MetadataMaterializationContext.getCurrent() != null) {
+      LOCK.lock();
+    }
+  }
+
+  /**
+   * Releases the lock acquired by the matching call to {@link #lock()}.
+   */
+  public static void unlock() {
+    if (MetadataMaterializationContext.getCurrent() != null) {
+      LOCK.unlock();
+    }
+  }
+
+  /**
+   * Constructor is private to prevent instantiation
+   */
+  private MetadataWorkerLock() {}
+}
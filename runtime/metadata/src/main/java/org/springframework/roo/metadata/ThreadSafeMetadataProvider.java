@@ -0,0 +1,23 @@
+package org.springframework.roo.metadata;
+
+import java.util.Collection;
+
+/**
+ * A {@link MetadataProvider} whose {@link #get(String)} may run while other
+ * providers run on other threads.
+ * <p>
+ * When {@link MetadataService#materialize(Collection)} computes metadata in
+ * parallel, a provider is never entered by two threads at once; beyond that,
+ * only providers implementing this interface run alongside others. Providers
+ * that don't implement it take turns, since they may share services that
+ * aren't thread-safe (for example the type location service or the member
+ * details scanner). A provider should only implement this interface if
+ * everything it calls, other than the {@link MetadataService} and the
+ * {@link MetadataDependencyRegistry}, is safe to call from several threads;
+ * services that aren't can serialize their callers with the
+ * {@link MetadataWorkerLock}.
+ *
+ * @since 2.0
+ */
+public interface ThreadSafeMetadataProvider extends MetadataProvider {
+}
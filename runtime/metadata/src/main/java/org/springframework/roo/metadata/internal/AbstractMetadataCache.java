@@ -1,79 +1,331 @@
 package org.springframework.roo.metadata.internal;
 
-import java.util.LinkedHashMap;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.Validate;
 import org.springframework.roo.metadata.MetadataCache;
-import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataCacheStatistic;
+import org.springframework.roo.metadata.MetadataId;
 import org.springframework.roo.metadata.MetadataItem;
 
 /**
- * Basic {@link MetadataCache} that stores elements on a least recently used
- * (LRU) basis.
- * 
+ * Basic {@link MetadataCache} bounded by a number of items and, optionally, by
+ * the estimated memory its items retain.
+ * <p>
+ * Which item is given up when a bound is exceeded is decided by a pluggable
+ * {@link MetadataEvictionPolicy}, by default a cost-aware
+ * {@link SegmentedLruEvictionPolicy}. Each item is weighed by its
+ * {@link #estimateRetainedBytes(MetadataItem) retained memory} and by the
+ * {@link #getRebuildCost(String) cost of recomputing it}, and accounted
+ * under a {@link #getStatisticName(MetadataId) statistic name} so that hits,
+ * misses, evictions and retained memory can be reported per provider. Items
+ * are keyed by their interned {@link MetadataId}, so a lookup neither parses
+ * nor rehashes the identification string.
+ * <p>
+ * The retained memory of every item is estimated as it's cached, even while
+ * the cache isn't bounded by it, so that a bound set later on (see
+ * {@link #setMaxRetainedBytes(long)}) accounts for the items already cached.
+ * <p>
+ * Changes to the cache are synchronized, as parallel metadata materialization
+ * populates it from several threads; retained memory is estimated before the
+ * cache is locked. Lookups don't lock the cache, so concurrent readers don't
+ * wait for each other: hits are buffered and handed to the eviction policy
+ * and the statistics in batches, by the next thread that changes the cache
+ * or fills the buffer.
+ *
  * @author Ben Alex
  * @since 1.0
  */
 public abstract class AbstractMetadataCache implements MetadataCache {
 
-  private static final float hashTableLoadFactor = 0.75f;
+  /**
+   * Counters of the items accounted under one statistic name.
+   */
+  private static class Counters {
+    int entries;
+    long evictions;
+    long hits;
+    long misses;
+    long retainedBytes;
+  }
+
+  /** The number of buffered hits that makes a reader record them */
+  private static final int MAX_BUFFERED_HITS = 64;
 
-  private LinkedHashMap<String, MetadataItem> map;
+  private final AtomicInteger bufferedHitCount = new AtomicInteger();
+  /** The hits not yet recorded, oldest first */
+  private final Queue<MetadataCacheEntry> bufferedHits =
+      new ConcurrentLinkedQueue<MetadataCacheEntry>();
+  private final Map<MetadataId, MetadataCacheEntry> entries =
+      new ConcurrentHashMap<MetadataId, MetadataCacheEntry>();
+  private MetadataEvictionPolicy evictionPolicy = new SegmentedLruEvictionPolicy();
   private int maxCapacity = 100000;
+  private volatile long maxRetainedBytes = 0;
+  private long retainedBytes = 0;
+  /** key: statistic name; value: its counters */
+  private final Map<String, Counters> statistics = new HashMap<String, Counters>();
 
-  protected AbstractMetadataCache() {
-    init();
+  /**
+   * Evicts entries chosen by the eviction policy until the cache honours its
+   * bounds again. The only entry left is never evicted.
+   */
+  private void enforceBounds() {
+    recordBufferedHits();
+    while (entries.size() > maxCapacity
+        || (maxRetainedBytes > 0 && retainedBytes > maxRetainedBytes && entries.size() > 1)) {
+      final MetadataCacheEntry victim = evictionPolicy.selectVictim();
+      if (victim == null) {
+        return;
+      }
+      remove(victim.getId());
+      getCounters(victim.getStatisticName()).evictions++;
+    }
+  }
+
+  /**
+   * Estimates the memory retained by the given item. The default
+   * implementation uses {@link MetadataSizeEstimator}. Called for every
+   * item being cached, without holding the cache's lock.
+   *
+   * @param metadataItem the item being cached (never null)
+   * @return the estimated number of bytes (zero or more)
+   */
+  protected long estimateRetainedBytes(final MetadataItem metadataItem) {
+    return MetadataSizeEstimator.estimate(metadataItem);
   }
 
   public void evict(final String metadataIdentificationString) {
-    Validate.isTrue(
-        MetadataIdentificationUtils.isIdentifyingInstance(metadataIdentificationString),
-        "Only metadata instances can be cached (not '%s')", metadataIdentificationString);
-    map.remove(metadataIdentificationString);
+    evict(getInstanceId(metadataIdentificationString));
   }
 
-  public void evictAll() {
-    init();
+  /**
+   * Evicts the given metadata instance from the cache, if it's cached.
+   *
+   * @param metadataId the ID of the instance (required)
+   * @since 2.0
+   */
+  protected synchronized void evict(final MetadataId metadataId) {
+    recordBufferedHits();
+    remove(metadataId);
+  }
+
+  public synchronized void evictAll() {
+    recordBufferedHits();
+    entries.clear();
+    evictionPolicy.clear();
+    retainedBytes = 0;
+    for (final Counters counters : statistics.values()) {
+      counters.entries = 0;
+      counters.retainedBytes = 0;
+    }
+  }
+
+  public synchronized SortedSet<MetadataCacheStatistic> getCacheStatistics() {
+    recordBufferedHits();
+    final SortedSet<MetadataCacheStatistic> result = new TreeSet<MetadataCacheStatistic>();
+    for (final Map.Entry<String, Counters> entry : statistics.entrySet()) {
+      final Counters counters = entry.getValue();
+      result.add(new StandardMetadataCacheStatistic(entry.getKey(), counters.hits,
+          counters.misses, counters.evictions, counters.entries, counters.retainedBytes));
+    }
+    return result;
   }
 
   protected int getCacheSize() {
-    return map.size();
+    return entries.size();
+  }
+
+  private Counters getCounters(final String statisticName) {
+    Counters counters = statistics.get(statisticName);
+    if (counters == null) {
+      counters = new Counters();
+      statistics.put(statisticName, counters);
+    }
+    return counters;
+  }
+
+  protected MetadataItem getFromCache(final MetadataId metadataId) {
+    return getFromCache(metadataId, true);
+  }
+
+  /**
+   * Returns the cached item with the given ID.
+   *
+   * @param metadataId the ID of the item (required; must identify an
+   *            instance)
+   * @param countMiss whether not finding the item counts as a cache miss;
+   *            <code>false</code> if the caller will look it up again
+   * @return <code>null</code> if the item isn't cached
+   * @since 2.0
+   */
+  protected MetadataItem getFromCache(final MetadataId metadataId, final boolean countMiss) {
+    final MetadataCacheEntry entry = entries.get(metadataId);
+    if (entry == null) {
+      if (countMiss) {
+        synchronized (this) {
+          getCounters(getStatisticName(metadataId)).misses++;
+        }
+      }
+      return null;
+    }
+    bufferedHits.add(entry);
+    if (bufferedHitCount.incrementAndGet() >= MAX_BUFFERED_HITS) {
+      synchronized (this) {
+        recordBufferedHits();
+      }
+    }
+    return entry.getItem();
   }
 
   protected MetadataItem getFromCache(final String metadataIdentificationString) {
-    Validate.isTrue(
-        MetadataIdentificationUtils.isIdentifyingInstance(metadataIdentificationString),
+    return getFromCache(getInstanceId(metadataIdentificationString), true);
+  }
+
+  protected MetadataItem getFromCache(final String metadataIdentificationString,
+      final boolean countMiss) {
+    return getFromCache(getInstanceId(metadataIdentificationString), countMiss);
+  }
+
+  /**
+   * Returns the interned ID of the given metadata instance.
+   *
+   * @param metadataIdentificationString the ID (must identify an instance)
+   * @return the interned ID (never null)
+   * @since 2.0
+   */
+  protected static MetadataId getInstanceId(final String metadataIdentificationString) {
+    final MetadataId metadataId = MetadataId.valueOf(metadataIdentificationString);
+    Validate.isTrue(metadataId.isIdentifyingInstance(),
         "Only metadata instances can be cached (not '%s')", metadataIdentificationString);
-    return map.get(metadataIdentificationString);
+    return metadataId;
   }
 
-  public int getMaxCapacity() {
+  public synchronized int getMaxCapacity() {
     return maxCapacity;
   }
 
-  private void init() {
-    final int hashTableCapacity = (int) Math.ceil(maxCapacity / hashTableLoadFactor) + 1;
-    map = new LinkedHashMap<String, MetadataItem>(hashTableCapacity, hashTableLoadFactor, true) {
-      private static final long serialVersionUID = 1;
+  public long getMaxRetainedBytes() {
+    return maxRetainedBytes;
+  }
 
-      @Override
-      protected boolean removeEldestEntry(final Map.Entry<String, MetadataItem> eldest) {
-        return size() > maxCapacity;
-      }
-    };
+  /**
+   * Estimates the cost of recomputing an item accounted under the given
+   * statistic name. Only the ratio between the costs of different items
+   * matters. The default implementation considers all items equally
+   * expensive.
+   *
+   * @param statisticName as returned by {@link #getStatisticName(MetadataId)}
+   * @return the estimated cost in nanoseconds (zero or more)
+   */
+  protected long getRebuildCost(final String statisticName) {
+    return 1;
+  }
+
+  /**
+   * @return the estimated number of bytes retained by all cached items
+   */
+  protected synchronized long getRetainedBytes() {
+    return retainedBytes;
+  }
+
+  /**
+   * Returns the name the given item is accounted under. The default
+   * implementation uses the metadata class.
+   *
+   * @param metadataId the instance-identifying item ID
+   * @return the name (never blank)
+   */
+  protected String getStatisticName(final MetadataId metadataId) {
+    return metadataId.getMetadataClass();
   }
 
   public void put(final MetadataItem metadataItem) {
     Validate.notNull(metadataItem, "A metadata item is required");
-    map.put(metadataItem.getId(), metadataItem);
+    // The estimate walks the item's object graph, so other threads shouldn't
+    // wait for it
+    final long itemRetainedBytes = estimateRetainedBytes(metadataItem);
+    final MetadataId metadataId = getInstanceId(metadataItem.getId());
+    final String statisticName = getStatisticName(metadataId);
+    final MetadataCacheEntry entry =
+        new MetadataCacheEntry(metadataId, metadataItem, statisticName, itemRetainedBytes,
+            getRebuildCost(statisticName));
+    synchronized (this) {
+      put(entry);
+    }
+  }
+
+  private void put(final MetadataCacheEntry entry) {
+    recordBufferedHits();
+    remove(entry.getId());
+    entries.put(entry.getId(), entry);
+    retainedBytes += entry.getRetainedBytes();
+    final Counters counters = getCounters(entry.getStatisticName());
+    counters.entries++;
+    counters.retainedBytes += entry.getRetainedBytes();
+    evictionPolicy.recordInsertion(entry);
+    enforceBounds();
   }
 
-  public void setMaxCapacity(int maxCapacity) {
+  /**
+   * Hands the buffered hits to the statistics and, for the entries still
+   * cached, to the eviction policy; the caller must hold the cache's lock
+   */
+  private void recordBufferedHits() {
+    MetadataCacheEntry hit;
+    while ((hit = bufferedHits.poll()) != null) {
+      bufferedHitCount.decrementAndGet();
+      getCounters(hit.getStatisticName()).hits++;
+      if (entries.get(hit.getId()) == hit) {
+        evictionPolicy.recordAccess(hit);
+      }
+    }
+  }
+
+  private void remove(final MetadataId metadataId) {
+    final MetadataCacheEntry entry = entries.remove(metadataId);
+    if (entry == null) {
+      return;
+    }
+    retainedBytes -= entry.getRetainedBytes();
+    final Counters counters = getCounters(entry.getStatisticName());
+    counters.entries--;
+    counters.retainedBytes -= entry.getRetainedBytes();
+    evictionPolicy.recordRemoval(entry);
+  }
+
+  /**
+   * Replaces the eviction policy. Items already cached are handed over to the
+   * new policy, in no particular order.
+   *
+   * @param evictionPolicy the new policy (required)
+   */
+  public synchronized void setEvictionPolicy(final MetadataEvictionPolicy evictionPolicy) {
+    Validate.notNull(evictionPolicy, "Eviction policy required");
+    recordBufferedHits();
+    this.evictionPolicy = evictionPolicy;
+    evictionPolicy.clear();
+    for (final MetadataCacheEntry entry : entries.values()) {
+      evictionPolicy.recordInsertion(entry);
+    }
+  }
+
+  public synchronized void setMaxCapacity(int maxCapacity) {
     if (maxCapacity < 100) {
       maxCapacity = 100;
     }
     this.maxCapacity = maxCapacity;
-    init();
+    enforceBounds();
+  }
+
+  public synchronized void setMaxRetainedBytes(final long maxRetainedBytes) {
+    this.maxRetainedBytes = Math.max(maxRetainedBytes, 0);
+    enforceBounds();
   }
 }
@@ -1,29 +1,63 @@
 package org.springframework.roo.metadata.internal;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
-import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataId;
 import org.springframework.roo.metadata.MetadataLogger;
 import org.springframework.roo.metadata.MetadataNotificationListener;
 import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.support.logging.FlightRecorderEventType;
 
 /**
  * Default implementation of {@link MetadataDependencyRegistry}.
  * <p>
- * This implementation is not thread safe. It should only be accessed by a
+ * Notifications are not thread safe. They should only be dispatched by a
  * single thread at a time. This is enforced by the process manager semantics,
- * so we avoid the cost of re-synchronization here.
+ * so we avoid the cost of re-synchronization here. Notifications requested by
+ * a parallel materialization worker are handed over to the thread that
+ * coordinates the materialization (see
+ * {@link MetadataMaterializationContext}).
+ * <p>
+ * The dependency graph itself is synchronized, as materialization workers
+ * register dependencies concurrently. It is held in terms of interned
+ * {@link MetadataId}s, which hash by their integer handle and know their
+ * metadata class, so that large notification fan-outs neither hash nor parse
+ * identification strings.
+ * <p>
+ * To reject circular dependencies without walking the whole graph, the
+ * registry maintains a topological order of the items it knows, i.e. every
+ * dependency leads from an earlier to a later item. A new dependency that
+ * agrees with that order cannot close a cycle. Otherwise only the items
+ * ordered between its two ends are searched, and those found to be affected
+ * are reordered. Removing dependencies leaves the order valid, so it needs
+ * no maintenance, except that an item losing its last dependency gives up
+ * its position, as its handle may then be reused by another item.
+ * <p>
+ * While a notification batch runs, downstream notifications of the thread
+ * that started it are queued rather than dispatched, each downstream item at
+ * most once, and dispatched in topological order when the batch is flushed.
  * 
  * @author Ben Alex
  * @since 1.0
@@ -32,15 +66,83 @@ import org.springframework.roo.metadata.MetadataService;
 @Service
 public class DefaultMetadataDependencyRegistry implements MetadataDependencyRegistry {
 
+  private static final FlightRecorderEventType NOTIFY_EVENT = new FlightRecorderEventType(
+      "org.springframework.roo.metadata.NotifyDownstream", "Metadata Notify Downstream",
+      new String[] {"Spring Roo", "Metadata"}, "upstreamId", String.class, "downstreams",
+      int.class);
+
+  /**
+   * A downstream notification queued by a notification batch, ordered by the
+   * topological order its downstream dependency had when it was queued (see
+   * {@link DefaultMetadataDependencyRegistry#refreshPendingNotifications()}).
+   */
+  private static class PendingNotification implements Comparable<PendingNotification> {
+
+    final MetadataId downstream;
+    final int order;
+    final MetadataId upstream;
+    final boolean viaClass;
+
+    PendingNotification(final MetadataId upstream, final MetadataId downstream, final int order,
+        final boolean viaClass) {
+      this.downstream = downstream;
+      this.order = order;
+      this.upstream = upstream;
+      this.viaClass = viaClass;
+    }
+
+    public int compareTo(final PendingNotification other) {
+      return order < other.order ? -1 : order == other.order ? 0 : 1;
+    }
+  }
+
   /** key: downstream dependency; value: list<upstream dependencies> */
-  private final Map<String, Set<String>> downstreamKeyed = new HashMap<String, Set<String>>();
+  private final Map<MetadataId, Set<MetadataId>> downstreamKeyed =
+      new HashMap<MetadataId, Set<MetadataId>>();
 
   /** key: upstream dependency; value: list<downstream dependencies> */
-  private final Map<String, Set<String>> upstreamKeyed = new HashMap<String, Set<String>>();
+  private final Map<MetadataId, Set<MetadataId>> upstreamKeyed =
+      new HashMap<MetadataId, Set<MetadataId>>();
 
   private final Set<MetadataNotificationListener> listeners =
       new HashSet<MetadataNotificationListener>();
 
+  /**
+   * index: handle of a {@link MetadataId}; value: its position in a
+   * topological order of the graph, or 0 if it isn't part of it
+   */
+  private int[] topologicalOrder = new int[1024];
+  private int nextTopologicalOrder = 1;
+  /** The number of times existing items were moved in the topological order */
+  private int reorders;
+
+  private final Comparator<MetadataId> topologicalOrderComparator = new Comparator<MetadataId>() {
+    public int compare(final MetadataId o1, final MetadataId o2) {
+      return getTopologicalOrder(o1) - getTopologicalOrder(o2);
+    }
+  };
+
+  // Notification batching, confined to the thread that started the batch
+  private volatile Thread batchThread;
+  private int batchDepth;
+  private boolean flushing;
+  private final AtomicLong coalescedNotifications = new AtomicLong();
+  private final AtomicLong dispatchedNotifications = new AtomicLong();
+  private final AtomicLong purgedMetadata = new AtomicLong();
+  /**
+   * key: downstream dependency with a queued notification; value: the
+   * upstream dependencies it was queued for (only relevant for class-level
+   * downstream dependencies)
+   */
+  private final Map<MetadataId, Set<MetadataId>> pendingDownstreams =
+      new HashMap<MetadataId, Set<MetadataId>>();
+  private final PriorityQueue<PendingNotification> pendingNotifications =
+      new PriorityQueue<PendingNotification>();
+  /** The value of {@link #reorders} the queued notifications are ordered by */
+  private int pendingReorders;
+  /** Deleted items whose dependencies are purged when the batch stops */
+  private final Set<MetadataId> pendingPurges = new LinkedHashSet<MetadataId>();
+
   @Reference(policy = ReferencePolicy.DYNAMIC)
   protected volatile MetadataLogger metadataLogger;
   protected MetadataService metadataService;
@@ -57,146 +159,381 @@ public class DefaultMetadataDependencyRegistry implements MetadataDependencyRegi
     listeners.add(listener);
   }
 
-  private void buildSetOfAllUpstreamDependencies(final Set<String> results,
-      final String downstreamDependency) {
-    final Set<String> upstreams = downstreamKeyed.get(downstreamDependency);
-    if (upstreams == null) {
+  private void addTransitiveDownstream(final Set<MetadataId> downstreams,
+      final MetadataId upstream, final Set<MetadataId> result, final Deque<MetadataId> toVisit) {
+    if (downstreams == null) {
       return;
     }
+    for (final MetadataId downstream : downstreams) {
+      // An instance is not notified about itself via its class
+      if (downstream != upstream && result.add(downstream)) {
+        toVisit.add(downstream);
+      }
+    }
+  }
 
-    for (final String upstream : upstreams) {
-      results.add(upstream);
-      buildSetOfAllUpstreamDependencies(results, upstream);
+  /**
+   * Forgets the topological order of the given item once it has no
+   * dependencies left, as its handle may be reused by another item
+   */
+  private void clearTopologicalOrderIfDetached(final MetadataId id) {
+    final int handle = id.getHandle();
+    if (handle < topologicalOrder.length && !upstreamKeyed.containsKey(id)
+        && !downstreamKeyed.containsKey(id)) {
+      topologicalOrder[handle] = 0;
     }
   }
 
-  public void deregisterDependencies(final String downstreamDependency) {
-    Validate.isTrue(MetadataIdentificationUtils.isValid(downstreamDependency),
-        "Downstream dependency is an invalid metadata identification string ('%s')",
-        downstreamDependency);
+  /**
+   * Collects the dependencies upstream of the given item whose topological
+   * order is greater than the given bound.
+   *
+   * @param downstreamDependency the item to start from (included in the
+   *            result)
+   * @param lowerBound the exclusive lower bound of the topological order
+   * @param region the list to add the items to, in no particular order
+   */
+  private void collectBackward(final MetadataId downstreamDependency, final int lowerBound,
+      final List<MetadataId> region) {
+    final Set<MetadataId> visited = new HashSet<MetadataId>();
+    final Deque<MetadataId> toVisit = new ArrayDeque<MetadataId>();
+    visited.add(downstreamDependency);
+    toVisit.push(downstreamDependency);
+    while (!toVisit.isEmpty()) {
+      final MetadataId current = toVisit.pop();
+      region.add(current);
+      final Set<MetadataId> upstreams = downstreamKeyed.get(current);
+      if (upstreams == null) {
+        continue;
+      }
+      for (final MetadataId upstream : upstreams) {
+        if (getTopologicalOrder(upstream) > lowerBound && visited.add(upstream)) {
+          toVisit.push(upstream);
+        }
+      }
+    }
+  }
+
+  /**
+   * Collects the dependencies downstream of the given item whose topological
+   * order is less than the given bound, unless the given target is one of
+   * them.
+   *
+   * @param upstreamDependency the item to start from (included in the result)
+   * @param target the item to look for
+   * @param upperBound the exclusive upper bound of the topological order
+   * @param region the list to add the items to, in no particular order (can
+   *            be null)
+   * @return true if the target is downstream of the given item
+   */
+  private boolean collectForward(final MetadataId upstreamDependency, final MetadataId target,
+      final int upperBound, final List<MetadataId> region) {
+    final Set<MetadataId> visited = new HashSet<MetadataId>();
+    final Deque<MetadataId> toVisit = new ArrayDeque<MetadataId>();
+    visited.add(upstreamDependency);
+    toVisit.push(upstreamDependency);
+    while (!toVisit.isEmpty()) {
+      final MetadataId current = toVisit.pop();
+      if (region != null) {
+        region.add(current);
+      }
+      final Set<MetadataId> downstreams = upstreamKeyed.get(current);
+      if (downstreams == null) {
+        continue;
+      }
+      for (final MetadataId downstream : downstreams) {
+        if (downstream == target) {
+          return true;
+        }
+        if (getTopologicalOrder(downstream) < upperBound && visited.add(downstream)) {
+          toVisit.push(downstream);
+        }
+      }
+    }
+    return false;
+  }
+
+  public synchronized void deregisterDependencies(final String downstreamDependency) {
+    final MetadataId downstream = MetadataId.valueOf(downstreamDependency);
 
     // Acquire the keys to delete
-    final Set<String> upstream = downstreamKeyed.get(downstreamDependency);
+    final Set<MetadataId> upstream = downstreamKeyed.get(downstream);
     if (upstream == null) {
       return;
     }
 
-    final Set<String> upstreamToDelete = new HashSet<String>(upstream);
+    final Set<MetadataId> upstreamToDelete = new HashSet<MetadataId>(upstream);
 
     // Delete them normally
-    for (final String deleteUpstream : upstreamToDelete) {
-      deregisterDependency(deleteUpstream, downstreamDependency);
+    for (final MetadataId deleteUpstream : upstreamToDelete) {
+      deregisterDependency(deleteUpstream, downstream);
     }
   }
 
-  public void deregisterDependency(final String upstreamDependency,
+  private void deregisterDependency(final MetadataId upstreamDependency,
+      final MetadataId downstreamDependency) {
+    // Maintain both maps, dropping the sets that become empty
+    removeFromSet(upstreamKeyed, upstreamDependency, downstreamDependency);
+    removeFromSet(downstreamKeyed, downstreamDependency, upstreamDependency);
+  }
+
+  public synchronized void deregisterDependency(final String upstreamDependency,
       final String downstreamDependency) {
-    Validate.isTrue(MetadataIdentificationUtils.isValid(upstreamDependency),
-        "Upstream dependency is an invalid metadata identification string ('%s')",
-        upstreamDependency);
-    Validate.isTrue(MetadataIdentificationUtils.isValid(downstreamDependency),
-        "Downstream dependency is an invalid metadata identification string ('%s')",
-        downstreamDependency);
+    deregisterDependency(MetadataId.valueOf(upstreamDependency),
+        MetadataId.valueOf(downstreamDependency));
+  }
+
+  public void discardNotificationBatch() {
+    Validate.validState(batchThread == Thread.currentThread() && batchDepth > 0,
+        "No notification batch is running on this thread");
+    if (batchDepth > 1) {
+      batchDepth--;
+      return;
+    }
+    // The deleted items may have been restored as well
+    pendingNotifications.clear();
+    pendingDownstreams.clear();
+    pendingPurges.clear();
+    batchDepth = 0;
+    batchThread = null;
+  }
+
+  /**
+   * Dispatches the queued notifications in topological order. Notifications
+   * raised meanwhile are queued, so downstream items are reached after all
+   * of their upstream items were refreshed.
+   */
+  private void dispatchPendingNotifications() {
+    if (flushing) {
+      return;
+    }
+    flushing = true;
+    try {
+      while (!pendingNotifications.isEmpty() && metadataService != null) {
+        refreshPendingNotifications();
+        final PendingNotification next = pendingNotifications.poll();
+        unmarkPending(next.upstream, next.downstream);
+        notify(next.upstream, next.downstream, next.viaClass);
+      }
+    } finally {
+      flushing = false;
+    }
+  }
 
-    // Maintain the upstream-keyed map, if it even exists
-    final Set<String> downstream = upstreamKeyed.get(upstreamDependency);
-    if (downstream != null) {
-      downstream.remove(downstreamDependency);
+  public void flushNotifications() {
+    if (batchThread != Thread.currentThread() || flushing) {
+      // Either nothing is queued for this thread, or the notifications are
+      // being dispatched further up the stack already
+      return;
+    }
+    metadataLogger.startEvent();
+    try {
+      if (metadataService != null) {
+        // The metadata service regenerates the items the notifications
+        // evict once they were dispatched, so it can compute them in parallel
+        metadataService.materializeNotified(new Runnable() {
+          public void run() {
+            dispatchPendingNotifications();
+          }
+        });
+      }
+    } finally {
+      pendingNotifications.clear();
+      pendingDownstreams.clear();
+      metadataLogger.stopEvent();
     }
+  }
 
-    // Maintain the downstream-keyed map, if it even exists
-    final Set<String> upstream = downstreamKeyed.get(downstreamDependency);
-    if (upstream != null) {
-      upstream.remove(upstreamDependency);
+  public synchronized Map<String, Set<String>> getDependencies() {
+    final Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+    for (final Map.Entry<MetadataId, Set<MetadataId>> entry : upstreamKeyed.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        result.put(entry.getKey().toString(), toStrings(entry.getValue()));
+      }
     }
+    return result;
   }
 
-  public Set<String> getDownstream(final String upstreamDependency) {
-    Validate.isTrue(MetadataIdentificationUtils.isValid(upstreamDependency),
-        "Upstream dependency is an invalid metadata identification string ('%s')",
-        upstreamDependency);
+  public synchronized Set<MetadataId> getDownstream(final MetadataId upstreamDependency) {
+    Validate.notNull(upstreamDependency, "Upstream dependency required");
 
-    final Set<String> downstream = upstreamKeyed.get(upstreamDependency);
+    final Set<MetadataId> downstream = upstreamKeyed.get(upstreamDependency);
+    if (downstream == null || downstream.isEmpty()) {
+      return Collections.emptySet();
+    }
+
+    return Collections.unmodifiableSet(new LinkedHashSet<MetadataId>(downstream));
+  }
+
+  public synchronized Set<String> getDownstream(final String upstreamDependency) {
+    final Set<MetadataId> downstream = upstreamKeyed.get(MetadataId.valueOf(upstreamDependency));
     if (downstream == null) {
       return new HashSet<String>();
     }
 
-    return Collections.unmodifiableSet(new CopyOnWriteArraySet<String>(downstream));
+    return Collections.unmodifiableSet(toStrings(downstream));
   }
 
-  public Set<String> getUpstream(final String downstreamDependency) {
-    Validate.isTrue(MetadataIdentificationUtils.isValid(downstreamDependency),
-        "Downstream dependency is an invalid metadata identification string ('%s')",
-        downstreamDependency);
+  /**
+   * @return the number of items this registry holds dependencies of, counted
+   *         once as upstream and once as downstream dependency
+   */
+  synchronized int getRegisteredCount() {
+    return upstreamKeyed.size() + downstreamKeyed.size();
+  }
 
-    final Set<String> upstream = downstreamKeyed.get(downstreamDependency);
+  private int getTopologicalOrder(final MetadataId id) {
+    final int handle = id.getHandle();
+    return handle < topologicalOrder.length ? topologicalOrder[handle] : 0;
+  }
+
+  /**
+   * @return the length of the array holding the topological order, which
+   *         grows with the highest {@link MetadataId#getHandle() handle} of
+   *         any item registered so far
+   */
+  synchronized int getTopologicalOrderCapacity() {
+    return topologicalOrder.length;
+  }
+
+  public Set<String> getTransitiveDownstream(final String upstreamDependency) {
+    final Set<MetadataId> downstream =
+        getTransitiveDownstream(MetadataId.valueOf(upstreamDependency));
+    final Set<String> result = new LinkedHashSet<String>(downstream.size() * 2);
+    for (final MetadataId id : downstream) {
+      result.add(id.toString());
+    }
+    return Collections.unmodifiableSet(result);
+  }
+
+  public synchronized Set<MetadataId> getTransitiveDownstream(final MetadataId upstreamDependency) {
+    Validate.notNull(upstreamDependency, "Upstream dependency required");
+
+    // Breadth first, so nearer dependencies come first
+    final Set<MetadataId> result = new LinkedHashSet<MetadataId>();
+    final Deque<MetadataId> toVisit = new ArrayDeque<MetadataId>();
+    toVisit.add(upstreamDependency);
+    while (!toVisit.isEmpty()) {
+      final MetadataId current = toVisit.removeFirst();
+      addTransitiveDownstream(upstreamKeyed.get(current), current, result, toVisit);
+      if (!current.isIdentifyingClass() && current.getClassId() != null) {
+        addTransitiveDownstream(upstreamKeyed.get(current.getClassId()), current, result,
+            toVisit);
+      }
+    }
+    result.remove(upstreamDependency);
+    return Collections.unmodifiableSet(result);
+  }
+
+  public synchronized Set<MetadataId> getUpstream(final MetadataId downstreamDependency) {
+    Validate.notNull(downstreamDependency, "Downstream dependency required");
+
+    final Set<MetadataId> upstream = downstreamKeyed.get(downstreamDependency);
+    if (upstream == null || upstream.isEmpty()) {
+      return Collections.emptySet();
+    }
+
+    return Collections.unmodifiableSet(new LinkedHashSet<MetadataId>(upstream));
+  }
+
+  public synchronized Set<String> getUpstream(final String downstreamDependency) {
+    final Set<MetadataId> upstream = downstreamKeyed.get(MetadataId.valueOf(downstreamDependency));
     if (upstream == null) {
       return new HashSet<String>();
     }
 
-    return Collections.unmodifiableSet(upstream);
+    return Collections.unmodifiableSet(toStrings(upstream));
   }
 
-  public boolean isValidDependency(final String upstreamDependency,
+  public synchronized boolean isValidDependency(final String upstreamDependency,
       final String downstreamDependency) {
-    Validate.isTrue(MetadataIdentificationUtils.isValid(upstreamDependency),
-        "Upstream dependency is an invalid metadata identification string ('%s')",
-        upstreamDependency);
-    Validate.isTrue(MetadataIdentificationUtils.isValid(downstreamDependency),
-        "Downstream dependency is an invalid metadata identification string ('%s')",
-        downstreamDependency);
-    Validate.isTrue(!upstreamDependency.equals(downstreamDependency),
+    return isValidDependency(MetadataId.valueOf(upstreamDependency),
+        MetadataId.valueOf(downstreamDependency));
+  }
+
+  private boolean isCached(final MetadataId id) {
+    return id.isIdentifyingInstance() && metadataService != null
+        && metadataService.getIfCached(id.toString()) != null;
+  }
+
+  private boolean isValidDependency(final MetadataId upstreamDependency,
+      final MetadataId downstreamDependency) {
+    Validate.isTrue(upstreamDependency != downstreamDependency,
         "Upstream dependency cannot be the same as the downstream dependency ('%s')",
         downstreamDependency);
 
     // The simplest possible outcome is the relationship already exists, so
     // quickly return in that case
-    Set<String> downstream = upstreamKeyed.get(upstreamDependency);
+    final Set<MetadataId> downstream = upstreamKeyed.get(upstreamDependency);
     if (downstream != null && downstream.contains(downstreamDependency)) {
       return true;
     }
-    // Don't need the variable anymore, as we don't care about the other
-    // downstream dependencies
-    downstream = null;
 
-    // Need to walk the upstream dependency's parent dependency graph,
-    // verifying no presence of the proposed downstream dependency
+    // Every existing path leads from a lower to a higher topological order,
+    // so there can't be a path from the downstream back to the upstream if
+    // the upstream comes first (or either is not part of the graph yet)
+    final int upstreamOrder = getTopologicalOrder(upstreamDependency);
+    final int downstreamOrder = getTopologicalOrder(downstreamDependency);
+    if (upstreamOrder == 0 || downstreamOrder == 0 || upstreamOrder < downstreamOrder) {
+      return true;
+    }
 
-    // Need to build a set representing every eventual upstream dependency
-    // of the indicated upstream dependency
-    final Set<String> allUpstreams = new HashSet<String>();
-    buildSetOfAllUpstreamDependencies(allUpstreams, upstreamDependency);
+    // Otherwise only the items ordered between both can be on such a path
+    return !collectForward(downstreamDependency, upstreamDependency, upstreamOrder, null);
+  }
 
-    // The dependency is valid if none of the upstreams depend on the
-    // proposed downstream
-    return !allUpstreams.contains(downstreamDependency);
+  /**
+   * Records that a notification of the given downstream dependency is
+   * queued.
+   *
+   * @return false if an equivalent notification is queued already
+   */
+  private boolean markPending(final MetadataId upstreamDependency,
+      final MetadataId downstreamDependency) {
+    Set<MetadataId> upstreams = pendingDownstreams.get(downstreamDependency);
+    if (upstreams == null) {
+      upstreams = new HashSet<MetadataId>();
+      pendingDownstreams.put(downstreamDependency, upstreams);
+    } else if (downstreamDependency.isIdentifyingInstance()) {
+      // An instance is rebuilt the same way whatever the upstream
+      return false;
+    }
+    // Class-level downstreams work out which instance to rebuild from the
+    // upstream, so they are only coalesced per upstream
+    return upstreams.add(upstreamDependency);
   }
 
   public void notifyDownstream(final String upstreamDependency) {
+    notifyDownstream(MetadataId.valueOf(upstreamDependency));
+  }
+
+  public void notifyDownstream(final MetadataId upstreamDependency) {
+    Validate.notNull(upstreamDependency, "Upstream dependency required");
+    final MetadataMaterializationContext worker = MetadataMaterializationContext.getCurrent();
+    if (worker != null) {
+      worker.deferNotification(upstreamDependency.toString());
+      return;
+    }
+
+    final String upstreamId = upstreamDependency.toString();
+    final Object event = NOTIFY_EVENT.begin();
+    int notified = 0;
     try {
       metadataLogger.startEvent();
 
       if (metadataService != null) {
         // First dispatch the fine-grained, instance-specific
         // dependencies.
-        Set<String> notifiedDownstreams = new HashSet<String>();
-        Set<String> downstreams = getDownstream(upstreamDependency);
-        for (final String downstream : downstreams) {
-          if (metadataLogger.getTraceLevel() > 0) {
-            metadataLogger.log(upstreamDependency + " -> " + downstream);
-          }
+        Set<MetadataId> downstreams = getDownstream(upstreamDependency);
+        final Set<MetadataId> notifiedDownstreams =
+            new HashSet<MetadataId>(downstreams.size() * 2);
+        for (final MetadataId downstream : downstreams) {
           // No need to ensure upstreamDependency is different from
           // downstream, as that's taken care of in the
           // isValidDependency() method
-          try {
-            final String responsibleClass =
-                MetadataIdentificationUtils.getMetadataClass(downstream);
-            metadataLogger.startTimer(responsibleClass);
-            metadataService.notify(upstreamDependency, downstream);
-          } finally {
-            metadataLogger.stopTimer();
-          }
+          notifyOrQueue(upstreamDependency, downstream, false);
           notifiedDownstreams.add(downstream);
+          notified++;
         }
 
         // Next dispatch the coarse-grained, class-specific
@@ -204,10 +541,9 @@ public class DefaultMetadataDependencyRegistry implements MetadataDependencyRegi
         // We only do it if the upstream is not class specific, as
         // otherwise we'd have handled class-specific dispatch in
         // previous loop
-        if (!MetadataIdentificationUtils.isIdentifyingClass(upstreamDependency)) {
-          final String asClass = MetadataIdentificationUtils.getMetadataClassId(upstreamDependency);
-          downstreams = getDownstream(asClass);
-          for (final String downstream : downstreams) {
+        if (!upstreamDependency.isIdentifyingClass() && upstreamDependency.getClassId() != null) {
+          downstreams = getDownstream(upstreamDependency.getClassId());
+          for (final MetadataId downstream : downstreams) {
             // We don't notify a downstream if it had a direct
             // instance-specific dependency and was already notified
             // in previous loop
@@ -218,66 +554,222 @@ public class DefaultMetadataDependencyRegistry implements MetadataDependencyRegi
             // registered to receive class-specific notifications
             // and that instance
             // caused an event to fire)
-            if (!notifiedDownstreams.contains(downstream) && !upstreamDependency.equals(downstream)) {
-              if (metadataLogger.getTraceLevel() > 0) {
-                metadataLogger.log(upstreamDependency + " -> " + downstream + " [via class]");
-              }
-              try {
-                final String responsibleClass =
-                    MetadataIdentificationUtils.getMetadataClass(downstream);
-                metadataLogger.startTimer(responsibleClass);
-                metadataService.notify(upstreamDependency, downstream);
-              } finally {
-                metadataLogger.stopTimer();
-              }
+            if (!notifiedDownstreams.contains(downstream) && upstreamDependency != downstream) {
+              notifyOrQueue(upstreamDependency, downstream, true);
+              notified++;
             }
           }
         }
-
-        notifiedDownstreams = null;
       }
 
       // Finally dispatch the general-purpose additional listeners
       for (final MetadataNotificationListener listener : listeners) {
         if (metadataLogger.getTraceLevel() > 1) {
-          metadataLogger.log(upstreamDependency + " -> " + upstreamDependency + " ["
+          metadataLogger.log(upstreamId + " -> " + upstreamId + " ["
               + listener.getClass().getSimpleName() + "]");
         }
         try {
           final String responsibleClass = listener.getClass().getName();
           metadataLogger.startTimer(responsibleClass);
-          listener.notify(upstreamDependency, null);
+          listener.notify(upstreamId, null);
         } finally {
           metadataLogger.stopTimer();
         }
       }
     } finally {
       metadataLogger.stopEvent();
+      if (event != null) {
+        NOTIFY_EVENT.commit(event, upstreamId, notified);
+      }
     }
   }
 
-  public void registerDependency(final String upstreamDependency, final String downstreamDependency) {
-    Validate.isTrue(isValidDependency(upstreamDependency, downstreamDependency),
-        "Invalid dependency between upstream '%s' and downstream '%s'", upstreamDependency,
+  private void notify(final MetadataId upstreamDependency, final MetadataId downstreamDependency,
+      final boolean viaClass) {
+    if (metadataLogger.getTraceLevel() > 0) {
+      metadataLogger.log(upstreamDependency + " -> " + downstreamDependency
+          + (viaClass ? " [via class]" : ""));
+    }
+    try {
+      metadataLogger.startTimer(downstreamDependency.getMetadataClass());
+      metadataService.notify(upstreamDependency.toString(), downstreamDependency.toString());
+    } finally {
+      metadataLogger.stopTimer();
+    }
+    dispatchedNotifications.incrementAndGet();
+  }
+
+  /**
+   * Notifies the given downstream dependency right away, or queues the
+   * notification if the current thread runs a notification batch. A queued
+   * notification absorbs any later one for the same downstream instance (or
+   * for the same class-level downstream and upstream).
+   */
+  private void notifyOrQueue(final MetadataId upstreamDependency,
+      final MetadataId downstreamDependency, final boolean viaClass) {
+    if (batchThread != Thread.currentThread()) {
+      notify(upstreamDependency, downstreamDependency, viaClass);
+      return;
+    }
+    if (!markPending(upstreamDependency, downstreamDependency)) {
+      if (metadataLogger.getTraceLevel() > 0) {
+        metadataLogger.log(upstreamDependency + " -> " + downstreamDependency + " [coalesced]");
+      }
+      coalescedNotifications.incrementAndGet();
+      return;
+    }
+    final int order;
+    synchronized (this) {
+      if (pendingNotifications.isEmpty()) {
+        pendingReorders = reorders;
+      }
+      order = getTopologicalOrder(downstreamDependency);
+    }
+    final PendingNotification notification =
+        new PendingNotification(upstreamDependency, downstreamDependency, order, viaClass);
+    pendingNotifications.add(notification);
+  }
+
+  /**
+   * Removes the dependencies of the given deleted items, and of the instances
+   * directly downstream of them that identify the same instance, on their
+   * upstream items, unless the {@link MetadataService} has cached them
+   * again. The dependencies of other items on them are kept, so that those
+   * items are notified if the deleted items are created again; they go once
+   * those items are rebuilt or deleted in turn.
+   */
+  private void purge(final Collection<MetadataId> deletedIds) {
+    // key: deleted item; value: the instances downstream of it that identify
+    // the same instance
+    final Map<MetadataId, List<MetadataId>> candidates =
+        new LinkedHashMap<MetadataId, List<MetadataId>>();
+    synchronized (this) {
+      for (final MetadataId deletedId : deletedIds) {
+        final List<MetadataId> sameInstance = new ArrayList<MetadataId>();
+        final Set<MetadataId> downstream = upstreamKeyed.get(deletedId);
+        if (downstream != null && deletedId.isIdentifyingInstance()) {
+          for (final MetadataId downstreamId : downstream) {
+            if (downstreamId.isIdentifyingInstance()
+                && deletedId.getMetadataInstance().equals(downstreamId.getMetadataInstance())) {
+              sameInstance.add(downstreamId);
+            }
+          }
+        }
+        candidates.put(deletedId, sameInstance);
+      }
+    }
+
+    // Not holding this registry's lock, as the metadata service makes the
+    // check wait for its writer, which may be waiting for this registry
+    final Set<MetadataId> toPurge = new LinkedHashSet<MetadataId>();
+    for (final Map.Entry<MetadataId, List<MetadataId>> candidate : candidates.entrySet()) {
+      if (isCached(candidate.getKey())) {
+        // Recreated meanwhile
+        continue;
+      }
+      toPurge.add(candidate.getKey());
+      for (final MetadataId downstreamId : candidate.getValue()) {
+        if (!isCached(downstreamId)) {
+          toPurge.add(downstreamId);
+        }
+      }
+    }
+
+    synchronized (this) {
+      for (final MetadataId id : toPurge) {
+        final Set<MetadataId> upstream = downstreamKeyed.remove(id);
+        if (upstream != null) {
+          for (final MetadataId upstreamId : upstream) {
+            removeFromSet(upstreamKeyed, upstreamId, id);
+          }
+        }
+        clearTopologicalOrderIfDetached(id);
+      }
+    }
+    purgedMetadata.addAndGet(toPurge.size());
+  }
+
+  public void purgeDependencies(final String metadataIdentificationString) {
+    final MetadataId deletedId = MetadataId.valueOf(metadataIdentificationString);
+    if (batchThread == Thread.currentThread()) {
+      // The batch's notifications may still travel along its dependencies
+      pendingPurges.add(deletedId);
+    } else {
+      purge(Collections.singleton(deletedId));
+    }
+  }
+
+  /**
+   * Re-orders the queued notifications if items were moved in the
+   * topological order since they were queued, for example by a dependency
+   * that a notified item registered while it was rebuilt.
+   */
+  private synchronized void refreshPendingNotifications() {
+    if (pendingReorders == reorders) {
+      return;
+    }
+    final List<PendingNotification> queued =
+        new ArrayList<PendingNotification>(pendingNotifications);
+    pendingNotifications.clear();
+    for (final PendingNotification notification : queued) {
+      pendingNotifications.add(new PendingNotification(notification.upstream,
+          notification.downstream, getTopologicalOrder(notification.downstream),
+          notification.viaClass));
+    }
+    pendingReorders = reorders;
+  }
+
+  public synchronized void registerDependency(final MetadataId upstreamDependency,
+      final MetadataId downstreamDependency) {
+    Validate.notNull(upstreamDependency, "Upstream dependency required");
+    Validate.notNull(downstreamDependency, "Downstream dependency required");
+    Validate.isTrue(upstreamDependency != downstreamDependency,
+        "Upstream dependency cannot be the same as the downstream dependency ('%s')",
         downstreamDependency);
 
+    Set<MetadataId> downstream = upstreamKeyed.get(upstreamDependency);
+    if (downstream != null && downstream.contains(downstreamDependency)) {
+      return;
+    }
+
+    // Maintain the topological order, which also detects cycles
+    setTopologicalOrderIfAbsent(upstreamDependency);
+    setTopologicalOrderIfAbsent(downstreamDependency);
+    final int upstreamOrder = getTopologicalOrder(upstreamDependency);
+    final int downstreamOrder = getTopologicalOrder(downstreamDependency);
+    if (upstreamOrder > downstreamOrder) {
+      final List<MetadataId> forward = new ArrayList<MetadataId>();
+      Validate.isTrue(
+          !collectForward(downstreamDependency, upstreamDependency, upstreamOrder, forward),
+          "Invalid dependency between upstream '%s' and downstream '%s'", upstreamDependency,
+          downstreamDependency);
+      final List<MetadataId> backward = new ArrayList<MetadataId>();
+      collectBackward(upstreamDependency, downstreamOrder, backward);
+      reorder(backward, forward);
+    }
+
     // Maintain the upstream-keyed map
-    Set<String> downstream = upstreamKeyed.get(upstreamDependency);
     if (downstream == null) {
-      downstream = new HashSet<String>();
+      downstream = new HashSet<MetadataId>();
       upstreamKeyed.put(upstreamDependency, downstream);
     }
     downstream.add(downstreamDependency);
 
     // Maintain the downstream-keyed map
-    Set<String> upstream = downstreamKeyed.get(downstreamDependency);
+    Set<MetadataId> upstream = downstreamKeyed.get(downstreamDependency);
     if (upstream == null) {
-      upstream = new HashSet<String>();
+      upstream = new HashSet<MetadataId>();
       downstreamKeyed.put(downstreamDependency, upstream);
     }
     upstream.add(upstreamDependency);
   }
 
+  public synchronized void registerDependency(final String upstreamDependency,
+      final String downstreamDependency) {
+    registerDependency(MetadataId.valueOf(upstreamDependency),
+        MetadataId.valueOf(downstreamDependency));
+  }
+
   public void removeNotificationListener(final MetadataNotificationListener listener) {
     Validate.notNull(listener, "Metadata notification listener required");
 
@@ -288,4 +780,110 @@ public class DefaultMetadataDependencyRegistry implements MetadataDependencyRegi
 
     listeners.remove(listener);
   }
+
+  /**
+   * Restores the topological order after adding an edge from the last item
+   * of the given backward region to the first item of the given forward
+   * region, by moving the backward region in front of the forward one within
+   * the positions both occupy (Pearce and Kelly's algorithm).
+   *
+   * @param backward the upstream items ordered after the new downstream
+   * @param forward the downstream items ordered before the new upstream
+   */
+  private void reorder(final List<MetadataId> backward, final List<MetadataId> forward) {
+    Collections.sort(backward, topologicalOrderComparator);
+    Collections.sort(forward, topologicalOrderComparator);
+    final int[] positions = new int[backward.size() + forward.size()];
+    int i = 0;
+    for (final MetadataId id : backward) {
+      positions[i++] = getTopologicalOrder(id);
+    }
+    for (final MetadataId id : forward) {
+      positions[i++] = getTopologicalOrder(id);
+    }
+    Arrays.sort(positions);
+    i = 0;
+    for (final MetadataId id : backward) {
+      topologicalOrder[id.getHandle()] = positions[i++];
+    }
+    for (final MetadataId id : forward) {
+      topologicalOrder[id.getHandle()] = positions[i++];
+    }
+    reorders++;
+  }
+
+  private void removeFromSet(final Map<MetadataId, Set<MetadataId>> map, final MetadataId key,
+      final MetadataId value) {
+    final Set<MetadataId> values = map.get(key);
+    if (values != null && values.remove(value) && values.isEmpty()) {
+      map.remove(key);
+      clearTopologicalOrderIfDetached(key);
+    }
+  }
+
+  private void setTopologicalOrderIfAbsent(final MetadataId id) {
+    final int handle = id.getHandle();
+    if (handle >= topologicalOrder.length) {
+      topologicalOrder =
+          Arrays.copyOf(topologicalOrder, Math.max(handle + 1, topologicalOrder.length * 2));
+    }
+    if (topologicalOrder[handle] == 0) {
+      topologicalOrder[handle] = nextTopologicalOrder++;
+    }
+  }
+
+  public void startNotificationBatch() {
+    if (batchThread == null) {
+      batchThread = Thread.currentThread();
+    } else {
+      Validate.validState(batchThread == Thread.currentThread(),
+          "A notification batch is already running on another thread");
+    }
+    batchDepth++;
+  }
+
+  public void stopNotificationBatch() {
+    Validate.validState(batchThread == Thread.currentThread() && batchDepth > 0,
+        "No notification batch is running on this thread");
+    if (batchDepth > 1) {
+      batchDepth--;
+      return;
+    }
+    try {
+      flushNotifications();
+      purge(pendingPurges);
+    } finally {
+      pendingPurges.clear();
+      batchDepth = 0;
+      batchThread = null;
+    }
+  }
+
+  @Override
+  public final String toString() {
+    final ToStringBuilder builder = new ToStringBuilder(this);
+    builder.append("notificationsDispatched", dispatchedNotifications);
+    builder.append("notificationsCoalesced", coalescedNotifications);
+    builder.append("metadataPurged", purgedMetadata);
+    return builder.toString().replaceFirst("@[0-9a-f]+", ":");
+  }
+
+  private Set<String> toStrings(final Set<MetadataId> ids) {
+    final Set<String> result = new HashSet<String>(ids.size() * 2);
+    for (final MetadataId id : ids) {
+      result.add(id.toString());
+    }
+    return result;
+  }
+
+  private void unmarkPending(final MetadataId upstreamDependency,
+      final MetadataId downstreamDependency) {
+    final Set<MetadataId> upstreams = pendingDownstreams.get(downstreamDependency);
+    if (upstreams != null) {
+      upstreams.remove(upstreamDependency);
+      if (upstreams.isEmpty() || downstreamDependency.isIdentifyingInstance()) {
+        pendingDownstreams.remove(downstreamDependency);
+      }
+    }
+  }
 }
@@ -0,0 +1,123 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A log-linear histogram of durations, in nanoseconds.
+ * <p>
+ * Each power of two is split into {@value #SUB_BUCKETS} equally wide buckets,
+ * so any percentile is reported to within about 6% of the recorded value,
+ * whatever its magnitude, in a fixed amount of memory. Recording a value
+ * takes no lock, so it can be done by any number of threads at once.
+ *
+ * @since 2.0
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  static int getBucket(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> exponent - SUB_BUCKET_BITS) & SUB_BUCKETS - 1;
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * Returns the highest value counted in the given bucket
+   */
+  static long getHighestValue(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong maximum = new AtomicLong();
+
+  /**
+   * Returns a copy of this histogram, which is unaffected by later changes to
+   * this one.
+   *
+   * @return a non-<code>null</code> histogram
+   */
+  public LatencyHistogram copy() {
+    final LatencyHistogram copy = new LatencyHistogram();
+    long copied = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      final long bucketCount = counts.get(i);
+      if (bucketCount > 0) {
+        copy.counts.set(i, bucketCount);
+        copied += bucketCount;
+      }
+    }
+    // Consistent with the copied buckets even if values are being recorded
+    copy.count.set(copied);
+    copy.maximum.set(maximum.get());
+    return copy;
+  }
+
+  /**
+   * @return the number of values recorded
+   */
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * @return the highest value recorded, or 0 if none was
+   */
+  public long getMaximum() {
+    return maximum.get();
+  }
+
+  /**
+   * Returns the value that the given percentage of the recorded values don't
+   * exceed.
+   *
+   * @param percentile the percentage (greater than 0 and at most 100)
+   * @return 0 if no value was recorded
+   */
+  public long getPercentile(final double percentile) {
+    Validate.isTrue(percentile > 0 && percentile <= 100, "Percentile must be in (0, 100]");
+    final long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(getHighestValue(i), maximum.get());
+      }
+    }
+    return maximum.get();
+  }
+
+  /**
+   * Records the given duration
+   *
+   * @param nanoseconds the duration (negative values count as 0)
+   */
+  public void record(final long nanoseconds) {
+    final long value = Math.max(nanoseconds, 0);
+    counts.incrementAndGet(getBucket(value));
+    count.incrementAndGet();
+    long currentMaximum = maximum.get();
+    while (value > currentMaximum && !maximum.compareAndSet(currentMaximum, value)) {
+      currentMaximum = maximum.get();
+    }
+  }
+}
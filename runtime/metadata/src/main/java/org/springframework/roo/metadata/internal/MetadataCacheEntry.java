@@ -0,0 +1,68 @@
+package org.springframework.roo.metadata.internal;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataId;
+import org.springframework.roo.metadata.MetadataItem;
+
+/**
+ * An item held by an {@link AbstractMetadataCache}, together with the
+ * figures a {@link MetadataEvictionPolicy} weighs it by.
+ *
+ * @since 2.0
+ */
+public final class MetadataCacheEntry {
+
+  private final MetadataId id;
+  private final MetadataItem item;
+  private final long rebuildCost;
+  private final long retainedBytes;
+  private final String statisticName;
+
+  /**
+   * Constructor
+   *
+   * @param id the interned ID of the item (required)
+   * @param item the cached item (required)
+   * @param statisticName the name the item is accounted under, typically its
+   *            provider class name (required)
+   * @param retainedBytes the estimated memory held by the item (zero or more)
+   * @param rebuildCost the estimated nanoseconds needed to recompute the item
+   *            (zero or more)
+   */
+  public MetadataCacheEntry(final MetadataId id, final MetadataItem item,
+      final String statisticName, final long retainedBytes, final long rebuildCost) {
+    Validate.notNull(id, "Metadata ID required");
+    Validate.notNull(item, "Metadata item required");
+    Validate.notBlank(statisticName, "Statistic name required");
+    Validate.isTrue(retainedBytes >= 0, "Retained bytes must be zero or more");
+    Validate.isTrue(rebuildCost >= 0, "Rebuild cost must be zero or more");
+    this.id = id;
+    this.item = item;
+    this.rebuildCost = rebuildCost;
+    this.retainedBytes = retainedBytes;
+    this.statisticName = statisticName;
+  }
+
+  /**
+   * @return the interned ID of the item
+   */
+  public MetadataId getId() {
+    return id;
+  }
+
+  public MetadataItem getItem() {
+    return item;
+  }
+
+  public long getRebuildCost() {
+    return rebuildCost;
+  }
+
+  public long getRetainedBytes() {
+    return retainedBytes;
+  }
+
+  public String getStatisticName() {
+    return statisticName;
+  }
+}
@@ -0,0 +1,50 @@
+package org.springframework.roo.metadata.internal;
+
+/**
+ * Decides which entry an {@link AbstractMetadataCache} gives up when it
+ * exceeds its capacity or memory bound.
+ * <p>
+ * The cache notifies the policy of every insertion, lookup hit and removal,
+ * and only calls it while holding its own monitor, so implementations need
+ * not be thread safe. Lookup hits are reported in batches, in the order they
+ * happened, and only for the entries still cached by then.
+ *
+ * @since 2.0
+ */
+public interface MetadataEvictionPolicy {
+
+  /**
+   * Forgets every entry.
+   */
+  void clear();
+
+  /**
+   * Records that the given cached entry has been looked up.
+   *
+   * @param entry the entry (never null; previously inserted)
+   */
+  void recordAccess(MetadataCacheEntry entry);
+
+  /**
+   * Records that the given entry has been added to the cache.
+   *
+   * @param entry the entry (never null)
+   */
+  void recordInsertion(MetadataCacheEntry entry);
+
+  /**
+   * Records that the given entry has left the cache, whether it was evicted
+   * by this policy or explicitly.
+   *
+   * @param entry the entry (never null; previously inserted)
+   */
+  void recordRemoval(MetadataCacheEntry entry);
+
+  /**
+   * Selects the entry to evict next. The cache then removes it and calls
+   * {@link #recordRemoval(MetadataCacheEntry)}.
+   *
+   * @return the entry, or <code>null</code> if the policy holds no entries
+   */
+  MetadataCacheEntry selectVictim();
+}
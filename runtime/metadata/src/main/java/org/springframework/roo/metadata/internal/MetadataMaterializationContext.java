@@ -0,0 +1,115 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * State of a thread that computes metadata on behalf of a parallel
+ * materialization.
+ * <p>
+ * Each worker thread of the materialization pool is bound to its own context
+ * while it computes metadata, which allows the metadata infrastructure to
+ * tell worker threads apart from the thread that coordinates the
+ * materialization (and that holds the metadata service mutex meanwhile).
+ * <p>
+ * Notifications raised by metadata computed on a worker thread are not
+ * dispatched in place; they are collected into a set shared by every worker
+ * of the same materialization and dispatched by the coordinating thread once
+ * the current wave has been computed.
+ *
+ * @since 2.0
+ */
+public final class MetadataMaterializationContext {
+
+  private static final ThreadLocal<MetadataMaterializationContext> CURRENT =
+      new ThreadLocal<MetadataMaterializationContext>();
+
+  /**
+   * Binds the given context to the current thread.
+   *
+   * @param context the context to bind (required)
+   */
+  public static void bind(final MetadataMaterializationContext context) {
+    Validate.notNull(context, "Materialization context required");
+    Validate.validState(CURRENT.get() == null,
+        "A materialization context is already bound to this thread");
+    CURRENT.set(context);
+  }
+
+  /**
+   * @return the context bound to the current thread, or <code>null</code> if
+   *         the current thread is not a materialization worker
+   */
+  public static MetadataMaterializationContext getCurrent() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Removes any context bound to the current thread.
+   */
+  public static void unbind() {
+    CURRENT.remove();
+  }
+
+  private final List<String> activeRequests = new ArrayList<String>();
+  private final Set<String> deferredNotifications;
+  private int heldProviderLocks = 0;
+
+  /**
+   * Constructor
+   *
+   * @param deferredNotifications the thread-safe set collecting the upstream
+   *            dependencies whose downstream notification was deferred
+   *            (required)
+   */
+  public MetadataMaterializationContext(final Set<String> deferredNotifications) {
+    Validate.notNull(deferredNotifications, "Deferred notifications set required");
+    this.deferredNotifications = deferredNotifications;
+  }
+
+  /**
+   * Records that downstream dependencies of the given metadata must be
+   * notified once the current wave has been computed.
+   *
+   * @param upstreamDependency the metadata that is generating the
+   *            notification (required)
+   */
+  public void deferNotification(final String upstreamDependency) {
+    Validate.notBlank(upstreamDependency, "Upstream dependency required");
+    deferredNotifications.add(upstreamDependency);
+  }
+
+  /**
+   * @return the metadata requests currently in progress on this thread, in
+   *         request order (never null)
+   */
+  public List<String> getActiveRequests() {
+    return activeRequests;
+  }
+
+  /**
+   * @return whether this thread currently holds the lock of any metadata
+   *         provider
+   */
+  public boolean isHoldingProviderLock() {
+    return heldProviderLocks > 0;
+  }
+
+  /**
+   * Records that this thread acquired a metadata provider lock.
+   */
+  public void providerLockAcquired() {
+    heldProviderLocks++;
+  }
+
+  /**
+   * Records that this thread released a metadata provider lock.
+   */
+  public void providerLockReleased() {
+    Validate.validState(heldProviderLocks > 0, "No metadata provider lock is held");
+    heldProviderLocks--;
+  }
+}
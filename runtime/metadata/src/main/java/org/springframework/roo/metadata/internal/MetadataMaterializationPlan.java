@@ -0,0 +1,181 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+
+/**
+ * Topological execution plan for a set of metadata instances that need to be
+ * (re)computed.
+ * <p>
+ * The plan orders the requested metadata identification strings into
+ * "waves" using the upstream edges held by a {@link MetadataDependencyRegistry}.
+ * Every item in a wave only depends (directly, via its metadata class or
+ * transitively through metadata that is not part of the plan) on items of
+ * earlier waves, so the items of a single wave can be computed independently
+ * of each other.
+ * <p>
+ * The registry never accepts circular dependencies, but if the graph changes
+ * while the plan is being built any item whose upstream dependencies cannot
+ * be resolved is placed in a final wave of its own.
+ *
+ * @since 2.0
+ */
+public class MetadataMaterializationPlan {
+
+  private final List<List<String>> waves = new ArrayList<List<String>>();
+
+  /**
+   * Constructor
+   *
+   * @param registry the registry to read the dependency graph from
+   *            (required)
+   * @param metadataIdentificationStrings the metadata instances to plan
+   *            (required, may be empty; duplicates are ignored)
+   */
+  public MetadataMaterializationPlan(final MetadataDependencyRegistry registry,
+      final Collection<String> metadataIdentificationStrings) {
+    Validate.notNull(registry, "Metadata dependency registry required");
+    Validate.notNull(metadataIdentificationStrings, "Metadata identification strings required");
+
+    final Set<String> planned = new LinkedHashSet<String>(metadataIdentificationStrings);
+    final Map<String, List<String>> plannedByClass = new HashMap<String, List<String>>();
+    for (final String mid : planned) {
+      Validate.isTrue(MetadataIdentificationUtils.isIdentifyingInstance(mid),
+          "Metadata identification string '%s' does not identify a metadata instance", mid);
+      final String classId = MetadataIdentificationUtils.getMetadataClassId(mid);
+      List<String> instances = plannedByClass.get(classId);
+      if (instances == null) {
+        instances = new ArrayList<String>();
+        plannedByClass.put(classId, instances);
+      }
+      instances.add(mid);
+    }
+
+    // key: planned MID, value: planned MIDs it must wait for
+    final Map<String, Set<String>> pendingUpstreams = new LinkedHashMap<String, Set<String>>();
+    // key: planned MID, value: planned MIDs waiting for it
+    final Map<String, List<String>> waitingDownstreams = new HashMap<String, List<String>>();
+    for (final String mid : planned) {
+      final Set<String> upstreams = getPlannedUpstreams(registry, planned, plannedByClass, mid);
+      pendingUpstreams.put(mid, upstreams);
+      for (final String upstream : upstreams) {
+        List<String> downstreams = waitingDownstreams.get(upstream);
+        if (downstreams == null) {
+          downstreams = new ArrayList<String>();
+          waitingDownstreams.put(upstream, downstreams);
+        }
+        downstreams.add(mid);
+      }
+    }
+
+    // Kahn's algorithm, one wave at a time
+    List<String> wave = new ArrayList<String>();
+    for (final Map.Entry<String, Set<String>> entry : pendingUpstreams.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        wave.add(entry.getKey());
+      }
+    }
+    int scheduled = 0;
+    while (!wave.isEmpty()) {
+      waves.add(Collections.unmodifiableList(wave));
+      scheduled += wave.size();
+      final List<String> nextWave = new ArrayList<String>();
+      for (final String mid : wave) {
+        pendingUpstreams.remove(mid);
+        final List<String> downstreams = waitingDownstreams.get(mid);
+        if (downstreams == null) {
+          continue;
+        }
+        for (final String downstream : downstreams) {
+          final Set<String> upstreams = pendingUpstreams.get(downstream);
+          if (upstreams != null && upstreams.remove(mid) && upstreams.isEmpty()) {
+            nextWave.add(downstream);
+          }
+        }
+      }
+      wave = nextWave;
+    }
+
+    if (scheduled < planned.size()) {
+      // Unresolvable ordering; compute whatever is left last
+      waves.add(Collections.unmodifiableList(new ArrayList<String>(pendingUpstreams.keySet())));
+    }
+  }
+
+  /**
+   * Finds the planned items the given item has to wait for. Upstream items
+   * that are not part of the plan are walked through, so an ordering
+   * constraint is not lost just because an intermediate item was not
+   * requested. An upstream metadata class stands for every planned instance
+   * of that class.
+   */
+  private Set<String> getPlannedUpstreams(final MetadataDependencyRegistry registry,
+      final Set<String> planned, final Map<String, List<String>> plannedByClass, final String mid) {
+    final Set<String> result = new LinkedHashSet<String>();
+    final Set<String> visited = new HashSet<String>();
+    final LinkedList<String> toVisit = new LinkedList<String>();
+    visited.add(mid);
+    addUpstreams(registry, mid, toVisit);
+    while (!toVisit.isEmpty()) {
+      final String upstream = toVisit.removeFirst();
+      if (!visited.add(upstream)) {
+        continue;
+      }
+      if (planned.contains(upstream)) {
+        result.add(upstream);
+      } else {
+        final List<String> instances = plannedByClass.get(upstream);
+        if (instances != null) {
+          for (final String instance : instances) {
+            if (!instance.equals(mid)) {
+              result.add(instance);
+            }
+          }
+        }
+        addUpstreams(registry, upstream, toVisit);
+      }
+    }
+    return result;
+  }
+
+  private void addUpstreams(final MetadataDependencyRegistry registry, final String mid,
+      final Collection<String> target) {
+    target.addAll(registry.getUpstream(mid));
+    // Class-level dependencies apply to every instance of the class
+    if (MetadataIdentificationUtils.isIdentifyingInstance(mid)) {
+      target.addAll(registry.getUpstream(MetadataIdentificationUtils.getMetadataClassId(mid)));
+    }
+  }
+
+  /**
+   * @return the waves of this plan, in execution order (never null; each wave
+   *         is non-empty and unmodifiable)
+   */
+  public List<List<String>> getWaves() {
+    return Collections.unmodifiableList(waves);
+  }
+
+  /**
+   * @return the number of metadata instances in this plan
+   */
+  public int size() {
+    int size = 0;
+    for (final List<String> wave : waves) {
+      size += wave.size();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,168 @@
+package org.springframework.roo.metadata.internal;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.roo.metadata.MetadataItem;
+
+/**
+ * Estimates the memory retained by a {@link MetadataItem}.
+ * <p>
+ * The estimate walks the object graph reachable from the item and adds up
+ * approximate shallow sizes (assuming a 64-bit JVM with compressed
+ * references). It is deliberately cheap rather than exact:
+ * <ul>
+ * <li>other metadata items reached from the item are not walked, as they are
+ * cached (and accounted) on their own;</li>
+ * <li>JDK collections and maps are walked through their public API, any
+ * other JDK object, enums and classes count as a single header;</li>
+ * <li>objects shared with other items are counted for each of them;</li>
+ * <li>the walk stops after a fixed number of objects.</li>
+ * </ul>
+ *
+ * @since 2.0
+ */
+public final class MetadataSizeEstimator {
+
+  private static final int ARRAY_HEADER = 16;
+  private static final int MAXIMUM_OBJECTS = 10000;
+  private static final int OBJECT_HEADER = 12;
+  private static final int REFERENCE = 4;
+
+  /** key: class; value: its non-static fields, including inherited ones */
+  private static final ConcurrentMap<Class<?>, List<Field>> FIELDS =
+      new ConcurrentHashMap<Class<?>, List<Field>>();
+  private static final List<Field> OPAQUE = new ArrayList<Field>();
+
+  private static long align(final long size) {
+    return (size + 7) / 8 * 8;
+  }
+
+  /**
+   * Estimates the memory retained by the given item.
+   *
+   * @param item the item to measure (required)
+   * @return the estimated number of bytes
+   */
+  public static long estimate(final MetadataItem item) {
+    final IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+    final LinkedList<Object> toVisit = new LinkedList<Object>();
+    toVisit.add(item);
+    long size = 0;
+    while (!toVisit.isEmpty() && visited.size() < MAXIMUM_OBJECTS) {
+      final Object current = toVisit.removeFirst();
+      if (current == null || visited.put(current, Boolean.TRUE) != null) {
+        continue;
+      }
+      if (current != item && current instanceof MetadataItem) {
+        continue;
+      }
+      try {
+        size += shallowSize(current, toVisit);
+      } catch (final RuntimeException ignored) {
+        // E.g. a collection modified while being walked
+      }
+    }
+    return size;
+  }
+
+  private static List<Field> getFields(final Class<?> type) {
+    List<Field> fields = FIELDS.get(type);
+    if (fields != null) {
+      return fields;
+    }
+    fields = new ArrayList<Field>();
+    try {
+      for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+        for (final Field field : current.getDeclaredFields()) {
+          if (!Modifier.isStatic(field.getModifiers())) {
+            field.setAccessible(true);
+            fields.add(field);
+          }
+        }
+      }
+    } catch (final RuntimeException e) {
+      // Typically a security or module access restriction
+      fields = OPAQUE;
+    }
+    FIELDS.putIfAbsent(type, fields);
+    return fields;
+  }
+
+  private static int primitiveSize(final Class<?> type) {
+    if (type == long.class || type == double.class) {
+      return 8;
+    }
+    if (type == int.class || type == float.class) {
+      return 4;
+    }
+    if (type == short.class || type == char.class) {
+      return 2;
+    }
+    return 1;
+  }
+
+  private static long shallowSize(final Object object, final Collection<Object> toVisit) {
+    final Class<?> type = object.getClass();
+    if (object instanceof String) {
+      return align(OBJECT_HEADER + 12) + align(ARRAY_HEADER + 2L * ((String) object).length());
+    }
+    if (type.isArray()) {
+      final int length = Array.getLength(object);
+      final Class<?> componentType = type.getComponentType();
+      if (componentType.isPrimitive()) {
+        return align(ARRAY_HEADER + (long) length * primitiveSize(componentType));
+      }
+      for (final Object element : (Object[]) object) {
+        toVisit.add(element);
+      }
+      return align(ARRAY_HEADER + (long) length * REFERENCE);
+    }
+    if (object instanceof Collection) {
+      final Collection<?> collection = (Collection<?>) object;
+      toVisit.addAll(collection);
+      // One node or slot per element
+      return align(OBJECT_HEADER + 4L * REFERENCE) + collection.size()
+          * align(OBJECT_HEADER + 3L * REFERENCE);
+    }
+    if (object instanceof Map) {
+      final Map<?, ?> map = (Map<?, ?>) object;
+      toVisit.addAll(map.keySet());
+      toVisit.addAll(map.values());
+      return align(OBJECT_HEADER + 4L * REFERENCE) + map.size()
+          * align(OBJECT_HEADER + 4L * REFERENCE);
+    }
+    if (type.isEnum() || object instanceof Class || type.getName().startsWith("java.")
+        || type.getName().startsWith("javax.")) {
+      return align(OBJECT_HEADER);
+    }
+
+    long size = OBJECT_HEADER;
+    for (final Field field : getFields(type)) {
+      if (field.getType().isPrimitive()) {
+        size += primitiveSize(field.getType());
+        continue;
+      }
+      size += REFERENCE;
+      try {
+        toVisit.add(field.get(object));
+      } catch (final IllegalAccessException ignored) {
+      }
+    }
+    return align(size);
+  }
+
+  /**
+   * Constructor is private to prevent instantiation
+   */
+  private MetadataSizeEstimator() {}
+}
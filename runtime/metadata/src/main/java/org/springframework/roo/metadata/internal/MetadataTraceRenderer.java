@@ -0,0 +1,93 @@
+package org.springframework.roo.metadata.internal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Renders a binary trace file written by {@link MetadataTraceWriter} as text,
+ * one line per message: the event number as (at least) eight hexadecimal
+ * digits, one space per nesting level of the event, and the message.
+ *
+ * @since 2.0
+ */
+public class MetadataTraceRenderer {
+
+  private static long readVarLong(final InputStream in) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed trace record");
+  }
+
+  /**
+   * Renders the given trace file. A record cut short at the end of the file
+   * (as it was still being written) is ignored.
+   *
+   * @param traceFile the binary trace file (required)
+   * @param target the writer to receive the lines (required; not closed)
+   * @return the number of lines rendered
+   * @throws IOException if the file can't be read or isn't a trace file
+   */
+  public long render(final File traceFile, final Writer target) throws IOException {
+    Validate.notNull(traceFile, "Trace file required");
+    Validate.notNull(target, "Target required");
+    final DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(traceFile)));
+    try {
+      final byte[] magic = new byte[MetadataTraceWriter.MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MetadataTraceWriter.MAGIC)
+          || in.readInt() != MetadataTraceWriter.VERSION) {
+        throw new IOException("'" + traceFile + "' is not a metadata trace file");
+      }
+      long lines = 0;
+      final StringBuilder sb = new StringBuilder();
+      while (true) {
+        final long eventNumber;
+        final int indentation;
+        final byte[] message;
+        try {
+          eventNumber = readVarLong(in);
+          indentation = in.readUnsignedByte();
+          message = new byte[(int) readVarLong(in)];
+          in.readFully(message);
+        } catch (final EOFException e) {
+          return lines;
+        }
+        sb.setLength(0);
+        final String hex = Long.toHexString(eventNumber);
+        for (int i = hex.length(); i < 8; i++) {
+          sb.append('0');
+        }
+        sb.append(hex);
+        for (int i = 0; i < indentation; i++) {
+          sb.append(' ');
+        }
+        sb.append(new String(message, MetadataTraceWriter.UTF_8));
+        // Unix line endings only from Roo
+        target.write(sb.append('\n').toString());
+        lines++;
+      }
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+}
@@ -0,0 +1,312 @@
+package org.springframework.roo.metadata.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.support.logging.HandlerUtils;
+
+/**
+ * Writes metadata trace messages to a binary trace file without making the
+ * threads that log them wait for the disk.
+ * <p>
+ * Logging threads claim a slot of a fixed-size ring buffer and publish their
+ * message into it; a background thread drains the buffer in claim order and
+ * writes the messages in batches through a {@link FileChannel}. Claiming and
+ * publishing a slot takes no lock. A logging thread only waits if the whole
+ * buffer is still waiting to be written, in which case it parks until the
+ * writer frees a slot.
+ * <p>
+ * If the trace file can't be opened or written, the failure is logged once
+ * and tracing is disabled: later messages are discarded and
+ * {@link #isEnabled()} returns <code>false</code>.
+ * <p>
+ * The trace file starts with {@link #MAGIC} and {@link #VERSION}, followed by
+ * one record per message: the event number and the message length as
+ * unsigned variable-length integers, the indentation as one byte, and the
+ * UTF-8 bytes of the message. {@link MetadataTraceRenderer} renders it as
+ * text.
+ *
+ * @since 2.0
+ */
+public class MetadataTraceWriter {
+
+  static final byte[] MAGIC = {'R', 'O', 'O', 'T', 'R', 'A', 'C', 'E'};
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+  static final int VERSION = 1;
+
+  private static final int BATCH_BYTES = 64 * 1024;
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final Logger LOGGER = HandlerUtils.getLogger(MetadataTraceWriter.class);
+
+  private final AtomicLong claimed = new AtomicLong();
+  private volatile boolean disabled;
+  private final long[] eventNumbers;
+  private final File file;
+  private final int[] indentations;
+  private final int mask;
+  private final String[] messages;
+  /** The sequence a slot expects next; one more once it is published */
+  private final AtomicLongArray sequences;
+  private volatile boolean stopped;
+  /** The logging threads parked until the writer frees a slot */
+  private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+  private volatile long written;
+  private volatile Thread writerThread;
+
+  /**
+   * Constructor
+   *
+   * @param file the trace file to write, which is overwritten (required)
+   * @param capacity the number of messages the ring buffer can hold (a
+   *            power of two)
+   */
+  public MetadataTraceWriter(final File file, final int capacity) {
+    Validate.notNull(file, "Trace file required");
+    Validate.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1,
+        "Capacity must be a power of two");
+    this.file = file;
+    eventNumbers = new long[capacity];
+    indentations = new int[capacity];
+    mask = capacity - 1;
+    messages = new String[capacity];
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Queues a message for writing, unless tracing is disabled.
+   *
+   * @param eventNumber the number of the event the message belongs to
+   * @param indentation the nesting level of that event
+   * @param message the message (required)
+   */
+  public void append(final long eventNumber, final int indentation, final String message) {
+    if (disabled) {
+      return;
+    }
+    if (writerThread == null) {
+      startWriter();
+    }
+    final long sequence = claimed.getAndIncrement();
+    final int index = (int) (sequence & mask);
+    if (sequences.get(index) != sequence) {
+      // The buffer is full
+      awaitSlot(index, sequence);
+      if (disabled) {
+        return;
+      }
+    }
+    eventNumbers[index] = eventNumber;
+    indentations[index] = indentation;
+    messages[index] = message;
+    sequences.set(index, sequence + 1);
+  }
+
+  private void awaitSlot(final int index, final long sequence) {
+    final Thread current = Thread.currentThread();
+    boolean interrupted = false;
+    waiters.add(current);
+    try {
+      // The writer wakes the waiters after freeing slots, so checking again
+      // after registering means no wake-up is missed
+      while (sequences.get(index) != sequence && !disabled) {
+        LockSupport.unpark(writerThread);
+        LockSupport.park(this);
+        // The claimed slot must still be published, or the writer would
+        // wait for it forever
+        interrupted |= Thread.interrupted();
+      }
+    } finally {
+      waiters.remove(current);
+      if (interrupted) {
+        current.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Stops the background thread once it has written the queued messages.
+   * Messages appended afterwards start a new trace file.
+   * <p>
+   * Callers must ensure no messages are being appended concurrently.
+   */
+  public synchronized void close() {
+    final Thread thread = writerThread;
+    if (thread == null) {
+      return;
+    }
+    stopped = true;
+    LockSupport.unpark(thread);
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writerThread = null;
+  }
+
+  private void disable(final IOException e) {
+    if (!disabled) {
+      disabled = true;
+      LOGGER.log(Level.WARNING, "Could not write the metadata trace to '" + file
+          + "'; metadata tracing is disabled", e);
+    }
+    wakeWaiters();
+  }
+
+  private void drain(final FileChannel channel) {
+    final ByteBuffer batch = ByteBuffer.allocate(BATCH_BYTES);
+    long next = written;
+    while (true) {
+      final int index = (int) (next & mask);
+      if (sequences.get(index) == next + 1) {
+        encode(channel, batch, eventNumbers[index], indentations[index], messages[index]);
+        messages[index] = null;
+        sequences.set(index, next + mask + 1);
+        next++;
+        if (batch.position() < BATCH_BYTES / 2) {
+          continue;
+        }
+      }
+      write(channel, batch);
+      written = next;
+      wakeWaiters();
+      if (disabled) {
+        return;
+      }
+      if (sequences.get((int) (next & mask)) != next + 1) {
+        if (stopped && claimed.get() == next) {
+          return;
+        }
+        LockSupport.parkNanos(this, IDLE_NANOS);
+      }
+    }
+  }
+
+  private void encode(final FileChannel channel, final ByteBuffer batch,
+      final long eventNumber, final int indentation, final String message) {
+    final byte[] bytes = message.getBytes(UTF_8);
+    if (batch.remaining() < bytes.length + 21) {
+      write(channel, batch);
+    }
+    ByteBuffer target = batch;
+    if (batch.remaining() < bytes.length + 21) {
+      // Too long to batch
+      target = ByteBuffer.allocate(bytes.length + 21);
+    }
+    putVarLong(target, eventNumber);
+    target.put((byte) Math.min(indentation, 255));
+    putVarLong(target, bytes.length);
+    target.put(bytes);
+    if (target != batch) {
+      write(channel, target);
+    }
+  }
+
+  /**
+   * Waits until the messages appended so far have been written to the trace
+   * file, or tracing has been disabled.
+   */
+  public void flush() {
+    final long target = claimed.get();
+    while (written < target && writerThread != null && !disabled) {
+      LockSupport.unpark(writerThread);
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+  }
+
+  /**
+   * @return the trace file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return <code>false</code> once writing the trace file has failed
+   */
+  public boolean isEnabled() {
+    return !disabled;
+  }
+
+  private static void putVarLong(final ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) (value & 0x7F | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void run() {
+    final FileChannel channel;
+    try {
+      channel =
+          FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING);
+    } catch (final IOException e) {
+      disable(e);
+      return;
+    }
+    try {
+      final ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+      header.put(MAGIC).putInt(VERSION);
+      write(channel, header);
+      if (!disabled) {
+        drain(channel);
+      }
+    } finally {
+      try {
+        channel.close();
+      } catch (final IOException ignore) {
+      }
+    }
+  }
+
+  private synchronized void startWriter() {
+    if (writerThread != null) {
+      return;
+    }
+    stopped = false;
+    final Thread thread = new Thread(new Runnable() {
+      public void run() {
+        MetadataTraceWriter.this.run();
+      }
+    }, "Metadata trace writer");
+    thread.setDaemon(true);
+    writerThread = thread;
+    thread.start();
+  }
+
+  private void wakeWaiters() {
+    for (final Thread waiter : waiters) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  private void write(final FileChannel channel, final ByteBuffer buffer) {
+    buffer.flip();
+    try {
+      while (!disabled && buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (final IOException e) {
+      disable(e);
+    }
+    buffer.clear();
+  }
+}
@@ -0,0 +1,137 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataId;
+
+/**
+ * Cost-aware segmented LRU {@link MetadataEvictionPolicy}.
+ * <p>
+ * New entries enter a "probation" segment; an entry that is looked up again
+ * while cached is promoted to a "protected" segment, which is limited to a
+ * share of all entries and demotes its least recently used entries back to
+ * probation when full. Items that are only requested once, such as those
+ * computed during a full project scan, therefore cannot flush the items
+ * commands keep asking for.
+ * <p>
+ * Victims are taken from probation (or from protected once probation is
+ * empty). Rather than strictly evicting the least recently used entry, the
+ * policy samples the least recently used few and evicts the one that is
+ * cheapest to rebuild per retained byte, so large items that are quick to
+ * recompute go before small items that are expensive to recompute. Sampled
+ * entries spared that way are moved behind the more recent ones.
+ *
+ * @since 2.0
+ */
+public class SegmentedLruEvictionPolicy implements MetadataEvictionPolicy {
+
+  private static final float DEFAULT_PROTECTED_RATIO = 0.8f;
+  private static final int DEFAULT_SAMPLE_SIZE = 4;
+
+  // Both segments are kept in least to most recently used order
+  private final LinkedHashMap<MetadataId, MetadataCacheEntry> probation =
+      new LinkedHashMap<MetadataId, MetadataCacheEntry>();
+  private final LinkedHashMap<MetadataId, MetadataCacheEntry> protectedSegment =
+      new LinkedHashMap<MetadataId, MetadataCacheEntry>();
+  private final float protectedRatio;
+  private final int sampleSize;
+
+  /**
+   * Constructor for a policy protecting up to 80% of the entries and
+   * sampling four victim candidates
+   */
+  public SegmentedLruEvictionPolicy() {
+    this(DEFAULT_PROTECTED_RATIO, DEFAULT_SAMPLE_SIZE);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param protectedRatio the maximum share of entries held by the protected
+   *            segment (between 0 and 1)
+   * @param sampleSize the number of least recently used entries compared
+   *            when choosing a victim (1 or more; 1 means plain segmented
+   *            LRU)
+   */
+  public SegmentedLruEvictionPolicy(final float protectedRatio, final int sampleSize) {
+    Validate.isTrue(protectedRatio >= 0 && protectedRatio <= 1,
+        "Protected ratio must be between 0 and 1");
+    Validate.isTrue(sampleSize > 0, "Sample size must be 1 or more");
+    this.protectedRatio = protectedRatio;
+    this.sampleSize = sampleSize;
+  }
+
+  public void clear() {
+    probation.clear();
+    protectedSegment.clear();
+  }
+
+  public void recordAccess(final MetadataCacheEntry entry) {
+    final MetadataId id = entry.getId();
+    if (protectedSegment.remove(id) == null && probation.remove(id) == null) {
+      return;
+    }
+    protectedSegment.put(id, entry);
+
+    // Demote the least recently used protected entries if needed
+    final int maxProtected = (int) ((probation.size() + protectedSegment.size()) * protectedRatio);
+    final Iterator<MetadataCacheEntry> iterator = protectedSegment.values().iterator();
+    while (protectedSegment.size() > Math.max(maxProtected, 1) && iterator.hasNext()) {
+      final MetadataCacheEntry demoted = iterator.next();
+      iterator.remove();
+      probation.put(demoted.getId(), demoted);
+    }
+  }
+
+  public void recordInsertion(final MetadataCacheEntry entry) {
+    protectedSegment.remove(entry.getId());
+    probation.remove(entry.getId());
+    probation.put(entry.getId(), entry);
+  }
+
+  public void recordRemoval(final MetadataCacheEntry entry) {
+    if (probation.remove(entry.getId()) == null) {
+      protectedSegment.remove(entry.getId());
+    }
+  }
+
+  public MetadataCacheEntry selectVictim() {
+    final Map<MetadataId, MetadataCacheEntry> segment =
+        probation.isEmpty() ? protectedSegment : probation;
+    final List<MetadataCacheEntry> candidates = new ArrayList<MetadataCacheEntry>(sampleSize);
+    for (final MetadataCacheEntry candidate : segment.values()) {
+      if (candidates.size() == sampleSize) {
+        break;
+      }
+      candidates.add(candidate);
+    }
+    int victimIndex = -1;
+    double victimValue = 0;
+    for (int i = 0; i < candidates.size(); i++) {
+      final MetadataCacheEntry candidate = candidates.get(i);
+      final double value =
+          (double) candidate.getRebuildCost() / Math.max(candidate.getRetainedBytes(), 1);
+      // Strictly less, so ties go to the least recently used candidate
+      if (victimIndex < 0 || value < victimValue) {
+        victimIndex = i;
+        victimValue = value;
+      }
+    }
+    if (victimIndex < 0) {
+      return null;
+    }
+    // Spared candidates older than the victim get a second chance, otherwise
+    // they would fill the sample and be evicted by plain LRU order after all
+    for (int i = 0; i < victimIndex; i++) {
+      final MetadataCacheEntry spared = candidates.get(i);
+      segment.remove(spared.getId());
+      segment.put(spared.getId(), spared);
+    }
+    return candidates.get(victimIndex);
+  }
+}
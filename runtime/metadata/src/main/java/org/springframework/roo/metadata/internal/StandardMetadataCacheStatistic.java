@@ -0,0 +1,107 @@
+package org.springframework.roo.metadata.internal;
+
+import java.util.Locale;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.metadata.MetadataCacheStatistic;
+
+/**
+ * Standard implementation of {@link MetadataCacheStatistic}.
+ *
+ * @since 2.0
+ */
+public class StandardMetadataCacheStatistic implements MetadataCacheStatistic {
+
+  private static final long BYTES_IN_KILOBYTE = 1024L;
+
+  private final int entries;
+  private final long evictions;
+  private final long hits;
+  private final long misses;
+  private final String name;
+  private final long retainedBytes;
+
+  /**
+   * Constructor
+   *
+   * @param name (required)
+   * @param hits (zero or more)
+   * @param misses (zero or more)
+   * @param evictions (zero or more)
+   * @param entries (zero or more)
+   * @param retainedBytes (zero or more)
+   */
+  public StandardMetadataCacheStatistic(final String name, final long hits, final long misses,
+      final long evictions, final int entries, final long retainedBytes) {
+    Validate.notBlank(name, "Name required");
+    Validate.isTrue(hits >= 0, "Hits must be zero or more");
+    Validate.isTrue(misses >= 0, "Misses must be zero or more");
+    Validate.isTrue(evictions >= 0, "Evictions must be zero or more");
+    Validate.isTrue(entries >= 0, "Entries must be zero or more");
+    Validate.isTrue(retainedBytes >= 0, "Retained bytes must be zero or more");
+    this.entries = entries;
+    this.evictions = evictions;
+    this.hits = hits;
+    this.misses = misses;
+    this.name = name;
+    this.retainedBytes = retainedBytes;
+  }
+
+  public int compareTo(final MetadataCacheStatistic o) {
+    int result = Long.valueOf(retainedBytes).compareTo(o.getRetainedBytes());
+    if (result == 0) {
+      result = name.compareTo(o.getName());
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return obj instanceof MetadataCacheStatistic && compareTo((MetadataCacheStatistic) obj) == 0;
+  }
+
+  public int getEntries() {
+    return entries;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public double getHitRatio() {
+    final long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getRetainedBytes() {
+    return retainedBytes;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.valueOf(retainedBytes).hashCode() * name.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format(Locale.ENGLISH, "%5.1f", getHitRatio() * 100)).append("% hits; ");
+    sb.append(String.format("%8d", retainedBytes / BYTES_IN_KILOBYTE)).append(" KB in ");
+    sb.append(String.format("%5d", entries)).append(" item(s); ");
+    sb.append(String.format("%5d", evictions)).append(" eviction(s): ");
+    sb.append(name);
+    return sb.toString();
+  }
+}
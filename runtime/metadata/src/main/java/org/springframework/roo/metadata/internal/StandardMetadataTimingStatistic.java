@@ -20,6 +20,7 @@ public class StandardMetadataTimingStatistic implements MetadataTimingStatistic
       + (String.valueOf(NANOSECONDS_IN_MILLISECOND).length() - 1) + "d";
 
   private final long invocations;
+  private final LatencyHistogram latencies;
   private final String name;
   private final long nanoseconds;
 
@@ -32,10 +33,26 @@ public class StandardMetadataTimingStatistic implements MetadataTimingStatistic
    */
   public StandardMetadataTimingStatistic(final String name, final long nanoseconds,
       final long invocations) {
+    this(name, nanoseconds, invocations, null);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param name (required)
+   * @param nanoseconds the elasped time in nanoseconds (zero or more)
+   * @param invocations (zero or more)
+   * @param latencies the distribution of the invocation times (can be
+   *            <code>null</code> if unknown; not modified afterwards)
+   * @since 2.0
+   */
+  public StandardMetadataTimingStatistic(final String name, final long nanoseconds,
+      final long invocations, final LatencyHistogram latencies) {
     Validate.notBlank(name, "Name required");
     Validate.isTrue(invocations >= 0, "Invocations must be zero or more");
     Validate.isTrue(nanoseconds >= 0, "Nanoseconds must be zero or more");
     this.invocations = invocations;
+    this.latencies = latencies;
     this.name = name;
     this.nanoseconds = nanoseconds;
   }
@@ -60,10 +77,18 @@ public class StandardMetadataTimingStatistic implements MetadataTimingStatistic
     return invocations;
   }
 
+  public long getMaximum() {
+    return latencies == null ? 0 : latencies.getMaximum();
+  }
+
   public String getName() {
     return name;
   }
 
+  public long getPercentile(final double percentile) {
+    return latencies == null ? 0 : latencies.getPercentile(percentile);
+  }
+
   public long getTime() {
     return nanoseconds;
   }
@@ -1,16 +1,461 @@
 package org.springframework.roo.metadata;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
+import org.springframework.roo.metadata.internal.DefaultMetadataDependencyRegistry;
 
 public class DefaultMetadataServiceTest {
 
+  /**
+   * A fake project of {@link #TYPES} governors. Every governor has physical,
+   * entity, repository and controller metadata; the entity depends on the
+   * physical type of its governor and of its governor's parent, the
+   * repository on the physical type of its governor, the controller on the
+   * entity. Each provider "writes an ITD" per item into {@link #itds}. Only
+   * the physical provider declares itself thread-safe.
+   */
+  private static class TestProject {
+
+    final Map<String, String> itds = Collections.synchronizedMap(new TreeMap<String, String>());
+    final AtomicInteger concurrentProviderEntries = new AtomicInteger();
+    final AtomicInteger concurrentUnsafeEntries = new AtomicInteger();
+    // The thread running a provider that isn't thread-safe, if any
+    final AtomicReference<Thread> unsafeThread = new AtomicReference<Thread>();
+    final DefaultMetadataLogger logger = new DefaultMetadataLogger();
+    final DefaultMetadataDependencyRegistry registry = new DefaultMetadataDependencyRegistry() {
+      {
+        metadataLogger = logger;
+      }
+    };
+    final DefaultMetadataService service = new DefaultMetadataService() {
+      {
+        bindMetadataLogger(logger);
+      }
+
+      @Override
+      protected MetadataDependencyRegistry getMetadataDependencyRegistry() {
+        return registry;
+      }
+    };
+
+    TestProject(final boolean parallel) {
+      registry.addNotificationListener(service);
+      service.setParallelMaterialization(parallel);
+      service.bindMetadataProvider(new ThreadSafeTestProvider(this, PHYSICAL, null));
+      service.bindMetadataProvider(new TestProvider(this, ENTITY, PHYSICAL));
+      service.bindMetadataProvider(new TestProvider(this, REPOSITORY, PHYSICAL));
+      service.bindMetadataProvider(new TestProvider(this, CONTROLLER, ENTITY));
+    }
+
+    Map<String, String> materializeTwice(final List<String> mids) {
+      service.materialize(mids);
+      // The second pass is planned from the graph built by the first one
+      service.evictAll();
+      itds.clear();
+      service.materialize(mids);
+      return itds;
+    }
+  }
+
+  /**
+   * A thread-safe provider whose items can only be computed once another
+   * thread reached the same barrier.
+   */
+  private static class BarrierProvider implements ThreadSafeMetadataProvider {
+
+    private final CyclicBarrier barrier;
+    private final AtomicInteger passed;
+    private final String providesType;
+
+    BarrierProvider(final String providesType, final CyclicBarrier barrier,
+        final AtomicInteger passed) {
+      this.barrier = barrier;
+      this.passed = passed;
+      this.providesType = providesType;
+    }
+
+    public MetadataItem get(final String metadataIdentificationString) {
+      try {
+        // Lets the pool add a thread meanwhile, even on a single processor
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+          private boolean released;
+
+          public boolean block() throws InterruptedException {
+            try {
+              barrier.await(10, TimeUnit.SECONDS);
+              passed.incrementAndGet();
+            } catch (final BrokenBarrierException e) {
+              // Left for the test to detect
+            } catch (final TimeoutException e) {
+              // Left for the test to detect
+            }
+            released = true;
+            return true;
+          }
+
+          public boolean isReleasable() {
+            return released;
+          }
+        });
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new TestItem(metadataIdentificationString, providesType);
+    }
+
+    public String getProvidesType() {
+      return MetadataIdentificationUtils.create(providesType);
+    }
+  }
+
+  /**
+   * Computes items only once the test releases it.
+   */
+  private static class SlowProvider implements MetadataProvider {
+
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    public MetadataItem get(final String metadataIdentificationString) {
+      entered.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return new TestItem(metadataIdentificationString, "slow");
+    }
+
+    public String getProvidesType() {
+      return MetadataIdentificationUtils.create(SLOW);
+    }
+  }
+
+  private static class TestItem extends AbstractMetadataItem {
+
+    final String content;
+
+    TestItem(final String id, final String content) {
+      super(id);
+      this.content = content;
+    }
+  }
+
+  private static class TestProvider implements MetadataProvider {
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Only notify downstreams on change, as AbstractHashCodeTrackingMetadataNotifier
+    private final Map<String, String> notified = new HashMap<String, String>();
+    private final TestProject project;
+    private final String providesType;
+    private final String upstreamType;
+
+    TestProvider(final TestProject project, final String providesType, final String upstreamType) {
+      this.project = project;
+      this.providesType = providesType;
+      this.upstreamType = upstreamType;
+    }
+
+    public MetadataItem get(final String metadataIdentificationString) {
+      if (inFlight.incrementAndGet() > 1) {
+        project.concurrentProviderEntries.incrementAndGet();
+      }
+      // Nested calls on the same thread don't count
+      final boolean outermostUnsafe =
+          !(this instanceof ThreadSafeMetadataProvider)
+              && project.unsafeThread.compareAndSet(null, Thread.currentThread());
+      if (!(this instanceof ThreadSafeMetadataProvider) && !outermostUnsafe
+          && project.unsafeThread.get() != Thread.currentThread()) {
+        project.concurrentUnsafeEntries.incrementAndGet();
+      }
+      try {
+        project.registry.deregisterDependencies(metadataIdentificationString);
+        final int governor =
+            Integer.parseInt(MetadataIdentificationUtils
+                .getMetadataInstance(metadataIdentificationString));
+        final StringBuilder content = new StringBuilder(providesType).append(governor);
+        if (upstreamType != null) {
+          appendUpstream(content, metadataIdentificationString, governor);
+          if (ENTITY.equals(providesType) && governor % 10 != 0) {
+            appendUpstream(content, metadataIdentificationString, governor - governor % 10);
+          }
+        }
+        project.itds.put(metadataIdentificationString, content.toString());
+        if (!content.toString().equals(
+            notified.put(metadataIdentificationString, content.toString()))) {
+          project.service.put(new TestItem(metadataIdentificationString, content.toString()));
+          project.registry.notifyDownstream(metadataIdentificationString);
+        }
+        return new TestItem(metadataIdentificationString, content.toString());
+      } finally {
+        if (outermostUnsafe) {
+          project.unsafeThread.set(null);
+        }
+        inFlight.decrementAndGet();
+      }
+    }
+
+    private void appendUpstream(final StringBuilder content, final String downstream,
+        final int governor) {
+      final String upstream = mid(upstreamType, governor);
+      project.registry.registerDependency(upstream, downstream);
+      final TestItem upstreamItem = project.service.get(upstream);
+      content.append('[').append(upstreamItem == null ? "?" : upstreamItem.content).append(']');
+    }
+
+    public String getProvidesType() {
+      return MetadataIdentificationUtils.create(providesType);
+    }
+  }
+
+  private static class ThreadSafeTestProvider extends TestProvider implements
+      ThreadSafeMetadataProvider {
+
+    ThreadSafeTestProvider(final TestProject project, final String providesType,
+        final String upstreamType) {
+      super(project, providesType, upstreamType);
+    }
+  }
+
+  private static final String BARRIER_A = "test.BarrierA";
+  private static final String BARRIER_B = "test.BarrierB";
+  private static final String CONTROLLER = "test.Controller";
+  private static final String ENTITY = "test.Entity";
+  private static final String PHYSICAL = "test.Physical";
+  private static final String REPOSITORY = "test.Repository";
+  private static final String SLOW = "test.Slow";
+  private static final int TYPES = 200;
+
   private static final String TO_STRING_FOR_NEW_INSTANCE =
       "org.springframework.roo.metadata.DefaultMetadataService:" + "[validGets=0,"
           + "recursiveGets=0," + "cachePuts=0," + "cacheHits=0," + "cacheMisses=0,"
           + "cacheEvictions=0," + "cacheCurrentSize=0," + "cacheMaximumSize=100000]";
 
+  private static String mid(final String metadataClass, final int governor) {
+    return MetadataIdentificationUtils.create(metadataClass, String.valueOf(governor));
+  }
+
+  private static List<String> getProjectMids() {
+    final List<String> mids = new ArrayList<String>();
+    for (int i = 0; i < TYPES; i++) {
+      mids.add(mid(PHYSICAL, i));
+      mids.add(mid(ENTITY, i));
+      mids.add(mid(REPOSITORY, i));
+      mids.add(mid(CONTROLLER, i));
+    }
+    Collections.shuffle(mids, new Random(42));
+    return mids;
+  }
+
+  private static Callable<MetadataItem> get(final MetadataService service, final String mid) {
+    return new Callable<MetadataItem>() {
+      public MetadataItem call() {
+        return service.get(mid);
+      }
+    };
+  }
+
+  private static Callable<MetadataItem> getIfCached(final MetadataService service,
+      final String mid) {
+    return new Callable<MetadataItem>() {
+      public MetadataItem call() {
+        return service.getIfCached(mid);
+      }
+    };
+  }
+
+  @Test
+  public void testConcurrentReadersSeeOnlyCompleteItemsOfSingleWriter() throws Exception {
+    // Set up
+    final TestProject project = new TestProject(false);
+    final List<String> mids = getProjectMids();
+    project.service.materialize(mids);
+    final Map<String, String> expected = new HashMap<String, String>(project.itds);
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    final ExecutorService executor = Executors.newFixedThreadPool(5);
+
+    try {
+      // Invoke
+      final List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < 4; i++) {
+        final Random random = new Random(i);
+        readers.add(executor.submit(new Callable<Integer>() {
+          public Integer call() {
+            int reads = 0;
+            while (writing.get() || reads == 0) {
+              final String mid = mids.get(random.nextInt(mids.size()));
+              final TestItem item = project.service.get(mid);
+              assertEquals(mid, expected.get(mid), item.content);
+              reads++;
+            }
+            return reads;
+          }
+        }));
+      }
+      final Random random = new Random(42);
+      for (int i = 0; i < 500; i++) {
+        final String mid = mids.get(random.nextInt(mids.size()));
+        final TestItem item = project.service.evictAndGet(mid);
+        assertEquals(mid, expected.get(mid), item.content);
+      }
+      writing.set(false);
+
+      // Check
+      for (final Future<Integer> reader : readers) {
+        assertTrue(reader.get(30, TimeUnit.SECONDS) > 0);
+      }
+      assertEquals(0, project.concurrentProviderEntries.get());
+    } finally {
+      writing.set(false);
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFlushedNotificationBatchRegeneratesNotifiedItems() {
+    // Set up
+    final List<String> mids = getProjectMids();
+    final TestProject project = new TestProject(true);
+    project.service.materialize(mids);
+    final Map<String, String> expected = new HashMap<String, String>(project.itds);
+
+    // Invoke
+    project.registry.startNotificationBatch();
+    for (int i = 0; i < TYPES; i += 7) {
+      project.registry.notifyDownstream(mid(PHYSICAL, i));
+    }
+    project.registry.stopNotificationBatch();
+
+    // Check
+    assertEquals(0, project.concurrentUnsafeEntries.get());
+    assertEquals(expected, project.itds);
+    for (final String mid : mids) {
+      assertNotNull(mid, project.service.getIfCached(mid));
+    }
+  }
+
+  @Test
+  public void testGetAllReturnsSameItemsAsGet() {
+    final List<String> mids = getProjectMids();
+    final TestProject project = new TestProject(false);
+    final Map<String, MetadataItem> items = new TestProject(false).service.getAll(mids);
+
+    assertEquals(mids, new ArrayList<String>(items.keySet()));
+    for (final String mid : mids) {
+      final TestItem item = project.service.get(mid);
+      assertEquals(mid, item.content, ((TestItem) items.get(mid)).content);
+    }
+  }
+
+  @Test
+  public void testGetIfCachedDoesNotWaitForWriter() throws Exception {
+    // Set up
+    final TestProject project = new TestProject(false);
+    final SlowProvider slowProvider = new SlowProvider();
+    project.service.bindMetadataProvider(slowProvider);
+    final String cachedMid = mid(PHYSICAL, 1);
+    final String slowMid = mid(SLOW, 1);
+    assertNotNull(project.service.get(cachedMid));
+    assertNull(project.service.getIfCached(slowMid));
+    final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    try {
+      final Future<MetadataItem> writer = executor.submit(get(project.service, slowMid));
+      assertTrue(slowProvider.entered.await(10, TimeUnit.SECONDS));
+
+      // Invoke
+      final Future<MetadataItem> reader = executor.submit(get(project.service, cachedMid));
+      final Future<MetadataItem> observer =
+          executor.submit(getIfCached(project.service, cachedMid));
+
+      // Check
+      assertNotNull(observer.get(10, TimeUnit.SECONDS));
+      assertNull(project.service.getIfCached(slowMid));
+      try {
+        reader.get(200, TimeUnit.MILLISECONDS);
+        fail("Read while metadata was being computed");
+      } catch (final TimeoutException expected) {
+        // Expected
+      }
+      slowProvider.release.countDown();
+      assertNotNull(reader.get(10, TimeUnit.SECONDS));
+      assertNotNull(writer.get(10, TimeUnit.SECONDS));
+      assertNotNull(project.service.getIfCached(slowMid));
+    } finally {
+      slowProvider.release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testParallelMaterializationWritesSameItdsAsSequential()
+      throws UnsupportedEncodingException {
+    final List<String> mids = getProjectMids();
+    final Map<String, String> expected = new TestProject(false).materializeTwice(mids);
+    final TestProject parallelProject = new TestProject(true);
+    final Map<String, String> actual = parallelProject.materializeTwice(mids);
+
+    assertEquals(0, parallelProject.concurrentProviderEntries.get());
+    assertEquals(0, parallelProject.concurrentUnsafeEntries.get());
+    assertEquals(expected.keySet(), actual.keySet());
+    for (final Map.Entry<String, String> itd : expected.entrySet()) {
+      assertArrayEquals(itd.getKey(), itd.getValue().getBytes("UTF-8"), actual.get(itd.getKey())
+          .getBytes("UTF-8"));
+    }
+    for (final String mid : mids) {
+      assertNotNull(mid, parallelProject.service.get(mid));
+    }
+  }
+
+  @Test
+  public void testThreadSafeProvidersRunConcurrently() {
+    // Set up
+    final TestProject project = new TestProject(true);
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    final AtomicInteger passed = new AtomicInteger();
+    project.service.bindMetadataProvider(new BarrierProvider(BARRIER_A, barrier, passed));
+    project.service.bindMetadataProvider(new BarrierProvider(BARRIER_B, barrier, passed));
+    final List<String> mids = Arrays.asList(mid(BARRIER_A, 1), mid(BARRIER_B, 1));
+
+    // Invoke
+    project.service.materialize(mids);
+
+    // Check
+    assertEquals("Providers didn't run at the same time", 2, passed.get());
+    for (final String mid : mids) {
+      assertNotNull(mid, project.service.getIfCached(mid));
+    }
+  }
+
   @Test
   public void testToStringOfNewInstance() {
     assertEquals(TO_STRING_FOR_NEW_INSTANCE, new DefaultMetadataService().toString());
@@ -0,0 +1,51 @@
+package org.springframework.roo.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link MetadataFingerprintBuilder}
+ *
+ * @since 2.0
+ */
+public class MetadataFingerprintBuilderTest {
+
+  @Test
+  public void testEqualValuesHaveEqualFingerprints() {
+    final MetadataFingerprint fingerprint =
+        new MetadataFingerprintBuilder().append("a").append(1).append(true).build();
+
+    assertEquals(fingerprint, new MetadataFingerprintBuilder().append("a").append(1)
+        .append(true).build());
+    assertEquals(32, fingerprint.toString().length());
+  }
+
+  @Test
+  public void testNullAndEmptyStringsDiffer() {
+    final MetadataFingerprint nullString =
+        new MetadataFingerprintBuilder().append((String) null).build();
+
+    assertFalse(nullString.equals(new MetadataFingerprintBuilder().append("").build()));
+  }
+
+  @Test
+  public void testValueBoundariesAndTypesAreSignificant() {
+    final MetadataFingerprint abC = new MetadataFingerprintBuilder().append("ab").append("c").build();
+    final MetadataFingerprint int1 = new MetadataFingerprintBuilder().append(1).build();
+
+    assertFalse(abC.equals(new MetadataFingerprintBuilder().append("a").append("bc").build()));
+    assertFalse(int1.equals(new MetadataFingerprintBuilder().append(1L).build()));
+  }
+
+  @Test
+  public void testNestedFingerprints() {
+    final MetadataFingerprint nested = new MetadataFingerprintBuilder().append("x").build();
+
+    assertEquals(new MetadataFingerprintBuilder().append(nested).build(),
+        new MetadataFingerprintBuilder().append(nested).build());
+    assertFalse(new MetadataFingerprintBuilder().append(nested).build()
+        .equals(new MetadataFingerprintBuilder().append("x").build()));
+  }
+}
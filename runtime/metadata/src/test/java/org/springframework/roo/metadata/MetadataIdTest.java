@@ -0,0 +1,58 @@
+package org.springframework.roo.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link MetadataId}
+ */
+public class MetadataIdTest {
+
+  private static final String INSTANCE_ID = MetadataIdentificationUtils.create("com.Foo", "bar");
+
+  @Test
+  public void testClassId() {
+    final MetadataId instance = MetadataId.valueOf(INSTANCE_ID);
+    final MetadataId classId = instance.getClassId();
+
+    assertEquals(MetadataIdentificationUtils.getMetadataClassId(INSTANCE_ID), classId.toString());
+    assertSame(classId, classId.getClassId());
+    assertTrue(classId.isIdentifyingClass());
+    assertFalse(classId.isIdentifyingInstance());
+    assertTrue(instance.isIdentifyingInstance());
+    assertEquals("com.Foo", instance.getMetadataClass());
+    assertEquals("com.Foo", classId.getMetadataClass());
+    assertEquals("bar", instance.getMetadataInstance());
+    assertNull(classId.getMetadataInstance());
+  }
+
+  @Test
+  public void testInterning() {
+    final MetadataId id = MetadataId.valueOf(INSTANCE_ID);
+
+    assertSame(id, MetadataId.valueOf(new String(INSTANCE_ID)));
+    assertSame(id, MetadataId.forHandle(id.getHandle()));
+    assertEquals(id.getHandle(), id.hashCode());
+    assertEquals(INSTANCE_ID, id.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidId() {
+    MetadataId.valueOf("com.Foo#bar");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullId() {
+    assertNull(MetadataId.valueOf(null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownHandle() {
+    MetadataId.forHandle(Integer.MAX_VALUE);
+  }
+}
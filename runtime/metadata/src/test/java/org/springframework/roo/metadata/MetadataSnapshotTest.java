@@ -0,0 +1,103 @@
+package org.springframework.roo.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.springframework.roo.metadata.internal.DefaultMetadataDependencyRegistry;
+
+/**
+ * Unit test of {@link MetadataSnapshot}
+ */
+public class MetadataSnapshotTest {
+
+  private static final String ENVIRONMENT = "org.example.addon;1.0.0";
+  private static final String ENTITY = MetadataIdentificationUtils.create("test.Entity", "Person");
+  private static final String PHYSICAL = MetadataIdentificationUtils.create("test.Physical",
+      "Person");
+  private static final String SOURCE = "/project/src/main/java/Person.java";
+
+  private MetadataSnapshot newSnapshot() {
+    final Map<String, Set<String>> dependencies = new HashMap<String, Set<String>>();
+    dependencies.put(PHYSICAL, Collections.singleton(ENTITY));
+    return new MetadataSnapshot(ENVIRONMENT, dependencies, Collections.singletonMap(SOURCE,
+        "0123abcd"));
+  }
+
+  private byte[] write(final MetadataSnapshot snapshot) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    snapshot.write(out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    final MetadataSnapshot snapshot =
+        MetadataSnapshot.read(new ByteArrayInputStream(write(newSnapshot())), ENVIRONMENT);
+
+    assertNotNull(snapshot);
+    assertEquals(ENVIRONMENT, snapshot.getEnvironment());
+    assertEquals(Collections.singleton(ENTITY), snapshot.getDependencies().get(PHYSICAL));
+    assertEquals("0123abcd", snapshot.getSourceHash(SOURCE));
+    assertNull(snapshot.getSourceHash("/project/src/main/java/Other.java"));
+  }
+
+  @Test
+  public void testRejectsOtherEnvironment() throws IOException {
+    assertNull(MetadataSnapshot.read(new ByteArrayInputStream(write(newSnapshot())),
+        "org.example.addon;1.0.1"));
+  }
+
+  @Test
+  public void testRejectsOtherFormatVersion() throws IOException {
+    final byte[] bytes = write(newSnapshot());
+    // Overwrite the format version that follows the magic number
+    final ByteArrayOutputStream header = new ByteArrayOutputStream();
+    final DataOutputStream data = new DataOutputStream(header);
+    data.writeInt(MetadataSnapshot.FORMAT_VERSION + 1);
+    System.arraycopy(header.toByteArray(), 0, bytes, 4, 4);
+
+    assertNull(MetadataSnapshot.read(new ByteArrayInputStream(bytes), ENVIRONMENT));
+  }
+
+  @Test
+  public void testRejectsOtherContent() throws IOException {
+    assertNull(MetadataSnapshot.read(
+        new ByteArrayInputStream("not a snapshot".getBytes("UTF-8")), ENVIRONMENT));
+  }
+
+  @Test
+  public void testRestoreDependencies() {
+    final DefaultMetadataDependencyRegistry registry = new DefaultMetadataDependencyRegistry();
+    registry.registerDependency(PHYSICAL, ENTITY);
+    final Map<String, Set<String>> expected = registry.getDependencies();
+
+    final DefaultMetadataDependencyRegistry restored = new DefaultMetadataDependencyRegistry();
+    assertEquals(1, new MetadataSnapshot(ENVIRONMENT, expected, new HashMap<String, String>())
+        .restoreDependencies(restored));
+    assertEquals(expected, restored.getDependencies());
+  }
+
+  @Test
+  public void testRestoreSkipsCircularDependencies() {
+    final DefaultMetadataDependencyRegistry registry = new DefaultMetadataDependencyRegistry();
+    registry.registerDependency(ENTITY, PHYSICAL);
+
+    assertEquals(0, newSnapshot().restoreDependencies(registry));
+    assertTrue(registry.getDownstream(PHYSICAL).isEmpty());
+    assertEquals(new HashSet<String>(Collections.singleton(PHYSICAL)),
+        registry.getDownstream(ENTITY));
+  }
+}
@@ -0,0 +1,224 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.roo.metadata.AbstractMetadataItem;
+import org.springframework.roo.metadata.MetadataCacheStatistic;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataItem;
+
+/**
+ * Unit test of {@link AbstractMetadataCache} and its default
+ * {@link SegmentedLruEvictionPolicy}
+ */
+public class AbstractMetadataCacheTest {
+
+  private static final String CHEAP = "test.Cheap";
+  private static final String EXPENSIVE = "test.Expensive";
+
+  private static class TestCache extends AbstractMetadataCache {
+
+    /** key: statistic name; value: rebuild cost */
+    final Map<String, Long> costs = new HashMap<String, Long>();
+    boolean estimatedWhileLocked;
+
+    @Override
+    protected long estimateRetainedBytes(final MetadataItem metadataItem) {
+      estimatedWhileLocked |= Thread.holdsLock(this);
+      return 1000;
+    }
+
+    @Override
+    protected long getRebuildCost(final String statisticName) {
+      final Long cost = costs.get(statisticName);
+      return cost == null ? 1 : cost;
+    }
+  }
+
+  private static class TestItem extends AbstractMetadataItem {
+
+    TestItem(final String id) {
+      super(id);
+    }
+  }
+
+  private static String mid(final String metadataClass, final int instance) {
+    return MetadataIdentificationUtils.create(metadataClass, String.valueOf(instance));
+  }
+
+  private TestCache cache;
+
+  private MetadataCacheStatistic getStatistic(final String name) {
+    for (final MetadataCacheStatistic statistic : cache.getCacheStatistics()) {
+      if (statistic.getName().equals(name)) {
+        return statistic;
+      }
+    }
+    return null;
+  }
+
+  private void put(final String metadataClass, final int from, final int to) {
+    for (int i = from; i < to; i++) {
+      cache.put(new TestItem(mid(metadataClass, i)));
+    }
+  }
+
+  @Before
+  public void setUp() {
+    cache = new TestCache();
+  }
+
+  @Test
+  public void testCapacityBound() {
+    cache.setMaxCapacity(100);
+    cache.setMaxRetainedBytes(Long.MAX_VALUE);
+    put(CHEAP, 0, 150);
+
+    assertEquals(100, cache.getCacheSize());
+    assertEquals(100 * 1000, cache.getRetainedBytes());
+    assertEquals(50, getStatistic(CHEAP).getEvictions());
+    // The most recent items survive
+    assertNotNull(cache.getFromCache(mid(CHEAP, 149)));
+  }
+
+  @Test
+  public void testRetainedBytesBound() {
+    cache.setMaxRetainedBytes(20 * 1000);
+    put(CHEAP, 0, 30);
+
+    assertEquals(20, cache.getCacheSize());
+    assertEquals(20 * 1000, cache.getRetainedBytes());
+    assertEquals(10, getStatistic(CHEAP).getEvictions());
+  }
+
+  @Test
+  public void testRetainedBytesBoundSetAfterInserts() {
+    put(CHEAP, 0, 30);
+    assertEquals(30 * 1000, cache.getRetainedBytes());
+
+    cache.setMaxRetainedBytes(20 * 1000);
+
+    assertEquals(20, cache.getCacheSize());
+    assertEquals(20 * 1000, cache.getRetainedBytes());
+    assertEquals(10, getStatistic(CHEAP).getEvictions());
+    assertFalse(cache.estimatedWhileLocked);
+  }
+
+  @Test
+  public void testFrequentlyUsedItemsSurviveAScan() {
+    cache.setMaxCapacity(100);
+    put(CHEAP, 0, 50);
+    // Up to 80% of the items can be protected
+    for (int i = 0; i < 40; i++) {
+      assertNotNull(cache.getFromCache(mid(CHEAP, i)));
+    }
+    // Items requested only once must not flush the protected ones
+    put(CHEAP, 1000, 1200);
+
+    for (int i = 0; i < 40; i++) {
+      assertNotNull(cache.getFromCache(mid(CHEAP, i)));
+    }
+  }
+
+  @Test
+  public void testCheapItemsAreEvictedFirst() {
+    cache.costs.put(CHEAP, 10L);
+    cache.costs.put(EXPENSIVE, 1000000L);
+    cache.setMaxCapacity(100);
+    // Interleave, so every sample holds both kinds of items
+    for (int i = 0; i < 100; i++) {
+      cache.put(new TestItem(mid(i % 2 == 0 ? EXPENSIVE : CHEAP, i)));
+    }
+    put(CHEAP, 1000, 1020);
+
+    assertEquals(0, getStatistic(EXPENSIVE).getEvictions());
+    assertEquals(20, getStatistic(CHEAP).getEvictions());
+    assertEquals(50, getStatistic(EXPENSIVE).getEntries());
+  }
+
+  @Test
+  public void testHitRatioAndEviction() {
+    cache.setMaxRetainedBytes(Long.MAX_VALUE);
+    put(CHEAP, 0, 2);
+    cache.getFromCache(mid(CHEAP, 0));
+    cache.getFromCache(mid(CHEAP, 1));
+    cache.getFromCache(mid(CHEAP, 2));
+    cache.getFromCache(mid(CHEAP, 3));
+    cache.evict(mid(CHEAP, 0));
+
+    final MetadataCacheStatistic statistic = getStatistic(CHEAP);
+    assertEquals(2, statistic.getHits());
+    assertEquals(2, statistic.getMisses());
+    assertEquals(0.5, statistic.getHitRatio(), 0.0001);
+    // Explicit evictions are not counted
+    assertEquals(0, statistic.getEvictions());
+    assertEquals(1, statistic.getEntries());
+    assertEquals(1000, statistic.getRetainedBytes());
+    assertNull(cache.getFromCache(mid(CHEAP, 0)));
+
+    cache.evictAll();
+    assertEquals(0, getStatistic(CHEAP).getRetainedBytes());
+    assertEquals(0, cache.getCacheSize());
+  }
+
+  @Test
+  public void testHitsDontWaitForTheCacheLock() throws Exception {
+    put(CHEAP, 0, 1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      synchronized (cache) {
+        final Future<?> reads = executor.submit(new Runnable() {
+          public void run() {
+            for (int i = 0; i < 10; i++) {
+              assertNotNull(cache.getFromCache(mid(CHEAP, 0)));
+            }
+          }
+        });
+        reads.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // The hits are still accounted for
+    assertEquals(10, getStatistic(CHEAP).getHits());
+  }
+
+  @Test
+  public void testReplacingAnItemKeepsAccountsStraight() {
+    cache.setMaxRetainedBytes(Long.MAX_VALUE);
+    put(CHEAP, 0, 1);
+    put(CHEAP, 0, 1);
+
+    assertEquals(1, cache.getCacheSize());
+    assertEquals(1000, cache.getRetainedBytes());
+    assertEquals(1, getStatistic(CHEAP).getEntries());
+  }
+
+  @Test
+  public void testSizeEstimatorCountsContent() {
+    final MetadataItem small = new TestItem(mid(CHEAP, 1));
+    final MetadataItem large = new TestItem(mid(CHEAP, 1)) {
+      @SuppressWarnings("unused")
+      private final String content = new String(new char[10000]);
+    };
+
+    assertTrue(MetadataSizeEstimator.estimate(small) > 0);
+    assertTrue(MetadataSizeEstimator.estimate(large) > MetadataSizeEstimator.estimate(small)
+        + 20000);
+  }
+}
@@ -1,9 +1,24 @@
 package org.springframework.roo.metadata.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
+import org.springframework.roo.metadata.AbstractMetadataItem;
+import org.springframework.roo.metadata.DefaultMetadataLogger;
+import org.springframework.roo.metadata.DefaultMetadataService;
+import org.springframework.roo.metadata.MetadataId;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.metadata.MetadataItem;
 
 public class DefaultMetadataDependencyRegistryTest {
 
@@ -53,4 +68,424 @@ public class DefaultMetadataDependencyRegistryTest {
     Assert.assertEquals(0, reg.getDownstream(JAVA_TYPE_PERSON).size());
     Assert.assertEquals(2, reg.getDownstream(MVC_CONTROLLER).size());
   }
+
+  @Test
+  public void testNotificationFanOut() {
+    final Map<String, Integer> notifications = new HashMap<String, Integer>();
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry() {
+      {
+        metadataLogger = new DefaultMetadataLogger();
+      }
+    };
+    reg.addNotificationListener(new DefaultMetadataService() {
+      @Override
+      public void notify(final String upstreamDependency, final String downstreamDependency) {
+        final Integer count = notifications.get(downstreamDependency);
+        notifications.put(downstreamDependency, count == null ? 1 : count + 1);
+      }
+    });
+
+    // One upstream with 10,000 instance-level downstreams, half of which also
+    // registered for notifications about the upstream's whole class
+    final String upstream = MetadataIdentificationUtils.create("com.Upstream", "root");
+    final String upstreamClass = MetadataIdentificationUtils.getMetadataClassId(upstream);
+    for (int i = 0; i < 10000; i++) {
+      final String downstream =
+          MetadataIdentificationUtils.create("com.Downstream" + i % 10, String.valueOf(i));
+      reg.registerDependency(upstream, downstream);
+      if (i % 2 == 0) {
+        reg.registerDependency(upstreamClass, downstream);
+      }
+    }
+    final String classOnly = MetadataIdentificationUtils.create("com.Downstream", "class only");
+    reg.registerDependency(upstreamClass, classOnly);
+
+    reg.notifyDownstream(upstream);
+
+    // Every downstream is notified exactly once
+    Assert.assertEquals(10001, notifications.size());
+    for (final Integer count : notifications.values()) {
+      Assert.assertEquals(1, count.intValue());
+    }
+    Assert.assertEquals(10000, reg.getDownstream(MetadataId.valueOf(upstream)).size());
+  }
+
+  @Test
+  public void testTypedAndStringApisShareTheGraph() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+
+    reg.registerDependency(MetadataId.valueOf(DISK_FILE), MetadataId.valueOf(JAVA_TYPE_OBJECT));
+    reg.registerDependency(JAVA_TYPE_OBJECT, JAVA_TYPE_PERSON);
+
+    Assert.assertTrue(reg.getDownstream(DISK_FILE).contains(JAVA_TYPE_OBJECT));
+    Assert.assertTrue(reg.getUpstream(MetadataId.valueOf(JAVA_TYPE_PERSON)).contains(
+        MetadataId.valueOf(JAVA_TYPE_OBJECT)));
+    Assert.assertFalse(reg.isValidDependency(JAVA_TYPE_PERSON, DISK_FILE));
+    Assert.assertEquals(2, reg.getDependencies().size());
+  }
+
+  private static boolean isReachable(final DefaultMetadataDependencyRegistry reg,
+      final String from, final String to) {
+    final Set<String> visited = new HashSet<String>();
+    final List<String> toVisit = new ArrayList<String>(Arrays.asList(from));
+    while (!toVisit.isEmpty()) {
+      final String current = toVisit.remove(toVisit.size() - 1);
+      if (current.equals(to)) {
+        return true;
+      }
+      if (visited.add(current)) {
+        toVisit.addAll(reg.getDownstream(current));
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testCycleDetectionAfterReordering() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+
+    // Registered against the order in which the items became known
+    reg.registerDependency(JSP_PAGE_1, JSP_PAGE_2);
+    reg.registerDependency(MVC_CONTROLLER, JSP_PAGE_1);
+    reg.registerDependency(JAVA_TYPE_PERSON, MVC_CONTROLLER);
+    reg.registerDependency(DISK_FILE, JAVA_TYPE_PERSON);
+
+    Assert.assertFalse(reg.isValidDependency(JSP_PAGE_2, DISK_FILE));
+    Assert.assertFalse(reg.isValidDependency(JSP_PAGE_1, JAVA_TYPE_PERSON));
+    Assert.assertTrue(reg.isValidDependency(DISK_FILE, JSP_PAGE_2));
+    try {
+      reg.registerDependency(JSP_PAGE_2, MVC_CONTROLLER);
+      Assert.fail("Circular dependency accepted");
+    } catch (final IllegalArgumentException expected) {
+    }
+    Assert.assertTrue(reg.getDownstream(JSP_PAGE_2).isEmpty());
+
+    // Once the path is broken, the reverse dependency becomes legal
+    reg.deregisterDependency(MVC_CONTROLLER, JSP_PAGE_1);
+    Assert.assertTrue(reg.isValidDependency(JSP_PAGE_2, MVC_CONTROLLER));
+    reg.registerDependency(JSP_PAGE_2, MVC_CONTROLLER);
+    Assert.assertFalse(reg.isValidDependency(MVC_CONTROLLER, JSP_PAGE_1));
+  }
+
+  @Test
+  public void testCycleDetectionMatchesReachability() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+    final Random random = new Random(42);
+    final String[] mids = new String[60];
+    for (int i = 0; i < mids.length; i++) {
+      mids[i] = MetadataIdentificationUtils.create("com.Random", String.valueOf(i));
+    }
+
+    for (int i = 0; i < 2000; i++) {
+      final String upstream = mids[random.nextInt(mids.length)];
+      final String downstream = mids[random.nextInt(mids.length)];
+      if (upstream.equals(downstream)) {
+        continue;
+      }
+      if (random.nextInt(4) == 0) {
+        reg.deregisterDependency(upstream, downstream);
+        continue;
+      }
+      final boolean valid = !isReachable(reg, downstream, upstream);
+      Assert.assertEquals(valid, reg.isValidDependency(upstream, downstream));
+      if (valid) {
+        reg.registerDependency(upstream, downstream);
+      }
+    }
+  }
+
+  @Test
+  public void testTransitiveDownstream() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+    final String page = MetadataIdentificationUtils.create("com.Page", "page");
+    final String otherPage = MetadataIdentificationUtils.create("com.Page", "other");
+    final String pageClass = MetadataIdentificationUtils.getMetadataClassId(page);
+
+    reg.registerDependency(DISK_FILE, JAVA_TYPE_OBJECT);
+    reg.registerDependency(JAVA_TYPE_OBJECT, MVC_CONTROLLER);
+    reg.registerDependency(MVC_CONTROLLER, page);
+    reg.registerDependency(JAVA_TYPE_PERSON, JSP_PAGE_2);
+    // Notified about any page
+    reg.registerDependency(pageClass, otherPage);
+
+    Assert.assertEquals(
+        new ArrayList<String>(Arrays.asList(JAVA_TYPE_OBJECT, MVC_CONTROLLER, page, otherPage)),
+        new ArrayList<String>(reg.getTransitiveDownstream(DISK_FILE)));
+    Assert.assertEquals(1, reg.getTransitiveDownstream(JAVA_TYPE_PERSON).size());
+    // Not notified about itself
+    Assert.assertTrue(reg.getTransitiveDownstream(otherPage).isEmpty());
+  }
+
+  /**
+   * Creates a registry whose metadata service records the notifications it
+   * receives and, like {@link DefaultMetadataService} does for providers
+   * that don't listen to notifications, notifies further downstream.
+   */
+  private static DefaultMetadataDependencyRegistry newRecordingRegistry(
+      final List<String> notifications) {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry() {
+      {
+        metadataLogger = new DefaultMetadataLogger();
+      }
+    };
+    reg.addNotificationListener(new DefaultMetadataService() {
+      @Override
+      public void notify(final String upstreamDependency, final String downstreamDependency) {
+        notifications.add(upstreamDependency + " -> " + downstreamDependency);
+        if (MetadataIdentificationUtils.isIdentifyingInstance(downstreamDependency)) {
+          reg.notifyDownstream(downstreamDependency);
+        }
+      }
+    });
+    return reg;
+  }
+
+  @Test
+  public void testNotificationBatchCoalescesDownstreams() {
+    final List<String> notifications = new ArrayList<String>();
+    final DefaultMetadataDependencyRegistry reg = newRecordingRegistry(notifications);
+    // The controller depends on both types directly and through the person
+    reg.registerDependency(JAVA_TYPE_PERSON, MVC_CONTROLLER);
+    reg.registerDependency(JAVA_TYPE_OBJECT, MVC_CONTROLLER);
+    reg.registerDependency(JAVA_TYPE_OBJECT, JAVA_TYPE_PERSON);
+    reg.registerDependency(MVC_CONTROLLER, JSP_PAGE_1);
+
+    reg.notifyDownstream(JAVA_TYPE_OBJECT);
+    reg.notifyDownstream(JAVA_TYPE_PERSON);
+    final int unbatched = notifications.size();
+    notifications.clear();
+
+    reg.startNotificationBatch();
+    reg.notifyDownstream(JAVA_TYPE_OBJECT);
+    reg.notifyDownstream(JAVA_TYPE_PERSON);
+    Assert.assertTrue(notifications.isEmpty());
+    reg.stopNotificationBatch();
+
+    // Each downstream is rebuilt once, after its upstreams
+    Assert.assertEquals(Arrays.asList(JAVA_TYPE_OBJECT + " -> " + JAVA_TYPE_PERSON,
+        JAVA_TYPE_OBJECT + " -> " + MVC_CONTROLLER, MVC_CONTROLLER + " -> " + JSP_PAGE_1),
+        notifications);
+    Assert.assertEquals(7, unbatched);
+    Assert.assertTrue(reg.toString().contains("notificationsCoalesced=2"));
+  }
+
+  @Test
+  public void testDiscardedNotificationBatchDispatchesNothing() {
+    final List<String> notifications = new ArrayList<String>();
+    final DefaultMetadataDependencyRegistry reg = newRecordingRegistry(notifications);
+    final String physicalType = MetadataIdentificationUtils.create("com.Physical", "Person");
+    reg.registerDependency(physicalType, MVC_CONTROLLER);
+
+    reg.startNotificationBatch();
+    reg.startNotificationBatch();
+    reg.notifyDownstream(physicalType);
+    reg.purgeDependencies(physicalType);
+    reg.discardNotificationBatch();
+    reg.discardNotificationBatch();
+
+    Assert.assertTrue(notifications.isEmpty());
+    // The deleted item may have been restored, so it keeps its dependencies
+    Assert.assertEquals(1, reg.getDownstream(physicalType).size());
+    // The next batch starts afresh
+    reg.startNotificationBatch();
+    reg.stopNotificationBatch();
+    Assert.assertTrue(notifications.isEmpty());
+  }
+
+  @Test
+  public void testNotificationBatchFollowsOrderChangedWhileDispatching() {
+    final List<String> notifications = new ArrayList<String>();
+    final String entity = MetadataIdentificationUtils.create("com.Entity", "Person");
+    final String repository = MetadataIdentificationUtils.create("com.Repository", "Person");
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry() {
+      {
+        metadataLogger = new DefaultMetadataLogger();
+      }
+    };
+    reg.addNotificationListener(new DefaultMetadataService() {
+      @Override
+      public void notify(final String upstreamDependency, final String downstreamDependency) {
+        notifications.add(upstreamDependency + " -> " + downstreamDependency);
+        if (JSP_PAGE_1.equals(downstreamDependency)) {
+          // Moves the entity in front of the controller
+          reg.registerDependency(entity, MVC_CONTROLLER);
+        }
+        reg.notifyDownstream(downstreamDependency);
+      }
+    });
+    reg.registerDependency(JAVA_TYPE_OBJECT, JSP_PAGE_1);
+    reg.registerDependency(JAVA_TYPE_OBJECT, MVC_CONTROLLER);
+    reg.registerDependency(JAVA_TYPE_OBJECT, entity);
+    reg.registerDependency(repository, entity);
+
+    reg.startNotificationBatch();
+    reg.notifyDownstream(JAVA_TYPE_OBJECT);
+    reg.stopNotificationBatch();
+
+    // The controller is rebuilt once, after the entity it now depends on
+    Assert.assertEquals(Arrays.asList(JAVA_TYPE_OBJECT + " -> " + JSP_PAGE_1, JAVA_TYPE_OBJECT
+        + " -> " + entity, JAVA_TYPE_OBJECT + " -> " + MVC_CONTROLLER), notifications);
+  }
+
+  @Test
+  public void testNotificationBatchKeepsClassLevelNotificationsPerUpstream() {
+    final List<String> notifications = new ArrayList<String>();
+    final DefaultMetadataDependencyRegistry reg = newRecordingRegistry(notifications);
+    final String itdClass = MetadataIdentificationUtils.create("com.Itd");
+    reg.registerDependency(MetadataIdentificationUtils.getMetadataClassId(JAVA_TYPE_OBJECT),
+        itdClass);
+
+    reg.startNotificationBatch();
+    reg.startNotificationBatch();
+    reg.notifyDownstream(JAVA_TYPE_OBJECT);
+    reg.notifyDownstream(JAVA_TYPE_PERSON);
+    reg.notifyDownstream(JAVA_TYPE_PERSON);
+    reg.stopNotificationBatch();
+    // Still queued by the outer batch
+    Assert.assertTrue(notifications.isEmpty());
+    reg.stopNotificationBatch();
+
+    Assert.assertEquals(Arrays.asList(JAVA_TYPE_OBJECT + " -> " + itdClass, JAVA_TYPE_PERSON
+        + " -> " + itdClass), notifications);
+  }
+
+  @Test
+  public void testPurgeIsDeferredUntilBatchNotificationsAreDispatched() {
+    final List<String> notifications = new ArrayList<String>();
+    final DefaultMetadataDependencyRegistry reg = newRecordingRegistry(notifications);
+    final String physicalType = MetadataIdentificationUtils.create("com.Physical", "Person");
+    final String itd = MetadataIdentificationUtils.create("com.Itd", "Person");
+    final String otherItd = MetadataIdentificationUtils.create("com.Itd", "Order");
+    reg.registerDependency(JAVA_TYPE_OBJECT, physicalType);
+    reg.registerDependency(physicalType, itd);
+    reg.registerDependency(physicalType, otherItd);
+    reg.registerDependency(itd, JSP_PAGE_1);
+
+    reg.startNotificationBatch();
+    reg.notifyDownstream(physicalType);
+    reg.purgeDependencies(physicalType);
+    Assert.assertEquals(2, reg.getDownstream(physicalType).size());
+    reg.stopNotificationBatch();
+
+    Assert.assertTrue(notifications.contains(physicalType + " -> " + itd));
+    Assert.assertTrue(notifications.contains(itd + " -> " + JSP_PAGE_1));
+    // The deleted type and its ITD no longer depend on anything, but the
+    // items of other types still depend on them
+    Assert.assertTrue(reg.getUpstream(physicalType).isEmpty());
+    Assert.assertTrue(reg.getUpstream(itd).isEmpty());
+    Assert.assertEquals(Collections.singleton(otherItd), reg.getDownstream(physicalType));
+    Assert.assertEquals(Collections.singleton(JSP_PAGE_1), reg.getDownstream(itd));
+    Assert.assertTrue(reg.toString().contains("metadataPurged=2"));
+
+    // They go once those items are rebuilt
+    reg.deregisterDependencies(otherItd);
+    reg.deregisterDependencies(JSP_PAGE_1);
+    Assert.assertEquals(0, reg.getRegisteredCount());
+  }
+
+  @Test
+  public void testPurgeKeepsDependentsOfItemsThatMayBeRecreated() {
+    final List<String> notifications = new ArrayList<String>();
+    final DefaultMetadataDependencyRegistry reg = newRecordingRegistry(notifications);
+    final String physicalType = MetadataIdentificationUtils.create("com.Physical", "Person");
+    final String subclassItd = MetadataIdentificationUtils.create("com.Itd", "Employee");
+    reg.registerDependency(JAVA_TYPE_OBJECT, physicalType);
+    reg.registerDependency(physicalType, subclassItd);
+
+    reg.purgeDependencies(physicalType);
+    // The type is created again
+    reg.notifyDownstream(physicalType);
+
+    Assert.assertEquals(Arrays.asList(physicalType + " -> " + subclassItd), notifications);
+  }
+
+  @Test
+  public void testPurgeKeepsRecreatedItems() {
+    final String physicalType = MetadataIdentificationUtils.create("com.Physical", "Person");
+    final String itd = MetadataIdentificationUtils.create("com.Itd", "Person");
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+    reg.addNotificationListener(new DefaultMetadataService() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public <T extends MetadataItem> T getIfCached(final String metadataIdentificationString) {
+        if (!physicalType.equals(metadataIdentificationString)) {
+          return null;
+        }
+        return (T) new AbstractMetadataItem(metadataIdentificationString) {};
+      }
+    });
+    reg.registerDependency(physicalType, itd);
+
+    reg.purgeDependencies(physicalType);
+
+    Assert.assertEquals(Collections.singleton(itd), reg.getDownstream(physicalType));
+  }
+
+  @Test
+  public void testRegistryStaysBoundedAcrossCreateDeleteCycles() throws InterruptedException {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry() {
+      {
+        metadataLogger = new DefaultMetadataLogger();
+      }
+    };
+    reg.registerDependency(DISK_FILE, JAVA_TYPE_OBJECT);
+    final int baseline = reg.getRegisteredCount();
+    // Release the IDs left behind by other tests, whose handles would
+    // otherwise push those of this test up
+    awaitReleased(100);
+    // IDs still held elsewhere, e.g. by other test classes of the same run
+    final int internedBaseline = MetadataId.getInternedCount();
+    int firstHandles = 0;
+    int maxHandle = 0;
+
+    // Every cycle creates a type under a new name, as a rename does
+    for (int i = 0; i < 10000; i++) {
+      final String physicalType = MetadataIdentificationUtils.create("com.Physical", "Type" + i);
+      final String itd = MetadataIdentificationUtils.create("com.Itd", "Type" + i);
+      reg.registerDependency(JAVA_TYPE_OBJECT, physicalType);
+      reg.registerDependency(physicalType, itd);
+      reg.registerDependency(itd, MVC_CONTROLLER);
+      maxHandle =
+          Math.max(maxHandle, Math.max(MetadataId.valueOf(physicalType).getHandle(), MetadataId
+              .valueOf(itd).getHandle()));
+
+      if (i % 2 == 0) {
+        reg.startNotificationBatch();
+        reg.notifyDownstream(physicalType);
+        reg.purgeDependencies(physicalType);
+        reg.stopNotificationBatch();
+        // The controller is rebuilt once notified
+        reg.deregisterDependencies(MVC_CONTROLLER);
+      } else {
+        // Rebuilt items drop their dependencies one by one
+        reg.deregisterDependencies(MVC_CONTROLLER);
+        reg.deregisterDependencies(itd);
+        reg.deregisterDependencies(physicalType);
+      }
+      Assert.assertEquals(baseline, reg.getRegisteredCount());
+
+      if (i % 1000 == 999) {
+        // The IDs of the deleted types are released...
+        awaitReleased(internedBaseline + 1000);
+        Assert.assertTrue(MetadataId.getInternedCount() <= internedBaseline + 1000);
+        // ...and their handles reused, whereas the 20,000 IDs created would
+        // need as many new handles otherwise; the handles held by other
+        // tests only shift them all up
+        if (i == 999) {
+          firstHandles = maxHandle;
+        }
+        Assert.assertTrue(maxHandle < firstHandles + 10000);
+        Assert.assertTrue(reg.getTopologicalOrderCapacity() < 2 * (firstHandles + 10000));
+      }
+    }
+  }
+
+  private static void awaitReleased(final int maximumInterned) throws InterruptedException {
+    for (int attempt = 0; attempt < 50 && MetadataId.getInternedCount() > maximumInterned;
+        attempt++) {
+      System.gc();
+      // Collected IDs are enqueued for release asynchronously
+      Thread.sleep(10);
+    }
+  }
 }
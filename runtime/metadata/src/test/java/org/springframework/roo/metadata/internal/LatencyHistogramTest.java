@@ -0,0 +1,64 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit test of {@link LatencyHistogram}
+ *
+ * @since 2.0
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsCoverEveryValue() {
+    for (final long value : new long[] {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789L,
+        Long.MAX_VALUE}) {
+      final int bucket = LatencyHistogram.getBucket(value);
+      assertTrue(value + " above its bucket", value <= LatencyHistogram.getHighestValue(bucket));
+      if (bucket > 0) {
+        assertTrue(value + " below its bucket",
+            value > LatencyHistogram.getHighestValue(bucket - 1));
+      }
+    }
+  }
+
+  @Test
+  public void testCopyIsUnaffectedByLaterValues() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(100);
+    final LatencyHistogram copy = histogram.copy();
+    histogram.record(5000);
+
+    assertEquals(1, copy.getCount());
+    assertEquals(100, copy.getMaximum());
+    assertEquals(2, histogram.getCount());
+  }
+
+  @Test
+  public void testEmptyHistogram() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMaximum());
+    assertEquals(0, histogram.getPercentile(99));
+  }
+
+  @Test
+  public void testOutlierOnlyShowsInHighPercentiles() {
+    // Set up
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 999; i++) {
+      histogram.record(2000000); // 2 ms
+    }
+    histogram.record(4000000000L); // 4 s
+
+    // Check
+    final long p50 = histogram.getPercentile(50);
+    assertTrue("p50 was " + p50, p50 >= 2000000 && p50 < 2000000 * 1.07);
+    assertEquals(p50, histogram.getPercentile(99));
+    assertEquals(4000000000L, histogram.getPercentile(100));
+    assertEquals(4000000000L, histogram.getMaximum());
+  }
+}
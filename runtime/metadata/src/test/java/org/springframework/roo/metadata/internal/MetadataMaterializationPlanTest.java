@@ -0,0 +1,85 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.roo.metadata.MetadataIdentificationUtils;
+
+/**
+ * Unit test of {@link MetadataMaterializationPlan}
+ *
+ * @since 2.0
+ */
+public class MetadataMaterializationPlanTest {
+
+  private static final String CONTROLLER = MetadataIdentificationUtils.create("com.Controller",
+      "person");
+  private static final String ENTITY = MetadataIdentificationUtils.create("com.Entity", "person");
+  private static final String ENTITY_CLASS = MetadataIdentificationUtils.create("com.Entity");
+  private static final String OTHER_ENTITY = MetadataIdentificationUtils.create("com.Entity",
+      "order");
+  private static final String PHYSICAL = MetadataIdentificationUtils.create("com.Physical",
+      "person");
+  private static final String REPOSITORY = MetadataIdentificationUtils.create("com.Repository",
+      "person");
+
+  @Test
+  public void testIndependentItemsShareAWave() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+
+    final MetadataMaterializationPlan plan =
+        new MetadataMaterializationPlan(reg, Arrays.asList(ENTITY, OTHER_ENTITY, CONTROLLER));
+
+    assertEquals(1, plan.getWaves().size());
+    assertEquals(3, plan.size());
+  }
+
+  @Test
+  public void testUpstreamItemsComeFirst() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+    reg.registerDependency(PHYSICAL, ENTITY);
+    reg.registerDependency(ENTITY, REPOSITORY);
+    reg.registerDependency(REPOSITORY, CONTROLLER);
+    reg.registerDependency(ENTITY, CONTROLLER);
+
+    final List<List<String>> waves =
+        new MetadataMaterializationPlan(reg, Arrays.asList(CONTROLLER, REPOSITORY, ENTITY,
+            PHYSICAL)).getWaves();
+
+    assertEquals(Arrays.asList(Arrays.asList(PHYSICAL), Arrays.asList(ENTITY),
+        Arrays.asList(REPOSITORY), Arrays.asList(CONTROLLER)), waves);
+  }
+
+  @Test
+  public void testOrderingIsKeptThroughUnplannedItems() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+    reg.registerDependency(PHYSICAL, ENTITY);
+    reg.registerDependency(ENTITY, REPOSITORY);
+    reg.registerDependency(REPOSITORY, CONTROLLER);
+
+    final List<List<String>> waves =
+        new MetadataMaterializationPlan(reg, Arrays.asList(CONTROLLER, PHYSICAL)).getWaves();
+
+    assertEquals(Arrays.asList(Arrays.asList(PHYSICAL), Arrays.asList(CONTROLLER)), waves);
+  }
+
+  @Test
+  public void testClassLevelUpstreamCoversEveryPlannedInstance() {
+    final DefaultMetadataDependencyRegistry reg = new DefaultMetadataDependencyRegistry();
+    reg.registerDependency(ENTITY_CLASS, REPOSITORY);
+
+    final List<List<String>> waves =
+        new MetadataMaterializationPlan(reg, Arrays.asList(REPOSITORY, ENTITY, OTHER_ENTITY))
+            .getWaves();
+
+    assertEquals(2, waves.size());
+    assertEquals(new HashSet<String>(Arrays.asList(ENTITY, OTHER_ENTITY)), new HashSet<String>(
+        waves.get(0)));
+    assertEquals(Collections.singletonList(REPOSITORY), waves.get(1));
+  }
+}
@@ -0,0 +1,122 @@
+package org.springframework.roo.metadata.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link MetadataTraceWriter} and {@link MetadataTraceRenderer}
+ *
+ * @since 2.0
+ */
+public class MetadataTraceWriterTest {
+
+  private File traceFile;
+  private MetadataTraceWriter writer;
+
+  private String render() throws IOException {
+    final StringWriter text = new StringWriter();
+    new MetadataTraceRenderer().render(traceFile, text);
+    return text.toString();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    traceFile = File.createTempFile("metadata", ".trace");
+    // A small buffer, so that logging threads have to wait for the writer
+    writer = new MetadataTraceWriter(traceFile, 8);
+  }
+
+  @After
+  public void tearDown() {
+    writer.close();
+    traceFile.delete();
+  }
+
+  @Test
+  public void testRendersTheTextLayout() throws IOException {
+    writer.append(1, 1, "first");
+    writer.append(0x1234abcdL, 3, "second é");
+    writer.flush();
+
+    assertEquals("00000001 first\n1234abcd   second é\n", render());
+  }
+
+  @Test
+  public void testMessagesOfEachThreadStayInOrder() throws Exception {
+    final int threadCount = 4;
+    final int messageCount = 5000;
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < threadCount; t++) {
+      final int thread = t;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < messageCount; i++) {
+            writer.append(thread, 1, thread + ":" + i);
+          }
+        }
+      });
+    }
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    writer.flush();
+
+    final String[] lines = render().split("\n");
+    assertEquals(threadCount * messageCount, lines.length);
+    final int[] next = new int[threadCount];
+    for (final String line : lines) {
+      final String message = line.substring(9);
+      final int thread = Integer.parseInt(message.substring(0, message.indexOf(':')));
+      assertEquals(next[thread]++, Integer.parseInt(message.substring(message.indexOf(':') + 1)));
+      assertTrue(line.startsWith("0000000" + thread));
+    }
+  }
+
+  @Test
+  public void testLongMessagesAndRestart() throws IOException {
+    final String longMessage = new String(new char[100000]).replace('\0', 'x');
+    writer.append(2, 1, longMessage);
+    writer.close();
+    assertEquals("00000002 " + longMessage + "\n", render());
+
+    // Appending after closing starts a new trace
+    writer.append(3, 2, "again");
+    writer.flush();
+    assertEquals("00000003  again\n", render());
+  }
+
+  @Test(timeout = 10000)
+  public void testUnwritableTraceFileDisablesTracing() {
+    // The trace file's parent is a file, so it can't be created
+    final MetadataTraceWriter unwritable =
+        new MetadataTraceWriter(new File(traceFile, "metadata.trace"), 8);
+    try {
+      // More messages than the buffer holds, which must not wait forever
+      for (int i = 0; i < 100; i++) {
+        unwritable.append(1, 1, "message " + i);
+      }
+      unwritable.flush();
+
+      assertFalse(unwritable.isEnabled());
+      unwritable.append(1, 1, "discarded");
+      unwritable.flush();
+    } finally {
+      unwritable.close();
+    }
+  }
+}
@@ -38,6 +38,24 @@ public class StandardMetadataTimingStatisticTest {
     return new StandardMetadataTimingStatistic(NAME, nanoseconds, INVOCATIONS);
   }
 
+  @Test
+  public void testPercentilesFromLatencies() {
+    final LatencyHistogram latencies = new LatencyHistogram();
+    latencies.record(3);
+    latencies.record(7);
+    final StandardMetadataTimingStatistic statistic =
+        new StandardMetadataTimingStatistic(NAME, 10, 2, latencies);
+
+    assertEquals(3, statistic.getPercentile(50));
+    assertEquals(7, statistic.getMaximum());
+  }
+
+  @Test
+  public void testPercentilesUnknownWithoutLatencies() {
+    assertEquals(0, getTestInstance(NANOSECONDS_IN_MILLISECOND).getPercentile(50));
+    assertEquals(0, getTestInstance(NANOSECONDS_IN_MILLISECOND).getMaximum());
+  }
+
   @Test
   public void testToStringForLessThanOneMillisecond() {
     assertToString(NANOSECONDS_IN_MILLISECOND - 1, "999999 ns;     5 call(s): MyProcess");
@@ -74,6 +74,23 @@ public interface ProcessManager extends ProcessManagerStatusProvider {
    */
   <T> T execute(CommandCallback<T> callback);
 
+  /**
+   * Execute a background task within a "transaction", but only if the
+   * process manager is {@link ProcessManagerStatus#AVAILABLE} and no user
+   * command is waiting for it. Unlike {@link #execute(CommandCallback)},
+   * exceptions are logged rather than thrown.
+   * <p>
+   * A user command arriving meanwhile waits for the task to finish, so each
+   * task should be short; larger background work should be split into tasks
+   * that the caller submits one by one, retrying whenever this method
+   * declines.
+   * 
+   * @param callback the task to execute (required)
+   * @return whether the task was executed
+   * @since 2.0
+   */
+  boolean executeIfIdle(CommandCallback<?> callback);
+
   long getLastScanDuration();
 
   long getMinimumDelayBetweenScan();
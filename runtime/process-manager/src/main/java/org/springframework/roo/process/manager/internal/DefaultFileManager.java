@@ -38,9 +38,14 @@ import org.springframework.roo.process.manager.FileManager;
 import org.springframework.roo.process.manager.MutableFile;
 import org.springframework.roo.process.manager.ProcessManager;
 import org.springframework.roo.support.logging.HandlerUtils;
+import org.springframework.roo.support.util.CanonicalPathCache;
 
 /**
  * Default implementation of {@link FileManager}.
+ * <p>
+ * Deferred file writes are synchronized, so metadata computed by several
+ * threads can request them concurrently; they are still written to disk one
+ * at a time when the process manager commits.
  * 
  * @author Ben Alex
  * @since 1.0
@@ -73,12 +78,12 @@ public class DefaultFileManager implements FileManager, UndoListener {
     undoManager.addUndoListener(this);
   }
 
-  public void clear() {
+  public synchronized void clear() {
     deferredFileWrites.clear();
     deferredDescriptionOfChanges.clear();
   }
 
-  public void commit() {
+  public synchronized void commit() {
     final Map<String, String> toRemove = new LinkedHashMap<String, String>(deferredFileWrites);
     try {
       for (final Entry<String, String> entry : toRemove.entrySet()) {
@@ -116,10 +121,11 @@ public class DefaultFileManager implements FileManager, UndoListener {
     final File actual = new File(fileIdentifier);
     Validate.isTrue(!actual.exists(), "File '%s' already exists", fileIdentifier);
     try {
-      fileMonitorService.notifyCreated(actual.getCanonicalPath());
+      fileMonitorService.notifyCreated(CanonicalPathCache.getCanonicalPath(actual));
     } catch (final IOException ignored) {
     }
     new CreateDirectory(undoManager, filenameResolver, actual);
+    CanonicalPathCache.invalidate(actual.getAbsolutePath());
     return new FileDetails(actual, actual.lastModified());
   }
 
@@ -144,10 +150,10 @@ public class DefaultFileManager implements FileManager, UndoListener {
     final File actual = new File(fileIdentifier);
     Validate.isTrue(!actual.exists(), "File '%s' already exists", fileIdentifier);
     try {
-      fileMonitorService.notifyCreated(actual.getCanonicalPath());
+      fileMonitorService.notifyCreated(CanonicalPathCache.getCanonicalPath(actual));
       final File parentDirectory = new File(actual.getParent());
       if (!parentDirectory.exists()) {
-        createDirectory(parentDirectory.getCanonicalPath());
+        createDirectory(CanonicalPathCache.getCanonicalPath(parentDirectory));
       }
     } catch (final IOException ignored) {
     }
@@ -200,7 +206,7 @@ public class DefaultFileManager implements FileManager, UndoListener {
     }
   }
 
-  public void createOrUpdateTextFileIfRequired(final String fileIdentifier,
+  public synchronized void createOrUpdateTextFileIfRequired(final String fileIdentifier,
       final String newContents, final String descriptionOfChange, final boolean writeImmediately) {
     if (writeImmediately) {
       createOrUpdateTextFileIfRequired(fileIdentifier, newContents, descriptionOfChange);
@@ -250,11 +256,12 @@ public class DefaultFileManager implements FileManager, UndoListener {
     final File actual = new File(fileIdentifier);
     Validate.isTrue(actual.exists(), "File '%s' does not exist", fileIdentifier);
     try {
-      fileMonitorService.notifyDeleted(actual.getCanonicalPath());
+      fileMonitorService.notifyDeleted(CanonicalPathCache.getCanonicalPath(actual));
     } catch (final IOException ignored) {
     }
     if (actual.isDirectory()) {
       new DeleteDirectory(undoManager, filenameResolver, actual, reasonForDeletion);
+      CanonicalPathCache.invalidate(actual.getAbsolutePath());
     } else {
       new DeleteFile(undoManager, filenameResolver, actual, reasonForDeletion);
     }
@@ -273,7 +280,7 @@ public class DefaultFileManager implements FileManager, UndoListener {
     return fileMonitorService.findMatchingAntPath(antPath);
   }
 
-  public InputStream getInputStream(final String fileIdentifier) {
+  public synchronized InputStream getInputStream(final String fileIdentifier) {
     if (deferredFileWrites.containsKey(fileIdentifier)) {
       return new BufferedInputStream(new ByteArrayInputStream(deferredFileWrites
           .get(fileIdentifier).getBytes()));
@@ -1,5 +1,6 @@
 package org.springframework.roo.process.manager.internal;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,12 +20,15 @@ import org.osgi.service.startlevel.StartLevel;
 import org.springframework.roo.file.monitor.FileMonitorService;
 import org.springframework.roo.file.monitor.MonitoringRequest;
 import org.springframework.roo.file.monitor.NotifiableFileMonitorService;
+import org.springframework.roo.file.monitor.SignallingFileMonitorService;
 import org.springframework.roo.file.undo.UndoManager;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.process.manager.ActiveProcessManager;
 import org.springframework.roo.process.manager.CommandCallback;
 import org.springframework.roo.process.manager.ProcessManager;
 import org.springframework.roo.process.manager.event.AbstractProcessManagerStatusPublisher;
 import org.springframework.roo.process.manager.event.ProcessManagerStatus;
+import org.springframework.roo.support.logging.FlightRecorderEventType;
 import org.springframework.roo.support.logging.HandlerUtils;
 import org.springframework.roo.support.osgi.OSGiUtils;
 
@@ -40,23 +44,48 @@ import org.springframework.roo.support.osgi.OSGiUtils;
 public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher implements
     ProcessManager {
 
+  /**
+   * The property setting how long, in milliseconds, file system changes must
+   * stop for before a background scan picks them up
+   */
+  public static final String SCAN_DEBOUNCE_PROPERTY = "roo.scan.debounce";
+
+  /**
+   * The property setting how long, in milliseconds, the delay between
+   * background scans may grow to while the project is idle
+   */
+  public static final String SCAN_MAXIMUM_IDLE_DELAY_PROPERTY = "roo.scan.maximumIdleDelay";
+
+  private static final long DEFAULT_SCAN_DEBOUNCE = 100;
+  private static final long DEFAULT_SCAN_MAXIMUM_IDLE_DELAY = 8000;
   private static final Logger LOGGER = HandlerUtils.getLogger(DefaultProcessManager.class);
+  private static final FlightRecorderEventType TRANSACTION_EVENT = new FlightRecorderEventType(
+      "org.springframework.roo.process.Transaction", "Process Manager Transaction",
+      new String[] {"Spring Roo", "Process Manager"}, "command", String.class, "rescans",
+      int.class, "undone", boolean.class);
 
   // ------------ OSGi component attributes ----------------
   private BundleContext context;
 
   private boolean developmentMode = false;
   private FileMonitorService fileMonitorService;
+  private int lastScanChanges = 0;
   private long lastScanDuration = 0;
   private long lastScanTime = 0; // What time the last scan was completed
   private long minimumDelayBetweenScan = -1; // How many ms must pass at
+  private MetadataDependencyRegistry metadataDependencyRegistry;
+  private ScanScheduler scanScheduler;
   private StartLevel startLevel;
   private UndoManager undoManager;
+  // Commands waiting to execute, which background tasks give way to
+  private final AtomicInteger waitingCommands = new AtomicInteger();
   private String workingDir;
 
   public <T> T execute(final CommandCallback<T> callback) {
     Validate.notNull(callback, "Callback required");
+    waitingCommands.incrementAndGet();
     synchronized (processManagerStatus) {
+      waitingCommands.decrementAndGet();
       // For us to acquire this lock means no other thread has hold of
       // process manager status
       Validate.isTrue(getProcessManagerStatus() == ProcessManagerStatus.AVAILABLE
@@ -74,6 +103,31 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
     }
   }
 
+  public boolean executeIfIdle(final CommandCallback<?> callback) {
+    Validate.notNull(callback, "Callback required");
+    // Unsynchronized checks first, so as not to compete with a command for
+    // the lock
+    if (waitingCommands.get() > 0
+        || getProcessManagerStatus() != ProcessManagerStatus.AVAILABLE) {
+      return false;
+    }
+    synchronized (processManagerStatus) {
+      if (waitingCommands.get() > 0
+          || getProcessManagerStatus() != ProcessManagerStatus.AVAILABLE) {
+        return false;
+      }
+      setProcessManagerStatus(ProcessManagerStatus.BUSY_EXECUTING);
+      try {
+        doTransactionally(callback);
+      } catch (final Throwable t) {
+        logException(t);
+      } finally {
+        setProcessManagerStatus(ProcessManagerStatus.AVAILABLE);
+      }
+    }
+    return true;
+  }
+
   /**
    * @return how many milliseconds the last scan execution took to complete (0
    *         = never ran; >0 = last execution time)
@@ -90,6 +144,32 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
     return minimumDelayBetweenScan;
   }
 
+  /**
+   * @return how many milliseconds must pass between the end of a scan and
+   *         the start of the next background scan (0 = no minimum)
+   */
+  private long getEffectiveMinimumDelayBetweenScan() {
+    if (minimumDelayBetweenScan >= 0) {
+      return minimumDelayBetweenScan;
+    }
+    // A negative minimum delay between scan means auto-scaling is used,
+    // based on the moving average of the scan durations
+    return scanScheduler.getMinimumDelay();
+  }
+
+  private long getLongProperty(final String name, final long defaultValue) {
+    final String value = context.getProperty(name);
+    if (StringUtils.isBlank(value)) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (final NumberFormatException e) {
+      LOGGER.warning("Ignoring invalid " + name + " '" + value + "'");
+      return defaultValue;
+    }
+  }
+
   public boolean isDevelopmentMode() {
     return developmentMode;
   }
@@ -128,6 +208,9 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
         setProcessManagerStatus(ProcessManagerStatus.TERMINATED);
       }
     }
+    if (scanScheduler != null) {
+      scanScheduler.wakeUp();
+    }
   }
 
   public void timerBasedScan() {
@@ -138,25 +221,14 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
         return;
       }
 
-      long effectiveMinimumDelayBetweenScan = minimumDelayBetweenScan;
-      if (effectiveMinimumDelayBetweenScan < 0) {
-        // A negative minimum delay between scan means auto-scaling is
-        // used
-        if (lastScanDuration < 500) {
-          // We've never done a scan, or they are very fast
-          effectiveMinimumDelayBetweenScan = 0;
-        } else {
-          // Use the last duration (we might make this sliding scale
-          // in the future)
-          effectiveMinimumDelayBetweenScan = lastScanDuration;
-        }
-      }
       final long started = System.currentTimeMillis();
-      if (started < lastScanTime + effectiveMinimumDelayBetweenScan) {
+      if (started < lastScanTime + getEffectiveMinimumDelayBetweenScan()) {
         // Too soon to re-scan
         return;
       }
-      backgroundScan();
+      if (!backgroundScan()) {
+        return;
+      }
       // Record the completion time so we can ensure we don't re-scan too
       // soon
       lastScanTime = System.currentTimeMillis();
@@ -167,6 +239,7 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
         // Ensure it correctly reflects that it has ever run
         lastScanDuration = 1;
       }
+      scanScheduler.scanned(lastScanDuration, lastScanChanges > 0);
     } catch (final Throwable t) {
       LOGGER.log(Level.SEVERE, t.getMessage(), t);
     }
@@ -177,6 +250,9 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
     // ROO-3824: Checking -DdevelopmentMode parameter
     setDevelopmentMode(OSGiUtils.isDevelopmentMode(context));
     workingDir = OSGiUtils.getRooWorkingDirectory(context);
+    scanScheduler =
+        new ScanScheduler(getLongProperty(SCAN_DEBOUNCE_PROPERTY, DEFAULT_SCAN_DEBOUNCE),
+            getLongProperty(SCAN_MAXIMUM_IDLE_DELAY_PROPERTY, DEFAULT_SCAN_MAXIMUM_IDLE_DELAY));
     this.context.addFrameworkListener(new FrameworkListener() {
       public void frameworkEvent(final FrameworkEvent event) {
 
@@ -200,7 +276,8 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
       }
     });
 
-    // Now start a thread that will undertake a background scan every second
+    // Now start a thread that will undertake a background scan whenever the
+    // scan scheduler says one is due
     final Thread t = new Thread(new Runnable() {
       public void run() {
         // Unsynchronized lookup of terminated status to avoid anything
@@ -211,8 +288,13 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
           if (getProcessManagerStatus() == ProcessManagerStatus.AVAILABLE) {
             timerBasedScan();
           }
+          final long earliest =
+              lastScanTime + getEffectiveMinimumDelayBetweenScan() - System.currentTimeMillis();
+          // A fixed interval isn't shortened by change signals
+          final long latest =
+              minimumDelayBetweenScan > 0 ? earliest : scanScheduler.getIdleDelay();
           try {
-            Thread.sleep(1000);
+            scanScheduler.awaitNextScan(earliest, latest);
           } catch (final InterruptedException ignoreAndContinue) {
           }
         }
@@ -222,6 +304,11 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
   }
 
   protected void deactivate(final ComponentContext context) {
+    if (fileMonitorService instanceof SignallingFileMonitorService) {
+      ((SignallingFileMonitorService) fileMonitorService)
+          .removeChangeSignalListener(scanScheduler);
+      scanScheduler.setSignalling(false);
+    }
     // We have lost a required component (eg UndoManager; ROO-1037)
     terminate(); // Safe to call even if we'd terminated earlier
   }
@@ -280,6 +367,11 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
         setProcessManagerStatus(ProcessManagerStatus.AVAILABLE);
       }
     }
+    // Scan as soon as the file monitor learns of changes, if it can
+    if (fileMonitorService instanceof SignallingFileMonitorService) {
+      ((SignallingFileMonitorService) fileMonitorService).addChangeSignalListener(scanScheduler);
+      scanScheduler.setSignalling(true);
+    }
   }
 
   private <T> T doTransactionally(final CommandCallback<T> callback) {
@@ -296,16 +388,31 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
 
     Validate.notNull(undoManager, "UndoManager is required");
 
+    if (metadataDependencyRegistry == null) {
+      metadataDependencyRegistry = getMetadataDependencyRegistry();
+    }
+
+    Validate.notNull(metadataDependencyRegistry, "MetadataDependencyRegistry is required");
+
     T result = null;
+    final Object event = TRANSACTION_EVENT.begin();
+    int rescans = 0;
+    boolean undone = false;
+    // Metadata notifications raised by the operation and the scans are
+    // coalesced, so each downstream item is rebuilt once per scan
+    metadataDependencyRegistry.startNotificationBatch();
+    boolean batchStopped = false;
+    int changes = 0;
     try {
       ActiveProcessManager.setActiveProcessManager(this);
 
       // Run the requested operation
       if (callback == null) {
-        fileMonitorService.scanAll();
+        changes = fileMonitorService.scanAll();
       } else {
         result = callback.callback();
       }
+      metadataDependencyRegistry.flushNotifications();
 
       // Flush the undo manager so that any changes it has been holding
       // are written to disk and the file monitor service
@@ -313,15 +420,27 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
 
       // Guarantee scans repeat until there are no more changes detected
       while (fileMonitorService.isDirty()) {
+        rescans++;
         if (fileMonitorService instanceof NotifiableFileMonitorService) {
-          ((NotifiableFileMonitorService) fileMonitorService).scanNotified();
+          changes += ((NotifiableFileMonitorService) fileMonitorService).scanNotified();
         } else {
-          fileMonitorService.scanAll();
+          changes += fileMonitorService.scanAll();
         }
+        metadataDependencyRegistry.flushNotifications();
         // In case something else happened as a result of event
         // notifications above
         undoManager.flush();
       }
+      if (callback == null) {
+        lastScanChanges = changes;
+      }
+      if (changes > 0) {
+        // Whoever changed the project may well change it again soon
+        scanScheduler.changesFound();
+      }
+      // The batch ends even if dispatching its last notifications fails
+      batchStopped = true;
+      metadataDependencyRegistry.stopNotificationBatch();
 
       // It all seems to have worked, so clear the undo history
       setProcessManagerStatus(ProcessManagerStatus.RESETTING_UNDOS);
@@ -330,6 +449,7 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
 
     } catch (final RuntimeException e) {
       // Something went wrong, so attempt to undo
+      undone = true;
       try {
         setProcessManagerStatus(ProcessManagerStatus.UNDOING);
         throw e;
@@ -337,6 +457,14 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
         undoManager.undo();
       }
     } finally {
+      if (!batchStopped) {
+        // The operation failed, so its notifications are stale
+        metadataDependencyRegistry.discardNotificationBatch();
+      }
+      if (event != null) {
+        TRANSACTION_EVENT.commit(event, callback == null ? "scan" : callback.getClass().getName(),
+            rescans, undone);
+      }
       // TODO: Review in consultation with Christian as STS is clearing
       // active process manager itself
       // ActiveProcessManager.clearActiveProcessManager();
@@ -381,6 +509,24 @@ public class DefaultProcessManager extends AbstractProcessManagerStatusPublisher
     }
   }
 
+  public MetadataDependencyRegistry getMetadataDependencyRegistry() {
+    // Get all Services implement MetadataDependencyRegistry interface
+    try {
+      ServiceReference<?>[] references =
+          this.context.getAllServiceReferences(MetadataDependencyRegistry.class.getName(), null);
+
+      for (ServiceReference<?> ref : references) {
+        return (MetadataDependencyRegistry) this.context.getService(ref);
+      }
+
+      return null;
+
+    } catch (InvalidSyntaxException e) {
+      LOGGER.warning("Cannot load MetadataDependencyRegistry on DefaultProcessManager.");
+      return null;
+    }
+  }
+
   public StartLevel getStartLevel() {
     // Get all Services implement StartLevel interface
     try {
@@ -7,6 +7,8 @@ import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.component.ComponentContext;
+import org.springframework.roo.file.monitor.FileMonitorService;
+import org.springframework.roo.file.monitor.polling.PollingFileMonitorService;
 import org.springframework.roo.process.manager.ProcessManager;
 import org.springframework.roo.process.manager.event.ProcessManagerStatus;
 import org.springframework.roo.process.manager.event.ProcessManagerStatusListener;
@@ -66,7 +68,7 @@ public class ProcessManagerDiagnosticsListener extends AbstractFlashingObject im
   public void onProcessManagerStatusChange(final ProcessManagerStatus oldStatus,
       final ProcessManagerStatus newStatus) {
     if (isDebug) {
-      flash(Level.FINE, newStatus.name(), MY_SLOT);
+      flash(Level.FINE, newStatus.name() + getSuppressedEventsSummary(), MY_SLOT);
     }
   }
 
@@ -83,6 +85,24 @@ public class ProcessManagerDiagnosticsListener extends AbstractFlashingObject im
     isDebug = debug;
   }
 
+  public FileMonitorService getFileMonitorService() {
+    // Get all Services implement FileMonitorService interface
+    try {
+      ServiceReference<?>[] references =
+          this.context.getAllServiceReferences(FileMonitorService.class.getName(), null);
+
+      for (ServiceReference<?> ref : references) {
+        return (FileMonitorService) this.context.getService(ref);
+      }
+
+      return null;
+
+    } catch (InvalidSyntaxException e) {
+      LOGGER.warning("Cannot load FileMonitorService on ProcessManagerDiagnosticListener.");
+      return null;
+    }
+  }
+
   public ProcessManager getProcessManager() {
     // Get all components implement ProcessManager interface
     try {
@@ -101,6 +121,22 @@ public class ProcessManagerDiagnosticsListener extends AbstractFlashingObject im
     }
   }
 
+  /**
+   * Describes the file updates the file monitor dropped as their content was
+   * unchanged, if any
+   */
+  private String getSuppressedEventsSummary() {
+    final FileMonitorService fileMonitorService = getFileMonitorService();
+    if (fileMonitorService instanceof PollingFileMonitorService) {
+      final long suppressed =
+          ((PollingFileMonitorService) fileMonitorService).getSuppressedEventCount();
+      if (suppressed > 0) {
+        return " (" + suppressed + " unchanged file updates suppressed)";
+      }
+    }
+    return "";
+  }
+
   public Shell getShell() {
     // Get all Shell implement Shell interface
     try {
@@ -0,0 +1,211 @@
+package org.springframework.roo.process.manager.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.roo.file.monitor.ChangeSignalListener;
+
+/**
+ * Decides when {@link DefaultProcessManager}'s background thread next scans
+ * the file system.
+ * <p>
+ * While the project is idle, each scan that finds no changes doubles the
+ * delay before the next one, from {@link #BASE_DELAY} up to a maximum; any
+ * scan or command that finds changes resets it. This backoff only applies if
+ * the file monitor sends change signals, as otherwise a scan is the only way
+ * to notice a change. A change signal cuts the wait short: the scan
+ * starts once no further signal has arrived for the debounce window, so that
+ * a burst of changes (e.g. a checkout) is picked up by one scan, or at the
+ * latest {@link #BASE_DELAY} after the first signal of the burst.
+ * <p>
+ * The cost of a scan is tracked as an exponentially weighted moving average,
+ * so that a single slow or fast scan doesn't swing the scan frequency. Once
+ * scans become slow, the average is also the minimum delay between them.
+ *
+ * @since 2.0
+ */
+class ScanScheduler implements ChangeSignalListener {
+
+  /**
+   * The source of the time, which tests can replace
+   */
+  interface Clock {
+
+    /**
+     * @return the current value of the clock, in nanoseconds, as per
+     *         {@link System#nanoTime()}
+     */
+    long nanoTime();
+  }
+
+  /** The delay before the first scan after a change, in milliseconds */
+  static final long BASE_DELAY = 1000;
+
+  /** The weight of the latest scan in the average scan cost */
+  private static final double COST_WEIGHT = 0.25;
+
+  /**
+   * The average scan cost from which scans are spaced out by that cost, in
+   * milliseconds
+   */
+  static final long SLOW_SCAN_COST = 500;
+
+  /** The clock used outside of tests */
+  static final Clock SYSTEM_CLOCK = new Clock() {
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  };
+
+  private double averageScanCost;
+  private final Clock clock;
+  private final long debounceNanos;
+  private long firstSignal;
+  private long idleDelay = BASE_DELAY;
+  private long lastSignal;
+  private final long maximumIdleDelay;
+  private boolean signalled;
+  private boolean signalling;
+  private boolean woken;
+
+  /**
+   * Constructor
+   *
+   * @param debounceMillis how long the signals must stop for before a scan
+   * @param maximumIdleDelay how long the delay between scans may grow to
+   *            while the project is idle, in milliseconds
+   */
+  ScanScheduler(final long debounceMillis, final long maximumIdleDelay) {
+    this(debounceMillis, maximumIdleDelay, SYSTEM_CLOCK);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param debounceMillis how long the signals must stop for before a scan
+   * @param maximumIdleDelay how long the delay between scans may grow to
+   *            while the project is idle, in milliseconds
+   * @param clock the source of the time (required)
+   */
+  ScanScheduler(final long debounceMillis, final long maximumIdleDelay, final Clock clock) {
+    this.clock = clock;
+    debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+    this.maximumIdleDelay = Math.max(BASE_DELAY, maximumIdleDelay);
+  }
+
+  /**
+   * Waits until the next scan is due: until the given latest time, or until
+   * a burst of change signals has ended, but not before the given earliest
+   * time
+   *
+   * @param earliest the shortest to wait, in milliseconds
+   * @param latest the longest to wait, in milliseconds
+   * @throws InterruptedException if interrupted while waiting
+   */
+  synchronized void awaitNextScan(final long earliest, final long latest)
+      throws InterruptedException {
+    final long started = clock.nanoTime();
+    final long earliestNanos = started + TimeUnit.MILLISECONDS.toNanos(Math.max(0, earliest));
+    final long latestNanos = started + TimeUnit.MILLISECONDS.toNanos(Math.max(earliest, latest));
+    try {
+      while (!woken) {
+        final long now = clock.nanoTime();
+        long wakeAt = latestNanos;
+        if (signalled) {
+          final long burstEnd =
+              Math.min(lastSignal + debounceNanos,
+                  firstSignal + TimeUnit.MILLISECONDS.toNanos(BASE_DELAY));
+          wakeAt = Math.min(wakeAt, Math.max(earliestNanos, burstEnd));
+        }
+        if (wakeAt - now <= 0) {
+          return;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, wakeAt - now);
+      }
+    } finally {
+      // The scan about to start picks up whatever was signalled so far
+      signalled = false;
+      woken = false;
+    }
+  }
+
+  /**
+   * Records that a scan or command found changes, so the project is no
+   * longer idle
+   */
+  synchronized void changesFound() {
+    idleDelay = BASE_DELAY;
+  }
+
+  /**
+   * Returns the moving average of the scan durations
+   *
+   * @return a number of milliseconds (0 if never scanned)
+   */
+  synchronized long getAverageScanCost() {
+    return Math.round(averageScanCost);
+  }
+
+  /**
+   * Returns how long to wait at least between the end of a scan and the start
+   * of the next one, when that delay is scaled automatically: the average scan
+   * cost once scans are slow, so that slow scans don't keep the project busy
+   *
+   * @return a number of milliseconds (0 if scans are fast or never ran)
+   */
+  synchronized long getMinimumDelay() {
+    final long averageCost = getAverageScanCost();
+    return averageCost < SLOW_SCAN_COST ? 0 : averageCost;
+  }
+
+  /**
+   * Returns how long to wait before the next scan if nothing is signalled
+   *
+   * @return a number of milliseconds ({@link #BASE_DELAY} if the file
+   *         monitor sends no change signals)
+   */
+  synchronized long getIdleDelay() {
+    return signalling ? idleDelay : BASE_DELAY;
+  }
+
+  public synchronized void onChangeSignal() {
+    lastSignal = clock.nanoTime();
+    if (!signalled) {
+      signalled = true;
+      firstSignal = lastSignal;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Records a completed scan
+   *
+   * @param duration how long it took, in milliseconds
+   * @param changed whether it found any changes
+   */
+  synchronized void scanned(final long duration, final boolean changed) {
+    if (averageScanCost == 0) {
+      averageScanCost = duration;
+    } else {
+      averageScanCost += COST_WEIGHT * (duration - averageScanCost);
+    }
+    idleDelay = changed ? BASE_DELAY : Math.min(idleDelay * 2, maximumIdleDelay);
+  }
+
+  /**
+   * Indicates whether the file monitor sends change signals to this
+   * scheduler
+   *
+   * @param signalling see above
+   */
+  synchronized void setSignalling(final boolean signalling) {
+    this.signalling = signalling;
+  }
+
+  /**
+   * Ends the current or next wait for a scan immediately
+   */
+  synchronized void wakeUp() {
+    woken = true;
+    notifyAll();
+  }
+}
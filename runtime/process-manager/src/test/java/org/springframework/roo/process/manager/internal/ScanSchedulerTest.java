@@ -0,0 +1,176 @@
+package org.springframework.roo.process.manager.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.roo.process.manager.internal.ScanScheduler.BASE_DELAY;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link ScanScheduler}
+ *
+ * @since 2.0
+ */
+public class ScanSchedulerTest {
+
+  private static final long DEBOUNCE = 100;
+  private static final long MAXIMUM_IDLE_DELAY = 8000;
+
+  /**
+   * A clock that only moves when told to
+   */
+  private static class TestClock implements ScanScheduler.Clock {
+
+    private volatile long nanos;
+
+    void advance(final long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public long nanoTime() {
+      return nanos;
+    }
+  }
+
+  private TestClock clock;
+  private ScanScheduler scheduler;
+
+  /**
+   * Waits for the next scan on another thread
+   *
+   * @return a latch released once the scan is due
+   */
+  private CountDownLatch awaitNextScan(final long earliest, final long latest) {
+    final CountDownLatch due = new CountDownLatch(1);
+    final Thread waiter = new Thread(new Runnable() {
+      public void run() {
+        try {
+          scheduler.awaitNextScan(earliest, latest);
+          due.countDown();
+        } catch (final InterruptedException ignored) {
+        }
+      }
+    });
+    waiter.setDaemon(true);
+    waiter.start();
+    return due;
+  }
+
+  @Before
+  public void setUp() {
+    clock = new TestClock();
+    scheduler = new ScanScheduler(DEBOUNCE, MAXIMUM_IDLE_DELAY, clock);
+    scheduler.setSignalling(true);
+  }
+
+  @Test
+  public void testBurstOfSignalsIsCutShortAfterBaseDelay() throws Exception {
+    // Signals keep arriving within the debounce window
+    for (long elapsed = 0; elapsed < BASE_DELAY; elapsed += DEBOUNCE / 2) {
+      scheduler.onChangeSignal();
+      clock.advance(DEBOUNCE / 2);
+    }
+
+    assertTrue(awaitNextScan(0, MAXIMUM_IDLE_DELAY).await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testChangesShrinkIdleDelay() {
+    for (int i = 0; i < 5; i++) {
+      scheduler.scanned(10, false);
+    }
+    assertEquals(MAXIMUM_IDLE_DELAY, scheduler.getIdleDelay());
+
+    scheduler.scanned(10, true);
+    assertEquals(BASE_DELAY, scheduler.getIdleDelay());
+
+    scheduler.scanned(10, false);
+    scheduler.changesFound();
+    assertEquals(BASE_DELAY, scheduler.getIdleDelay());
+  }
+
+  @Test
+  public void testEmptyScansStretchIdleDelay() {
+    assertEquals(BASE_DELAY, scheduler.getIdleDelay());
+
+    scheduler.scanned(10, false);
+    assertEquals(2 * BASE_DELAY, scheduler.getIdleDelay());
+    scheduler.scanned(10, false);
+    assertEquals(4 * BASE_DELAY, scheduler.getIdleDelay());
+    scheduler.scanned(10, false);
+    assertEquals(MAXIMUM_IDLE_DELAY, scheduler.getIdleDelay());
+    scheduler.scanned(10, false);
+    assertEquals(MAXIMUM_IDLE_DELAY, scheduler.getIdleDelay());
+  }
+
+  @Test
+  public void testFastScansShrinkMinimumDelay() {
+    scheduler.scanned(2000, true);
+    assertEquals(2000, scheduler.getMinimumDelay());
+
+    // A single fast scan doesn't undo the average...
+    scheduler.scanned(10, true);
+    assertTrue(scheduler.getMinimumDelay() > 0);
+    assertTrue(scheduler.getMinimumDelay() < 2000);
+
+    // ...but a run of them does
+    for (int i = 0; i < 10; i++) {
+      scheduler.scanned(10, true);
+    }
+    assertEquals(0, scheduler.getMinimumDelay());
+  }
+
+  @Test
+  public void testIdleDelayIsNotStretchedWithoutSignals() {
+    scheduler.setSignalling(false);
+
+    scheduler.scanned(10, false);
+    scheduler.scanned(10, false);
+
+    assertEquals(BASE_DELAY, scheduler.getIdleDelay());
+  }
+
+  @Test
+  public void testScanWaitsForEndOfBurst() throws Exception {
+    scheduler.onChangeSignal();
+    clock.advance(DEBOUNCE / 2);
+    scheduler.onChangeSignal();
+    clock.advance(DEBOUNCE / 2);
+
+    // The last signal was only half a debounce window ago
+    final CountDownLatch due = awaitNextScan(0, MAXIMUM_IDLE_DELAY);
+    assertFalse(due.await(200, TimeUnit.MILLISECONDS));
+
+    clock.advance(DEBOUNCE / 2);
+    assertTrue(due.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSlowScansStretchMinimumDelay() {
+    assertEquals(0, scheduler.getMinimumDelay());
+
+    scheduler.scanned(100, true);
+    assertEquals(0, scheduler.getMinimumDelay());
+
+    for (int i = 0; i < 10; i++) {
+      scheduler.scanned(3000, true);
+    }
+    assertTrue(scheduler.getMinimumDelay() > ScanScheduler.SLOW_SCAN_COST);
+    assertEquals(scheduler.getAverageScanCost(), scheduler.getMinimumDelay());
+  }
+
+  @Test
+  public void testWakeUpEndsWait() throws Exception {
+    final CountDownLatch due = awaitNextScan(0, MAXIMUM_IDLE_DELAY);
+    assertFalse(due.await(100, TimeUnit.MILLISECONDS));
+
+    scheduler.wakeUp();
+
+    assertTrue(due.await(10, TimeUnit.SECONDS));
+  }
+}
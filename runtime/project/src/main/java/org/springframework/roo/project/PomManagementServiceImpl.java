@@ -28,6 +28,7 @@ import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.file.monitor.FileMonitorService;
 import org.springframework.roo.metadata.MetadataDependencyRegistry;
 import org.springframework.roo.metadata.MetadataService;
+import org.springframework.roo.metadata.MetadataWorkerLock;
 import org.springframework.roo.process.manager.FileManager;
 import org.springframework.roo.project.maven.Pom;
 import org.springframework.roo.project.maven.PomFactory;
@@ -112,11 +113,16 @@ public class PomManagementServiceImpl implements PomManagementService {
   }
 
   public Pom getFocusedModule() {
-    updatePomCache();
-    if (focusedModulePath == null && getRootPom() != null) {
-      focusedModulePath = getRootPom().getPath();
+    MetadataWorkerLock.lock();
+    try {
+      updatePomCache();
+      if (focusedModulePath == null && getRootPom() != null) {
+        focusedModulePath = getRootPom().getPath();
+      }
+      return getPomFromPath(focusedModulePath);
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    return getPomFromPath(focusedModulePath);
   }
 
   public String getFocusedModuleName() {
@@ -127,26 +133,31 @@ public class PomManagementServiceImpl implements PomManagementService {
   }
 
   public Pom getModuleForFileIdentifier(final String fileIdentifier) {
-    updatePomCache();
-    String startingPoint = FileUtils.getFirstDirectory(fileIdentifier);
-    String pomPath = FileUtils.ensureTrailingSeparator(startingPoint) + DEFAULT_POM_NAME;
-    File pom = new File(pomPath);
-    while (!pom.exists()) {
-      if (startingPoint.equals(SEPARATOR)) {
-        break;
-      }
-      startingPoint = StringUtils.removeEnd(startingPoint, SEPARATOR);
+    MetadataWorkerLock.lock();
+    try {
+      updatePomCache();
+      String startingPoint = FileUtils.getFirstDirectory(fileIdentifier);
+      String pomPath = FileUtils.ensureTrailingSeparator(startingPoint) + DEFAULT_POM_NAME;
+      File pom = new File(pomPath);
+      while (!pom.exists()) {
+        if (startingPoint.equals(SEPARATOR)) {
+          break;
+        }
+        startingPoint = StringUtils.removeEnd(startingPoint, SEPARATOR);
 
-      if (startingPoint.lastIndexOf(SEPARATOR) < 0) {
-        break;
-      }
-      startingPoint = startingPoint.substring(0, startingPoint.lastIndexOf(SEPARATOR));
-      startingPoint = StringUtils.removeEnd(startingPoint, SEPARATOR);
+        if (startingPoint.lastIndexOf(SEPARATOR) < 0) {
+          break;
+        }
+        startingPoint = startingPoint.substring(0, startingPoint.lastIndexOf(SEPARATOR));
+        startingPoint = StringUtils.removeEnd(startingPoint, SEPARATOR);
 
-      pomPath = FileUtils.ensureTrailingSeparator(startingPoint) + DEFAULT_POM_NAME;
-      pom = new File(pomPath);
+        pomPath = FileUtils.ensureTrailingSeparator(startingPoint) + DEFAULT_POM_NAME;
+        pom = new File(pomPath);
+      }
+      return getPomFromPath(pomPath);
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    return getPomFromPath(pomPath);
   }
 
   private String getModuleName(final String pomDirectory) {
@@ -158,11 +169,16 @@ public class PomManagementServiceImpl implements PomManagementService {
   }
 
   public Collection<String> getModuleNames() {
-    final Set<String> moduleNames = new HashSet<String>();
-    for (final Pom module : pomMap.values()) {
-      moduleNames.add(module.getModuleName());
+    MetadataWorkerLock.lock();
+    try {
+      final Set<String> moduleNames = new HashSet<String>();
+      for (final Pom module : pomMap.values()) {
+        moduleNames.add(module.getModuleName());
+      }
+      return moduleNames;
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    return moduleNames;
   }
 
   public Pom getPomFromModuleName(final String moduleName) {
@@ -175,18 +191,33 @@ public class PomManagementServiceImpl implements PomManagementService {
   }
 
   public Pom getPomFromPath(final String pomPath) {
-    updatePomCache();
-    return pomMap.get(pomPath);
+    MetadataWorkerLock.lock();
+    try {
+      updatePomCache();
+      return pomMap.get(pomPath);
+    } finally {
+      MetadataWorkerLock.unlock();
+    }
   }
 
   public Collection<Pom> getPoms() {
-    updatePomCache();
-    return new ArrayList<Pom>(pomMap.values());
+    MetadataWorkerLock.lock();
+    try {
+      updatePomCache();
+      return new ArrayList<Pom>(pomMap.values());
+    } finally {
+      MetadataWorkerLock.unlock();
+    }
   }
 
   public Pom getRootPom() {
-    updatePomCache();
-    return pomMap.get(projectRootDirectory + SEPARATOR + DEFAULT_POM_NAME);
+    MetadataWorkerLock.lock();
+    try {
+      updatePomCache();
+      return pomMap.get(projectRootDirectory + SEPARATOR + DEFAULT_POM_NAME);
+    } finally {
+      MetadataWorkerLock.unlock();
+    }
   }
 
   private Set<Pom> parseUnparsedPoms() {
@@ -302,12 +333,17 @@ public class PomManagementServiceImpl implements PomManagementService {
   }
 
   public void setFocusedModule(final Pom focusedModule) {
-    Validate.notNull(focusedModule, "Module required");
-    if (focusedModule.getPath().equals(focusedModulePath)) {
-      return;
+    MetadataWorkerLock.lock();
+    try {
+      Validate.notNull(focusedModule, "Module required");
+      if (focusedModule.getPath().equals(focusedModulePath)) {
+        return;
+      }
+      focusedModulePath = focusedModule.getPath();
+      getShell().setPromptPath(focusedModule.getModuleName());
+    } finally {
+      MetadataWorkerLock.unlock();
     }
-    focusedModulePath = focusedModule.getPath();
-    getShell().setPromptPath(focusedModule.getModuleName());
   }
 
   private void sortPomMap() {
@@ -0,0 +1,270 @@
+package org.springframework.roo.support.logging;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * A custom JDK Flight Recorder event type, so that a recording started with
+ * <code>jcmd &lt;pid&gt; JFR.start</code> shows what Roo spends its time on.
+ * <p>
+ * Roo still compiles for (and runs on) JDKs without Flight Recorder, so the
+ * <code>jdk.jfr</code> API is only used through reflection. On such JDKs, or
+ * while no recording is running, {@link #begin()} returns <code>null</code>
+ * after reading a single volatile field. Callers should therefore only
+ * compute the field values of an event that was begun:
+ *
+ * <pre>
+ * final Object event = EVENT_TYPE.begin();
+ * ... // the timed work
+ * if (event != null) {
+ *   EVENT_TYPE.commit(event, value1, value2);
+ * }
+ * </pre>
+ *
+ * @since 2.0
+ */
+public final class FlightRecorderEventType {
+
+  /**
+   * The reflectively loaded parts of the <code>jdk.jfr</code> API
+   */
+  private static class Api {
+    final Constructor<?> annotationElement;
+    final Class<?> categoryAnnotation;
+    final Method create;
+    final Method eventBegin;
+    final Method eventCommit;
+    final Method eventEnd;
+    final Method eventSet;
+    final Method eventShouldCommit;
+    final Class<?> labelAnnotation;
+    final Class<?> nameAnnotation;
+    final Method newEvent;
+    final Constructor<?> valueDescriptor;
+
+    Api() throws Exception {
+      annotationElement =
+          load("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+      categoryAnnotation = load("jdk.jfr.Category");
+      labelAnnotation = load("jdk.jfr.Label");
+      nameAnnotation = load("jdk.jfr.Name");
+      valueDescriptor = load("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+      final Class<?> eventFactory = load("jdk.jfr.EventFactory");
+      create = eventFactory.getMethod("create", List.class, List.class);
+      newEvent = eventFactory.getMethod("newEvent");
+      final Class<?> event = load("jdk.jfr.Event");
+      eventBegin = event.getMethod("begin");
+      eventCommit = event.getMethod("commit");
+      eventEnd = event.getMethod("end");
+      eventSet = event.getMethod("set", int.class, Object.class);
+      eventShouldCommit = event.getMethod("shouldCommit");
+    }
+  }
+
+  private static final Api API;
+  private static final Logger LOGGER = HandlerUtils.getLogger(FlightRecorderEventType.class);
+  private static final Set<Object> RUNNING_RECORDINGS = Collections
+      .newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+  private static volatile boolean recording;
+
+  static {
+    Api api;
+    try {
+      api = new Api();
+      trackRecordings();
+    } catch (final Throwable e) {
+      // No (usable) Flight Recorder on this JDK
+      api = null;
+    }
+    API = api;
+  }
+
+  /**
+   * Indicates whether events are currently being recorded
+   *
+   * @return <code>false</code> if no recording is running or this JDK has no
+   *         Flight Recorder
+   */
+  public static boolean isRecording() {
+    return recording && API != null;
+  }
+
+  private static Class<?> load(final String className) throws ClassNotFoundException {
+    // The JDK's packages aren't necessarily imported by the calling bundle
+    return Class.forName(className, true, ClassLoader.getSystemClassLoader());
+  }
+
+  private static void recordingStateChanged(final Object changed) throws Exception {
+    final Object state = changed.getClass().getMethod("getState").invoke(changed);
+    synchronized (RUNNING_RECORDINGS) {
+      if ("RUNNING".equals(String.valueOf(state))) {
+        RUNNING_RECORDINGS.add(changed);
+      } else {
+        RUNNING_RECORDINGS.remove(changed);
+      }
+      recording = !RUNNING_RECORDINGS.isEmpty();
+    }
+  }
+
+  /**
+   * Keeps {@link #recording} up to date by listening to the Flight Recorder,
+   * so that no JFR API is called while no recording is running
+   */
+  private static void trackRecordings() throws Exception {
+    final Class<?> flightRecorder = load("jdk.jfr.FlightRecorder");
+    final Class<?> listenerType = load("jdk.jfr.FlightRecorderListener");
+    final Object listener =
+        Proxy.newProxyInstance(listenerType.getClassLoader(), new Class<?>[] {listenerType},
+            new InvocationHandler() {
+              public Object invoke(final Object proxy, final Method method, final Object[] args)
+                  throws Throwable {
+                final String methodName = method.getName();
+                if ("recordingStateChanged".equals(methodName)) {
+                  recordingStateChanged(args[0]);
+                } else if ("equals".equals(methodName)) {
+                  return proxy == args[0];
+                } else if ("hashCode".equals(methodName)) {
+                  return System.identityHashCode(proxy);
+                } else if ("toString".equals(methodName)) {
+                  return FlightRecorderEventType.class.getName() + " listener";
+                }
+                return null;
+              }
+            });
+    flightRecorder.getMethod("addListener", listenerType).invoke(null, listener);
+    if ((Boolean) flightRecorder.getMethod("isInitialized").invoke(null)) {
+      final Object recorder = flightRecorder.getMethod("getFlightRecorder").invoke(null);
+      for (final Object existing : (List<?>) flightRecorder.getMethod("getRecordings").invoke(
+          recorder)) {
+        recordingStateChanged(existing);
+      }
+    }
+  }
+
+  private final String[] category;
+  private volatile boolean disabled;
+  private Object factory;
+  private final List<String> fieldNames = new ArrayList<String>();
+  private final List<Class<?>> fieldTypes = new ArrayList<Class<?>>();
+  private final String label;
+  private final String name;
+
+  /**
+   * Constructor; the event type is only registered with the Flight Recorder
+   * once an event of it is recorded.
+   *
+   * @param name the unique name of the event type (required; e.g.
+   *            "org.springframework.roo.MetadataGet")
+   * @param label the human-readable name of the event type (required)
+   * @param category the category path under which JFR tools list the event
+   *            type (required; e.g. {"Spring Roo", "Metadata"})
+   * @param fields the name and type of each field of the event, as
+   *            alternating arguments, in the order that their values are
+   *            passed to {@link #commit(Object, Object...)}; types can be
+   *            {@link String}, <code>boolean</code>, <code>int</code> and
+   *            <code>long</code>
+   */
+  public FlightRecorderEventType(final String name, final String label, final String[] category,
+      final Object... fields) {
+    Validate.notBlank(name, "Event name required");
+    Validate.notBlank(label, "Event label required");
+    Validate.notEmpty(category, "Event category required");
+    Validate.isTrue(fields.length % 2 == 0, "Fields must be given as name and type pairs");
+    this.category = category.clone();
+    this.label = label;
+    this.name = name;
+    for (int i = 0; i < fields.length; i += 2) {
+      fieldNames.add((String) fields[i]);
+      fieldTypes.add((Class<?>) fields[i + 1]);
+    }
+  }
+
+  /**
+   * Starts timing an event of this type.
+   *
+   * @return the event to pass to {@link #commit(Object, Object...)}, or
+   *         <code>null</code> if it won't be recorded
+   */
+  public Object begin() {
+    if (!recording || disabled) {
+      return null;
+    }
+    try {
+      final Object event = API.newEvent.invoke(getFactory());
+      API.eventBegin.invoke(event);
+      return event;
+    } catch (final Throwable e) {
+      disable(e);
+      return null;
+    }
+  }
+
+  /**
+   * Stops timing the given event and records it with the given field values,
+   * unless the recording settings exclude it (e.g. because of a duration
+   * threshold).
+   *
+   * @param event the event returned by {@link #begin()} (can be
+   *            <code>null</code>, in which case this method does nothing)
+   * @param values one value per field, in the order they were declared
+   */
+  public void commit(final Object event, final Object... values) {
+    if (event == null) {
+      return;
+    }
+    Validate.isTrue(values.length == fieldNames.size(), "Expected %d field values for '%s'",
+        fieldNames.size(), name);
+    try {
+      API.eventEnd.invoke(event);
+      if ((Boolean) API.eventShouldCommit.invoke(event)) {
+        for (int i = 0; i < values.length; i++) {
+          API.eventSet.invoke(event, i, values[i]);
+        }
+        API.eventCommit.invoke(event);
+      }
+    } catch (final Throwable e) {
+      disable(e);
+    }
+  }
+
+  private void disable(final Throwable cause) {
+    if (!disabled) {
+      disabled = true;
+      LOGGER.log(Level.FINE, "Could not record '" + name + "' events", cause);
+    }
+  }
+
+  private synchronized Object getFactory() throws Exception {
+    if (factory == null) {
+      final List<Object> annotations = new ArrayList<Object>();
+      annotations.add(API.annotationElement.newInstance(API.nameAnnotation, name));
+      annotations.add(API.annotationElement.newInstance(API.labelAnnotation, label));
+      annotations.add(API.annotationElement.newInstance(API.categoryAnnotation, category));
+      final List<Object> fields = new ArrayList<Object>();
+      for (int i = 0; i < fieldNames.size(); i++) {
+        fields.add(API.valueDescriptor.newInstance(fieldTypes.get(i), fieldNames.get(i)));
+      }
+      factory = API.create.invoke(null, annotations, fields);
+    }
+    return factory;
+  }
+
+  /**
+   * @return the name of this event type
+   */
+  public String getName() {
+    return name;
+  }
+}
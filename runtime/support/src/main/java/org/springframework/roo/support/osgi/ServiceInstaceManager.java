@@ -1,9 +1,9 @@
 package org.springframework.roo.support.osgi;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.osgi.framework.BundleContext;
@@ -34,7 +34,7 @@ public class ServiceInstaceManager {
   protected final static Logger LOGGER = HandlerUtils.getLogger(ServiceInstaceManager.class);
 
   @SuppressWarnings("rawtypes")
-  private Map<Class, Object> instances = new HashMap<Class, Object>(8);
+  private Map<Class, Object> instances = new ConcurrentHashMap<Class, Object>(8);
 
   private BundleContext context;
 
@@ -0,0 +1,169 @@
+package org.springframework.roo.support.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A bounded cache of canonical paths, shared by everything that resolves the
+ * canonical path of a project file, as each resolution costs a system call
+ * per path component.
+ * <p>
+ * A file's canonical path only changes when a directory or link on its path
+ * is created, deleted or renamed; whoever changes one, or learns that one
+ * changed, calls {@link #invalidate(Collection)}. The file monitor does so for
+ * every creation, deletion and rename it publishes.
+ * <p>
+ * The least recently used paths are evicted once the cache holds
+ * {@value #DEFAULT_SIZE} of them, or as many as the {@value #SIZE_PROPERTY}
+ * system property says.
+ *
+ * @since 2.0
+ */
+public final class CanonicalPathCache {
+
+  public static final int DEFAULT_SIZE = 50000;
+  public static final String SIZE_PROPERTY = "roo.canonical.path.cache.size";
+
+  /** key: absolute path; value: canonical path */
+  private static final Map<String, String> CACHE = new LinkedHashMap<String, String>(16, 0.75f,
+      true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(final Entry<String, String> eldest) {
+      return size() > MAX_SIZE;
+    }
+  };
+  private static long generation;
+  private static final AtomicLong HITS = new AtomicLong();
+  private static final int MAX_SIZE = Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE);
+  private static final AtomicLong MISSES = new AtomicLong();
+
+  /**
+   * Forgets all canonical paths
+   */
+  public static void clear() {
+    synchronized (CACHE) {
+      CACHE.clear();
+      generation++;
+    }
+  }
+
+  /**
+   * Returns the canonical path of the given file, as
+   * {@link File#getCanonicalPath()} would
+   *
+   * @param file the file to resolve (required)
+   * @return a non-blank path
+   * @throws IOException if it can't be resolved
+   */
+  public static String getCanonicalPath(final File file) throws IOException {
+    final String absolutePath = file.getAbsolutePath();
+    final long resolvedGeneration;
+    synchronized (CACHE) {
+      final String canonicalPath = CACHE.get(absolutePath);
+      if (canonicalPath != null) {
+        HITS.incrementAndGet();
+        return canonicalPath;
+      }
+      resolvedGeneration = generation;
+    }
+    MISSES.incrementAndGet();
+    final String canonicalPath = file.getCanonicalPath();
+    synchronized (CACHE) {
+      // Unless invalidated while resolving
+      if (generation == resolvedGeneration) {
+        CACHE.put(absolutePath, canonicalPath);
+      }
+    }
+    return canonicalPath;
+  }
+
+  /**
+   * Returns the number of canonical paths found in the cache
+   *
+   * @return see above
+   */
+  public static long getHits() {
+    return HITS.get();
+  }
+
+  /**
+   * Returns the number of canonical paths resolved from the file system
+   *
+   * @return see above
+   */
+  public static long getMisses() {
+    return MISSES.get();
+  }
+
+  /**
+   * Forgets the canonical paths of the given files and of everything under
+   * them
+   *
+   * @param paths the absolute or canonical paths of files or directories that
+   *            were created, deleted or renamed (required)
+   */
+  public static void invalidate(final Collection<String> paths) {
+    if (paths.isEmpty()) {
+      return;
+    }
+    final Set<String> roots = new HashSet<String>();
+    for (final String path : paths) {
+      roots.add(StringUtils.removeEnd(path, File.separator));
+    }
+    synchronized (CACHE) {
+      generation++;
+      for (final Iterator<Entry<String, String>> iter = CACHE.entrySet().iterator(); iter
+          .hasNext();) {
+        final Entry<String, String> entry = iter.next();
+        if (isWithin(roots, entry.getKey()) || isWithin(roots, entry.getValue())) {
+          iter.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Forgets the canonical paths of the given file and of everything under it
+   *
+   * @param path the absolute or canonical path of a file or directory that
+   *            was created, deleted or renamed (required)
+   */
+  public static void invalidate(final String path) {
+    invalidate(Collections.singleton(path));
+  }
+
+  /**
+   * Indicates whether the given path is one of the given roots or under one
+   */
+  private static boolean isWithin(final Set<String> roots, final String path) {
+    if (roots.contains(path)) {
+      return true;
+    }
+    for (int i = path.lastIndexOf(File.separatorChar); i > 0; i =
+        path.lastIndexOf(File.separatorChar, i - 1)) {
+      if (roots.contains(path.substring(0, i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Constructor is private to prevent instantiation
+   */
+  private CanonicalPathCache() {}
+}
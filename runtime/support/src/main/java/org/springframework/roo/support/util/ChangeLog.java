@@ -0,0 +1,220 @@
+package org.springframework.roo.support.util;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Tells each of several consumers what changed since it last asked.
+ * <p>
+ * Changes are appended once, with increasing sequence numbers, to a log
+ * shared by all consumers; each consumer only keeps its position in the log
+ * (its cursor), and folds the changes since then into its own change set when
+ * it asks. Records every cursor has passed are dropped. Should a consumer stop
+ * asking, the log is compacted once it holds more than a given number of
+ * records, by folding it into every consumer's change set, so that memory
+ * stays bounded by the number of distinct keys.
+ * <p>
+ * Folding follows set semantics: a change adds the key to the consumer's
+ * change set (keeping its position if already there) and a removal takes it
+ * out.
+ *
+ * @param <K> the type of key that changes, e.g. a canonical path
+ * @since 2.0
+ */
+public class ChangeLog<K> {
+
+  private static class Cursor<K> {
+
+    /** the changes folded in but not yet taken */
+    Set<K> changes;
+    /** the sequence number of the first record not folded in */
+    long position;
+
+    Cursor(final long position, final Collection<? extends K> initialChanges) {
+      this.changes = new LinkedHashSet<K>(initialChanges);
+      this.position = position;
+    }
+  }
+
+  private static class Record<K> {
+
+    final K key;
+    final boolean removed;
+    final long sequence;
+
+    Record(final long sequence, final K key, final boolean removed) {
+      this.key = key;
+      this.removed = removed;
+      this.sequence = sequence;
+    }
+  }
+
+  public static final int DEFAULT_MAXIMUM_RECORDS = 10000;
+
+  private final Map<String, Cursor<K>> cursors = new HashMap<String, Cursor<K>>();
+  private final Deque<Record<K>> log = new ArrayDeque<Record<K>>();
+  private final int maximumRecords;
+  private long nextSequence;
+
+  /**
+   * Constructor for a log of up to {@value #DEFAULT_MAXIMUM_RECORDS} records
+   */
+  public ChangeLog() {
+    this(DEFAULT_MAXIMUM_RECORDS);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param maximumRecords how many records the log may hold before being
+   *            folded into the consumers' change sets (at least 1)
+   */
+  public ChangeLog(final int maximumRecords) {
+    Validate.isTrue(maximumRecords > 0, "Maximum records must be positive");
+    this.maximumRecords = maximumRecords;
+  }
+
+  private void append(final K key, final boolean removed) {
+    Validate.notNull(key, "Key required");
+    final long sequence = nextSequence++;
+    if (cursors.isEmpty()) {
+      // Nobody to tell
+      return;
+    }
+    log.addLast(new Record<K>(sequence, key, removed));
+    if (log.size() > maximumRecords) {
+      for (final Cursor<K> cursor : cursors.values()) {
+        fold(cursor);
+      }
+      log.clear();
+    }
+  }
+
+  /**
+   * Records that the given key changed
+   *
+   * @param key the key (required)
+   */
+  public synchronized void changed(final K key) {
+    append(key, false);
+  }
+
+  /**
+   * Drops the records every cursor has passed
+   */
+  private void compact() {
+    long oldestPosition = nextSequence;
+    for (final Cursor<K> cursor : cursors.values()) {
+      oldestPosition = Math.min(oldestPosition, cursor.position);
+    }
+    while (!log.isEmpty() && log.peekFirst().sequence < oldestPosition) {
+      log.removeFirst();
+    }
+  }
+
+  /**
+   * Folds the records after the given cursor into its change set and moves
+   * it to the end of the log
+   */
+  private void fold(final Cursor<K> cursor) {
+    if (cursor.position == nextSequence) {
+      return;
+    }
+    for (final Record<K> record : log) {
+      if (record.sequence >= cursor.position) {
+        if (record.removed) {
+          cursor.changes.remove(record.key);
+        } else {
+          cursor.changes.add(record.key);
+        }
+      }
+    }
+    cursor.position = nextSequence;
+  }
+
+  private Cursor<K> getCursor(final String consumer) {
+    final Cursor<K> cursor = cursors.get(consumer);
+    Validate.notNull(cursor, "Consumer '%s' is not registered", consumer);
+    return cursor;
+  }
+
+  /**
+   * Returns the number of records currently held
+   *
+   * @return see above
+   */
+  public synchronized int getRecordCount() {
+    return log.size();
+  }
+
+  /**
+   * Indicates whether the given consumer has been registered
+   *
+   * @param consumer the consumer's name (required)
+   * @return see above
+   */
+  public synchronized boolean isRegistered(final String consumer) {
+    return cursors.containsKey(consumer);
+  }
+
+  /**
+   * Registers the given consumer, unless already registered
+   *
+   * @param consumer the consumer's name (required)
+   * @param initialChanges the changes to report to it before those recorded
+   *            from now on (required, may be empty)
+   */
+  public synchronized void register(final String consumer,
+      final Collection<? extends K> initialChanges) {
+    Validate.notNull(consumer, "Consumer required");
+    if (!cursors.containsKey(consumer)) {
+      cursors.put(consumer, new Cursor<K>(nextSequence, initialChanges));
+    }
+  }
+
+  /**
+   * Records that the given key was removed
+   *
+   * @param key the key (required)
+   */
+  public synchronized void removed(final K key) {
+    append(key, true);
+  }
+
+  /**
+   * Indicates whether the given key changed since the given consumer last
+   * took it, and if so takes it
+   *
+   * @param consumer the name of a registered consumer (required)
+   * @param key the key (required)
+   * @return see above
+   */
+  public synchronized boolean takeChange(final String consumer, final K key) {
+    final Cursor<K> cursor = getCursor(consumer);
+    fold(cursor);
+    compact();
+    return cursor.changes.remove(key);
+  }
+
+  /**
+   * Takes every change since the given consumer last took its changes
+   *
+   * @param consumer the name of a registered consumer (required)
+   * @return the changed keys, in order of their first change (never null)
+   */
+  public synchronized Set<K> takeChanges(final String consumer) {
+    final Cursor<K> cursor = getCursor(consumer);
+    fold(cursor);
+    compact();
+    final Set<K> changes = cursor.changes;
+    cursor.changes = new LinkedHashSet<K>();
+    return changes;
+  }
+}
@@ -112,7 +112,8 @@ public final class FileUtils {
   }
 
   /**
-   * Returns the canonical path of the given {@link File}.
+   * Returns the canonical path of the given {@link File}, as cached by
+   * {@link CanonicalPathCache}.
    * 
    * @param file the file for which to find the canonical path (can be
    *            <code>null</code>)
@@ -125,7 +126,7 @@ public final class FileUtils {
       return null;
     }
     try {
-      return file.getCanonicalPath();
+      return CanonicalPathCache.getCanonicalPath(file);
     } catch (final IOException ioe) {
       throw new IllegalStateException("Cannot determine canonical path for '" + file + "'", ioe);
     }
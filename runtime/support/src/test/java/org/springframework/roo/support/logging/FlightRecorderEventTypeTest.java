@@ -0,0 +1,100 @@
+package org.springframework.roo.support.logging;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link FlightRecorderEventType}. The <code>jdk.jfr</code> API
+ * is used through reflection, as in the class under test; the tests are
+ * skipped on JDKs without it.
+ *
+ * @since 2.0
+ */
+public class FlightRecorderEventTypeTest {
+
+  private static final FlightRecorderEventType EVENT_TYPE = new FlightRecorderEventType(
+      "org.springframework.roo.test.Sample", "Sample", new String[] {"Spring Roo", "Test"}, "id",
+      String.class, "hit", boolean.class, "count", int.class);
+
+  private Object recording;
+  private Class<?> recordingClass;
+
+  private List<String> dumpEventNames() throws Exception {
+    final File dump = File.createTempFile("roo", ".jfr");
+    try {
+      recordingClass.getMethod("stop").invoke(recording);
+      recordingClass.getMethod("dump", Class.forName("java.nio.file.Path")).invoke(recording,
+          dump.toPath());
+      final Method readAllEvents =
+          Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents",
+              Class.forName("java.nio.file.Path"));
+      final List<String> names = new ArrayList<String>();
+      for (final Object event : (List<?>) readAllEvents.invoke(null, dump.toPath())) {
+        final Object eventType = event.getClass().getMethod("getEventType").invoke(event);
+        names.add((String) eventType.getClass().getMethod("getName").invoke(eventType));
+      }
+      return names;
+    } finally {
+      dump.delete();
+    }
+  }
+
+  @Before
+  public void setUp() {
+    try {
+      recordingClass = Class.forName("jdk.jfr.Recording");
+      recording = recordingClass.newInstance();
+    } catch (final Exception e) {
+      assumeNoException(e);
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (recording != null) {
+      recordingClass.getMethod("close").invoke(recording);
+    }
+  }
+
+  @Test
+  public void testCommittedEventsAppearInRecording() throws Exception {
+    // Set up
+    recordingClass.getMethod("start").invoke(recording);
+    assertTrue(FlightRecorderEventType.isRecording());
+
+    // Invoke
+    final Object event = EVENT_TYPE.begin();
+    EVENT_TYPE.commit(event, "MID:test#1", true, 3);
+
+    // Check
+    final List<String> names = dumpEventNames();
+    assertTrue(names.toString(), names.contains(EVENT_TYPE.getName()));
+  }
+
+  @Test
+  public void testNoEventIsBegunWhileNotRecording() throws Exception {
+    assertFalse(FlightRecorderEventType.isRecording());
+    assertNull(EVENT_TYPE.begin());
+  }
+
+  @Test
+  public void testRecordingStateIsTracked() throws Exception {
+    recordingClass.getMethod("start").invoke(recording);
+    assertTrue(FlightRecorderEventType.isRecording());
+
+    recordingClass.getMethod("stop").invoke(recording);
+    assertFalse(FlightRecorderEventType.isRecording());
+    assertNull(EVENT_TYPE.begin());
+  }
+}
@@ -0,0 +1,89 @@
+package org.springframework.roo.support.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link CanonicalPathCache}
+ *
+ * @since 2.0
+ */
+public class CanonicalPathCacheTest {
+
+  private static void delete(final File file) {
+    final File[] children = Files.isSymbolicLink(file.toPath()) ? null : file.listFiles();
+    if (children != null) {
+      for (final File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  // Fixture
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    root = File.createTempFile("canonical", "").getCanonicalFile();
+    root.delete();
+    new File(root, "a/b").mkdirs();
+    new File(root, "c").mkdirs();
+    CanonicalPathCache.clear();
+  }
+
+  @After
+  public void tearDown() {
+    delete(root);
+  }
+
+  @Test
+  public void testInvalidatesEverythingUnderAChangedDirectory() throws IOException {
+    final File link = new File(root, "link");
+    try {
+      Files.createSymbolicLink(link.toPath(), new File(root, "a").toPath());
+    } catch (final UnsupportedOperationException e) {
+      Assume.assumeNoException(e);
+    } catch (final IOException e) {
+      Assume.assumeNoException(e);
+    }
+    final File file = new File(link, "b/Foo.java");
+    final File other = new File(root, "c/Bar.java");
+    assertEquals(new File(root, "a/b/Foo.java").getPath(),
+        CanonicalPathCache.getCanonicalPath(file));
+    CanonicalPathCache.getCanonicalPath(other);
+
+    // Repoint the link
+    link.delete();
+    Files.createSymbolicLink(link.toPath(), new File(root, "c").toPath());
+    CanonicalPathCache.invalidate(link.getPath());
+
+    final long misses = CanonicalPathCache.getMisses();
+    assertEquals(new File(root, "c/b/Foo.java").getPath(),
+        CanonicalPathCache.getCanonicalPath(file));
+    assertEquals(other.getPath(), CanonicalPathCache.getCanonicalPath(other));
+    assertEquals(misses + 1, CanonicalPathCache.getMisses());
+  }
+
+  @Test
+  public void testResolvesEachPathOnce() throws IOException {
+    final File file = new File(root, "a/../a/b/Foo.java");
+    final long hits = CanonicalPathCache.getHits();
+    final long misses = CanonicalPathCache.getMisses();
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(new File(root, "a/b/Foo.java").getPath(),
+          CanonicalPathCache.getCanonicalPath(file));
+    }
+    assertEquals(hits + 2, CanonicalPathCache.getHits());
+    assertEquals(misses + 1, CanonicalPathCache.getMisses());
+  }
+}
@@ -0,0 +1,89 @@
+package org.springframework.roo.support.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link ChangeLog}
+ *
+ * @since 2.0
+ */
+public class ChangeLogTest {
+
+  private static LinkedHashSet<String> setOf(final String... keys) {
+    return new LinkedHashSet<String>(Arrays.asList(keys));
+  }
+
+  // Fixture
+  private ChangeLog<String> changeLog;
+
+  @Before
+  public void setUp() {
+    changeLog = new ChangeLog<String>(4);
+  }
+
+  @Test
+  public void testCompactsOnceEveryCursorHasPassed() {
+    changeLog.changed("ignored");
+    assertEquals(0, changeLog.getRecordCount());
+
+    changeLog.register("first", Collections.<String>emptySet());
+    changeLog.register("second", Collections.<String>emptySet());
+    changeLog.changed("a");
+    changeLog.changed("b");
+    assertEquals(setOf("a", "b"), changeLog.takeChanges("first"));
+    assertEquals(2, changeLog.getRecordCount());
+
+    assertEquals(setOf("a", "b"), changeLog.takeChanges("second"));
+    assertEquals(0, changeLog.getRecordCount());
+  }
+
+  @Test
+  public void testFoldsTheLogWhenAConsumerFallsBehind() {
+    changeLog.register("active", Collections.<String>emptySet());
+    changeLog.register("idle", Collections.<String>emptySet());
+    for (int i = 0; i < 10; i++) {
+      changeLog.changed("key" + i % 3);
+      changeLog.takeChanges("active");
+      assertTrue(changeLog.getRecordCount() <= 4);
+    }
+    assertEquals(setOf("key0", "key1", "key2"), changeLog.takeChanges("idle"));
+  }
+
+  @Test
+  public void testReportsChangesSinceEachConsumerLastAsked() {
+    changeLog.register("consumer", setOf("initial"));
+    changeLog.changed("a");
+    changeLog.changed("b");
+    changeLog.removed("a");
+    changeLog.changed("b");
+    assertEquals(setOf("initial", "b"), changeLog.takeChanges("consumer"));
+    assertEquals(setOf(), changeLog.takeChanges("consumer"));
+
+    // A late consumer only sees its initial changes and later ones
+    changeLog.register("late", setOf("b"));
+    changeLog.changed("c");
+    assertEquals(setOf("c"), changeLog.takeChanges("consumer"));
+    assertEquals(setOf("b", "c"), changeLog.takeChanges("late"));
+  }
+
+  @Test
+  public void testTakesChangesOneKeyAtATime() {
+    changeLog.register("consumer", setOf("a", "b"));
+    assertTrue(changeLog.takeChange("consumer", "a"));
+    assertFalse(changeLog.takeChange("consumer", "a"));
+
+    changeLog.changed("a");
+    changeLog.removed("b");
+    assertTrue(changeLog.takeChange("consumer", "a"));
+    assertFalse(changeLog.takeChange("consumer", "b"));
+  }
+}